@@ -0,0 +1,52 @@
+package project.benchmark;
+
+// A single measured operation. Most benchmarks are cheap enough to be
+// called over and over for a time, warming the JIT up before they are
+// measured; setup() runs untimed before each of those iterations. Large
+// one-off builds are single shot instead: each invocation is timed on its
+// own, with setup() before every invocation so that each can start from
+// fresh state. run() returns its result so JMH can consume it and keep it
+// from being optimized away. Constructing a benchmark must be cheap:
+// anything expensive belongs in setup(), so that listing the benchmarks to
+// filter them costs nothing.
+public abstract class Benchmark {
+
+    private final String name;
+    private final boolean singleShot;
+
+    public Benchmark(final String name) {
+        this(name, false);
+    }
+
+    public Benchmark(final String name, final boolean singleShot) {
+        this.name = name;
+        this.singleShot = singleShot;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public boolean isSingleShot() {
+        return this.singleShot;
+    }
+
+    public void setup()
+        throws Exception
+    {
+    }
+
+    public abstract Object run()
+        throws Exception;
+
+    // the number of operations one invocation stands for, e.g. pair weights
+    public long getOperationCount() {
+        return 1;
+    }
+
+    // anything besides time worth reporting, e.g. prediction error, read
+    // once the measured iterations are done; null when there is nothing
+    public String getNotes() {
+        return null;
+    }
+}
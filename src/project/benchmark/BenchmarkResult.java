@@ -0,0 +1,118 @@
+package project.benchmark;
+
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+
+// The JMH result of one benchmark, per operation rather than per invocation.
+// Time is the mean time of an invocation, whether steady state or single
+// shot, with the half width of its 99.9% interval; allocation and
+// collections come from JMH's gc profiler.
+public class BenchmarkResult {
+
+    private static final String ALLOCATED_BYTES = "gc.alloc.rate.norm";
+    private static final String ALLOCATION_RATE = "gc.alloc.rate";
+    private static final String GC_COUNT = "gc.count";
+    private static final String GC_TIME = "gc.time";
+
+    private final String name;
+    private final long operationCount;
+    private final double invocationNanos;
+    private final double invocationErrorNanos;
+    private final double invocationAllocatedBytes;
+    private final double allocationRate;
+    private final long gcCount;
+    private final long gcMillis;
+    private final String notes;
+
+    public BenchmarkResult(final String name,
+                           final long operationCount,
+                           final RunResult run,
+                           final String notes) {
+        final Result<?> primary = run.getPrimaryResult();
+        this.name = name;
+        this.operationCount = operationCount;
+        this.invocationNanos = primary.getScore();
+        this.invocationErrorNanos = primary.getScoreError();
+        this.invocationAllocatedBytes = score(run, ALLOCATED_BYTES);
+        this.allocationRate = score(run, ALLOCATION_RATE);
+        this.gcCount = Math.round(score(run, GC_COUNT));
+        this.gcMillis = Math.round(score(run, GC_TIME));
+        this.notes = notes;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    // mean time of one operation, in nanoseconds
+    public double getMeanNanos() {
+        return this.invocationNanos / this.operationCount;
+    }
+
+    // NaN when there were too few measured iterations to tell
+    public double getErrorNanos() {
+        return this.invocationErrorNanos / this.operationCount;
+    }
+
+    // bytes allocated by one operation
+    public double getAllocatedBytes() {
+        return this.invocationAllocatedBytes / this.operationCount;
+    }
+
+    // allocation rate over the measured invocations, in MB per second
+    public double getAllocationRate() {
+        return this.allocationRate;
+    }
+
+    public long getGcCount() {
+        return this.gcCount;
+    }
+
+    public long getGcMillis() {
+        return this.gcMillis;
+    }
+
+    public String getNotes() {
+        return this.notes;
+    }
+
+    public static String header() {
+        return String.format("%-32s %14s %12s %16s %12s %8s %8s",
+                             "benchmark", "time/op", "+/-", "alloc B/op", "alloc MB/s", "gc", "gc ms");
+    }
+
+    @Override
+    public String toString() {
+        final String row = String.format("%-32s %14s %12s %16.1f %12.1f %8d %8d",
+                                         this.name,
+                                         formatNanos(this.getMeanNanos()),
+                                         formatNanos(this.getErrorNanos()),
+                                         this.getAllocatedBytes(),
+                                         this.getAllocationRate(),
+                                         this.gcCount,
+                                         this.gcMillis);
+        return this.notes == null ? row : String.format("%s   %s", row, this.notes);
+    }
+
+    private static String formatNanos(final double nanos) {
+        if (Double.isNaN(nanos)) {
+            return "-";
+        }
+        if (nanos >= 1.0e9) {
+            return String.format("%.3f s", nanos / 1.0e9);
+        }
+        if (nanos >= 1.0e6) {
+            return String.format("%.3f ms", nanos / 1.0e6);
+        }
+        if (nanos >= 1.0e3) {
+            return String.format("%.3f us", nanos / 1.0e3);
+        }
+        return String.format("%.1f ns", nanos);
+    }
+
+    // the profiler's score for a key, zero when the profiler saw nothing
+    private static double score(final RunResult run, final String key) {
+        final Result<?> result = run.getSecondaryResults().get(key);
+        return result == null ? 0.0 : result.getScore();
+    }
+}
@@ -0,0 +1,860 @@
+package project.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.EigenDecomposition;
+import org.apache.commons.math3.ml.clustering.CentroidCluster;
+import org.apache.commons.math3.ml.clustering.KMeansPlusPlusClusterer;
+
+import project.learner.collaborative.SpectralEmbeddingLearner;
+import project.learner.similarity.NeighbourGraphLearner;
+import project.learner.similarity.SimilarityMatrixLearner;
+import project.model.ClusteredFilter;
+import project.model.CollaborativeFilter;
+import project.model.ReducedUserProfile;
+import project.model.accuracy.ClusterQualityReport;
+import project.model.clustering.ArrayPointSource;
+import project.model.clustering.KMeansClusterer;
+import project.model.clustering.KMeansResult;
+import project.model.clustering.MiniBatchKMeansClusterer;
+import project.model.clustering.PointFile;
+import project.model.clustering.PointSource;
+import project.model.identifiers.MovieId;
+import project.model.identifiers.UserId;
+import project.model.linear.DenseMatrixOperator;
+import project.model.linear.LanczosEigenSolver;
+import project.model.linear.NormalizedAdjacencyOperator;
+import project.model.linear.PartialEigenDecomposition;
+import project.model.netflix.NetflixRatingsReader;
+import project.model.netflix.UserRating;
+import project.model.prediction.ClusterRestrictedPredictor;
+import project.model.prediction.UserNeighbourhoodPredictor;
+import project.model.ratings.IdIndex;
+import project.model.ratings.RatingBatch;
+import project.model.ratings.RatingSnapshot;
+import project.model.ratings.RatingStore;
+import project.model.similarity.NeighbourGraph;
+import project.model.similarity.SimilarityMatrix;
+import project.model.similarity.SimilarityMetrics;
+
+// The benchmarks for the recommender hot paths, over synthetic netflix-shaped
+// data. Ingestion, averaging and pair weights run over one data set; the
+// similarity matrix, the spectral clustering stages, prediction and the
+// silhouette run once per matrix size, sharing the expensive state of that
+// size. Predictions are scored against ratings held out of that state. The
+// benchmarks are run under JMH by SuiteBenchmark.
+public class RecommenderBenchmarks {
+
+    private static final long SEED = 0x5EEDL;
+
+    // the large one-off builds are timed one invocation at a time
+    private static final boolean SINGLE_SHOT = true;
+    private static final int PAIR_COUNT = 256;
+    private static final int PAIR_RATINGS_PER_USER = 1500;
+    private static final int[] PAIR_OVERLAPS = {10, 100, 1000};
+
+    private static final int PREDICTION_NEIGHBOURS = 50;
+    private static final int MIN_HASH_BANDS = 20;
+    private static final int MIN_HASH_ROWS = 2;
+    private static final int RECOMMENDATION_USERS = 1000;
+    private static final int RECOMMENDATION_COUNT = 10;
+    private static final int TEST_FRACTION = 10;
+    private static final int KMEANS_MAX_ITERATIONS = 100;
+    private static final int MINI_BATCH_SIZE = 1024;
+    private static final int SILHOUETTE_SAMPLE_SIZE = 500;
+    private static final int SILHOUETTE_MEMBERS_PER_CLUSTER = 100;
+
+    // a delta re-rates this many movies for one user in every stride
+    private static final int DELTA_USER_STRIDE = 100;
+    private static final int DELTA_RATINGS_PER_USER = 10;
+
+    // the dense eigen decomposition is cubic, so it is skipped above this size
+    private static final int MAX_DENSE_EIGEN_SIZE = 2000;
+
+    // every benchmark, the data benchmarks first, then the k-means and then
+    // the matrix benchmarks one size at a time. Building the lists is cheap:
+    // each group generates its data the first time one of its benchmarks is
+    // set up, so a filtered run only pays for the groups it measures
+    public static List<Benchmark> benchmarks(final int dataUserCount,
+                                             final int pointCount,
+                                             final int[] matrixSizes,
+                                             final int clusterCount) {
+        final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+        benchmarks.addAll(dataBenchmarks(dataUserCount));
+        benchmarks.addAll(clusteringBenchmarks(pointCount, clusterCount));
+        for (final int size : matrixSizes) {
+            benchmarks.addAll(matrixBenchmarks(size, clusterCount));
+        }
+        return benchmarks;
+    }
+
+    // the matrix sizes of a comma separated list
+    public static int[] parseSizes(final String sizes) {
+        final String[] values = sizes.split(",");
+        final int[] parsed = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            parsed[i] = Integer.parseInt(values[i].trim());
+        }
+        return parsed;
+    }
+
+    //
+    // Deals with k-means over blobs of reduced points
+    //
+
+    // pointCount points of dimension clusterCount around clusterCount gaussian
+    // centres, clustered by commons-math, by the flat clusterer and by
+    // mini-batches from the heap and from a mapped point file
+    public static List<Benchmark> clusteringBenchmarks(final int pointCount,
+                                                       final int clusterCount) {
+        final PointState state = new PointState(pointCount, clusterCount);
+        final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+        benchmarks.add(new Benchmark(String.format("kmeans/commons/%d", pointCount), SINGLE_SHOT) {
+            private List<CentroidCluster<ReducedUserProfile>> clusters;
+
+            @Override
+            public void setup() {
+                state.getProfiles();
+            }
+
+            @Override
+            public Object run() {
+                this.clusters = new KMeansPlusPlusClusterer<ReducedUserProfile>(clusterCount, KMEANS_MAX_ITERATIONS)
+                        .cluster(state.getProfiles());
+                return this.clusters;
+            }
+
+            @Override
+            public String getNotes() {
+                double cost = 0.0;
+                for (final CentroidCluster<ReducedUserProfile> cluster : this.clusters) {
+                    final double[] centre = cluster.getCenter().getPoint();
+                    for (final ReducedUserProfile profile : cluster.getPoints()) {
+                        for (int j = 0; j < clusterCount; j++) {
+                            cost += (profile.getPoint()[j] - centre[j]) * (profile.getPoint()[j] - centre[j]);
+                        }
+                    }
+                }
+                return String.format("cost %.1f", cost);
+            }
+        });
+        benchmarks.add(new Benchmark(String.format("kmeans/flat/%d", pointCount), SINGLE_SHOT) {
+            private KMeansResult result;
+
+            @Override
+            public void setup() {
+                state.getPoints();
+            }
+
+            @Override
+            public Object run() {
+                this.result = new KMeansClusterer(clusterCount, KMEANS_MAX_ITERATIONS, SEED)
+                        .cluster(state.getPoints(), clusterCount);
+                return this.result;
+            }
+
+            @Override
+            public String getNotes() {
+                return String.format("cost %.1f after %d iterations", this.result.getCost(), this.result.getIterations());
+            }
+        });
+        benchmarks.add(miniBatchBenchmark(String.format("kmeans/mini-batch/%d", pointCount), state, false));
+        benchmarks.add(miniBatchBenchmark(String.format("kmeans/mini-batch-mapped/%d", pointCount), state, true));
+        return benchmarks;
+    }
+
+    private static Benchmark miniBatchBenchmark(final String name,
+                                                final PointState state,
+                                                final boolean mapped) {
+        return new Benchmark(name, SINGLE_SHOT) {
+            private PointSource points;
+            private KMeansResult result;
+
+            @Override
+            public void setup()
+                throws IOException
+            {
+                if (this.points == null) {
+                    this.points = mapped ? state.openPointFile() : new ArrayPointSource(state.getPoints(), state.clusterCount);
+                }
+            }
+
+            @Override
+            public Object run() {
+                this.result = new MiniBatchKMeansClusterer(state.clusterCount, MINI_BATCH_SIZE, KMEANS_MAX_ITERATIONS * 10, SEED)
+                        .cluster(this.points);
+                return this.result;
+            }
+
+            @Override
+            public String getNotes() {
+                return String.format("cost %.1f after %d batches", this.result.getCost(), this.result.getIterations());
+            }
+        };
+    }
+
+    //
+    // Deals with ingestion, averages and pair weights
+    //
+
+    public static List<Benchmark> dataBenchmarks(final int userCount) {
+        final DataState state = new DataState(userCount);
+        final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+        benchmarks.add(new Benchmark("ingest/reader", SINGLE_SHOT) {
+            @Override
+            public void setup()
+                throws IOException
+            {
+                state.getTrainingFile();
+            }
+
+            @Override
+            public Object run()
+                throws Exception
+            {
+                final CollaborativeFilter filter = new CollaborativeFilter();
+                new NetflixRatingsReader(state.getTrainingFile(), NetflixRatingsReader.NO_USER_LIMIT).load(filter::addRatings);
+                filter.getRatingStore().compact();
+                return filter;
+            }
+        });
+        benchmarks.add(new Benchmark("ingest/snapshot", SINGLE_SHOT) {
+            @Override
+            public void setup()
+                throws IOException
+            {
+                state.getSnapshotFile();
+            }
+
+            @Override
+            public Object run()
+                throws Exception
+            {
+                final CollaborativeFilter filter = new CollaborativeFilter();
+                new RatingSnapshot(state.getSnapshotFile()).restore(filter);
+                return filter;
+            }
+        });
+        benchmarks.add(new Benchmark("add-rating/int") {
+            @Override
+            public void setup() {
+                state.getRatings();
+            }
+
+            @Override
+            public Object run() {
+                final RatingBatch ratings = state.getRatings();
+                final CollaborativeFilter filter = new CollaborativeFilter();
+                final int[] userIds = ratings.getUserIds();
+                final int[] movieIds = ratings.getMovieIds();
+                final byte[] encodedRatings = ratings.getRatings();
+                for (int i = 0; i < ratings.size(); i++) {
+                    filter.addRating(userIds[i], movieIds[i], RatingStore.decodeRating(encodedRatings[i]));
+                }
+                return filter;
+            }
+
+            @Override
+            public long getOperationCount() {
+                return state.getRatings().size();
+            }
+        });
+        benchmarks.add(new Benchmark("add-rating/objects") {
+            @Override
+            public void setup() {
+                state.getRatings();
+            }
+
+            @Override
+            public Object run() {
+                final RatingBatch ratings = state.getRatings();
+                final CollaborativeFilter filter = new CollaborativeFilter();
+                final int[] userIds = ratings.getUserIds();
+                final int[] movieIds = ratings.getMovieIds();
+                final byte[] encodedRatings = ratings.getRatings();
+                for (int i = 0; i < ratings.size(); i++) {
+                    filter.addRating(new UserRating(UserId.valueOf(userIds[i]),
+                                                    MovieId.valueOf(movieIds[i]),
+                                                    RatingStore.decodeRating(encodedRatings[i])));
+                }
+                return filter;
+            }
+
+            @Override
+            public long getOperationCount() {
+                return state.getRatings().size();
+            }
+        });
+        benchmarks.add(new Benchmark("averages") {
+            private CollaborativeFilter filter;
+
+            @Override
+            public void setup() {
+                this.filter = new CollaborativeFilter();
+                this.filter.addRatings(state.getRatings());
+                this.filter.getRatingStore().compact();
+            }
+
+            @Override
+            public Object run() {
+                this.filter.calculateUserAverages();
+                return this.filter;
+            }
+        });
+        benchmarks.add(new Benchmark("identifiers/lookup") {
+            @Override
+            public void setup() {
+                state.getRatings();
+            }
+
+            @Override
+            public Object run() {
+                final RatingBatch ratings = state.getRatings();
+                long sum = 0;
+                for (int i = 0; i < ratings.size(); i++) {
+                    sum += UserId.valueOf(ratings.getUserIds()[i]).hashCode();
+                    sum += MovieId.valueOf(ratings.getMovieIds()[i]).hashCode();
+                }
+                return sum;
+            }
+
+            @Override
+            public long getOperationCount() {
+                return state.getRatings().size();
+            }
+        });
+
+        for (final int overlap : PAIR_OVERLAPS) {
+            benchmarks.add(pairWeightBenchmark(String.format("pair-weight/overlap-%d", overlap),
+                                               SimilarityMetrics.PEARSON, overlap));
+        }
+        for (final String metric : SimilarityMetrics.NAMES) {
+            for (final int overlap : PAIR_OVERLAPS) {
+                benchmarks.add(pairWeightBenchmark(String.format("metric/%s/overlap-%d", metric, overlap),
+                                                   metric, overlap));
+            }
+        }
+        return benchmarks;
+    }
+
+    // the per-pair cost of a metric over pairs of users sharing overlap movies
+    private static Benchmark pairWeightBenchmark(final String name,
+                                                 final String metric,
+                                                 final int overlap) {
+        return new Benchmark(name) {
+            private CollaborativeFilter pairs;
+
+            @Override
+            public void setup() {
+                if (this.pairs != null) {
+                    return;
+                }
+                this.pairs = new CollaborativeFilter();
+                this.pairs.addRatings(SyntheticRatings.generatePairs(PAIR_COUNT, PAIR_RATINGS_PER_USER, overlap, SEED));
+                this.pairs.calculateUserAverages();
+                this.pairs.setSimilarityMetric(metric);
+                this.pairs.getSimilarityKernel();
+            }
+
+            @Override
+            public Object run() {
+                double sum = 0.0;
+                for (int pair = 0; pair < PAIR_COUNT; pair++) {
+                    sum += this.pairs.calculateUserPairWeightByIndex(2 * pair, 2 * pair + 1);
+                }
+                return sum;
+            }
+
+            @Override
+            public long getOperationCount() {
+                return PAIR_COUNT;
+            }
+        };
+    }
+
+    //
+    // Deals with the similarity matrix and the clustering stages
+    //
+
+    public static List<Benchmark> matrixBenchmarks(final int size, final int clusterCount) {
+        final SizedState state = new SizedState(size, clusterCount);
+        final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+        benchmarks.add(new Benchmark(String.format("similarity-matrix/%d", size), SINGLE_SHOT) {
+            @Override
+            public Object run() {
+                return new SimilarityMatrixLearner(state.getFilter(), size).learn();
+            }
+        });
+        benchmarks.add(new Benchmark(String.format("similarity-graph/exhaustive/%d", size), SINGLE_SHOT) {
+            @Override
+            public Object run() {
+                return new NeighbourGraphLearner(state.getFilter(), size, PREDICTION_NEIGHBOURS, 0.0).learn();
+            }
+        });
+        benchmarks.add(new Benchmark(String.format("similarity-graph/minhash/%d", size), SINGLE_SHOT) {
+            @Override
+            public Object run() {
+                return new NeighbourGraphLearner(state.getFilter(), size, PREDICTION_NEIGHBOURS, 0.0)
+                        .withMinHash(MIN_HASH_BANDS, MIN_HASH_ROWS)
+                        .learn();
+            }
+        });
+        benchmarks.add(updateBenchmark(String.format("update/full/%d", size), size, false));
+        benchmarks.add(updateBenchmark(String.format("update/incremental/%d", size), size, true));
+        benchmarks.add(new Benchmark(String.format("spectral/diagonal/%d", size), SINGLE_SHOT) {
+            @Override
+            public Object run() {
+                return SpectralEmbeddingLearner.buildDiagonalMatrix(state.getMatrix());
+            }
+        });
+        benchmarks.add(new Benchmark(String.format("spectral/l-matrix/%d", size), SINGLE_SHOT) {
+            @Override
+            public Object run() {
+                return SpectralEmbeddingLearner.buildLMatrix(state.getMatrix(), state.getDiagonal());
+            }
+        });
+        benchmarks.add(new Benchmark(String.format("spectral/lanczos/%d", size), SINGLE_SHOT) {
+            @Override
+            public Object run() {
+                return new LanczosEigenSolver(clusterCount).solve(new DenseMatrixOperator(state.getLMatrix()));
+            }
+        });
+        benchmarks.add(new Benchmark(String.format("spectral/lanczos-implicit/%d", size), SINGLE_SHOT) {
+            @Override
+            public Object run() {
+                return new LanczosEigenSolver(clusterCount).solve(
+                        new NormalizedAdjacencyOperator(state.getMatrix(), state.getDiagonal()));
+            }
+        });
+        if (size <= MAX_DENSE_EIGEN_SIZE) {
+            benchmarks.add(new Benchmark(String.format("spectral/dense-eigen/%d", size), SINGLE_SHOT) {
+                @Override
+                public Object run() {
+                    return new EigenDecomposition(new Array2DRowRealMatrix(state.getLMatrix(), false));
+                }
+            });
+        }
+        benchmarks.add(new Benchmark(String.format("spectral/k-means/%d", size), SINGLE_SHOT) {
+            @Override
+            public Object run() {
+                return new KMeansClusterer(clusterCount, KMEANS_MAX_ITERATIONS, SEED).cluster(state.getReducedPoints(), clusterCount);
+            }
+        });
+        benchmarks.add(new Benchmark(String.format("neighbours/all/%d", size), SINGLE_SHOT) {
+            @Override
+            public Object run() {
+                return state.buildPredictor();
+            }
+        });
+        benchmarks.add(new Benchmark(String.format("neighbours/cluster/%d", size), SINGLE_SHOT) {
+            @Override
+            public void setup() {
+                state.getClusteredFilter();
+            }
+
+            @Override
+            public Object run() {
+                return state.buildClusterPredictor();
+            }
+        });
+        benchmarks.add(predictionBenchmark(String.format("predict/all/%d", size), state, false));
+        benchmarks.add(predictionBenchmark(String.format("predict/cluster/%d", size), state, true));
+        benchmarks.add(new Benchmark(String.format("recommend/%d", size)) {
+            @Override
+            public void setup() {
+                state.getPredictor(false);
+            }
+
+            @Override
+            public Object run() {
+                int total = 0;
+                for (int user = 0; user < this.getOperationCount(); user++) {
+                    total += state.getPredictor(false).recommend(user, RECOMMENDATION_COUNT).size();
+                }
+                return total;
+            }
+
+            @Override
+            public long getOperationCount() {
+                return Math.min(size, RECOMMENDATION_USERS);
+            }
+        });
+        benchmarks.add(silhouetteBenchmark(String.format("silhouette/kernel/%d", size), state, false, false));
+        benchmarks.add(silhouetteBenchmark(String.format("silhouette/matrix/%d", size), state, true, false));
+        benchmarks.add(silhouetteBenchmark(String.format("silhouette/sampled/%d", size), state, false, true));
+        return benchmarks;
+    }
+
+    // the silhouette from the kernel, weighing each pair once, or from the
+    // similarity matrix, either exact or over a sample of users
+    private static Benchmark silhouetteBenchmark(final String name,
+                                                 final SizedState state,
+                                                 final boolean fromMatrix,
+                                                 final boolean sampled) {
+        return new Benchmark(name, SINGLE_SHOT) {
+            private ClusterQualityReport report;
+
+            @Override
+            public void setup() {
+                state.getClusteredFilter().setSimilarityMatrix(fromMatrix ? state.getMatrix() : null);
+            }
+
+            @Override
+            public Object run() {
+                this.report = sampled
+                        ? state.getClusteredFilter().silhouette(SILHOUETTE_SAMPLE_SIZE, SILHOUETTE_MEMBERS_PER_CLUSTER, SEED)
+                        : state.getClusteredFilter().silhouette();
+                return this.report;
+            }
+
+            @Override
+            public String getNotes() {
+                return String.format("silhouette %.4f +/- %.4f", this.report.getMeanSilhouette(), this.report.getConfidenceHalfWidth());
+            }
+        };
+    }
+
+    // applies a delta of changed ratings to a filter with its matrix built,
+    // either in place, refreshing only the dirty rows, or by averaging again
+    // and rebuilding the whole matrix; the delta alternates between two sets
+    // of values, so that every invocation changes the same ratings
+    private static Benchmark updateBenchmark(final String name,
+                                             final int size,
+                                             final boolean incremental) {
+        return new Benchmark(name, SINGLE_SHOT) {
+            private CollaborativeFilter filter;
+            private SimilarityMatrix matrix;
+            private RatingBatch[] deltas;
+            private int invocations = 0;
+            private int dirtyRows = 0;
+
+            @Override
+            public void setup() {
+                if (this.filter != null) {
+                    return;
+                }
+                this.filter = new CollaborativeFilter();
+                this.filter.addRatings(SyntheticRatings.generate(size,
+                                                                 SyntheticRatings.NETFLIX_MOVIE_COUNT,
+                                                                 SyntheticRatings.NETFLIX_RATINGS_PER_USER,
+                                                                 SEED));
+                this.filter.calculateUserAverages();
+                this.matrix = new SimilarityMatrixLearner(this.filter, size).learn();
+
+                final RatingStore store = this.filter.getRatingStore();
+                this.deltas = new RatingBatch[] {new RatingBatch(size), new RatingBatch(size)};
+                for (int userId = 0; userId < size; userId += DELTA_USER_STRIDE) {
+                    final int user = store.indexOfUser(userId);
+                    final int end = Math.min(store.rowEnd(user), store.rowStart(user) + DELTA_RATINGS_PER_USER);
+                    for (int position = store.rowStart(user); position < end; position++) {
+                        final int movieId = store.movieIdAt(store.movieAt(position));
+                        this.deltas[0].add(userId, movieId, RatingStore.encodeRating(1.0));
+                        this.deltas[1].add(userId, movieId, RatingStore.encodeRating(5.0));
+                    }
+                }
+            }
+
+            @Override
+            public Object run() {
+                final RatingBatch delta = this.deltas[this.invocations++ % 2];
+                if (incremental) {
+                    final BitSet dirty = this.filter.applyUpdates(delta);
+                    this.filter.clearDirtyUsers();
+                    this.dirtyRows = dirty.cardinality();
+                    return new SimilarityMatrixLearner(this.filter, this.matrix, dirty).learn();
+                }
+                this.filter.addRatings(delta);
+                this.filter.calculateUserAverages();
+                this.matrix = new SimilarityMatrixLearner(this.filter, size).learn();
+                this.dirtyRows = size;
+                return this.matrix;
+            }
+
+            @Override
+            public String getNotes() {
+                return String.format("%d of %d rows recomputed", this.dirtyRows, size);
+            }
+        };
+    }
+
+    // predicts the held-out ratings of the size, and reports their error
+    private static Benchmark predictionBenchmark(final String name,
+                                                 final SizedState state,
+                                                 final boolean clusterRestricted) {
+        return new Benchmark(name) {
+            private double[] predictions;
+
+            @Override
+            public void setup() {
+                state.getPredictor(clusterRestricted);
+            }
+
+            @Override
+            public Object run() {
+                this.predictions = state.getPredictor(clusterRestricted).predict(state.testUserIds, state.testMovieIds);
+                return this.predictions;
+            }
+
+            @Override
+            public long getOperationCount() {
+                return state.testUserIds.length;
+            }
+
+            @Override
+            public String getNotes() {
+                double squaredError = 0.0;
+                for (int i = 0; i < this.predictions.length; i++) {
+                    final double error = this.predictions[i] - state.testRatings[i];
+                    squaredError += error * error;
+                }
+                return String.format("rmse %.4f over %d held-out ratings",
+                                     Math.sqrt(squaredError / this.predictions.length), this.predictions.length);
+            }
+        };
+    }
+
+    // the ratings of the data benchmarks and the files written from them,
+    // generated on first use
+    private static class DataState {
+
+        private final int userCount;
+
+        private RatingBatch ratings;
+        private Path trainingFile;
+        private Path snapshotFile;
+
+        DataState(final int userCount) {
+            this.userCount = userCount;
+        }
+
+        RatingBatch getRatings() {
+            if (this.ratings == null) {
+                System.out.println(String.format("Generating ratings for %d users.", this.userCount));
+                this.ratings = SyntheticRatings.generate(this.userCount,
+                                                         SyntheticRatings.NETFLIX_MOVIE_COUNT,
+                                                         SyntheticRatings.NETFLIX_RATINGS_PER_USER,
+                                                         SEED);
+            }
+            return this.ratings;
+        }
+
+        Path getTrainingFile()
+            throws IOException
+        {
+            if (this.trainingFile == null) {
+                this.trainingFile = Files.createTempFile("ratings", ".txt");
+                this.trainingFile.toFile().deleteOnExit();
+                SyntheticRatings.writeNetflixFile(this.trainingFile, this.getRatings());
+            }
+            return this.trainingFile;
+        }
+
+        Path getSnapshotFile()
+            throws IOException
+        {
+            if (this.snapshotFile == null) {
+                final CollaborativeFilter averaged = new CollaborativeFilter();
+                averaged.addRatings(this.getRatings());
+                averaged.calculateUserAverages();
+                this.snapshotFile = Files.createTempFile("ratings", ".bin");
+                this.snapshotFile.toFile().deleteOnExit();
+                RatingSnapshot.write(this.snapshotFile, averaged, IdIndex.fromIds(IntStream.range(0, this.userCount).toArray()));
+            }
+            return this.snapshotFile;
+        }
+    }
+
+    // the blobs of the k-means benchmarks, generated on first use
+    private static class PointState {
+
+        private final int pointCount;
+        private final int clusterCount;
+
+        private double[] points;
+        private List<ReducedUserProfile> profiles;
+
+        PointState(final int pointCount, final int clusterCount) {
+            this.pointCount = pointCount;
+            this.clusterCount = clusterCount;
+        }
+
+        // the points, one row of clusterCount values each
+        double[] getPoints() {
+            if (this.points == null) {
+                final Random random = new Random(SEED);
+                final double[] centres = new double[this.clusterCount * this.clusterCount];
+                for (int i = 0; i < centres.length; i++) {
+                    centres[i] = 4.0 * random.nextGaussian();
+                }
+                this.points = new double[this.pointCount * this.clusterCount];
+                for (int point = 0; point < this.pointCount; point++) {
+                    final int centre = random.nextInt(this.clusterCount);
+                    for (int j = 0; j < this.clusterCount; j++) {
+                        this.points[point * this.clusterCount + j] = centres[centre * this.clusterCount + j] + random.nextGaussian();
+                    }
+                }
+            }
+            return this.points;
+        }
+
+        List<ReducedUserProfile> getProfiles() {
+            if (this.profiles == null) {
+                final double[] points = this.getPoints();
+                this.profiles = new ArrayList<ReducedUserProfile>();
+                for (int point = 0; point < this.pointCount; point++) {
+                    this.profiles.add(new ReducedUserProfile(UserId.valueOf(point),
+                                                             Arrays.copyOfRange(points,
+                                                                                point * this.clusterCount,
+                                                                                (point + 1) * this.clusterCount)));
+                }
+            }
+            return this.profiles;
+        }
+
+        PointSource openPointFile()
+            throws IOException
+        {
+            final Path pointFile = Files.createTempFile("points", ".bin");
+            pointFile.toFile().deleteOnExit();
+            PointFile.write(pointFile, new ArrayPointSource(this.getPoints(), this.clusterCount));
+            return PointFile.open(pointFile);
+        }
+    }
+
+    // the state of one matrix size, built on first use so that a filtered
+    // run only pays for the stages it measures
+    private static class SizedState {
+
+        private final int size;
+        private final int clusterCount;
+
+        private ClusteredFilter filter;
+        private SimilarityMatrix matrix;
+        private double[] diagonal;
+        private double[][] lMatrix;
+        private double[] reducedPoints;
+        private UserNeighbourhoodPredictor predictor;
+        private ClusterRestrictedPredictor clusterPredictor;
+        private boolean clustered = false;
+
+        // every tenth generated rating is held out of the filter for testing
+        private int[] testUserIds;
+        private int[] testMovieIds;
+        private double[] testRatings;
+
+        SizedState(final int size, final int clusterCount) {
+            this.size = size;
+            this.clusterCount = clusterCount;
+        }
+
+        ClusteredFilter getFilter() {
+            if (this.filter == null) {
+                final RatingBatch ratings = SyntheticRatings.generate(this.size,
+                                                                      SyntheticRatings.NETFLIX_MOVIE_COUNT,
+                                                                      SyntheticRatings.NETFLIX_RATINGS_PER_USER,
+                                                                      SEED);
+                final RatingBatch training = new RatingBatch(ratings.size());
+                final int testCount = ratings.size() / TEST_FRACTION;
+                this.testUserIds = new int[testCount];
+                this.testMovieIds = new int[testCount];
+                this.testRatings = new double[testCount];
+                for (int i = 0; i < ratings.size(); i++) {
+                    final int test = i / TEST_FRACTION;
+                    if (i % TEST_FRACTION == TEST_FRACTION - 1 && test < testCount) {
+                        this.testUserIds[test] = ratings.getUserIds()[i];
+                        this.testMovieIds[test] = ratings.getMovieIds()[i];
+                        this.testRatings[test] = RatingStore.decodeRating(ratings.getRatings()[i]);
+                    } else {
+                        training.add(ratings.getUserIds()[i], ratings.getMovieIds()[i], ratings.getRatings()[i]);
+                    }
+                }
+                this.filter = new ClusteredFilter();
+                this.filter.addRatings(training);
+                this.filter.calculateUserAverages();
+            }
+            return this.filter;
+        }
+
+        SimilarityMatrix getMatrix() {
+            if (this.matrix == null) {
+                this.matrix = new SimilarityMatrixLearner(this.getFilter(), this.size).learn();
+            }
+            return this.matrix;
+        }
+
+        double[] getDiagonal() {
+            if (this.diagonal == null) {
+                this.diagonal = SpectralEmbeddingLearner.buildDiagonalMatrix(this.getMatrix());
+            }
+            return this.diagonal;
+        }
+
+        double[][] getLMatrix() {
+            if (this.lMatrix == null) {
+                this.lMatrix = SpectralEmbeddingLearner.buildLMatrix(this.getMatrix(), this.getDiagonal());
+            }
+            return this.lMatrix;
+        }
+
+        // the reduced points of the users, one row of clusterCount values each
+        double[] getReducedPoints() {
+            if (this.reducedPoints == null) {
+                final DenseMatrixOperator operator = new DenseMatrixOperator(this.getLMatrix());
+                final PartialEigenDecomposition decomposition =
+                        new LanczosEigenSolver(this.clusterCount).solve(operator);
+                final double[][] zColumns = new double[this.clusterCount][this.size];
+                for (int i = 0; i < this.clusterCount; i++) {
+                    operator.multiply(decomposition.getEigenvector(i), zColumns[i]);
+                }
+                this.reducedPoints = new double[this.size * this.clusterCount];
+                for (int user = 0; user < this.size; user++) {
+                    for (int j = 0; j < this.clusterCount; j++) {
+                        this.reducedPoints[user * this.clusterCount + j] = zColumns[j][user];
+                    }
+                }
+            }
+            return this.reducedPoints;
+        }
+
+        UserNeighbourhoodPredictor buildPredictor() {
+            final NeighbourGraph graph =
+                    new NeighbourGraphLearner(this.getFilter(), this.size, PREDICTION_NEIGHBOURS, 0.0).learn();
+            return new UserNeighbourhoodPredictor(this.getFilter(), graph);
+        }
+
+        ClusterRestrictedPredictor buildClusterPredictor() {
+            return new ClusterRestrictedPredictor(this.getClusteredFilter(), PREDICTION_NEIGHBOURS, 1);
+        }
+
+        UserNeighbourhoodPredictor getPredictor(final boolean clusterRestricted) {
+            if (clusterRestricted) {
+                if (this.clusterPredictor == null) {
+                    this.clusterPredictor = this.buildClusterPredictor();
+                }
+                return this.clusterPredictor;
+            }
+            if (this.predictor == null) {
+                this.predictor = this.buildPredictor();
+            }
+            return this.predictor;
+        }
+
+        ClusteredFilter getClusteredFilter() {
+            if (!this.clustered) {
+                this.getFilter().setCentroids(new KMeansClusterer(this.clusterCount, KMEANS_MAX_ITERATIONS, SEED)
+                        .cluster(this.getReducedPoints(), this.clusterCount));
+                this.clustered = true;
+            }
+            return this.getFilter();
+        }
+    }
+}
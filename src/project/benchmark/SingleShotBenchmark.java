@@ -0,0 +1,32 @@
+package project.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Setup;
+
+// Times every invocation of a large one-off build on its own, after the
+// benchmark's untimed setup.
+@BenchmarkMode(Mode.SingleShotTime)
+public class SingleShotBenchmark extends SuiteBenchmark {
+
+    @Setup(Level.Invocation)
+    public void setup()
+        throws Exception
+    {
+        this.current.setup();
+    }
+
+    @Benchmark
+    public Object run()
+        throws Exception
+    {
+        return this.current.run();
+    }
+
+    @Override
+    protected boolean isSingleShot() {
+        return true;
+    }
+}
@@ -0,0 +1,34 @@
+package project.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Setup;
+
+// Calls a benchmark over and over for the length of each iteration and
+// reports the mean time of a call, so that the timed warmup iterations leave
+// it compiled before it is measured. The benchmark's setup runs untimed
+// before every iteration.
+@BenchmarkMode(Mode.AverageTime)
+public class SteadyStateBenchmark extends SuiteBenchmark {
+
+    @Setup(Level.Iteration)
+    public void setup()
+        throws Exception
+    {
+        this.current.setup();
+    }
+
+    @Benchmark
+    public Object run()
+        throws Exception
+    {
+        return this.current.run();
+    }
+
+    @Override
+    protected boolean isSingleShot() {
+        return false;
+    }
+}
@@ -0,0 +1,93 @@
+package project.benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+// Runs one of the RecommenderBenchmarks under JMH, chosen by name; its
+// result is handed back to JMH to consume. SteadyStateBenchmark measures the
+// benchmarks that are called over and over, SingleShotBenchmark the large
+// one-off builds. The benchmarks only generate their data when first set up,
+// so a forked trial only pays for the group of the benchmark it runs.
+//
+// The operation count and notes of a benchmark are only known once its data
+// exists, so at the end of the trial they are appended to the file named by
+// the REPORT_PROPERTY system property, one tab separated line per benchmark.
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public abstract class SuiteBenchmark {
+
+    public static final String REPORT_PROPERTY = "project.benchmark.report";
+
+    @Param({})
+    public String benchmark;
+
+    @Param({"10000"})
+    public int dataUserCount;
+
+    @Param({"100000"})
+    public int pointCount;
+
+    @Param({"1000,5000,10000"})
+    public String matrixSizes;
+
+    @Param({"10"})
+    public int clusterCount;
+
+    protected Benchmark current;
+
+    @Setup(Level.Trial)
+    public void findBenchmark() {
+        for (final Benchmark candidate : RecommenderBenchmarks.benchmarks(this.dataUserCount,
+                                                                         this.pointCount,
+                                                                         RecommenderBenchmarks.parseSizes(this.matrixSizes),
+                                                                         this.clusterCount)) {
+            if (candidate.getName().equals(this.benchmark)) {
+                if (candidate.isSingleShot() != this.isSingleShot()) {
+                    throw new IllegalArgumentException(String.format(
+                            "Benchmark %s does not run in %s.", this.benchmark, this.getClass().getSimpleName()));
+                }
+                this.current = candidate;
+                return;
+            }
+        }
+        throw new IllegalArgumentException(String.format("Unknown benchmark %s.", this.benchmark));
+    }
+
+    protected abstract boolean isSingleShot();
+
+    @TearDown(Level.Trial)
+    public void report()
+        throws IOException
+    {
+        final String notes = this.current.getNotes();
+        if (notes != null) {
+            System.out.println(String.format("%s: %s", this.benchmark, notes));
+        }
+        final String reportFile = System.getProperty(REPORT_PROPERTY);
+        if (reportFile == null) {
+            return;
+        }
+        final String line = String.format("%s\t%d\t%s",
+                                          this.benchmark,
+                                          this.current.getOperationCount(),
+                                          notes == null ? "" : notes);
+        Files.write(Paths.get(reportFile),
+                    Collections.singletonList(line),
+                    StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.APPEND);
+    }
+}
@@ -0,0 +1,152 @@
+package project.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import project.model.ratings.RatingBatch;
+import project.model.ratings.RatingStore;
+
+// Generates rating data shaped like the netflix training set, so the
+// benchmarks run offline and repeatably:
+//
+//   - movie popularity follows a zipf-like curve, a few movies get most votes
+//   - the number of ratings per user is log-normal around the given mean
+//   - ratings are whole stars from 1 to 5, around 3.6, with per-user and
+//     per-movie bias plus noise
+//
+// Users are numbered 0..userCount-1 and movies 1..movieCount, like the
+// netflix ids after user truncation.
+public class SyntheticRatings {
+
+    public static final int NETFLIX_MOVIE_COUNT = 17770;
+    public static final int NETFLIX_RATINGS_PER_USER = 200;
+
+    private static final double POPULARITY_EXPONENT = 0.9;
+    private static final double ACTIVITY_SPREAD = 0.8;
+    private static final double MEAN_RATING = 3.6;
+
+    public static RatingBatch generate(final int userCount,
+                                       final int movieCount,
+                                       final int meanRatingsPerUser,
+                                       final long seed) {
+        final Random random = new Random(seed);
+
+        // cumulative popularity over movie ranks, with ranks shuffled onto ids
+        final double[] cumulative = new double[movieCount];
+        double total = 0.0;
+        for (int rank = 0; rank < movieCount; rank++) {
+            total += 1.0 / Math.pow(rank + 1, POPULARITY_EXPONENT);
+            cumulative[rank] = total;
+        }
+        final int[] movieByRank = new int[movieCount];
+        for (int rank = 0; rank < movieCount; rank++) {
+            movieByRank[rank] = rank + 1;
+        }
+        for (int rank = movieCount - 1; rank > 0; rank--) {
+            final int other = random.nextInt(rank + 1);
+            final int swap = movieByRank[rank];
+            movieByRank[rank] = movieByRank[other];
+            movieByRank[other] = swap;
+        }
+        final double[] movieBias = new double[movieCount + 1];
+        for (int movie = 1; movie <= movieCount; movie++) {
+            movieBias[movie] = 0.5 * random.nextGaussian();
+        }
+
+        final RatingBatch batch = new RatingBatch(userCount * meanRatingsPerUser + 16);
+        final int[] ratedBy = new int[movieCount + 1];
+        final int maxRatings = Math.max(1, movieCount / 2);
+        for (int user = 0; user < userCount; user++) {
+            final double userBias = 0.4 * random.nextGaussian();
+            final double activity = Math.exp(ACTIVITY_SPREAD * random.nextGaussian()
+                                             - ACTIVITY_SPREAD * ACTIVITY_SPREAD / 2);
+            final int ratingCount = Math.min(maxRatings, Math.max(1, (int) Math.round(meanRatingsPerUser * activity)));
+
+            int rated = 0;
+            while (rated < ratingCount) {
+                final int movie = movieByRank[sampleRank(cumulative, random.nextDouble() * total)];
+                if (ratedBy[movie] == user + 1) {
+                    continue;
+                }
+                ratedBy[movie] = user + 1;
+                final long stars = Math.round(MEAN_RATING + userBias + movieBias[movie] + 0.9 * random.nextGaussian());
+                if (batch.isFull()) {
+                    batch.ensureCapacity(batch.size() + (batch.size() >> 1));
+                }
+                batch.add(user, movie, RatingStore.encodeRating(Math.max(1, Math.min(5, stars))));
+                rated++;
+            }
+        }
+        return batch;
+    }
+
+    // pairs of users (2p, 2p+1) with ratingsPerUser ratings each, sharing
+    // exactly overlap movies, for measuring the pair weight by overlap
+    public static RatingBatch generatePairs(final int pairCount,
+                                            final int ratingsPerUser,
+                                            final int overlap,
+                                            final long seed) {
+        if (overlap > ratingsPerUser || 2 * ratingsPerUser - overlap > NETFLIX_MOVIE_COUNT) {
+            throw new IllegalArgumentException(String.format(
+                    "Cannot share %d of %d ratings between two users.", overlap, ratingsPerUser));
+        }
+        final Random random = new Random(seed);
+        final RatingBatch batch = new RatingBatch(2 * pairCount * ratingsPerUser);
+        final int[] movies = new int[NETFLIX_MOVIE_COUNT];
+        for (int i = 0; i < movies.length; i++) {
+            movies[i] = i + 1;
+        }
+        for (int pair = 0; pair < pairCount; pair++) {
+            // a partial shuffle picks the distinct movies of this pair
+            final int needed = 2 * ratingsPerUser - overlap;
+            for (int i = 0; i < needed; i++) {
+                final int other = i + random.nextInt(movies.length - i);
+                final int swap = movies[i];
+                movies[i] = movies[other];
+                movies[other] = swap;
+            }
+            // the first user rates movies[0, r), the second movies[r - overlap, 2r - overlap)
+            for (int i = 0; i < ratingsPerUser; i++) {
+                batch.add(2 * pair, movies[i], (byte) (2 + 2 * random.nextInt(5)));
+                batch.add(2 * pair + 1, movies[ratingsPerUser - overlap + i], (byte) (2 + 2 * random.nextInt(5)));
+            }
+        }
+        return batch;
+    }
+
+    // writes the ratings as netflix training lines: movie, user, rating, date
+    public static void writeNetflixFile(final Path path, final RatingBatch batch)
+        throws IOException
+    {
+        try (final BufferedWriter writer = Files.newBufferedWriter(path)) {
+            final int[] userIds = batch.getUserIds();
+            final int[] movieIds = batch.getMovieIds();
+            final byte[] ratings = batch.getRatings();
+            for (int i = 0; i < batch.size(); i++) {
+                writer.write(Integer.toString(movieIds[i]));
+                writer.write(',');
+                writer.write(Integer.toString(userIds[i]));
+                writer.write(',');
+                writer.write(Integer.toString(ratings[i] / 2));
+                writer.write(",2005-09-06\n");
+            }
+        }
+    }
+
+    private static int sampleRank(final double[] cumulative, final double target) {
+        int low = 0;
+        int high = cumulative.length - 1;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (cumulative[middle] < target) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,126 @@
+package project.learner.accuracy;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.stream.IntStream;
+
+import project.learner.Learner;
+import project.model.accuracy.AccuracyMeasurement;
+import project.model.prediction.RatingPredictor;
+import project.model.ratings.IdIndex;
+import project.model.ratings.RatingBatch;
+import project.model.ratings.RatingSource;
+import project.model.ratings.RatingStore;
+
+// Scores a held-out rating source against a predictor. Each batch from the
+// source is split into chunks that are predicted in parallel, and each chunk
+// sums its errors locally before adding them to the measurement once, so
+// nothing is kept per rating and memory stays constant however large the
+// test set is. The batches arrive while the reader parses further ahead.
+public class PredictionAccuracyLearner implements Learner<AccuracyMeasurement> {
+
+    private static final int CHUNK_SIZE = 4096;
+
+    private final RatingSource testData;
+    private final RatingPredictor predictor;
+    private final RatingStore trainingRatings;
+    private final boolean userBreakdown;
+
+    private AccuracyMeasurement measurement;
+    private String state = "INIT";
+    private Boolean completionStatus = false;
+
+    public PredictionAccuracyLearner(final RatingSource testData,
+                                     final RatingPredictor predictor,
+                                     final RatingStore trainingRatings) {
+        this(testData, predictor, trainingRatings, false);
+    }
+
+    // with a user breakdown the errors are also summed per dense user index
+    // of the training ratings
+    public PredictionAccuracyLearner(final RatingSource testData,
+                                     final RatingPredictor predictor,
+                                     final RatingStore trainingRatings,
+                                     final boolean userBreakdown) {
+        this.testData = testData;
+        this.predictor = predictor;
+        this.trainingRatings = trainingRatings;
+        this.userBreakdown = userBreakdown;
+    }
+
+    @Override
+    public AccuracyMeasurement learn() {
+        this.measurement = new AccuracyMeasurement("held-out",
+                this.userBreakdown ? this.trainingRatings.getUserCount() : AccuracyMeasurement.NO_BREAKDOWN);
+
+        this.state = "SCORING";
+        try {
+            this.testData.load(this::score);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.measurement.calculateAccuracy();
+        System.out.println(String.format(
+                "Scored %d held-out ratings, mae %.4f, rmse %.4f.",
+                this.measurement.getLongSampleCount(),
+                this.measurement.getMeanAbsoluteError(),
+                this.measurement.getRootMeanSquaredError()));
+
+        this.state = "COMPLETE";
+        this.completionStatus = true;
+        return this.measurement;
+    }
+
+    private void score(final RatingBatch batch) {
+        final int[] userIds = batch.getUserIds();
+        final int[] movieIds = batch.getMovieIds();
+        final byte[] ratings = batch.getRatings();
+        final int size = batch.size();
+        final AccuracyMeasurement measurement = this.measurement;
+
+        IntStream.range(0, (size + CHUNK_SIZE - 1) / CHUNK_SIZE).parallel().forEach(chunk -> {
+            final int end = Math.min(size, (chunk + 1) * CHUNK_SIZE);
+            double absErrorSum = 0.0;
+            double squaredErrorSum = 0.0;
+            for (int i = chunk * CHUNK_SIZE; i < end; i++) {
+                final double error = this.predictor.predict(userIds[i], movieIds[i])
+                                     - RatingStore.decodeRating(ratings[i]);
+                if (this.userBreakdown) {
+                    final int user = this.trainingRatings.indexOfUser(userIds[i]);
+                    if (user != IdIndex.ABSENT) {
+                        measurement.addUserError(user, error);
+                    }
+                }
+                absErrorSum += Math.abs(error);
+                squaredErrorSum += error * error;
+            }
+            measurement.addErrors(absErrorSum, squaredErrorSum, end - chunk * CHUNK_SIZE);
+        });
+    }
+
+    @Override
+    public Boolean isComplete() {
+        return this.completionStatus;
+    }
+
+    @Override
+    public String getStatus() {
+        String retString = "";
+        switch (this.state) {
+        case "INIT":
+            retString = "Scoring not yet started";
+            break;
+        case "SCORING":
+            retString = String.format("Scoring held-out ratings, %d (%.2f%%) complete, mae %.4f, rmse %.4f",
+                                this.measurement.getLongSampleCount(),
+                                (100.0 * this.testData.getProgress()),
+                                this.measurement.getRunningMeanAbsoluteError(),
+                                this.measurement.getRunningRootMeanSquaredError());
+            break;
+        default:
+            retString = "Complete";
+        }
+
+        return retString;
+    }
+}
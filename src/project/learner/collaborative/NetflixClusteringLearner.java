@@ -1,129 +1,210 @@
 package project.learner.collaborative;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.List;
 
-import org.apache.commons.math3.linear.Array2DRowRealMatrix;
-import org.apache.commons.math3.linear.EigenDecomposition;
-import org.apache.commons.math3.linear.RealMatrix;
-import org.apache.commons.math3.linear.RealVector;
-import org.apache.commons.math3.ml.clustering.KMeansPlusPlusClusterer;
-
 import project.model.ClusteredFilter;
-import project.model.ReducedUserProfile;
+import project.model.GenreMap;
+import project.model.clustering.ArrayPointSource;
+import project.model.clustering.KMeansClusterer;
+import project.model.clustering.KMeansResult;
+import project.model.clustering.MiniBatchKMeansClusterer;
+import project.model.clustering.PointFile;
+import project.model.clustering.PointSource;
+import project.model.clustering.TruncatedPointSource;
 import project.model.identifiers.KValue;
-import project.model.identifiers.UserId;
 import project.model.netflix.UserRating;
+import project.model.ratings.ListRatingSource;
+import project.model.ratings.RatingSource;
+import project.model.similarity.NeighbourGraph;
+import project.model.similarity.SimilarityMatrix;
+import project.model.similarity.SymmetricMatrix;
 
 public class NetflixClusteringLearner extends NetflixCollaborativeLearner {
 
+    private static final int KMEANS_MAX_ITERATIONS = 100;
+    private static final long KMEANS_SEED = 0x5EEDL;
+    private static final int MINI_BATCH_MAX_ITERATIONS = 1000;
+
     private ClusteredFilter currentFilter;
-    private final double[][] adjacencyMatrix;
+    private final SymmetricMatrix adjacencyMatrix;
+    private final NeighbourGraph neighbourGraph;
+    private final PointSource embedding;
     private final KValue kValue;
+    private boolean denseEigenSolver = false;
+    private boolean inPlaceScaling = false;
+    private int miniBatchSize = 0;
+    private Path pointFile = null;
 
     public NetflixClusteringLearner(final List<UserRating> records,
                                     final double[][] adjacencyMatrix,
                                     final KValue kValue) {
-        super(records);
+        this(new ListRatingSource(records), new SimilarityMatrix(adjacencyMatrix), kValue);
+    }
+
+    public NetflixClusteringLearner(final RatingSource source,
+                                    final SymmetricMatrix adjacencyMatrix,
+                                    final KValue kValue) {
+        super(source);
         this.adjacencyMatrix = adjacencyMatrix;
+        this.neighbourGraph = null;
+        this.embedding = null;
+        this.kValue = kValue;
+    }
+
+    public NetflixClusteringLearner(final RatingSource source,
+                                    final NeighbourGraph neighbourGraph,
+                                    final KValue kValue) {
+        super(source);
+        this.adjacencyMatrix = null;
+        this.neighbourGraph = neighbourGraph;
+        this.embedding = null;
+        this.kValue = kValue;
+    }
+
+    // clusters the first k dimensions of a spectral embedding computed
+    // earlier, e.g. mapped from the point file CalculateEigenVectorsRunner
+    // writes, without decomposing anything
+    public NetflixClusteringLearner(final RatingSource source,
+                                    final PointSource embedding,
+                                    final KValue kValue) {
+        super(source);
+        this.adjacencyMatrix = null;
+        this.neighbourGraph = null;
+        this.embedding = embedding;
         this.kValue = kValue;
     }
 
     @Override
     public ClusteredFilter learn() {
-        this.state = "LOADING";
         this.currentFilter = new ClusteredFilter();
-        for (final UserRating record : this.records) {
-            this.currentFilter.addRating( record );
-            this.rowsProcessed++;
-        }
-        System.out.println("Calculating user average ratings.");
-
-        this.state = "AVERAGES";
-        this.currentFilter.calculateUserAverages();
-        System.out.println(String.format(
-                "User average ratings calculated successfully (%d of %d).",
-                this.currentFilter.getAveragesRowStatus(),
-                this.currentFilter.getAveragesRowCount()));
+        this.loadRatings(this.currentFilter);
 
         this.completionStatus = true;
 
         // perform spectral filtering
-        this.currentFilter = this.spectralCluster(this.adjacencyMatrix, this.kValue.getValue());
+        if (this.embedding != null) {
+            System.out.println(String.format("Clustering cached embedding of %d users in %d dimensions.",
+                                             this.embedding.size(), this.embedding.dimension()));
+            this.currentFilter = this.clusterPoints(this.embedding, this.kValue.getIntValue());
+        } else if (this.neighbourGraph != null) {
+            this.currentFilter = this.spectralCluster(this.neighbourGraph, this.kValue.getIntValue());
+            this.currentFilter.setNeighbourGraph(this.neighbourGraph);
+        } else {
+            this.currentFilter = this.spectralCluster(this.adjacencyMatrix, this.kValue.getIntValue());
+
+            // a matrix scaled in place no longer holds the pair weights
+            if (!this.inPlaceScaling || !(this.adjacencyMatrix instanceof SimilarityMatrix)) {
+                this.currentFilter.setSimilarityMatrix(this.adjacencyMatrix);
+            }
+        }
         return this.currentFilter;
     }
 
     public ClusteredFilter spectralCluster(final double[][] adjacencyMatrix,
                                            final int k) {
+        return this.spectralCluster(new SimilarityMatrix(adjacencyMatrix), k);
+    }
+
+    public ClusteredFilter spectralCluster(final SymmetricMatrix adjacencyMatrix,
+                                           final int k) {
+        return this.clusterPoints(new SpectralEmbeddingLearner(adjacencyMatrix, k)
+                .withDenseEigenSolver(this.denseEigenSolver)
+                .withInPlaceScaling(this.inPlaceScaling)
+                .learn(), k);
+    }
+
+    public ClusteredFilter spectralCluster(final NeighbourGraph graph,
+                                           final int k) {
+        return this.clusterPoints(new SpectralEmbeddingLearner(graph, k)
+                .withDenseEigenSolver(this.denseEigenSolver)
+                .learn(), k);
+    }
+
+    // clusters the first k dimensions of an embedding, one row per user
+    private ClusteredFilter clusterPoints(final PointSource embedding,
+                                          final int k) {
         final ClusteredFilter filter = this.currentFilter;
-        final int n = adjacencyMatrix.length;
-        System.out.println(String.format("A[%d][%d] = %.3f", n, n, adjacencyMatrix[n-1][n-1]));
-
-        System.out.println(String.format("Building diagonal matrix."));
-        final double[] diagonalMatrix = new double[n];
-        for (int i = 0; i < n; i++) {
-            for (int j = 0; j < n; j++) {
-                diagonalMatrix[i] += adjacencyMatrix[i][j];
-            }
-            diagonalMatrix[i] = 1.0 / Math.sqrt(diagonalMatrix[i]);
+        if (k > embedding.dimension()) {
+            throw new IllegalArgumentException(String.format(
+                    "Cannot cluster on %d dimensions of a %d dimensional embedding.", k, embedding.dimension()));
         }
-        System.out.println(String.format("Built diagonal matrix of dimensions %dx%d.", n, n));
-        System.out.println(String.format("D[%d][%d] = %.3f", n, n, diagonalMatrix[n-1]));
-
-        System.out.println(String.format("Building L matrix."));
-        final double[][] lMatrix = new double[n][n];
-        for (int i = 0; i < n; i++) {
-            for (int j = 0; j < i; j++) {
-                lMatrix[i][j] = diagonalMatrix[i] * adjacencyMatrix[i][j] * diagonalMatrix[j];
-                lMatrix[j][i] = lMatrix[i][j];
-            }
-        }
-        System.out.println(String.format("Built L matrix of dimensions %dx%d.", n, n));
-
-        System.out.println(String.format("Decomposing L matrix."));
-        final RealMatrix lRealMatrix = new Array2DRowRealMatrix(lMatrix);
-        System.out.println(String.format("L[%d][%d] = %.3f", n, n, lRealMatrix.getEntry(n-1, n-1)));
-        final EigenDecomposition decomposition = new EigenDecomposition(lRealMatrix);
-        System.out.println(String.format("Decomposed L matrix."));
-
-        // get the first k eigenvectors
-        System.out.println(String.format("Identifiying eigenvectors."));
-        double[][] eigenvectors = new double[n][k];
-        for (int i = 0; i < k; i++) {
-            final RealVector vector = decomposition.getEigenvector(i);
-            for (int j = 0; j < n; j++) {
-                eigenvectors[j][i] = vector.getEntry(j);
-            }
-        }
-        final RealMatrix eigenMatrix = new Array2DRowRealMatrix(eigenvectors);
-        System.out.println(String.format("Identified %d eigenvectors.", k));
-
-        // calculate the matrix Z
-        System.out.println(String.format("Reducing dimensions of L->Z."));
-        final RealMatrix zMatrix = lRealMatrix.multiply(eigenMatrix);
-        System.out.println(String.format("Reduced dimensions to %dx%d", n, k));
 
         System.out.println(String.format("Building user profiles."));
-        final List<ReducedUserProfile> userProfiles = new ArrayList<ReducedUserProfile>();
-        for (int i = 0; i < n; i++) {
-            double[] reducedPoints = new double[k];
-            for (int j = 0; j < k; j++) {
-                reducedPoints[j] = zMatrix.getEntry(i, j);
-            }
-            userProfiles.add(new ReducedUserProfile(UserId.valueOf(i), reducedPoints));
-        }
-        System.out.println(String.format("Built %d profiles.", n));
+        final PointSource reduced = k == embedding.dimension() ? embedding : new TruncatedPointSource(embedding, k);
+        final PointSource userProfiles = reduced instanceof ArrayPointSource
+                ? this.storeReducedPoints((ArrayPointSource) reduced)
+                : reduced;
+        System.out.println(String.format("Built %d profiles.", userProfiles.size()));
 
         // cluster the user profiles
         System.out.println(String.format("Clustering users."));
-        final KMeansPlusPlusClusterer clusterer =
-                new KMeansPlusPlusClusterer<ReducedUserProfile>(this.kValue.getValue(), 100);
-        filter.setCentroids(clusterer.cluster(userProfiles));
+        final KMeansResult clustering = this.miniBatchSize > 0
+                ? new MiniBatchKMeansClusterer(this.kValue.getIntValue(), this.miniBatchSize, MINI_BATCH_MAX_ITERATIONS, KMEANS_SEED)
+                        .cluster(userProfiles)
+                : new KMeansClusterer(this.kValue.getIntValue(), KMEANS_MAX_ITERATIONS, KMEANS_SEED)
+                        .cluster(userProfiles);
+        filter.setCentroids(clustering);
+        System.out.println(String.format("Clustered users in %d iterations%s.",
+                                         clustering.getIterations(), clustering.isConverged() ? "" : ", without converging"));
         System.out.println(String.format("Finished clustering users."));
 
         return filter;
     }
 
+    // writes the reduced points to the point file, if one is set, and
+    // clusters from its mapping rather than the heap
+    private PointSource storeReducedPoints(final ArrayPointSource reducedPoints) {
+        if (this.pointFile == null) {
+            return reducedPoints;
+        }
+        try {
+            PointFile.write(this.pointFile, reducedPoints);
+            System.out.println(String.format("Wrote reduced points to {%s}.", this.pointFile.getFileName().toString()));
+            return PointFile.open(this.pointFile);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public NetflixClusteringLearner withDenseEigenSolver(final boolean denseEigenSolver) {
+        this.denseEigenSolver = denseEigenSolver;
+        return this;
+    }
+
+    // scales a heap similarity matrix into L in place instead of keeping
+    // both; the silhouette then weighs pairs from the ratings
+    public NetflixClusteringLearner withInPlaceScaling(final boolean inPlaceScaling) {
+        this.inPlaceScaling = inPlaceScaling;
+        return this;
+    }
+
+    // clusters with mini-batch k-means over batches of this many users; 0
+    // keeps full-batch k-means
+    public NetflixClusteringLearner withMiniBatchSize(final int miniBatchSize) {
+        this.miniBatchSize = miniBatchSize;
+        return this;
+    }
+
+    public NetflixClusteringLearner withPointFile(final Path pointFile) {
+        this.pointFile = pointFile;
+        return this;
+    }
+
+    @Override
+    public NetflixClusteringLearner withSimilarityMetric(final String similarityMetric) {
+        super.withSimilarityMetric(similarityMetric);
+        return this;
+    }
+
+    @Override
+    public NetflixClusteringLearner withGenreBlend(final GenreMap genres, final double genreBlend) {
+        super.withGenreBlend(genres, genreBlend);
+        return this;
+    }
+
     @Override
     public String getStatus() {
         String retString = "";
@@ -132,10 +213,9 @@ public class NetflixClusteringLearner extends NetflixCollaborativeLearner {
             retString = "Learning not yet started";
             break;
         case "LOADING":
-            retString = String.format("Loading input data, %d of %d (%.2f%%) complete",
-                                this.rowsProcessed,
-                                this.totalRowCount,
-                                (100.0 * this.rowsProcessed / this.totalRowCount));
+            retString = String.format("Loading input data, %d ratings (%.2f%%) complete",
+                                this.source.getRatingsLoaded(),
+                                (100.0 * this.source.getProgress()));
             break;
         case "AVERAGES":
             retString = String.format("Calculating user average values, %d of %d (%.2f%%) complete",
@@ -1,44 +1,84 @@
 package project.learner.collaborative;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
 
 import project.model.CollaborativeFilter;
+import project.model.GenreMap;
 import project.model.netflix.UserRating;
+import project.model.ratings.ListRatingSource;
+import project.model.ratings.RatingSource;
+import project.model.similarity.SimilarityMetrics;
 
 public class NetflixCollaborativeLearner extends CollaborativeFilterLearner {
 
-    protected final int totalRowCount;
-    protected int rowsProcessed;
     protected CollaborativeFilter currentFilter;
     protected String state = "INIT";
 
-    protected final List<UserRating> records;
+    protected final RatingSource source;
+    protected String similarityMetric = SimilarityMetrics.PEARSON;
+    protected GenreMap genres = null;
+    protected double genreBlend = 0.0;
 
     public NetflixCollaborativeLearner(final List<UserRating> records) {
-        this.records = records;
-        this.totalRowCount = records.size();
-        this.rowsProcessed = 0;
+        this(new ListRatingSource(records));
+    }
+
+    public NetflixCollaborativeLearner(final RatingSource source) {
+        this.source = source;
     }
 
     @Override
     public CollaborativeFilter learn() {
-        this.state = "LOADING";
         this.currentFilter = new CollaborativeFilter();
-        for (final UserRating record : this.records) {
-            this.currentFilter.addRating( record );
-            this.rowsProcessed++;
+        this.loadRatings(this.currentFilter);
+        this.completionStatus = true;
+        return this.currentFilter;
+    }
+
+    // the metric the learned filter weighs user pairs with; one of
+    // SimilarityMetrics.NAMES
+    public NetflixCollaborativeLearner withSimilarityMetric(final String similarityMetric) {
+        this.similarityMetric = SimilarityMetrics.checkName(similarityMetric);
+        return this;
+    }
+
+    // blends the metric's weights with the users' genre preferences; see
+    // CollaborativeFilter.setGenreBlend
+    public NetflixCollaborativeLearner withGenreBlend(final GenreMap genres, final double genreBlend) {
+        this.genres = genres;
+        this.genreBlend = genreBlend;
+        return this;
+    }
+
+    // loads the ratings into the filter and averages them, unless the source
+    // can restore both at once (e.g. a rating snapshot)
+    protected void loadRatings(final CollaborativeFilter filter) {
+        this.state = "LOADING";
+        filter.setSimilarityMetric(this.similarityMetric);
+        filter.setGenreBlend(this.genres, this.genreBlend);
+        try {
+            if (this.source.restore(filter)) {
+                System.out.println(String.format(
+                        "Restored %d ratings and %d user averages.",
+                        this.source.getRatingsLoaded(),
+                        filter.getAveragesRowCount()));
+                return;
+            }
+            this.source.load(filter::addRatings);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
         }
+        System.out.println(String.format("Loaded %d ratings.", this.source.getRatingsLoaded()));
         System.out.println("Calculating user average ratings.");
 
         this.state = "AVERAGES";
-        this.currentFilter.calculateUserAverages();
+        filter.calculateUserAverages();
         System.out.println(String.format(
                 "User average ratings calculated successfully (%d of %d).",
-                this.currentFilter.getAveragesRowStatus(),
-                this.currentFilter.getAveragesRowCount()));
-
-        this.completionStatus = true;
-        return this.currentFilter;
+                filter.getAveragesRowStatus(),
+                filter.getAveragesRowCount()));
     }
 
     @Override
@@ -49,10 +89,9 @@ public class NetflixCollaborativeLearner extends CollaborativeFilterLearner {
             retString = "Learning not yet started";
             break;
         case "LOADING":
-            retString = String.format("Loading input data, %d of %d (%.2f%%) complete",
-                                this.rowsProcessed,
-                                this.totalRowCount,
-                                (100.0 * this.rowsProcessed / this.totalRowCount));
+            retString = String.format("Loading input data, %d ratings (%.2f%%) complete",
+                                this.source.getRatingsLoaded(),
+                                (100.0 * this.source.getProgress()));
             break;
         case "AVERAGES":
             retString = String.format("Calculating user average values, %d of %d (%.2f%%) complete",
@@ -0,0 +1,302 @@
+package project.learner.collaborative;
+
+import java.util.stream.IntStream;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.EigenDecomposition;
+import org.apache.commons.math3.linear.RealMatrix;
+
+import project.learner.Learner;
+import project.model.clustering.ArrayPointSource;
+import project.model.linear.DenseMatrixOperator;
+import project.model.linear.GraphOperator;
+import project.model.linear.LanczosEigenSolver;
+import project.model.linear.LinearOperator;
+import project.model.linear.NormalizedAdjacencyOperator;
+import project.model.linear.PartialEigenDecomposition;
+import project.model.similarity.NeighbourGraph;
+import project.model.similarity.SimilarityMatrix;
+import project.model.similarity.SymmetricMatrix;
+
+// The spectral embedding of a similarity matrix or neighbour graph: the
+// leading eigenvectors E of L = D^-1/2 A D^-1/2, projected as Z = L E, one
+// row of Z per matrix position. The eigenvectors are ordered largest
+// eigenvalue first, so the first k' columns of an embedding of dimension k
+// are the embedding of dimension k', and one embedding serves any k' <= k.
+//
+// The degrees D (the row sums of A) are computed from A unless given, e.g.
+// when they were saved alongside the matrix. Lanczos multiplies by L
+// without laying it out, so A is the only n x n matrix held; callers done
+// with a heap A may let it be scaled into L in place instead. Only the
+// dense eigen solver needs L in full.
+public class SpectralEmbeddingLearner implements Learner<ArrayPointSource> {
+
+    private final SymmetricMatrix adjacencyMatrix;
+    private final NeighbourGraph neighbourGraph;
+    private final int dimension;
+    private boolean denseEigenSolver = false;
+    private double[] degrees = null;
+    private boolean inPlaceScaling = false;
+
+    private String state = "INIT";
+    private Boolean completionStatus = false;
+    private int eigenvectorsProjected = 0;
+
+    public SpectralEmbeddingLearner(final SymmetricMatrix adjacencyMatrix,
+                                    final int dimension) {
+        this(adjacencyMatrix, null, dimension);
+    }
+
+    public SpectralEmbeddingLearner(final NeighbourGraph neighbourGraph,
+                                    final int dimension) {
+        this(null, neighbourGraph, dimension);
+    }
+
+    private SpectralEmbeddingLearner(final SymmetricMatrix adjacencyMatrix,
+                                     final NeighbourGraph neighbourGraph,
+                                     final int dimension) {
+        final int n = adjacencyMatrix != null ? adjacencyMatrix.size() : neighbourGraph.size();
+        if (dimension <= 0 || dimension > n) {
+            throw new IllegalArgumentException(String.format(
+                    "Cannot embed %d points in %d dimensions.", n, dimension));
+        }
+        this.adjacencyMatrix = adjacencyMatrix;
+        this.neighbourGraph = neighbourGraph;
+        this.dimension = dimension;
+    }
+
+    public SpectralEmbeddingLearner withDenseEigenSolver(final boolean denseEigenSolver) {
+        this.denseEigenSolver = denseEigenSolver;
+        return this;
+    }
+
+    // overwrites a heap adjacency matrix with L rather than copying it, so
+    // the matrix must not be used afterwards; mapped matrices are unaffected
+    public SpectralEmbeddingLearner withInPlaceScaling(final boolean inPlaceScaling) {
+        this.inPlaceScaling = inPlaceScaling;
+        return this;
+    }
+
+    // the row sums of the adjacency matrix or graph, self weights included
+    public SpectralEmbeddingLearner withDegrees(final double[] degrees) {
+        this.degrees = degrees;
+        return this;
+    }
+
+    @Override
+    public ArrayPointSource learn() {
+        final ArrayPointSource embedding = this.neighbourGraph != null
+                ? this.embed(this.neighbourGraph)
+                : this.embed(this.adjacencyMatrix);
+        this.state = "COMPLETE";
+        this.completionStatus = true;
+        return embedding;
+    }
+
+    private ArrayPointSource embed(final SymmetricMatrix adjacencyMatrix) {
+        final int n = adjacencyMatrix.size();
+        System.out.println(String.format("A[%d][%d] = %.3f", n, n, adjacencyMatrix.get(n-1, n-1)));
+
+        this.state = "DIAGONAL";
+        System.out.println(String.format("Building diagonal matrix."));
+        final double[] diagonalMatrix = this.degrees != null
+                ? inverseSquareRoots(this.degrees, n)
+                : buildDiagonalMatrix(adjacencyMatrix);
+        System.out.println(String.format("Built diagonal matrix of dimensions %dx%d.", n, n));
+        System.out.println(String.format("D[%d][%d] = %.3f", n, n, diagonalMatrix[n-1]));
+
+        this.state = "LAPLACIAN";
+        if (this.inPlaceScaling && adjacencyMatrix instanceof SimilarityMatrix) {
+            System.out.println(String.format("Scaling A into L in place."));
+            final double[][] lMatrix = NormalizedAdjacencyOperator.scaleInPlace((SimilarityMatrix) adjacencyMatrix, diagonalMatrix);
+            return this.embedLaplacian(new DenseMatrixOperator(lMatrix), lMatrix);
+        }
+        if (this.denseEigenSolver) {
+            System.out.println(String.format("Building L matrix."));
+            final double[][] lMatrix = buildLMatrix(adjacencyMatrix, diagonalMatrix);
+            System.out.println(String.format("Built L matrix of dimensions %dx%d.", n, n));
+            return this.embedLaplacian(new DenseMatrixOperator(lMatrix), lMatrix);
+        }
+        return this.embedLaplacian(new NormalizedAdjacencyOperator(adjacencyMatrix, diagonalMatrix), null);
+    }
+
+    private ArrayPointSource embed(final NeighbourGraph graph) {
+        final int n = graph.size();
+        System.out.println(String.format("Embedding neighbour graph of %d users and %d edges.", n, graph.getEdgeCount()));
+
+        this.state = "DIAGONAL";
+        System.out.println(String.format("Building diagonal matrix."));
+        final double[] diagonalMatrix;
+        if (this.degrees != null) {
+            diagonalMatrix = inverseSquareRoots(this.degrees, n);
+        } else {
+            final double[] graphDegrees = new double[n];
+            for (int i = 0; i < n; i++) {
+                graphDegrees[i] = graph.getSelfWeight(i);
+                for (int position = graph.rowStart(i); position < graph.rowEnd(i); position++) {
+                    graphDegrees[i] += graph.weightAt(position);
+                }
+            }
+            diagonalMatrix = NormalizedAdjacencyOperator.inverseSquareRoots(graphDegrees);
+        }
+        System.out.println(String.format("Built diagonal matrix of dimensions %dx%d.", n, n));
+
+        // L keeps the sparsity of the graph, self weights scaled like the rest
+        this.state = "LAPLACIAN";
+        System.out.println(String.format("Building L matrix."));
+        final int[] offsets = graph.getOffsets();
+        final int[] neighbours = graph.getNeighbours();
+        final float[] lWeights = new float[graph.getEdgeCount()];
+        final double[] lSelfWeights = new double[n];
+        for (int i = 0; i < n; i++) {
+            lSelfWeights[i] = diagonalMatrix[i] * graph.getSelfWeight(i) * diagonalMatrix[i];
+            for (int position = offsets[i]; position < offsets[i + 1]; position++) {
+                lWeights[position] = (float) (diagonalMatrix[i] * graph.weightAt(position) * diagonalMatrix[neighbours[position]]);
+            }
+        }
+        final NeighbourGraph lGraph = new NeighbourGraph(offsets, neighbours, lWeights, lSelfWeights);
+        System.out.println(String.format("Built sparse L matrix with %d entries.", lWeights.length));
+
+        double[][] lMatrix = null;
+        if (this.denseEigenSolver) {
+            // the dense eigen decomposition needs L laid out in full
+            lMatrix = new double[n][n];
+            for (int i = 0; i < n; i++) {
+                lMatrix[i][i] = lSelfWeights[i];
+                for (int position = offsets[i]; position < offsets[i + 1]; position++) {
+                    lMatrix[i][neighbours[position]] = lWeights[position];
+                }
+            }
+        }
+        return this.embedLaplacian(new GraphOperator(lGraph), lMatrix);
+    }
+
+    // lMatrix is only needed by the dense eigen solver, and may be null
+    private ArrayPointSource embedLaplacian(final LinearOperator lOperator,
+                                            final double[][] lMatrix) {
+        final int n = lOperator.size();
+        final int k = this.dimension;
+
+        // get the first k eigenvectors
+        this.state = "DECOMPOSING";
+        System.out.println(String.format("Decomposing L matrix."));
+        final long decompositionStart = System.currentTimeMillis();
+        final double[][] eigenvectors = (this.denseEigenSolver && lMatrix != null)
+                ? denseEigenvectors(lMatrix, k)
+                : lanczosEigenvectors(lOperator, k);
+        System.out.println(String.format("Identified %d eigenvectors in %.2fs.",
+                                         k, (System.currentTimeMillis() - decompositionStart) / 1000.0));
+
+        // calculate the matrix Z = L * E, one eigenvector column at a time
+        this.state = "REDUCING";
+        System.out.println(String.format("Reducing dimensions of L->Z."));
+        final double[][] zColumns = new double[k][n];
+        for (int i = 0; i < k; i++) {
+            lOperator.multiply(eigenvectors[i], zColumns[i]);
+            this.eigenvectorsProjected++;
+        }
+        System.out.println(String.format("Reduced dimensions to %dx%d", n, k));
+
+        // lay the reduced points out row by row, one row per user
+        final double[] reducedPoints = new double[n * k];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < k; j++) {
+                reducedPoints[i * k + j] = zColumns[j][i];
+            }
+        }
+        return new ArrayPointSource(reducedPoints, k);
+    }
+
+    //
+    // Deals with building the normalized matrices
+    //
+
+    // D^-1/2, from the full row sums of the adjacency matrix
+    public static double[] buildDiagonalMatrix(final SymmetricMatrix adjacencyMatrix) {
+        return NormalizedAdjacencyOperator.inverseSquareRootDegrees(adjacencyMatrix);
+    }
+
+    // D^-1/2 A D^-1/2 laid out in full, diagonal included, for the dense
+    // eigen solver
+    public static double[][] buildLMatrix(final SymmetricMatrix adjacencyMatrix,
+                                          final double[] diagonalMatrix) {
+        final int n = adjacencyMatrix.size();
+        final double[][] lMatrix = new double[n][n];
+        IntStream.range(0, n).parallel().forEach(i -> {
+            for (int j = 0; j < n; j++) {
+                lMatrix[i][j] = diagonalMatrix[i] * adjacencyMatrix.get(i, j) * diagonalMatrix[j];
+            }
+        });
+        return lMatrix;
+    }
+
+    private static double[] inverseSquareRoots(final double[] degrees,
+                                               final int n) {
+        if (degrees.length != n) {
+            throw new IllegalArgumentException(String.format(
+                    "%d degrees cannot cover a matrix of size %d.", degrees.length, n));
+        }
+        return NormalizedAdjacencyOperator.inverseSquareRoots(degrees);
+    }
+
+    //
+    // Deals with the eigen decomposition
+    //
+
+    private static double[][] denseEigenvectors(final double[][] lMatrix,
+                                                final int k) {
+        final RealMatrix lRealMatrix = new Array2DRowRealMatrix(lMatrix, false);
+        final EigenDecomposition decomposition = new EigenDecomposition(lRealMatrix);
+        final double[][] eigenvectors = new double[k][];
+        for (int i = 0; i < k; i++) {
+            eigenvectors[i] = decomposition.getEigenvector(i).toArray();
+        }
+        return eigenvectors;
+    }
+
+    private static double[][] lanczosEigenvectors(final LinearOperator lOperator,
+                                                  final int k) {
+        final LanczosEigenSolver solver = new LanczosEigenSolver(k);
+        final PartialEigenDecomposition decomposition = solver.solve(lOperator);
+        System.out.println(String.format("Lanczos finished after %d restarts and %d products.",
+                                         solver.getRestartCount(), solver.getMultiplyCount()));
+        final double[][] eigenvectors = new double[k][];
+        for (int i = 0; i < k; i++) {
+            eigenvectors[i] = decomposition.getEigenvector(i);
+        }
+        return eigenvectors;
+    }
+
+    @Override
+    public Boolean isComplete() {
+        return this.completionStatus;
+    }
+
+    @Override
+    public String getStatus() {
+        String retString = "";
+        switch (this.state) {
+        case "INIT":
+            retString = "Learning not yet started";
+            break;
+        case "DIAGONAL":
+            retString = "Building the degree matrix";
+            break;
+        case "LAPLACIAN":
+            retString = "Building the normalized L matrix";
+            break;
+        case "DECOMPOSING":
+            retString = String.format("Finding the leading %d eigenvectors of L", this.dimension);
+            break;
+        case "REDUCING":
+            retString = String.format("Projecting onto eigenvectors, %d of %d complete",
+                                this.eigenvectorsProjected,
+                                this.dimension);
+            break;
+        default:
+            retString = "Complete";
+        }
+
+        return retString;
+    }
+}
@@ -0,0 +1,211 @@
+package project.learner.similarity;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import project.learner.Learner;
+import project.model.CollaborativeFilter;
+import project.model.ratings.RatingStore;
+import project.model.ratings.UserRatingStatistics;
+import project.model.similarity.SimilarityMatrix;
+
+// Builds the movie-movie similarity matrix for movie ids 0..size-1, as
+// adjusted cosine (Sarwar et al.): each rating is centred on its user's mean,
+// and two movies are compared over the users who rated both.
+//
+// Rather than merging every pair of movie columns, each movie's row is
+// accumulated from its column: for every user who rated movie a, the rest
+// of that user's row adds its centred products to the accumulators of the
+// movies after a. That costs the sum of the squared user row lengths once,
+// however many movie pairs share no user. Rows run in parallel, each task
+// with its own dense accumulators over the movies.
+public class ItemSimilarityMatrixLearner implements Learner<SimilarityMatrix> {
+
+    private static final int ROWS_PER_TASK = 8;
+
+    private final CollaborativeFilter filter;
+    private final int size;
+    private final int parallelism;
+
+    private final AtomicInteger moviesProcessed = new AtomicInteger();
+    private int movieCount = 0;
+    private String state = "INIT";
+    private Boolean completionStatus = false;
+
+    public ItemSimilarityMatrixLearner(final CollaborativeFilter filter,
+                                       final int size) {
+        this(filter, size, Runtime.getRuntime().availableProcessors());
+    }
+
+    public ItemSimilarityMatrixLearner(final CollaborativeFilter filter,
+                                       final int size,
+                                       final int parallelism) {
+        this.filter = filter;
+        this.size = size;
+        this.parallelism = parallelism;
+    }
+
+    @Override
+    public SimilarityMatrix learn() {
+        this.state = "LOADING";
+        final RatingStore ratings = this.filter.getRatingStore();
+        final UserRatingStatistics statistics = this.filter.getUserStatistics();
+        ratings.buildColumns();
+
+        // translate dense movie indices into matrix positions (movie ids) once
+        this.movieCount = ratings.getMovieCount();
+        final int[] positions = new int[this.movieCount];
+        for (int movie = 0; movie < this.movieCount; movie++) {
+            final int movieId = ratings.movieIdAt(movie);
+            positions[movie] = movieId >= 0 && movieId < this.size ? movieId : -1;
+        }
+
+        this.state = "SIMILARITY";
+        final double[][] values = new double[this.size][this.size];
+        final ThreadLocal<Accumulators> localAccumulators =
+                ThreadLocal.withInitial(() -> new Accumulators(this.movieCount));
+        final ForkJoinPool pool = new ForkJoinPool(this.parallelism);
+        try {
+            pool.invoke(new RowTask(ratings, statistics, positions, values, localAccumulators, 0, this.movieCount));
+        } finally {
+            pool.shutdown();
+        }
+
+        this.state = "COMPLETE";
+        this.completionStatus = true;
+        return new SimilarityMatrix(values);
+    }
+
+    private static class Accumulators {
+
+        private final double[] products;
+        private final double[] activeSquares;
+        private final double[] otherSquares;
+
+        Accumulators(final int movieCount) {
+            this.products = new double[movieCount];
+            this.activeSquares = new double[movieCount];
+            this.otherSquares = new double[movieCount];
+        }
+    }
+
+    private class RowTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final RatingStore ratings;
+        private final UserRatingStatistics statistics;
+        private final int[] positions;
+        private final double[][] values;
+        private final ThreadLocal<Accumulators> localAccumulators;
+        private final int start;
+        private final int end;
+
+        RowTask(final RatingStore ratings,
+                final UserRatingStatistics statistics,
+                final int[] positions,
+                final double[][] values,
+                final ThreadLocal<Accumulators> localAccumulators,
+                final int start,
+                final int end) {
+            this.ratings = ratings;
+            this.statistics = statistics;
+            this.positions = positions;
+            this.values = values;
+            this.localAccumulators = localAccumulators;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.end - this.start > ROWS_PER_TASK) {
+                final int middle = (this.start + this.end) >>> 1;
+                invokeAll(new RowTask(this.ratings, this.statistics, this.positions, this.values,
+                                      this.localAccumulators, this.start, middle),
+                          new RowTask(this.ratings, this.statistics, this.positions, this.values,
+                                      this.localAccumulators, middle, this.end));
+                return;
+            }
+
+            final Accumulators accumulators = this.localAccumulators.get();
+            for (int movie = this.start; movie < this.end; movie++) {
+                if (this.positions[movie] >= 0) {
+                    this.computeRow(movie, accumulators);
+                }
+                ItemSimilarityMatrixLearner.this.moviesProcessed.incrementAndGet();
+            }
+        }
+
+        private void computeRow(final int movie, final Accumulators accumulators) {
+            final int[] rowOffsets = this.statistics.getRowOffsets();
+            final int[] rowMovies = this.statistics.getRowMovies();
+            final float[] centred = this.statistics.getCentredRatings();
+            final double[] products = accumulators.products;
+            final double[] activeSquares = accumulators.activeSquares;
+            final double[] otherSquares = accumulators.otherSquares;
+
+            double selfSquares = 0.0;
+            for (int i = this.ratings.columnStart(movie); i < this.ratings.columnEnd(movie); i++) {
+                final int user = this.ratings.userAt(i);
+                final int rowEnd = rowOffsets[user + 1];
+                final int position = this.ratings.positionOf(user, movie);
+                final double activeDiff = centred[position];
+                selfSquares += activeDiff * activeDiff;
+                for (int other = position + 1; other < rowEnd; other++) {
+                    final int otherMovie = rowMovies[other];
+                    final double otherDiff = centred[other];
+                    products[otherMovie] += activeDiff * otherDiff;
+                    activeSquares[otherMovie] += activeDiff * activeDiff;
+                    otherSquares[otherMovie] += otherDiff * otherDiff;
+                }
+            }
+
+            // later movies only, so every pair is written once, mirrored, and
+            // the accumulators are left cleared for the next row
+            final int row = this.positions[movie];
+            this.values[row][row] = selfSquares > 0.0 ? 1.0 : 0.0;
+            for (int otherMovie = movie + 1; otherMovie < products.length; otherMovie++) {
+                final double weight = products[otherMovie]
+                                    / Math.sqrt(activeSquares[otherMovie] * otherSquares[otherMovie]);
+                final int col = this.positions[otherMovie];
+                if (col >= 0 && weight > 0.0) {
+                    this.values[row][col] = weight;
+                    this.values[col][row] = weight;
+                }
+                products[otherMovie] = 0.0;
+                activeSquares[otherMovie] = 0.0;
+                otherSquares[otherMovie] = 0.0;
+            }
+        }
+    }
+
+    @Override
+    public Boolean isComplete() {
+        return this.completionStatus;
+    }
+
+    @Override
+    public String getStatus() {
+        String retString = "";
+        switch (this.state) {
+        case "INIT":
+            retString = "Learning not yet started";
+            break;
+        case "LOADING":
+            retString = "Preparing movie columns";
+            break;
+        case "SIMILARITY":
+            retString = String.format("Calculating movie similarity matrix, %d of %d movies (%.2f%%) complete",
+                                this.moviesProcessed.get(),
+                                this.movieCount,
+                                (100.0 * this.moviesProcessed.get() / this.movieCount));
+            break;
+        default:
+            retString = "Complete";
+        }
+
+        return retString;
+    }
+}
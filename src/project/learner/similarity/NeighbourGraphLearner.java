@@ -0,0 +1,239 @@
+package project.learner.similarity;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import project.learner.Learner;
+import project.model.CollaborativeFilter;
+import project.model.ratings.RatingStore;
+import project.model.similarity.MinHashIndex;
+import project.model.similarity.NeighbourGraph;
+import project.model.similarity.SimilarityMetric;
+import project.model.similarity.TopKHeap;
+
+public class NeighbourGraphLearner implements Learner<NeighbourGraph> {
+
+    private static final int ROWS_PER_TASK = 16;
+
+    private final CollaborativeFilter filter;
+    private final int size;
+    private final int neighbourCount;
+    private final double minWeight;
+    private final int parallelism;
+
+    // when set, each user is only weighed against their MinHash candidates
+    private int bandCount = 0;
+    private int rowsPerBand = 0;
+    private MinHashIndex index;
+    private ThreadLocal<int[]> localScratch;
+
+    private final AtomicInteger rowsProcessed = new AtomicInteger();
+    private String state = "INIT";
+    private Boolean completionStatus = false;
+
+    public NeighbourGraphLearner(final CollaborativeFilter filter,
+                                 final int size,
+                                 final int neighbourCount,
+                                 final double minWeight) {
+        this(filter, size, neighbourCount, minWeight, Runtime.getRuntime().availableProcessors());
+    }
+
+    // keeps, for every user, the neighbourCount most similar users whose weight
+    // is above minWeight; a neighbourCount of 0 keeps every user above minWeight
+    public NeighbourGraphLearner(final CollaborativeFilter filter,
+                                 final int size,
+                                 final int neighbourCount,
+                                 final double minWeight,
+                                 final int parallelism) {
+        if (neighbourCount < 0) {
+            throw new IllegalArgumentException(String.format("Invalid neighbour count %d.", neighbourCount));
+        }
+        this.filter = filter;
+        this.size = size;
+        this.neighbourCount = neighbourCount;
+        this.minWeight = minWeight;
+        this.parallelism = parallelism;
+    }
+
+    // weighs each user only against the users sharing a bucket with them in
+    // one of bandCount bands of rowsPerBand min-hashes, rather than everyone;
+    // more bands find more of the true neighbours at more cost
+    public NeighbourGraphLearner withMinHash(final int bandCount, final int rowsPerBand) {
+        if (bandCount <= 0 || rowsPerBand <= 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid banding of %d bands of %d rows.", bandCount, rowsPerBand));
+        }
+        this.bandCount = bandCount;
+        this.rowsPerBand = rowsPerBand;
+        return this;
+    }
+
+    public MinHashIndex getMinHashIndex() {
+        return this.index;
+    }
+
+    @Override
+    public NeighbourGraph learn() {
+        this.state = "LOADING";
+        final SimilarityMetric kernel = this.filter.getSimilarityKernel();
+        final int[] userIndices = new int[this.size];
+        for (int user = 0; user < this.size; user++) {
+            userIndices[user] = this.filter.getRatingStore().indexOfUser(user);
+        }
+        if (this.bandCount > 0) {
+            this.state = "HASHING";
+            this.index = new MinHashIndex(this.filter.getRatingStore(), this.bandCount, this.rowsPerBand);
+            this.localScratch = ThreadLocal.withInitial(this.index::newScratch);
+        }
+
+        this.state = "NEIGHBOURS";
+        final int heapCapacity = Math.max(1, this.neighbourCount == 0 ? this.size : Math.min(this.neighbourCount, this.size));
+        final ThreadLocal<TopKHeap> localHeaps = ThreadLocal.withInitial(() -> new TopKHeap(heapCapacity));
+        final int[][] rowNeighbours = new int[this.size][];
+        final float[][] rowWeights = new float[this.size][];
+        final double[] selfWeights = new double[this.size];
+
+        final ForkJoinPool pool = new ForkJoinPool(this.parallelism);
+        try {
+            pool.invoke(new RowTask(kernel, userIndices, localHeaps, rowNeighbours, rowWeights, selfWeights, 0, this.size));
+        } finally {
+            pool.shutdown();
+        }
+
+        this.state = "SYMMETRIZING";
+        final NeighbourGraph graph = NeighbourGraph.symmetrize(rowNeighbours, rowWeights, selfWeights);
+
+        this.state = "COMPLETE";
+        this.completionStatus = true;
+        return graph;
+    }
+
+    private class RowTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final SimilarityMetric kernel;
+        private final int[] userIndices;
+        private final ThreadLocal<TopKHeap> localHeaps;
+        private final int[][] rowNeighbours;
+        private final float[][] rowWeights;
+        private final double[] selfWeights;
+        private final int start;
+        private final int end;
+
+        RowTask(final SimilarityMetric kernel,
+                final int[] userIndices,
+                final ThreadLocal<TopKHeap> localHeaps,
+                final int[][] rowNeighbours,
+                final float[][] rowWeights,
+                final double[] selfWeights,
+                final int start,
+                final int end) {
+            this.kernel = kernel;
+            this.userIndices = userIndices;
+            this.localHeaps = localHeaps;
+            this.rowNeighbours = rowNeighbours;
+            this.rowWeights = rowWeights;
+            this.selfWeights = selfWeights;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.end - this.start > ROWS_PER_TASK) {
+                final int middle = (this.start + this.end) >>> 1;
+                invokeAll(new RowTask(this.kernel, this.userIndices, this.localHeaps, this.rowNeighbours,
+                                      this.rowWeights, this.selfWeights, this.start, middle),
+                          new RowTask(this.kernel, this.userIndices, this.localHeaps, this.rowNeighbours,
+                                      this.rowWeights, this.selfWeights, middle, this.end));
+                return;
+            }
+
+            final TopKHeap heap = this.localHeaps.get();
+            final MinHashIndex index = NeighbourGraphLearner.this.index;
+            final int[] lastSeen = index == null ? null : NeighbourGraphLearner.this.localScratch.get();
+            for (int row = this.start; row < this.end; row++) {
+                final int activeIndex = this.userIndices[row];
+                heap.clear();
+                if (index == null) {
+                    for (int col = 0; col < this.userIndices.length; col++) {
+                        final double weight = this.kernel.weight(activeIndex, this.userIndices[col]);
+                        if (col == row) {
+                            this.selfWeights[row] = weight;
+                        } else if (weight > NeighbourGraphLearner.this.minWeight) {
+                            heap.offer(col, weight);
+                        }
+                    }
+                } else {
+                    this.offerCandidates(heap, index, lastSeen, row, activeIndex);
+                }
+
+                final int[] neighbours = new int[heap.size()];
+                final float[] weights = new float[heap.size()];
+                for (int i = 0; i < neighbours.length; i++) {
+                    neighbours[i] = heap.getId(i);
+                    weights[i] = (float) heap.getScore(i);
+                }
+                this.rowNeighbours[row] = neighbours;
+                this.rowWeights[row] = weights;
+                NeighbourGraphLearner.this.rowsProcessed.incrementAndGet();
+            }
+        }
+
+        // candidates are dense indices, and those beyond the graph are dropped
+        private void offerCandidates(final TopKHeap heap,
+                                     final MinHashIndex index,
+                                     final int[] lastSeen,
+                                     final int row,
+                                     final int activeIndex) {
+            final RatingStore ratings = NeighbourGraphLearner.this.filter.getRatingStore();
+            this.selfWeights[row] = this.kernel.weight(activeIndex, activeIndex);
+            for (final int otherIndex : index.candidates(activeIndex, lastSeen)) {
+                final int col = ratings.userIdAt(otherIndex);
+                if (col >= this.userIndices.length) {
+                    continue;
+                }
+                final double weight = this.kernel.weight(activeIndex, otherIndex);
+                if (weight > NeighbourGraphLearner.this.minWeight) {
+                    heap.offer(col, weight);
+                }
+            }
+        }
+    }
+
+    @Override
+    public Boolean isComplete() {
+        return this.completionStatus;
+    }
+
+    @Override
+    public String getStatus() {
+        String retString = "";
+        switch (this.state) {
+        case "INIT":
+            retString = "Learning not yet started";
+            break;
+        case "LOADING":
+            retString = "Preparing similarity kernel";
+            break;
+        case "HASHING":
+            retString = "Hashing users into MinHash buckets";
+            break;
+        case "NEIGHBOURS":
+            retString = String.format("Selecting neighbours, %d of %d (%.2f%%) complete",
+                                this.rowsProcessed.get(),
+                                this.size,
+                                (100.0 * this.rowsProcessed.get() / this.size));
+            break;
+        case "SYMMETRIZING":
+            retString = "Symmetrizing neighbour graph";
+            break;
+        default:
+            retString = "Complete";
+        }
+
+        return retString;
+    }
+}
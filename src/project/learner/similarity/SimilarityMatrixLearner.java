@@ -0,0 +1,334 @@
+package project.learner.similarity;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import project.learner.Learner;
+import project.model.CollaborativeFilter;
+import project.model.similarity.SimilarityMatrix;
+import project.model.similarity.SimilarityMetric;
+
+public class SimilarityMatrixLearner implements Learner<SimilarityMatrix> {
+
+    // 128x128 doubles per tile, so a tile and the two rating row ranges it
+    // reads stay within a core's L2 cache
+    private static final int TILE_SIZE = 128;
+    private static final int TILES_PER_TASK = 4;
+    private static final int ROWS_PER_TASK = 16;
+
+    private final CollaborativeFilter filter;
+    private final int size;
+    private final int parallelism;
+
+    // set when refreshing the dirty rows of an existing matrix
+    private final SimilarityMatrix previous;
+    private final BitSet dirtyUsers;
+
+    private final AtomicInteger tilesProcessed = new AtomicInteger();
+    private int totalTileCount = 0;
+    private final AtomicInteger rowsRefreshed = new AtomicInteger();
+    private int dirtyRowCount = 0;
+    private String state = "INIT";
+    private Boolean completionStatus = false;
+
+    public SimilarityMatrixLearner(final CollaborativeFilter filter,
+                                   final int size) {
+        this(filter, size, Runtime.getRuntime().availableProcessors());
+    }
+
+    public SimilarityMatrixLearner(final CollaborativeFilter filter,
+                                   final int size,
+                                   final int parallelism) {
+        this.filter = filter;
+        this.size = size;
+        this.parallelism = parallelism;
+        this.previous = null;
+        this.dirtyUsers = null;
+    }
+
+    // recomputes, in place, the rows and columns of the matrix belonging to
+    // the dirty user ids (see CollaborativeFilter.applyUpdates), leaving the
+    // weights between two clean users as they were
+    public SimilarityMatrixLearner(final CollaborativeFilter filter,
+                                   final SimilarityMatrix previous,
+                                   final BitSet dirtyUsers,
+                                   final int parallelism) {
+        this.filter = filter;
+        this.size = previous.size();
+        this.parallelism = parallelism;
+        this.previous = previous;
+        this.dirtyUsers = dirtyUsers;
+    }
+
+    public SimilarityMatrixLearner(final CollaborativeFilter filter,
+                                   final SimilarityMatrix previous,
+                                   final BitSet dirtyUsers) {
+        this(filter, previous, dirtyUsers, Runtime.getRuntime().availableProcessors());
+    }
+
+    @Override
+    public SimilarityMatrix learn() {
+        this.state = "LOADING";
+        final SimilarityMetric kernel = this.filter.getSimilarityKernel();
+
+        // translate matrix positions (user ids) into dense kernel indices once
+        final int[] userIndices = new int[this.size];
+        for (int user = 0; user < this.size; user++) {
+            userIndices[user] = this.filter.getRatingStore().indexOfUser(user);
+        }
+        if (this.previous != null) {
+            return this.refresh(kernel, userIndices);
+        }
+
+        // enumerate the tiles of the upper triangle
+        final int blockCount = (this.size + TILE_SIZE - 1) / TILE_SIZE;
+        this.totalTileCount = blockCount * (blockCount + 1) / 2;
+        final int[] tileRows = new int[this.totalTileCount];
+        final int[] tileCols = new int[this.totalTileCount];
+        int tile = 0;
+        for (int blockRow = 0; blockRow < blockCount; blockRow++) {
+            for (int blockCol = blockRow; blockCol < blockCount; blockCol++) {
+                tileRows[tile] = blockRow;
+                tileCols[tile] = blockCol;
+                tile++;
+            }
+        }
+
+        this.state = "SIMILARITY";
+        final double[][] values = new double[this.size][this.size];
+        final List<int[]> degreeCounters = new ArrayList<int[]>();
+        final ThreadLocal<int[]> localDegrees = ThreadLocal.withInitial(() -> {
+            final int[] counters = new int[this.size];
+            synchronized (degreeCounters) {
+                degreeCounters.add(counters);
+            }
+            return counters;
+        });
+
+        final ForkJoinPool pool = new ForkJoinPool(this.parallelism);
+        try {
+            pool.invoke(new TileTask(kernel, userIndices, values, localDegrees,
+                                     tileRows, tileCols, 0, this.totalTileCount));
+        } finally {
+            pool.shutdown();
+        }
+
+        // merge the per-thread degree counters
+        final int[] degrees = new int[this.size];
+        for (final int[] counters : degreeCounters) {
+            for (int user = 0; user < this.size; user++) {
+                degrees[user] += counters[user];
+            }
+        }
+
+        this.state = "COMPLETE";
+        this.completionStatus = true;
+        return new SimilarityMatrix(values, degrees);
+    }
+
+    //
+    // Deals with refreshing the dirty rows of an existing matrix
+    //
+
+    private SimilarityMatrix refresh(final SimilarityMetric kernel, final int[] userIndices) {
+        // users beyond the matrix have no row to refresh
+        final int[] rows = this.dirtyUsers.get(0, this.size).stream().toArray();
+        this.dirtyRowCount = rows.length;
+
+        // weigh the dirty rows in parallel against the unchanged matrix...
+        this.state = "REFRESH";
+        final double[][] freshRows = new double[rows.length][];
+        final ForkJoinPool pool = new ForkJoinPool(this.parallelism);
+        try {
+            pool.invoke(new RefreshTask(kernel, userIndices, rows, freshRows, 0, rows.length));
+        } finally {
+            pool.shutdown();
+        }
+
+        // ...then write them in, mirrored, adjusting the degrees of both ends;
+        // a pair of two dirty users is written once, from the lower id
+        final double[][] values = this.previous.getValues();
+        final int[] degrees = this.previous.getDegrees();
+        for (int i = 0; i < rows.length; i++) {
+            final int row = rows[i];
+            for (int col = 0; col < this.size; col++) {
+                if (col < row && this.dirtyUsers.get(col)) {
+                    continue;
+                }
+                final boolean wasDegree = values[row][col] > SimilarityMatrix.DEGREE_THRESHOLD;
+                final boolean isDegree = freshRows[i][col] > SimilarityMatrix.DEGREE_THRESHOLD;
+                if (wasDegree != isDegree) {
+                    final int change = isDegree ? 1 : -1;
+                    degrees[row] += change;
+                    if (col != row) {
+                        degrees[col] += change;
+                    }
+                }
+                values[row][col] = freshRows[i][col];
+                values[col][row] = freshRows[i][col];
+            }
+        }
+
+        this.state = "COMPLETE";
+        this.completionStatus = true;
+        return this.previous;
+    }
+
+    private class RefreshTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final SimilarityMetric kernel;
+        private final int[] userIndices;
+        private final int[] rows;
+        private final double[][] freshRows;
+        private final int start;
+        private final int end;
+
+        RefreshTask(final SimilarityMetric kernel,
+                    final int[] userIndices,
+                    final int[] rows,
+                    final double[][] freshRows,
+                    final int start,
+                    final int end) {
+            this.kernel = kernel;
+            this.userIndices = userIndices;
+            this.rows = rows;
+            this.freshRows = freshRows;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.end - this.start > ROWS_PER_TASK) {
+                final int middle = (this.start + this.end) >>> 1;
+                invokeAll(new RefreshTask(this.kernel, this.userIndices, this.rows, this.freshRows, this.start, middle),
+                          new RefreshTask(this.kernel, this.userIndices, this.rows, this.freshRows, middle, this.end));
+                return;
+            }
+
+            for (int i = this.start; i < this.end; i++) {
+                final int activeIndex = this.userIndices[this.rows[i]];
+                final double[] freshRow = new double[this.userIndices.length];
+                for (int col = 0; col < freshRow.length; col++) {
+                    freshRow[col] = this.kernel.weight(activeIndex, this.userIndices[col]);
+                }
+                this.freshRows[i] = freshRow;
+                SimilarityMatrixLearner.this.rowsRefreshed.incrementAndGet();
+            }
+        }
+    }
+
+    private class TileTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final SimilarityMetric kernel;
+        private final int[] userIndices;
+        private final double[][] values;
+        private final ThreadLocal<int[]> localDegrees;
+        private final int[] tileRows;
+        private final int[] tileCols;
+        private final int start;
+        private final int end;
+
+        TileTask(final SimilarityMetric kernel,
+                 final int[] userIndices,
+                 final double[][] values,
+                 final ThreadLocal<int[]> localDegrees,
+                 final int[] tileRows,
+                 final int[] tileCols,
+                 final int start,
+                 final int end) {
+            this.kernel = kernel;
+            this.userIndices = userIndices;
+            this.values = values;
+            this.localDegrees = localDegrees;
+            this.tileRows = tileRows;
+            this.tileCols = tileCols;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.end - this.start > TILES_PER_TASK) {
+                final int middle = (this.start + this.end) >>> 1;
+                invokeAll(new TileTask(this.kernel, this.userIndices, this.values, this.localDegrees,
+                                       this.tileRows, this.tileCols, this.start, middle),
+                          new TileTask(this.kernel, this.userIndices, this.values, this.localDegrees,
+                                       this.tileRows, this.tileCols, middle, this.end));
+                return;
+            }
+
+            final int[] degrees = this.localDegrees.get();
+            for (int tile = this.start; tile < this.end; tile++) {
+                this.computeTile(this.tileRows[tile] * TILE_SIZE, this.tileCols[tile] * TILE_SIZE, degrees);
+                SimilarityMatrixLearner.this.tilesProcessed.incrementAndGet();
+            }
+        }
+
+        private void computeTile(final int rowStart, final int colStart, final int[] degrees) {
+            final int rowEnd = Math.min(rowStart + TILE_SIZE, this.values.length);
+            final int colEnd = Math.min(colStart + TILE_SIZE, this.values.length);
+            for (int row = rowStart; row < rowEnd; row++) {
+                final double[] valueRow = this.values[row];
+                final int activeIndex = this.userIndices[row];
+                for (int col = Math.max(colStart, row); col < colEnd; col++) {
+                    final double weight = this.kernel.weight(activeIndex, this.userIndices[col]);
+                    valueRow[col] = weight;
+
+                    // mirror into the lower triangle; tiles never share cells
+                    this.values[col][row] = weight;
+
+                    // also calculate degree
+                    if (weight > SimilarityMatrix.DEGREE_THRESHOLD) {
+                        degrees[row]++;
+                        if (col != row) {
+                            degrees[col]++;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public Boolean isComplete() {
+        return this.completionStatus;
+    }
+
+    @Override
+    public String getStatus() {
+        String retString = "";
+        switch (this.state) {
+        case "INIT":
+            retString = "Learning not yet started";
+            break;
+        case "LOADING":
+            retString = "Preparing similarity kernel";
+            break;
+        case "SIMILARITY":
+            retString = String.format("Calculating similarity matrix, %d of %d tiles (%.2f%%) complete",
+                                this.tilesProcessed.get(),
+                                this.totalTileCount,
+                                (100.0 * this.tilesProcessed.get() / this.totalTileCount));
+            break;
+        case "REFRESH":
+            retString = String.format("Refreshing similarity matrix, %d of %d dirty rows (%.2f%%) complete",
+                                this.rowsRefreshed.get(),
+                                this.dirtyRowCount,
+                                (100.0 * this.rowsRefreshed.get() / this.dirtyRowCount));
+            break;
+        default:
+            retString = "Complete";
+        }
+
+        return retString;
+    }
+}
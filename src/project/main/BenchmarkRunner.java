@@ -0,0 +1,185 @@
+package project.main;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import project.benchmark.Benchmark;
+import project.benchmark.BenchmarkResult;
+import project.benchmark.RecommenderBenchmarks;
+import project.benchmark.SingleShotBenchmark;
+import project.benchmark.SteadyStateBenchmark;
+import project.benchmark.SuiteBenchmark;
+
+public class BenchmarkRunner {
+
+    private static final String BENCHMARK_FILTER_FLAG = "b";
+    private static final String DATA_USER_COUNT_FLAG = "d";
+    private static final String MATRIX_SIZES_FLAG = "s";
+    private static final String CLUSTER_COUNT_FLAG = "k";
+    private static final String KMEANS_POINT_COUNT_FLAG = "p";
+    private static final String WARMUP_ITERATIONS_FLAG = "w";
+    private static final String MEASURED_ITERATIONS_FLAG = "i";
+    private static final String FORK_COUNT_FLAG = "f";
+    private static final String ITERATION_TIME_FLAG = "t";
+
+    private static final String DEFAULT_DATA_USER_COUNT = "10000";
+    private static final String DEFAULT_KMEANS_POINT_COUNT = "100000";
+    private static final String DEFAULT_MATRIX_SIZES = "1000,5000,10000";
+    private static final String DEFAULT_CLUSTER_COUNT = "10";
+
+    public static void main(String[] args) {
+        try {
+            // parse input args
+            final CommandLine cmd = parseArgs(args);
+
+            final Pattern filter = Pattern.compile(cmd.getOptionValue(BENCHMARK_FILTER_FLAG, ".*"));
+            final String dataUserCount = cmd.getOptionValue(DATA_USER_COUNT_FLAG, DEFAULT_DATA_USER_COUNT);
+            final String pointCount = cmd.getOptionValue(KMEANS_POINT_COUNT_FLAG, DEFAULT_KMEANS_POINT_COUNT);
+            final String matrixSizes = cmd.getOptionValue(MATRIX_SIZES_FLAG, DEFAULT_MATRIX_SIZES);
+            final String clusterCount = cmd.getOptionValue(CLUSTER_COUNT_FLAG, DEFAULT_CLUSTER_COUNT);
+
+            // list every benchmark, which generates no data, and keep the
+            // ones whose names match, apart by how they are timed
+            final List<String> names = new ArrayList<String>();
+            final List<String> steadyNames = new ArrayList<String>();
+            final List<String> singleShotNames = new ArrayList<String>();
+            for (final Benchmark benchmark : RecommenderBenchmarks.benchmarks(Integer.parseInt(dataUserCount),
+                                                                              Integer.parseInt(pointCount),
+                                                                              RecommenderBenchmarks.parseSizes(matrixSizes),
+                                                                              Integer.parseInt(clusterCount))) {
+                if (filter.matcher(benchmark.getName()).find()) {
+                    names.add(benchmark.getName());
+                    (benchmark.isSingleShot() ? singleShotNames : steadyNames).add(benchmark.getName());
+                }
+            }
+            if (names.isEmpty()) {
+                System.out.println(String.format("No benchmark matches %s.", filter.pattern()));
+                return;
+            }
+
+            // run them under JMH, each in its own forked JVMs, so each only
+            // generates the data of its own group; the steady state ones are
+            // warmed up for a time, the single shot ones a few invocations
+            final Path reportFile = Files.createTempFile("benchmarks", ".tsv");
+            reportFile.toFile().deleteOnExit();
+            System.setProperty(SuiteBenchmark.REPORT_PROPERTY, reportFile.toString());
+            final TimeValue iterationTime = TimeValue.seconds(Long.parseLong(cmd.getOptionValue(ITERATION_TIME_FLAG, "1")));
+            final Map<String, RunResult> runs = new HashMap<String, RunResult>();
+            if (!steadyNames.isEmpty()) {
+                runSuite(initSuiteOptions(cmd, SteadyStateBenchmark.class, steadyNames, reportFile)
+                                 .warmupIterations(Integer.parseInt(cmd.getOptionValue(WARMUP_ITERATIONS_FLAG, "5")))
+                                 .warmupTime(iterationTime)
+                                 .measurementTime(iterationTime),
+                         runs);
+            }
+            if (!singleShotNames.isEmpty()) {
+                runSuite(initSuiteOptions(cmd, SingleShotBenchmark.class, singleShotNames, reportFile)
+                                 .warmupIterations(Integer.parseInt(cmd.getOptionValue(WARMUP_ITERATIONS_FLAG, "2"))),
+                         runs);
+            }
+
+            // output the results per operation, with what the trials reported
+            final Map<String, String[]> reports = readReports(reportFile);
+            System.out.println();
+            System.out.println(BenchmarkResult.header());
+            for (final String name : names) {
+                final String[] report = reports.get(name);
+                final BenchmarkResult result = new BenchmarkResult(name,
+                                                                   report == null ? 1 : Long.parseLong(report[1]),
+                                                                   runs.get(name),
+                                                                   report == null || report[2].isEmpty() ? null : report[2]);
+                System.out.println(result);
+            }
+
+        } catch (final Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static CommandLine parseArgs(final String[] args)
+        throws ParseException
+    {
+        final Options options = initOptions();
+        final CommandLineParser cmdParser = initCommandParser();
+        return cmdParser.parse(options, args);
+    }
+
+    private static Options initOptions() {
+        final Options options = new Options();
+        options.addOption(BENCHMARK_FILTER_FLAG, true, "run only the benchmarks whose names match this pattern");
+        options.addOption(DATA_USER_COUNT_FLAG, true, "the number of synthetic users for the data benchmarks");
+        options.addOption(MATRIX_SIZES_FLAG, true, "comma separated similarity matrix sizes (default 1000,5000,10000)");
+        options.addOption(CLUSTER_COUNT_FLAG, true, "the number of clusters for the spectral stages");
+        options.addOption(KMEANS_POINT_COUNT_FLAG, true, "the number of points for the k-means benchmarks (default 100000)");
+        options.addOption(WARMUP_ITERATIONS_FLAG, true, "the number of warmup iterations (default 5 timed, 2 single shot)");
+        options.addOption(MEASURED_ITERATIONS_FLAG, true, "the number of measured iterations");
+        options.addOption(FORK_COUNT_FLAG, true, "the number of JMH forks per benchmark (default 1)");
+        options.addOption(ITERATION_TIME_FLAG, true, "the seconds of each timed iteration (default 1)");
+        return options;
+    }
+
+    private static CommandLineParser initCommandParser() {
+        return new DefaultParser();
+    }
+
+    // the options shared by both kinds of benchmark
+    private static ChainedOptionsBuilder initSuiteOptions(final CommandLine cmd,
+                                                          final Class<? extends SuiteBenchmark> suite,
+                                                          final List<String> names,
+                                                          final Path reportFile) {
+        return new OptionsBuilder()
+                .include(Pattern.quote(suite.getName()) + "\\.")
+                .param("benchmark", names.toArray(new String[names.size()]))
+                .param("dataUserCount", cmd.getOptionValue(DATA_USER_COUNT_FLAG, DEFAULT_DATA_USER_COUNT))
+                .param("pointCount", cmd.getOptionValue(KMEANS_POINT_COUNT_FLAG, DEFAULT_KMEANS_POINT_COUNT))
+                .param("matrixSizes", cmd.getOptionValue(MATRIX_SIZES_FLAG, DEFAULT_MATRIX_SIZES))
+                .param("clusterCount", cmd.getOptionValue(CLUSTER_COUNT_FLAG, DEFAULT_CLUSTER_COUNT))
+                .measurementIterations(Integer.parseInt(cmd.getOptionValue(MEASURED_ITERATIONS_FLAG, "5")))
+                .forks(Integer.parseInt(cmd.getOptionValue(FORK_COUNT_FLAG, "1")))
+                .jvmArgsAppend(String.format("-D%s=%s", SuiteBenchmark.REPORT_PROPERTY, reportFile))
+                .addProfiler(GCProfiler.class)
+                .shouldFailOnError(true);
+    }
+
+    private static void runSuite(final ChainedOptionsBuilder options,
+                                 final Map<String, RunResult> runs)
+        throws RunnerException
+    {
+        for (final RunResult run : new Runner(options.build()).run()) {
+            runs.put(run.getParams().getParam("benchmark"), run);
+        }
+    }
+
+    // the last line reported for each benchmark: its name, its operation
+    // count and its notes, tab separated
+    private static Map<String, String[]> readReports(final Path reportFile)
+        throws IOException
+    {
+        final Map<String, String[]> reports = new HashMap<String, String[]>();
+        for (final String line : Files.readAllLines(reportFile, StandardCharsets.UTF_8)) {
+            final String[] fields = line.split("\t", 3);
+            reports.put(fields[0], fields);
+        }
+        return reports;
+    }
+}
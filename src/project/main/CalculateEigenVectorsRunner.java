@@ -1,23 +1,49 @@
 package project.main;
 
-import java.io.BufferedWriter;
+import java.io.File;
+import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
-import org.apache.commons.math3.linear.EigenDecomposition;
-import org.apache.commons.math3.linear.RealVector;
-
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+
+import project.learner.collaborative.SpectralEmbeddingLearner;
+import project.main.runnable.UpdateLearningProgressRunnable;
+import project.model.clustering.ArrayPointSource;
+import project.model.clustering.MappedPointSource;
+import project.model.clustering.PointFile;
+import project.model.similarity.SimilarityMatrix;
+import project.model.similarity.SimilarityMatrixFile;
+import project.model.similarity.SymmetricMatrix;
+
+// Computes the spectral embedding of a similarity matrix once and writes it
+// as a point file, which ClusterUsersRunner maps and clusters for any
+// k' <= k without decomposing the matrix again. An existing embedding that
+// already covers k is kept as it is, unless a recompute is asked for; it is
+// stamped with the size and modification time of its matrix file, so an
+// embedding of a matrix that has since been rebuilt is never reused.
 public class CalculateEigenVectorsRunner {
 
     private static final String SIMILARITY_MATRIX_FILE_FLAG = "s";
     private static final String DEGREE_VECTOR_FILE_FLAG = "d";
     private static final String EIGENVECTOR_COUNT_FLAG = "k";
+    private static final String USER_COUNT_FLAG = "u";
+    private static final String EIGEN_SOLVER_FLAG = "e";
+    private static final String OUTPUT_FILE_FLAG = "o";
+    private static final String RECOMPUTE_FLAG = "r";
+
+    private static final String DENSE_EIGEN_SOLVER = "dense";
+    private static final String LANCZOS_EIGEN_SOLVER = "lanczos";
 
     public static void main(String[] args) {
         try {
@@ -28,13 +54,21 @@ public class CalculateEigenVectorsRunner {
             verifyInputs(cmd);
 
             // get the count of eigenvectors
-            final int kCount = 0; // TODO
+            final int kCount = Integer.parseInt(cmd.getOptionValue(EIGENVECTOR_COUNT_FLAG));
 
             // parse the input file
-            final EigenDecomposition decomposition = parseInputData(cmd);
+            final SymmetricMatrix similarityMatrix = parseInputData(cmd);
+
+            // keep an embedding of this matrix that already covers k
+            final Path matrixPath = Paths.get(cmd.getOptionValue(SIMILARITY_MATRIX_FILE_FLAG));
+            final Path outputPath = parseOutputPath(cmd, matrixPath);
+            if (!cmd.hasOption(RECOMPUTE_FLAG) && coversEmbedding(outputPath, matrixPath, similarityMatrix.size(), kCount)) {
+                System.out.println(String.format("Embedding {%s} already covers %d eigenvectors.", outputPath, kCount));
+                return;
+            }
 
-            // output a new file with the enhanced genre data
-            outputEigenvectors(decomposition, kCount);
+            // output a new file with the embedded users
+            outputEigenvectors(cmd, similarityMatrix, kCount, matrixPath, outputPath);
 
         } catch (final Exception e) {
             e.printStackTrace();
@@ -51,9 +85,13 @@ public class CalculateEigenVectorsRunner {
 
     private static Options initOptions() {
         final Options options = new Options();
-        options.addOption(SIMILARITY_MATRIX_FILE_FLAG, true, "");
-        options.addOption(DEGREE_VECTOR_FILE_FLAG, true, "");
-        options.addOption(EIGENVECTOR_COUNT_FLAG, true, "");
+        options.addOption(SIMILARITY_MATRIX_FILE_FLAG, true, "the similarity matrix to embed, binary or text");
+        options.addOption(DEGREE_VECTOR_FILE_FLAG, true, "the matrix row sums, one per line; computed if omitted");
+        options.addOption(EIGENVECTOR_COUNT_FLAG, true, "the number of eigenvectors to keep");
+        options.addOption(USER_COUNT_FLAG, true, "the size of a text similarity matrix");
+        options.addOption(EIGEN_SOLVER_FLAG, true, "the eigen solver: lanczos (default) or dense");
+        options.addOption(OUTPUT_FILE_FLAG, true, "the point file to write (default netflix_data/<matrix name>.embedding.bin)");
+        options.addOption(RECOMPUTE_FLAG, false, "recompute the embedding even if the output already covers k");
         return options;
     }
 
@@ -64,48 +102,119 @@ public class CalculateEigenVectorsRunner {
     private static void verifyInputs(final CommandLine cmd) {
         // make sure a file is passed in
         if (!cmd.hasOption(SIMILARITY_MATRIX_FILE_FLAG)) {
-            throw new IllegalArgumentException("No training input file provided.");
-        }
-        if (!cmd.hasOption(DEGREE_VECTOR_FILE_FLAG)) {
-            throw new IllegalArgumentException("No training input file provided.");
+            throw new IllegalArgumentException("No similarity matrix file provided.");
         }
         if (!cmd.hasOption(EIGENVECTOR_COUNT_FLAG)) {
-            throw new IllegalArgumentException("No training input file provided.");
+            throw new IllegalArgumentException("No eigenvector count provided.");
+        }
+        final String solver = cmd.getOptionValue(EIGEN_SOLVER_FLAG, LANCZOS_EIGEN_SOLVER);
+        if (!solver.equals(DENSE_EIGEN_SOLVER) && !solver.equals(LANCZOS_EIGEN_SOLVER)) {
+            throw new IllegalArgumentException(String.format("Unknown eigen solver {%s}.", solver));
         }
     }
 
-    private static EigenDecomposition parseInputData(final CommandLine cmd)
+    private static SymmetricMatrix parseInputData(final CommandLine cmd)
         throws Exception
     {
         final String inputFileLoc = cmd.getOptionValue(SIMILARITY_MATRIX_FILE_FLAG);
         System.out.println(String.format("Reading {%s}.", inputFileLoc));
 
-        final EigenDecomposition decomposition = new EigenDecomposition(null, null); // TODO
+        // binary matrices are mapped in place rather than parsed
+        if (SimilarityMatrixFile.isBinary(Paths.get(inputFileLoc))) {
+            return SimilarityMatrixFile.openMatrix(Paths.get(inputFileLoc));
+        }
+        if (!cmd.hasOption(USER_COUNT_FLAG)) {
+            throw new IllegalArgumentException("No size provided for the text similarity matrix.");
+        }
+
+        final Integer size = Integer.parseInt(cmd.getOptionValue(USER_COUNT_FLAG));
+        double[][] similarityMatrix = new double[size][size];
+        final File inputFile = new File(inputFileLoc);
+        final CSVParser parser = CSVParser.parse(inputFile, Charset.forName("UTF-8"), CSVFormat.DEFAULT);
+
+        int row = 0;
+        for (final CSVRecord csvRecord : parser) {
+            for (int i = 0; i < csvRecord.size(); i++) {
+                similarityMatrix[row][i] = Double.parseDouble(csvRecord.get(i));
+            }
+            row++;
+        }
+        return new SimilarityMatrix(similarityMatrix);
+    }
+
+    private static double[] parseDegrees(final CommandLine cmd)
+        throws Exception
+    {
+        if (!cmd.hasOption(DEGREE_VECTOR_FILE_FLAG)) {
+            return null;
+        }
+        final String inputFileLoc = cmd.getOptionValue(DEGREE_VECTOR_FILE_FLAG);
+        System.out.println(String.format("Reading {%s}.", inputFileLoc));
+
+        final List<String> lines = Files.readAllLines(Paths.get(inputFileLoc), Charset.forName("UTF-8"));
+        final double[] degrees = new double[lines.size()];
+        for (int i = 0; i < degrees.length; i++) {
+            degrees[i] = Double.parseDouble(lines.get(i).trim());
+        }
+        return degrees;
+    }
 
-        return decomposition;
+    // by default the embedding is named after its matrix alone, so that the
+    // embeddings of different matrices never share a file, and a run at any
+    // k finds the widest embedding computed so far
+    private static Path parseOutputPath(final CommandLine cmd,
+                                        final Path matrixPath) {
+        if (cmd.hasOption(OUTPUT_FILE_FLAG)) {
+            return Paths.get(cmd.getOptionValue(OUTPUT_FILE_FLAG));
+        }
+        final String matrixName = matrixPath.getFileName().toString();
+        final int extension = matrixName.lastIndexOf('.');
+        return Paths.get(String.format("netflix_data/%s.embedding.bin",
+                                       extension > 0 ? matrixName.substring(0, extension) : matrixName));
     }
 
-    private static void outputEigenvectors(final EigenDecomposition decomposition,
+    // an existing point file computed from the matrix file as it is now,
+    // over the same users and at least k wide
+    private static boolean coversEmbedding(final Path path,
+                                           final Path matrixPath,
+                                           final int size,
                                            final int kCount)
         throws Exception
     {
-        final String filename = String.format("netflix_data/eigenvectors-%d.txt", kCount);
-        final Path filepath = Files.createFile(Paths.get(filename));
-        final BufferedWriter writer = Files.newBufferedWriter(filepath);
-
-        for (int i = 0; i < kCount; i++) {
-            final RealVector eigenvector = decomposition.getEigenvector(i);
-            final double[] eigenArray = eigenvector.toArray();
-            StringBuilder builder = new StringBuilder();
-            for (int j = 0; j < eigenArray.length; j++) {
-                builder = builder.append(String.format("0.4f", eigenArray[j]));
-                if (j < eigenArray.length - 1) {
-                    builder = builder.append(",");
-                }
-            }
-            writer.write(String.format("%s\n", builder.toString()));
+        if (!Files.exists(path) || !PointFile.isPointFile(path)) {
+            return false;
+        }
+        if (!PointFile.isComputedFrom(path, matrixPath)) {
+            System.out.println(String.format("Embedding {%s} is not of the current {%s}.", path, matrixPath));
+            return false;
         }
+        final MappedPointSource embedding = PointFile.open(path);
+        return embedding.size() == size && embedding.dimension() >= kCount;
+    }
 
-        System.out.println(String.format("Wrote output file {%s} successfully.", filename));
+    private static void outputEigenvectors(final CommandLine cmd,
+                                           final SymmetricMatrix similarityMatrix,
+                                           final int kCount,
+                                           final Path matrixPath,
+                                           final Path outputPath)
+        throws Exception
+    {
+        System.out.println(String.format("Starting to calculate %d eigenvectors.", kCount));
+
+        // the matrix is not needed once embedded, so a parsed one is scaled in place
+        final SpectralEmbeddingLearner learner = new SpectralEmbeddingLearner(similarityMatrix, kCount)
+                .withDenseEigenSolver(cmd.getOptionValue(EIGEN_SOLVER_FLAG, LANCZOS_EIGEN_SOLVER).equals(DENSE_EIGEN_SOLVER))
+                .withInPlaceScaling(true)
+                .withDegrees(parseDegrees(cmd));
+        (new Thread(new UpdateLearningProgressRunnable(learner))).start();
+        final ArrayPointSource embedding = learner.learn();
+        System.out.println(String.format("Calculated eigenvectors successfully."));
+
+        // write through a temporary file, so that an interrupted run never
+        // leaves a partial embedding that looks complete
+        final Path temporaryPath = outputPath.resolveSibling(String.format("%s.tmp", outputPath.getFileName()));
+        PointFile.write(temporaryPath, embedding, matrixPath);
+        Files.move(temporaryPath, outputPath, StandardCopyOption.REPLACE_EXISTING);
+        System.out.println(String.format("Wrote output file {%s} successfully.", outputPath.getFileName().toString()));
     }
 }
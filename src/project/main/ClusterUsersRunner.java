@@ -2,10 +2,9 @@ package project.main;
 
 import java.io.File;
 import java.nio.charset.Charset;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -18,17 +17,39 @@ import org.apache.commons.csv.CSVRecord;
 
 import project.learner.collaborative.NetflixClusteringLearner;
 import project.model.ClusteredFilter;
+import project.model.accuracy.ClusterQualityReport;
+import project.model.clustering.PointFile;
+import project.model.clustering.PointSource;
 import project.model.identifiers.KValue;
-import project.model.identifiers.MovieId;
-import project.model.identifiers.UserId;
-import project.model.netflix.UserRating;
+import project.model.netflix.NetflixRatingsReader;
+import project.model.ratings.RatingSnapshot;
+import project.model.ratings.RatingSource;
+import project.model.similarity.NeighbourGraph;
+import project.model.similarity.SimilarityMatrix;
+import project.model.similarity.SimilarityMatrixFile;
+import project.model.similarity.SimilarityMetrics;
+import project.model.similarity.SymmetricMatrix;
 
 public class ClusterUsersRunner {
 
     private static final String SIMILARITY_MATRIX_FILE_FLAG = "s";
+    private static final String SIMILARITY_GRAPH_FILE_FLAG = "g";
     private static final String TRAINING_RATINGS_FILE_FLAG = "f";
     private static final String EIGENVECTOR_COUNT_FLAG = "k";
     private static final String USER_COUNT_FLAG = "u";
+    private static final String EIGEN_SOLVER_FLAG = "e";
+    private static final String SILHOUETTE_SAMPLE_FLAG = "p";
+    private static final String MINI_BATCH_SIZE_FLAG = "b";
+    private static final String POINT_FILE_FLAG = "z";
+    private static final String SIMILARITY_METRIC_FLAG = "w";
+    private static final String ITEM_BASED_FLAG = "i";
+    private static final String EMBEDDING_FILE_FLAG = "v";
+    private static final String IN_PLACE_FLAG = "l";
+
+    private static final int SILHOUETTE_MEMBERS_PER_CLUSTER = 1000;
+
+    private static final String DENSE_EIGEN_SOLVER = "dense";
+    private static final String LANCZOS_EIGEN_SOLVER = "lanczos";
 
     public static void main(String[] args) {
         try {
@@ -42,13 +63,19 @@ public class ClusterUsersRunner {
             final KValue kCount = new KValue(Integer.parseInt(cmd.getOptionValue(EIGENVECTOR_COUNT_FLAG)));
 
             // parse the input files
-            final List<UserRating> data = parseInputData(cmd);
-            final double[][] similarityMatrix = parseAdjacencyMatrix(cmd);
+            final RatingSource data = parseInputData(cmd);
 
             // run the clustering algorithms
-            final ClusteredFilter filter = clusterUsers(data, similarityMatrix, kCount);
+            final ClusteredFilter filter;
+            if (cmd.hasOption(EMBEDDING_FILE_FLAG)) {
+                filter = clusterUsers(cmd, data, parseEmbedding(cmd), kCount);
+            } else if (cmd.hasOption(SIMILARITY_GRAPH_FILE_FLAG)) {
+                filter = clusterUsers(cmd, data, parseNeighbourGraph(cmd), kCount);
+            } else {
+                filter = clusterUsers(cmd, data, parseAdjacencyMatrix(cmd), kCount);
+            }
 
-            analyzeSilhouette(filter);
+            analyzeSilhouette(cmd, filter);
 
             // output the clusters
             printClusters(filter);
@@ -69,9 +96,19 @@ public class ClusterUsersRunner {
     private static Options initOptions() {
         final Options options = new Options();
         options.addOption(SIMILARITY_MATRIX_FILE_FLAG, true, "");
-        options.addOption(TRAINING_RATINGS_FILE_FLAG, true, "");
+        options.addOption(SIMILARITY_GRAPH_FILE_FLAG, true, "a sparse neighbour graph to cluster instead of a matrix");
+        options.addOption(TRAINING_RATINGS_FILE_FLAG, true, "the movie input file or rating snapshot to process");
         options.addOption(EIGENVECTOR_COUNT_FLAG, true, "");
         options.addOption(USER_COUNT_FLAG, true, "the number of users to process");
+        options.addOption(EIGEN_SOLVER_FLAG, true, "the eigen solver: lanczos (default) or dense");
+        options.addOption(SILHOUETTE_SAMPLE_FLAG, true, "estimate the silhouette from this many sampled users");
+        options.addOption(MINI_BATCH_SIZE_FLAG, true, "cluster with mini-batch k-means over batches of this many users");
+        options.addOption(POINT_FILE_FLAG, true, "write the reduced user points here and cluster from its mapping");
+        options.addOption(SIMILARITY_METRIC_FLAG, true, String.format(
+                "the similarity metric the matrix was built with, for the silhouette: one of %s", SimilarityMetrics.NAMES));
+        options.addOption(ITEM_BASED_FLAG, false, "the binary matrix or graph is movie-movie, so movies are clustered");
+        options.addOption(EMBEDDING_FILE_FLAG, true, "cluster the first k columns of a user embedding from CalculateEigenVectorsRunner");
+        options.addOption(IN_PLACE_FLAG, false, "scale a text matrix into L in place, saving a copy of it");
         return options;
     }
 
@@ -81,7 +118,8 @@ public class ClusterUsersRunner {
 
     private static void verifyInputs(final CommandLine cmd) {
         // make sure a file is passed in
-        if (!cmd.hasOption(SIMILARITY_MATRIX_FILE_FLAG)) {
+        if (!cmd.hasOption(SIMILARITY_MATRIX_FILE_FLAG) && !cmd.hasOption(SIMILARITY_GRAPH_FILE_FLAG)
+                && !cmd.hasOption(EMBEDDING_FILE_FLAG)) {
             throw new IllegalArgumentException("No similarity matrix file provided.");
         }
         if (!cmd.hasOption(TRAINING_RATINGS_FILE_FLAG)) {
@@ -90,17 +128,30 @@ public class ClusterUsersRunner {
         if (!cmd.hasOption(EIGENVECTOR_COUNT_FLAG)) {
             throw new IllegalArgumentException("No eigenvector count provided.");
         }
-        if (!cmd.hasOption(USER_COUNT_FLAG)) {
+        if (!cmd.hasOption(USER_COUNT_FLAG) && !cmd.hasOption(ITEM_BASED_FLAG)) {
             throw new IllegalArgumentException("No user count provided.");
         }
+        // an embedding carries no similarities, so the silhouette of its
+        // clusters would fall back to the user kernel, which cannot weigh movies
+        if (cmd.hasOption(ITEM_BASED_FLAG) && cmd.hasOption(EMBEDDING_FILE_FLAG)) {
+            throw new IllegalArgumentException("Movies cannot be clustered from an embedding; pass their matrix or graph instead.");
+        }
     }
 
-    private static double[][] parseAdjacencyMatrix(final CommandLine cmd)
+    private static SymmetricMatrix parseAdjacencyMatrix(final CommandLine cmd)
         throws Exception
     {
         final String inputFileLoc = cmd.getOptionValue(SIMILARITY_MATRIX_FILE_FLAG);
         System.out.println(String.format("Reading {%s}.", inputFileLoc));
 
+        // binary matrices are mapped in place rather than parsed
+        if (SimilarityMatrixFile.isBinary(Paths.get(inputFileLoc))) {
+            return SimilarityMatrixFile.openMatrix(Paths.get(inputFileLoc));
+        }
+        if (cmd.hasOption(ITEM_BASED_FLAG)) {
+            throw new IllegalArgumentException("Movie similarity matrices must be binary.");
+        }
+
         final Integer size = Integer.parseInt(cmd.getOptionValue(USER_COUNT_FLAG));
         double[][] similarityMatrix = new double[size][size];
         final File inputFile = new File(inputFileLoc);
@@ -113,49 +164,149 @@ public class ClusterUsersRunner {
             }
             row++;
         }
-        return similarityMatrix;
+        return new SimilarityMatrix(similarityMatrix);
     }
 
-    private static List<UserRating> parseInputData(final CommandLine cmd)
+    private static PointSource parseEmbedding(final CommandLine cmd)
         throws Exception
     {
-        final String inputFileLoc = cmd.getOptionValue(TRAINING_RATINGS_FILE_FLAG);
+        final String inputFileLoc = cmd.getOptionValue(EMBEDDING_FILE_FLAG);
         System.out.println(String.format("Reading {%s}.", inputFileLoc));
+        if (!PointFile.isPointFile(Paths.get(inputFileLoc))) {
+            throw new IllegalArgumentException(String.format("File {%s} is not an embedding.", inputFileLoc));
+        }
+        return PointFile.open(Paths.get(inputFileLoc));
+    }
+
+    private static NeighbourGraph parseNeighbourGraph(final CommandLine cmd)
+        throws Exception
+    {
+        final String inputFileLoc = cmd.getOptionValue(SIMILARITY_GRAPH_FILE_FLAG);
+        System.out.println(String.format("Reading {%s}.", inputFileLoc));
+
+        if (SimilarityMatrixFile.isBinary(Paths.get(inputFileLoc))) {
+            return SimilarityMatrixFile.readGraph(Paths.get(inputFileLoc));
+        }
+        if (cmd.hasOption(ITEM_BASED_FLAG)) {
+            throw new IllegalArgumentException("Movie similarity graphs must be binary.");
+        }
 
-        // load in the file
         final Integer size = Integer.parseInt(cmd.getOptionValue(USER_COUNT_FLAG));
-        final Map<UserId, Integer> userIdTruncationMap = new HashMap<UserId, Integer>();
-        final List<UserRating> records = new ArrayList<UserRating>();
+        final double[] selfWeights = new double[size];
+        int[] edgeRows = new int[size];
+        int[] edgeCols = new int[size];
+        float[] edgeWeights = new float[size];
+        int edgeCount = 0;
         final File inputFile = new File(inputFileLoc);
         final CSVParser parser = CSVParser.parse(inputFile, Charset.forName("UTF-8"), CSVFormat.DEFAULT);
         for (final CSVRecord csvRecord : parser) {
-            final MovieId movieId = MovieId.valueOf( Integer.parseInt( csvRecord.get(0) ) );
-            final UserId userId = UserId.valueOf( Integer.parseInt( csvRecord.get(1) ) );
-            final Double rating = Double.parseDouble( csvRecord.get(2) );
-            if (userIdTruncationMap.size() < size || userIdTruncationMap.containsKey(userId)) {
-                final Integer nextId = userIdTruncationMap.getOrDefault(userId, userIdTruncationMap.size());
-
-                records.add(new UserRating(UserId.valueOf(nextId), movieId, rating));
-                userIdTruncationMap.put(userId, nextId);
+            final int row = Integer.parseInt(csvRecord.get(0));
+            final int col = Integer.parseInt(csvRecord.get(1));
+            final float weight = Float.parseFloat(csvRecord.get(2));
+            if (row >= size || col >= size) {
+                continue;
+            }
+            if (row == col) {
+                selfWeights[row] = weight;
+                continue;
+            }
+            if (edgeCount == edgeRows.length) {
+                edgeRows = Arrays.copyOf(edgeRows, Math.max(16, edgeCount * 2));
+                edgeCols = Arrays.copyOf(edgeCols, Math.max(16, edgeCount * 2));
+                edgeWeights = Arrays.copyOf(edgeWeights, Math.max(16, edgeCount * 2));
             }
+            edgeRows[edgeCount] = row;
+            edgeCols[edgeCount] = col;
+            edgeWeights[edgeCount] = weight;
+            edgeCount++;
+        }
+        return NeighbourGraph.fromEdges(size, edgeRows, edgeCols, edgeWeights, edgeCount, selfWeights);
+    }
+
+    private static RatingSource parseInputData(final CommandLine cmd)
+        throws Exception
+    {
+        final String inputFileLoc = cmd.getOptionValue(TRAINING_RATINGS_FILE_FLAG);
+        System.out.println(String.format("Reading {%s}.", inputFileLoc));
+
+        // a snapshot is restored, keeping the same users as the file would,
+        // otherwise the file is streamed into the filter once learning starts;
+        // movies are compared over every user, so none are left out
+        final Path inputPath = Paths.get(inputFileLoc);
+        if (RatingSnapshot.isSnapshot(inputPath)) {
+            final RatingSnapshot snapshot = new RatingSnapshot(inputPath);
+            return cmd.hasOption(ITEM_BASED_FLAG)
+                    ? snapshot
+                    : snapshot.withUserLimit(Integer.parseInt(cmd.getOptionValue(USER_COUNT_FLAG)));
         }
-        System.out.println(String.format("File {%s} parsed successfully.", inputFileLoc));
+        if (cmd.hasOption(ITEM_BASED_FLAG)) {
+            return new NetflixRatingsReader(inputPath, NetflixRatingsReader.NO_USER_LIMIT);
+        }
+        final Integer size = Integer.parseInt(cmd.getOptionValue(USER_COUNT_FLAG));
+        return new NetflixRatingsReader(inputPath, size);
+    }
 
-        return records;
+    private static ClusteredFilter clusterUsers(final CommandLine cmd,
+                                                final RatingSource data,
+                                                final SymmetricMatrix similarityMatrix,
+                                                final KValue kCount)
+        throws Exception
+    {
+        return new NetflixClusteringLearner(data, similarityMatrix, kCount)
+                .withDenseEigenSolver(useDenseEigenSolver(cmd))
+                .withInPlaceScaling(cmd.hasOption(IN_PLACE_FLAG))
+                .withMiniBatchSize(Integer.parseInt(cmd.getOptionValue(MINI_BATCH_SIZE_FLAG, "0")))
+                .withPointFile(cmd.hasOption(POINT_FILE_FLAG) ? Paths.get(cmd.getOptionValue(POINT_FILE_FLAG)) : null)
+                .withSimilarityMetric(cmd.getOptionValue(SIMILARITY_METRIC_FLAG, SimilarityMetrics.PEARSON))
+                .learn();
+    }
+
+    private static ClusteredFilter clusterUsers(final CommandLine cmd,
+                                                final RatingSource data,
+                                                final NeighbourGraph neighbourGraph,
+                                                final KValue kCount)
+        throws Exception
+    {
+        return new NetflixClusteringLearner(data, neighbourGraph, kCount)
+                .withDenseEigenSolver(useDenseEigenSolver(cmd))
+                .withMiniBatchSize(Integer.parseInt(cmd.getOptionValue(MINI_BATCH_SIZE_FLAG, "0")))
+                .withPointFile(cmd.hasOption(POINT_FILE_FLAG) ? Paths.get(cmd.getOptionValue(POINT_FILE_FLAG)) : null)
+                .withSimilarityMetric(cmd.getOptionValue(SIMILARITY_METRIC_FLAG, SimilarityMetrics.PEARSON))
+                .learn();
     }
 
-    private static ClusteredFilter clusterUsers(final List<UserRating> data,
-                                                final double[][] similarityMatrix,
+    private static ClusteredFilter clusterUsers(final CommandLine cmd,
+                                                final RatingSource data,
+                                                final PointSource embedding,
                                                 final KValue kCount)
         throws Exception
     {
-        return new NetflixClusteringLearner(data, similarityMatrix, kCount).learn();
+        return new NetflixClusteringLearner(data, embedding, kCount)
+                .withMiniBatchSize(Integer.parseInt(cmd.getOptionValue(MINI_BATCH_SIZE_FLAG, "0")))
+                .withSimilarityMetric(cmd.getOptionValue(SIMILARITY_METRIC_FLAG, SimilarityMetrics.PEARSON))
+                .learn();
     }
 
-    private static void analyzeSilhouette(final ClusteredFilter filter)
+    private static boolean useDenseEigenSolver(final CommandLine cmd) {
+        final String solver = cmd.getOptionValue(EIGEN_SOLVER_FLAG, LANCZOS_EIGEN_SOLVER);
+        if (!solver.equals(DENSE_EIGEN_SOLVER) && !solver.equals(LANCZOS_EIGEN_SOLVER)) {
+            throw new IllegalArgumentException(String.format("Unknown eigen solver {%s}.", solver));
+        }
+        return solver.equals(DENSE_EIGEN_SOLVER);
+    }
+
+    private static void analyzeSilhouette(final CommandLine cmd,
+                                          final ClusteredFilter filter)
         throws Exception
     {
-        filter.silhouette();
+        final ClusterQualityReport report;
+        if (cmd.hasOption(SILHOUETTE_SAMPLE_FLAG)) {
+            final int sampleSize = Integer.parseInt(cmd.getOptionValue(SILHOUETTE_SAMPLE_FLAG));
+            report = filter.silhouette(sampleSize, SILHOUETTE_MEMBERS_PER_CLUSTER, System.nanoTime());
+        } else {
+            report = filter.silhouette();
+        }
+        System.out.println(report);
     }
 
     private static void printClusters(final ClusteredFilter filter)
@@ -0,0 +1,152 @@
+package project.main;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import project.learner.collaborative.CollaborativeFilterLearner;
+import project.learner.collaborative.NetflixCollaborativeLearner;
+import project.main.runnable.UpdateLearningProgressRunnable;
+import project.model.CollaborativeFilter;
+import project.model.netflix.NetflixRatingsReader;
+import project.model.ratings.IdIndex;
+import project.model.ratings.RatingSnapshot;
+import project.model.ratings.RatingSource;
+
+// Writes a rating snapshot for the other runners to restore. Users are always
+// renumbered densely in order of first appearance, and the snapshot keeps
+// their raw ids, so that deltas and held-out files can be lined up with it.
+// As in PopulateSimilarityMatrixRunner, -u n keeps the first n + 1 users, so
+// that the two give the same users for the same flags.
+public class CreateRatingSnapshotRunner {
+
+    private static final String TRAINING_RATINGS_FILE_FLAG = "f";
+    private static final String USER_COUNT_FLAG = "u";
+    private static final String OUTPUT_FILE_FLAG = "o";
+    private static final String DELTA_FILE_FLAG = "d";
+
+    public static void main(String[] args) {
+        try {
+            // parse input args
+            final CommandLine cmd = parseArgs(args);
+
+            // verify inputs
+            verifyInputs(cmd);
+
+            // parse the input file
+            final RatingSource records = parseInputData(cmd);
+            final CollaborativeFilter filter = learnFilter(records);
+            final IdIndex userMapping = records instanceof RatingSnapshot
+                    ? ((RatingSnapshot) records).getUserMapping()
+                    : ((NetflixRatingsReader) records).getUserMapping();
+
+            // fold in the new and changed ratings, if any
+            if (cmd.hasOption(DELTA_FILE_FLAG)) {
+                applyDelta(cmd, filter, userMapping);
+            }
+
+            // output the snapshot
+            outputSnapshot(cmd, filter, userMapping);
+
+        } catch (final Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static CommandLine parseArgs(final String[] args)
+        throws ParseException
+    {
+        final Options options = initOptions();
+        final CommandLineParser cmdParser = initCommandParser();
+        return cmdParser.parse(options, args);
+    }
+
+    private static Options initOptions() {
+        final Options options = new Options();
+        options.addOption(TRAINING_RATINGS_FILE_FLAG, true, "the movie input file or rating snapshot to process");
+        options.addOption(USER_COUNT_FLAG, true, "keep users 0..n, the first n + 1 of the file (all users if omitted)");
+        options.addOption(OUTPUT_FILE_FLAG, true, "the snapshot file to write");
+        options.addOption(DELTA_FILE_FLAG, true, "a movie input file of new or changed ratings to apply");
+        return options;
+    }
+
+    private static CommandLineParser initCommandParser() {
+        return new DefaultParser();
+    }
+
+    private static void verifyInputs(final CommandLine cmd) {
+        // make sure a file is passed in
+        if (!cmd.hasOption(TRAINING_RATINGS_FILE_FLAG)) {
+            throw new IllegalArgumentException("No training input file provided.");
+        }
+    }
+
+    private static RatingSource parseInputData(final CommandLine cmd)
+        throws Exception
+    {
+        final String inputFileLoc = cmd.getOptionValue(TRAINING_RATINGS_FILE_FLAG);
+        System.out.println(String.format("Reading {%s}.", inputFileLoc));
+
+        // an existing snapshot is restored, e.g. to apply a delta, keeping
+        // the same users a fresh read would
+        final Path inputPath = Paths.get(inputFileLoc);
+        if (RatingSnapshot.isSnapshot(inputPath)) {
+            final RatingSnapshot snapshot = new RatingSnapshot(inputPath);
+            return cmd.hasOption(USER_COUNT_FLAG) ? snapshot.withUserLimit(parseUserLimit(cmd)) : snapshot;
+        }
+        return new NetflixRatingsReader(inputPath, parseUserLimit(cmd));
+    }
+
+    private static int parseUserLimit(final CommandLine cmd) {
+        return cmd.hasOption(USER_COUNT_FLAG)
+                ? Integer.parseInt(cmd.getOptionValue(USER_COUNT_FLAG)) + 1
+                : NetflixRatingsReader.ALL_USERS;
+    }
+
+    private static CollaborativeFilter learnFilter(final RatingSource records)
+        throws Exception
+    {
+        final CollaborativeFilterLearner learner = new NetflixCollaborativeLearner(records);
+        (new Thread(new UpdateLearningProgressRunnable(learner))).start();
+        final CollaborativeFilter filter = learner.learn();
+        System.out.println("Collaborative filter learned successfully.");
+        return filter;
+    }
+
+    // the delta's raw user ids are translated through the training mapping;
+    // users it has not seen are numbered after the known ones, within -u
+    private static void applyDelta(final CommandLine cmd,
+                                   final CollaborativeFilter filter,
+                                   final IdIndex userMapping)
+        throws Exception
+    {
+        final String deltaFileLoc = cmd.getOptionValue(DELTA_FILE_FLAG);
+        System.out.println(String.format("Applying {%s}.", deltaFileLoc));
+
+        final long start = System.nanoTime();
+        final RatingSource delta = new NetflixRatingsReader(Paths.get(deltaFileLoc), parseUserLimit(cmd))
+                .extendingUserMapping(userMapping);
+        delta.load(filter::applyUpdates);
+        System.out.println(String.format("Applied %d ratings in %.2fs, changing %d users.",
+                                         delta.getRatingsLoaded(),
+                                         (System.nanoTime() - start) / 1.0e9,
+                                         filter.getDirtyUsers().cardinality()));
+    }
+
+    private static void outputSnapshot(final CommandLine cmd,
+                                       final CollaborativeFilter filter,
+                                       final IdIndex userMapping)
+        throws Exception
+    {
+        final Path filepath = cmd.hasOption(OUTPUT_FILE_FLAG)
+                ? Paths.get(cmd.getOptionValue(OUTPUT_FILE_FLAG))
+                : Paths.get(String.format("netflix_data/ratings-snapshot-%d.bin", filter.getRatingStore().getUserCount()));
+        RatingSnapshot.write(filepath, filter, userMapping);
+        System.out.println(String.format("Wrote output file {%s} successfully.", filepath.getFileName().toString()));
+    }
+}
@@ -0,0 +1,236 @@
+package project.main;
+
+import java.io.BufferedWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import project.learner.Learner;
+import project.learner.accuracy.PredictionAccuracyLearner;
+import project.learner.collaborative.CollaborativeFilterLearner;
+import project.learner.collaborative.NetflixCollaborativeLearner;
+import project.learner.similarity.ItemSimilarityMatrixLearner;
+import project.learner.similarity.NeighbourGraphLearner;
+import project.main.runnable.UpdateLearningProgressRunnable;
+import project.model.CollaborativeFilter;
+import project.model.accuracy.AccuracyMeasurement;
+import project.model.netflix.NetflixRatingsReader;
+import project.model.prediction.ItemNeighbourhoodPredictor;
+import project.model.prediction.RatingPredictor;
+import project.model.prediction.UserNeighbourhoodPredictor;
+import project.model.ratings.RatingSnapshot;
+import project.model.ratings.RatingSource;
+import project.model.ratings.RatingStore;
+import project.model.similarity.NeighbourGraph;
+import project.model.similarity.SimilarityMatrix;
+import project.model.similarity.SimilarityMatrixFile;
+import project.model.similarity.SymmetricMatrix;
+
+public class EvaluatePredictionsRunner {
+
+    private static final String TRAINING_RATINGS_FILE_FLAG = "f";
+    private static final String TEST_RATINGS_FILE_FLAG = "t";
+    private static final String USER_COUNT_FLAG = "u";
+    private static final String SIMILARITY_GRAPH_FILE_FLAG = "g";
+    private static final String NEIGHBOUR_COUNT_FLAG = "n";
+    private static final String USER_BREAKDOWN_FILE_FLAG = "b";
+    private static final String ITEM_BASED_FLAG = "i";
+    private static final String ITEM_MATRIX_FILE_FLAG = "m";
+
+    public static void main(String[] args) {
+        try {
+            // parse input args
+            final CommandLine cmd = parseArgs(args);
+
+            // verify inputs
+            verifyInputs(cmd);
+
+            // parse the training file, keeping the user mapping for the test file
+            final RatingSource trainingData = parseTrainingData(cmd);
+            final CollaborativeFilter filter = learnFilter(trainingData);
+
+            // build the predictor
+            final RatingPredictor predictor = cmd.hasOption(ITEM_BASED_FLAG)
+                    ? new ItemNeighbourhoodPredictor(filter, parseItemMatrix(cmd, filter), parseNeighbourCount(cmd))
+                    : new UserNeighbourhoodPredictor(filter, parseNeighbourGraph(cmd, filter));
+
+            // score the held-out ratings
+            final AccuracyMeasurement accuracy =
+                    evaluate(cmd, parseTestData(cmd, trainingData), predictor, filter.getRatingStore());
+
+            // output the per-user breakdown
+            if (cmd.hasOption(USER_BREAKDOWN_FILE_FLAG)) {
+                outputUserBreakdown(cmd, accuracy, filter.getRatingStore());
+            }
+
+        } catch (final Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static CommandLine parseArgs(final String[] args)
+        throws ParseException
+    {
+        final Options options = initOptions();
+        final CommandLineParser cmdParser = initCommandParser();
+        return cmdParser.parse(options, args);
+    }
+
+    private static Options initOptions() {
+        final Options options = new Options();
+        options.addOption(TRAINING_RATINGS_FILE_FLAG, true, "the movie input file or rating snapshot to train on");
+        options.addOption(TEST_RATINGS_FILE_FLAG, true, "the held-out movie input file to score");
+        options.addOption(USER_COUNT_FLAG, true, "the number of users to keep (all users if omitted)");
+        options.addOption(SIMILARITY_GRAPH_FILE_FLAG, true, "a binary neighbour graph to predict from");
+        options.addOption(NEIGHBOUR_COUNT_FLAG, true, "the neighbours per user or movie, when no graph is given (default 50)");
+        options.addOption(ITEM_BASED_FLAG, false, "predict from movie-movie similarities instead of user neighbours");
+        options.addOption(ITEM_MATRIX_FILE_FLAG, true, "a binary movie-movie similarity matrix to predict from");
+        options.addOption(USER_BREAKDOWN_FILE_FLAG, true, "write the per-user accuracy to this file");
+        return options;
+    }
+
+    private static CommandLineParser initCommandParser() {
+        return new DefaultParser();
+    }
+
+    private static void verifyInputs(final CommandLine cmd) {
+        // make sure the files are passed in
+        if (!cmd.hasOption(TRAINING_RATINGS_FILE_FLAG)) {
+            throw new IllegalArgumentException("No training input file provided.");
+        }
+        if (!cmd.hasOption(TEST_RATINGS_FILE_FLAG)) {
+            throw new IllegalArgumentException("No test input file provided.");
+        }
+    }
+
+    private static RatingSource parseTrainingData(final CommandLine cmd)
+        throws Exception
+    {
+        final String inputFileLoc = cmd.getOptionValue(TRAINING_RATINGS_FILE_FLAG);
+        System.out.println(String.format("Reading {%s}.", inputFileLoc));
+
+        final Path inputPath = Paths.get(inputFileLoc);
+        if (RatingSnapshot.isSnapshot(inputPath)) {
+            final RatingSnapshot snapshot = new RatingSnapshot(inputPath);
+            return cmd.hasOption(USER_COUNT_FLAG)
+                    ? snapshot.withUserLimit(Integer.parseInt(cmd.getOptionValue(USER_COUNT_FLAG)))
+                    : snapshot;
+        }
+        final int userCount = cmd.hasOption(USER_COUNT_FLAG)
+                ? Integer.parseInt(cmd.getOptionValue(USER_COUNT_FLAG))
+                : NetflixRatingsReader.NO_USER_LIMIT;
+        return new NetflixRatingsReader(inputPath, userCount);
+    }
+
+    // the test users are translated through the training truncation, from
+    // the reader or from the raw ids the snapshot keeps
+    private static RatingSource parseTestData(final CommandLine cmd,
+                                              final RatingSource trainingData)
+        throws Exception
+    {
+        final String inputFileLoc = cmd.getOptionValue(TEST_RATINGS_FILE_FLAG);
+        System.out.println(String.format("Reading {%s}.", inputFileLoc));
+
+        final NetflixRatingsReader reader =
+                new NetflixRatingsReader(Paths.get(inputFileLoc), NetflixRatingsReader.NO_USER_LIMIT);
+        if (trainingData instanceof RatingSnapshot) {
+            reader.withUserMapping(((RatingSnapshot) trainingData).getUserMapping());
+        } else if (trainingData instanceof NetflixRatingsReader
+                && ((NetflixRatingsReader) trainingData).getUserMapping() != null) {
+            reader.withUserMapping(((NetflixRatingsReader) trainingData).getUserMapping());
+        }
+        return reader;
+    }
+
+    private static CollaborativeFilter learnFilter(final RatingSource trainingData)
+        throws Exception
+    {
+        final CollaborativeFilterLearner learner = new NetflixCollaborativeLearner(trainingData);
+        (new Thread(new UpdateLearningProgressRunnable(learner))).start();
+        final CollaborativeFilter filter = learner.learn();
+        System.out.println("Collaborative filter learned successfully.");
+        return filter;
+    }
+
+    private static NeighbourGraph parseNeighbourGraph(final CommandLine cmd,
+                                                      final CollaborativeFilter filter)
+        throws Exception
+    {
+        if (cmd.hasOption(SIMILARITY_GRAPH_FILE_FLAG)) {
+            final String inputFileLoc = cmd.getOptionValue(SIMILARITY_GRAPH_FILE_FLAG);
+            System.out.println(String.format("Reading {%s}.", inputFileLoc));
+            return SimilarityMatrixFile.readGraph(Paths.get(inputFileLoc));
+        }
+
+        final int neighbourCount = parseNeighbourCount(cmd);
+        System.out.println(String.format("Starting to calculate neighbour graph."));
+        final Learner<NeighbourGraph> learner =
+                new NeighbourGraphLearner(filter, filter.getMaxUserId() + 1, neighbourCount, 0.0);
+        (new Thread(new UpdateLearningProgressRunnable(learner))).start();
+        final NeighbourGraph graph = learner.learn();
+        System.out.println(String.format("Calculated neighbour graph with %d edges successfully.", graph.getEdgeCount()));
+        return graph;
+    }
+
+    private static SymmetricMatrix parseItemMatrix(final CommandLine cmd,
+                                                   final CollaborativeFilter filter)
+        throws Exception
+    {
+        if (cmd.hasOption(ITEM_MATRIX_FILE_FLAG)) {
+            final String inputFileLoc = cmd.getOptionValue(ITEM_MATRIX_FILE_FLAG);
+            System.out.println(String.format("Reading {%s}.", inputFileLoc));
+            return SimilarityMatrixFile.openMatrix(Paths.get(inputFileLoc));
+        }
+
+        System.out.println(String.format("Starting to calculate movie similarity matrix."));
+        final Learner<SimilarityMatrix> learner =
+                new ItemSimilarityMatrixLearner(filter, filter.getRatingStore().getMaxMovieId() + 1);
+        (new Thread(new UpdateLearningProgressRunnable(learner))).start();
+        final SimilarityMatrix matrix = learner.learn();
+        System.out.println(String.format("Calculated movie similarity matrix successfully."));
+        return matrix;
+    }
+
+    private static int parseNeighbourCount(final CommandLine cmd) {
+        return Integer.parseInt(cmd.getOptionValue(NEIGHBOUR_COUNT_FLAG, "50"));
+    }
+
+    private static AccuracyMeasurement evaluate(final CommandLine cmd,
+                                                final RatingSource testData,
+                                                final RatingPredictor predictor,
+                                                final RatingStore trainingRatings)
+        throws Exception
+    {
+        final Learner<AccuracyMeasurement> learner = new PredictionAccuracyLearner(
+                testData, predictor, trainingRatings, cmd.hasOption(USER_BREAKDOWN_FILE_FLAG));
+        (new Thread(new UpdateLearningProgressRunnable(learner))).start();
+        return learner.learn();
+    }
+
+    private static void outputUserBreakdown(final CommandLine cmd,
+                                            final AccuracyMeasurement accuracy,
+                                            final RatingStore trainingRatings)
+        throws Exception
+    {
+        final Path filepath = Paths.get(cmd.getOptionValue(USER_BREAKDOWN_FILE_FLAG));
+        try (final BufferedWriter writer = Files.newBufferedWriter(filepath)) {
+            for (int user = 0; user < accuracy.getUserCount(); user++) {
+                if (accuracy.getUserSampleCount(user) == 0) {
+                    continue;
+                }
+                writer.write(String.format("%d,%d,%.4f,%.4f\n",
+                        trainingRatings.userIdAt(user),
+                        accuracy.getUserSampleCount(user),
+                        accuracy.getUserMeanAbsoluteError(user),
+                        accuracy.getUserRootMeanSquaredError(user)));
+            }
+        }
+        System.out.println(String.format("Wrote output file {%s} successfully.", filepath.getFileName().toString()));
+    }
+}
@@ -1,14 +1,26 @@
 package project.main;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileWriter;
-import java.io.InputStreamReader;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.net.URLEncoder;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -18,14 +30,18 @@ import org.apache.commons.cli.ParseException;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
-import org.apache.http.HttpEntity;
+import org.apache.http.Header;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.util.EntityUtils;
 import org.json.JSONObject;
 
+import com.google.common.hash.Hashing;
+
 import project.model.identifiers.Genre;
 import project.model.identifiers.MovieId;
 import project.model.identifiers.MovieName;
@@ -34,6 +50,22 @@ import project.model.movie.Movie;
 public class PopulateGenresRunner {
 
     private static final String MOVIE_TITLES_FILE_FLAG = "f";
+    private static final String BASE_URL_FLAG = "b";
+    private static final String API_KEY_FLAG = "a";
+    private static final String CACHE_DIRECTORY_FLAG = "c";
+    private static final String THREAD_COUNT_FLAG = "t";
+    private static final String MAX_RETRIES_FLAG = "r";
+
+    private static final String DEFAULT_BASE_URL = "http://www.omdbapi.com/";
+    private static final String DEFAULT_CACHE_DIRECTORY = "netflix_data/omdb_cache";
+    private static final String DEFAULT_THREAD_COUNT = "8";
+    private static final String DEFAULT_MAX_RETRIES = "5";
+
+    private static final int TIMEOUT_MILLIS = 10000;
+    private static final long BASE_BACKOFF_MILLIS = 500;
+    private static final long MAX_BACKOFF_MILLIS = 30000;
+
+    private static final String NOT_FOUND_ERROR = "Movie not found!";
 
     public static void main(String[] args) {
         try {
@@ -65,6 +97,14 @@ public class PopulateGenresRunner {
     private static Options initOptions() {
         final Options options = new Options();
         options.addOption(MOVIE_TITLES_FILE_FLAG, true, "the movie input file to process");
+        options.addOption(BASE_URL_FLAG, true, String.format("the omdb endpoint to query (default %s)", DEFAULT_BASE_URL));
+        options.addOption(API_KEY_FLAG, true, "the omdb api key, if the endpoint needs one");
+        options.addOption(CACHE_DIRECTORY_FLAG, true, String.format(
+                "the directory caching omdb responses between runs (default %s)", DEFAULT_CACHE_DIRECTORY));
+        options.addOption(THREAD_COUNT_FLAG, true, String.format(
+                "the number of requests in flight at once (default %s)", DEFAULT_THREAD_COUNT));
+        options.addOption(MAX_RETRIES_FLAG, true, String.format(
+                "the retries for a throttled or failed request (default %s)", DEFAULT_MAX_RETRIES));
         return options;
     }
 
@@ -77,6 +117,12 @@ public class PopulateGenresRunner {
         if (!cmd.hasOption(MOVIE_TITLES_FILE_FLAG)) {
             throw new IllegalArgumentException("No movie input file provided.");
         }
+        if (Integer.parseInt(cmd.getOptionValue(THREAD_COUNT_FLAG, DEFAULT_THREAD_COUNT)) <= 0) {
+            throw new IllegalArgumentException("The thread count must be positive.");
+        }
+        if (Integer.parseInt(cmd.getOptionValue(MAX_RETRIES_FLAG, DEFAULT_MAX_RETRIES)) < 0) {
+            throw new IllegalArgumentException("The retry count cannot be negative.");
+        }
     }
 
     private static List<Movie> parseInputData(final CommandLine cmd)
@@ -88,76 +134,62 @@ public class PopulateGenresRunner {
         final List<Movie> movies = new ArrayList<Movie>();
         final File inputFile = new File(inputFileLoc);
         final CSVParser parser = CSVParser.parse(inputFile, Charset.forName("UTF-8"), CSVFormat.DEFAULT);
-        int count = 1;
         for (final CSVRecord csvRecord : parser) {
             final MovieId movieId = MovieId.valueOf( Integer.parseInt( csvRecord.get(0) ) );
             final MovieName movieName = MovieName.valueOf( csvRecord.get(2) );
-            final List<Genre> genres = parseGenres(movieName);
-            final Movie movie = new Movie(movieId, movieName);
-            for (final Genre genre : genres) {
-                movie.withGenre(genre);
-            }
-            movies.add(movie);
-            if (count % 100 == 0) {
-                System.out.println(String.format("Enhanced %d movies.", count));
-            }
-            count++;
+            movies.add(new Movie(movieId, movieName));
         }
-        System.out.println(String.format("File {%s} enhanced successfully.", inputFileLoc));
+
+        final int threadCount = Integer.parseInt(cmd.getOptionValue(THREAD_COUNT_FLAG, DEFAULT_THREAD_COUNT));
+        final ResponseCache cache = new ResponseCache(
+                Paths.get(cmd.getOptionValue(CACHE_DIRECTORY_FLAG, DEFAULT_CACHE_DIRECTORY)));
+        try (final GenreClient client = new GenreClient(cmd.getOptionValue(BASE_URL_FLAG, DEFAULT_BASE_URL),
+                                                         cmd.getOptionValue(API_KEY_FLAG),
+                                                         threadCount,
+                                                         Integer.parseInt(cmd.getOptionValue(MAX_RETRIES_FLAG, DEFAULT_MAX_RETRIES)),
+                                                         cache)) {
+            enhanceMovies(movies, client, threadCount);
+        }
+        System.out.println(String.format("File {%s} enhanced successfully, %d of %d responses from the cache.",
+                                         inputFileLoc, cache.getHitCount(), movies.size()));
         return movies;
     }
 
-    private static List<Genre> parseGenres(final MovieName movieName)
+    // looks up every movie's genres with a bounded number of requests in
+    // flight, adding them to the movies in file order
+    private static void enhanceMovies(final List<Movie> movies,
+                                      final GenreClient client,
+                                      final int threadCount)
         throws Exception
     {
-        final List<Genre> genres = new ArrayList<Genre>();
-
-        CloseableHttpResponse response = null;
+        final AtomicInteger completed = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
         try {
-            final CloseableHttpClient httpclient = HttpClients.createDefault();
-            final HttpGet httpGet =
-                    new HttpGet(
-                            String.format("http://www.omdbapi.com/?t=%s&y=&plot=short&r=json",
-                                          URLEncoder.encode(movieName.getValue().replace(" ", "+"), "UTF-8")));
-            response = httpclient.execute(httpGet);
-
-            // get the response from omdb
-            final HttpEntity entity = response.getEntity();
-            final BufferedReader reader = new BufferedReader(new InputStreamReader(entity.getContent()));
-            final StringBuilder out = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                out.append(line);
-            }
-            reader.close();
-
-            // read in the json
-            final JSONObject obj = new JSONObject(out.toString());
-
-            // get the genre list, if the movie exists
-            final String responseString = obj.getString("Response");
-            if (responseString == null || !responseString.equals("False")) {
-                final String genreStringList = obj.getString("Genre");
-                final String[] genreStringArray = genreStringList.split(",");
-                for (final String genreString : genreStringArray) {
-                    genres.add(Genre.valueOf(genreString));
+            final Deque<Future<List<Genre>>> inFlight = new ArrayDeque<Future<List<Genre>>>();
+            int next = 0;
+            for (final Movie movie : movies) {
+                while (next < movies.size() && inFlight.size() < 2 * threadCount) {
+                    final MovieName movieName = movies.get(next).getName();
+                    inFlight.add(executor.submit(() -> {
+                        final List<Genre> genres = client.parseGenres(movieName);
+                        final int count = completed.incrementAndGet();
+                        if (count % 100 == 0) {
+                            System.out.println(String.format("Enhanced %d movies.", count));
+                        }
+                        return genres;
+                    }));
+                    next++;
                 }
-            } else {
-                genres.add(Genre.valueOf("N/A"));
-            }
 
-            // consume the entity
-            EntityUtils.consume(entity);
-        } catch (final Exception e) {
-            System.out.println(String.format("Failed on %s.", movieName.getValue()));
-            genres.add(Genre.valueOf("N/A"));
-        } finally {
-            if (response != null) {
-                response.close();
+                for (final Genre genre : inFlight.poll().get()) {
+                    movie.withGenre(genre);
+                }
             }
+        } catch (final ExecutionException e) {
+            throw new IOException("Failed to enhance movies.", e.getCause());
+        } finally {
+            executor.shutdownNow();
         }
-
-        return genres;
     }
 
     private static void outputMovieGenres(final List<Movie> movies)
@@ -174,4 +206,217 @@ public class PopulateGenresRunner {
         pw.close();
         System.out.println("Wrote output file {netflix_data/enhance_movie_data.txt} successfully.");
     }
+
+    //
+    // Deals with querying omdb
+    //
+
+    // one pooled client shared by every request. Responses are read from the
+    // cache when present; otherwise the request is retried with exponential
+    // backoff and jitter while omdb throttles it (429), fails on its side (5xx)
+    // or the connection drops, honouring any Retry-After it sends. Only
+    // definite answers are cached, so a rerun fetches just the misses.
+    private static class GenreClient implements AutoCloseable {
+
+        private final String baseUrl;
+        private final String apiKey;
+        private final int maxRetries;
+        private final ResponseCache cache;
+        private final CloseableHttpClient httpClient;
+
+        GenreClient(final String baseUrl,
+                    final String apiKey,
+                    final int threadCount,
+                    final int maxRetries,
+                    final ResponseCache cache) {
+            this.baseUrl = baseUrl;
+            this.apiKey = apiKey;
+            this.maxRetries = maxRetries;
+            this.cache = cache;
+
+            final PoolingHttpClientConnectionManager connections = new PoolingHttpClientConnectionManager();
+            connections.setMaxTotal(threadCount);
+            connections.setDefaultMaxPerRoute(threadCount);
+            this.httpClient = HttpClients.custom()
+                    .setConnectionManager(connections)
+                    .setDefaultRequestConfig(RequestConfig.custom()
+                            .setConnectTimeout(TIMEOUT_MILLIS)
+                            .setConnectionRequestTimeout(TIMEOUT_MILLIS)
+                            .setSocketTimeout(TIMEOUT_MILLIS)
+                            .build())
+                    .disableAutomaticRetries()
+                    .build();
+        }
+
+        List<Genre> parseGenres(final MovieName movieName)
+            throws InterruptedException
+        {
+            final List<Genre> genres = new ArrayList<Genre>();
+            try {
+                String body = this.cache.get(movieName);
+                if (body == null) {
+                    body = this.fetch(movieName);
+                }
+
+                // read in the json, and get the genre list if the movie exists
+                final JSONObject obj = new JSONObject(body);
+                final String responseString = obj.getString("Response");
+                if (responseString == null || !responseString.equals("False")) {
+                    final String genreStringList = obj.getString("Genre");
+                    final String[] genreStringArray = genreStringList.split(",");
+                    for (final String genreString : genreStringArray) {
+                        genres.add(Genre.valueOf(genreString));
+                    }
+                } else {
+                    genres.add(Genre.valueOf("N/A"));
+                }
+            } catch (final InterruptedException e) {
+                throw e;
+            } catch (final Exception e) {
+                System.out.println(String.format("Failed on %s: %s", movieName.getValue(), e.getMessage()));
+                genres.add(Genre.valueOf("N/A"));
+            }
+            return genres;
+        }
+
+        // the response body for a movie, cached if it is a definite answer
+        private String fetch(final MovieName movieName)
+            throws IOException, InterruptedException
+        {
+            final String url = this.requestUrl(movieName);
+            for (int attempt = 0; ; attempt++) {
+                final CloseableHttpResponse response;
+                try {
+                    response = this.httpClient.execute(new HttpGet(url));
+                } catch (final IOException e) {
+                    // a dropped or timed out connection is retried like a throttled request
+                    if (attempt >= this.maxRetries) {
+                        throw e;
+                    }
+                    Thread.sleep(backoff(attempt));
+                    continue;
+                }
+
+                final long retryAfterMillis;
+                try {
+                    final int status = response.getStatusLine().getStatusCode();
+                    final String body = response.getEntity() == null
+                            ? ""
+                            : EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
+                    if (status == 200) {
+                        if (isDefinite(body)) {
+                            this.cache.put(movieName, body);
+                        }
+                        return body;
+                    }
+                    if (status != 429 && status < 500) {
+                        throw new IOException(String.format("Request {%s} returned status %d.", url, status));
+                    }
+                    if (attempt >= this.maxRetries) {
+                        throw new IOException(String.format(
+                                "Request {%s} still returned status %d after %d retries.", url, status, attempt));
+                    }
+                    retryAfterMillis = parseRetryAfter(response.getFirstHeader("Retry-After"));
+                } finally {
+                    response.close();
+                }
+                Thread.sleep(Math.max(retryAfterMillis, backoff(attempt)));
+            }
+        }
+
+        private String requestUrl(final MovieName movieName)
+            throws IOException
+        {
+            final StringBuilder url = new StringBuilder(this.baseUrl);
+            url.append(this.baseUrl.contains("?") ? "&" : "?");
+            url.append(String.format("t=%s&y=&plot=short&r=json",
+                                     URLEncoder.encode(movieName.getValue().replace(" ", "+"), "UTF-8")));
+            if (this.apiKey != null) {
+                url.append(String.format("&apikey=%s", URLEncoder.encode(this.apiKey, "UTF-8")));
+            }
+            return url.toString();
+        }
+
+        // a found movie, or omdb saying it has no such movie; errors such as
+        // an exhausted request limit are worth asking again on the next run
+        private static boolean isDefinite(final String body) {
+            final JSONObject obj = new JSONObject(body);
+            if (!obj.has("Response") || !obj.getString("Response").equals("False")) {
+                return obj.has("Genre");
+            }
+            return obj.has("Error") && obj.getString("Error").equals(NOT_FOUND_ERROR);
+        }
+
+        // exponential backoff with up to half as much again of random jitter,
+        // so that throttled workers do not retry in lockstep
+        private static long backoff(final int attempt) {
+            final long delay = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt, 16));
+            return delay + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+        }
+
+        // the delay a Retry-After header asks for in seconds, or 0
+        private static long parseRetryAfter(final Header header) {
+            if (header == null) {
+                return 0;
+            }
+            try {
+                return Math.min(MAX_BACKOFF_MILLIS, 1000 * Long.parseLong(header.getValue().trim()));
+            } catch (final NumberFormatException e) {
+                return 0;
+            }
+        }
+
+        @Override
+        public void close()
+            throws IOException
+        {
+            this.httpClient.close();
+        }
+    }
+
+    // omdb response bodies on disk, one file per movie name, named by a hash
+    // of the name so that any title makes a valid file name. Entries are
+    // written to a temporary file and moved into place, so that an
+    // interrupted run never leaves a partial response behind.
+    private static class ResponseCache {
+
+        private final Path directory;
+        private final AtomicInteger hitCount = new AtomicInteger();
+
+        ResponseCache(final Path directory)
+            throws IOException
+        {
+            this.directory = Files.createDirectories(directory);
+        }
+
+        String get(final MovieName movieName)
+            throws IOException
+        {
+            final Path path = this.pathOf(movieName);
+            if (!Files.exists(path)) {
+                return null;
+            }
+            this.hitCount.incrementAndGet();
+            return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+        }
+
+        void put(final MovieName movieName,
+                 final String body)
+            throws IOException
+        {
+            final Path path = this.pathOf(movieName);
+            final Path temporary = Files.createTempFile(this.directory, path.getFileName().toString(), ".tmp");
+            Files.write(temporary, body.getBytes(StandardCharsets.UTF_8));
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        int getHitCount() {
+            return this.hitCount.get();
+        }
+
+        private Path pathOf(final MovieName movieName) {
+            return this.directory.resolve(String.format("%s.json",
+                    Hashing.sha1().hashString(movieName.getValue(), StandardCharsets.UTF_8).toString()));
+        }
+    }
 }
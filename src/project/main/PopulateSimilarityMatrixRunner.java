@@ -1,37 +1,55 @@
 package project.main;
 
 import java.io.BufferedWriter;
-import java.io.File;
-import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVParser;
-import org.apache.commons.csv.CSVRecord;
 
+import project.learner.Learner;
 import project.learner.collaborative.CollaborativeFilterLearner;
 import project.learner.collaborative.NetflixCollaborativeLearner;
+import project.learner.similarity.ItemSimilarityMatrixLearner;
+import project.learner.similarity.NeighbourGraphLearner;
+import project.learner.similarity.SimilarityMatrixLearner;
 import project.main.runnable.UpdateLearningProgressRunnable;
 import project.model.CollaborativeFilter;
-import project.model.identifiers.MovieId;
-import project.model.identifiers.UserId;
-import project.model.netflix.UserRating;
+import project.model.GenreMap;
+import project.model.accuracy.NeighbourRecallEvaluator;
+import project.model.netflix.NetflixRatingsReader;
+import project.model.ratings.RatingSnapshot;
+import project.model.ratings.RatingSource;
+import project.model.similarity.NeighbourGraph;
+import project.model.similarity.SimilarityMatrix;
+import project.model.similarity.SimilarityMatrixFile;
+import project.model.similarity.SimilarityMetrics;
 
 public class PopulateSimilarityMatrixRunner {
 
     private static final String TRAINING_RATINGS_FILE_FLAG = "f";
     private static final String USER_COUNT_FLAG = "u";
+    private static final String THREAD_COUNT_FLAG = "t";
+    private static final String NEIGHBOUR_COUNT_FLAG = "n";
+    private static final String MIN_WEIGHT_FLAG = "m";
+    private static final String OUTPUT_FORMAT_FLAG = "o";
+    private static final String SIMILARITY_METRIC_FLAG = "w";
+    private static final String ITEM_BASED_FLAG = "i";
+    private static final String GENRE_FILE_FLAG = "g";
+    private static final String GENRE_BLEND_FLAG = "b";
+    private static final String MIN_HASH_FLAG = "l";
+    private static final String RECALL_SAMPLE_FLAG = "r";
+
+    private static final String DEFAULT_GENRE_BLEND = "0.25";
+    private static final int DEFAULT_RECALL_NEIGHBOURS = 20;
+
+    private static final String FLOAT32_FORMAT = "float32";
+    private static final String FLOAT16_FORMAT = "float16";
+    private static final String TEXT_FORMAT = "text";
 
     public static void main(String[] args) {
         try {
@@ -44,8 +62,14 @@ public class PopulateSimilarityMatrixRunner {
             // parse the input file
             final CollaborativeFilter filter = parseInputData(cmd);
 
-            // output a new file with the enhanced genre data
-            outputSimilarityMatrix(filter);
+            // output a new file with the user similarities
+            if (cmd.hasOption(ITEM_BASED_FLAG)) {
+                outputItemSimilarityMatrix(cmd, filter);
+            } else if (cmd.hasOption(NEIGHBOUR_COUNT_FLAG) || cmd.hasOption(MIN_WEIGHT_FLAG) || cmd.hasOption(MIN_HASH_FLAG)) {
+                outputNeighbourGraph(cmd, filter);
+            } else {
+                outputSimilarityMatrix(cmd, filter);
+            }
 
         } catch (final Exception e) {
             e.printStackTrace();
@@ -62,8 +86,20 @@ public class PopulateSimilarityMatrixRunner {
 
     private static Options initOptions() {
         final Options options = new Options();
-        options.addOption(TRAINING_RATINGS_FILE_FLAG, true, "the movie input file to process");
+        options.addOption(TRAINING_RATINGS_FILE_FLAG, true, "the movie input file or rating snapshot to process");
         options.addOption(USER_COUNT_FLAG, true, "the number of users to process");
+        options.addOption(THREAD_COUNT_FLAG, true, "the number of threads used to build the matrix");
+        options.addOption(NEIGHBOUR_COUNT_FLAG, true, "keep only each user's top n neighbours, as a sparse graph");
+        options.addOption(MIN_WEIGHT_FLAG, true, "keep only neighbours above this weight, as a sparse graph");
+        options.addOption(OUTPUT_FORMAT_FLAG, true, "the output format: float32 (default), float16 or text");
+        options.addOption(SIMILARITY_METRIC_FLAG, true, String.format(
+                "the similarity metric: one of %s, pearson by default", SimilarityMetrics.NAMES));
+        options.addOption(ITEM_BASED_FLAG, false, "build the movie-movie adjusted cosine matrix over every user instead");
+        options.addOption(GENRE_FILE_FLAG, true, "the genres PopulateGenresRunner wrote, to blend into the user weights");
+        options.addOption(GENRE_BLEND_FLAG, true, String.format(
+                "the share of each weight taken from genre preferences (default %s)", DEFAULT_GENRE_BLEND));
+        options.addOption(MIN_HASH_FLAG, true, "weigh only MinHash candidates for the sparse graph, as bands,rows (e.g. 20,4)");
+        options.addOption(RECALL_SAMPLE_FLAG, true, "report the MinHash recall of the true top n neighbours on this many users");
         return options;
     }
 
@@ -76,9 +112,15 @@ public class PopulateSimilarityMatrixRunner {
         if (!cmd.hasOption(TRAINING_RATINGS_FILE_FLAG)) {
             throw new IllegalArgumentException("No training input file provided.");
         }
-        if (!cmd.hasOption(USER_COUNT_FLAG)) {
+        if (!cmd.hasOption(USER_COUNT_FLAG) && !cmd.hasOption(ITEM_BASED_FLAG)) {
             throw new IllegalArgumentException("No user count provided.");
         }
+        if (cmd.hasOption(ITEM_BASED_FLAG) && cmd.getOptionValue(OUTPUT_FORMAT_FLAG, FLOAT32_FORMAT).equals(TEXT_FORMAT)) {
+            throw new IllegalArgumentException("Movie similarity matrices are only written as binary.");
+        }
+        if (cmd.hasOption(RECALL_SAMPLE_FLAG) && !cmd.hasOption(MIN_HASH_FLAG)) {
+            throw new IllegalArgumentException("A recall report needs MinHash bands to measure.");
+        }
     }
 
     private static CollaborativeFilter parseInputData(final CommandLine cmd)
@@ -87,73 +129,104 @@ public class PopulateSimilarityMatrixRunner {
         final String inputFileLoc = cmd.getOptionValue(TRAINING_RATINGS_FILE_FLAG);
         System.out.println(String.format("Reading {%s}.", inputFileLoc));
 
-        final Integer userCount = Integer.parseInt(cmd.getOptionValue(USER_COUNT_FLAG));
-
-        // load in the file
-        final Map<UserId, Integer> userIdTruncationMap = new HashMap<UserId, Integer>();
-        final List<UserRating> records = new ArrayList<UserRating>();
-        final File inputFile = new File(inputFileLoc);
-        final CSVParser parser = CSVParser.parse(inputFile, Charset.forName("UTF-8"), CSVFormat.DEFAULT);
-        for (final CSVRecord csvRecord : parser) {
-            final MovieId movieId = MovieId.valueOf( Integer.parseInt( csvRecord.get(0) ) );
-            final UserId userId = UserId.valueOf( Integer.parseInt( csvRecord.get(1) ) );
-            final Double rating = Double.parseDouble( csvRecord.get(2) );
-            if (userIdTruncationMap.size() <= userCount || userIdTruncationMap.containsKey(userId)) {
-                final Integer nextId = userIdTruncationMap.getOrDefault(userId, userIdTruncationMap.size());
-
-                records.add(new UserRating(UserId.valueOf(nextId), movieId, rating));
-                userIdTruncationMap.put(userId, nextId);
-            }
+        // a snapshot restores the filter as it was written, otherwise the file
+        // is streamed into the filter as it is parsed; this runner has always
+        // kept userCount + 1 users, so that users 0..userCount-1 are all
+        // present in the matrix, from either input, while movies are compared
+        // over every user
+        final int userLimit = cmd.hasOption(ITEM_BASED_FLAG)
+                ? NetflixRatingsReader.NO_USER_LIMIT
+                : Integer.parseInt(cmd.getOptionValue(USER_COUNT_FLAG)) + 1;
+        final Path inputPath = Paths.get(inputFileLoc);
+        final RatingSource records;
+        if (RatingSnapshot.isSnapshot(inputPath)) {
+            final RatingSnapshot snapshot = new RatingSnapshot(inputPath);
+            records = userLimit == NetflixRatingsReader.NO_USER_LIMIT ? snapshot : snapshot.withUserLimit(userLimit);
+        } else {
+            records = new NetflixRatingsReader(inputPath, userLimit);
         }
-        System.out.println(String.format("File {%s} parsed successfully.", inputFileLoc));
 
         // learn on the data
-        final CollaborativeFilterLearner learner = new NetflixCollaborativeLearner(records);
+        final CollaborativeFilterLearner learner = new NetflixCollaborativeLearner(records)
+                .withSimilarityMetric(cmd.getOptionValue(SIMILARITY_METRIC_FLAG, SimilarityMetrics.PEARSON))
+                .withGenreBlend(parseGenres(cmd), Double.parseDouble(cmd.getOptionValue(GENRE_BLEND_FLAG, DEFAULT_GENRE_BLEND)));
         (new Thread(new UpdateLearningProgressRunnable(learner))).start();
         final CollaborativeFilter filter = learner.learn();
         System.out.println("Collaborative filter learned successfully.");
         return filter;
     }
 
-    private static void outputSimilarityMatrix(final CollaborativeFilter filter)
+    private static GenreMap parseGenres(final CommandLine cmd)
         throws Exception
     {
-        final int maxUserId = filter.getMaxUserId();
-
-        Path filepath = Paths.get(String.format("netflix_data/similarity-matrix-%d.txt", maxUserId));
-        Files.deleteIfExists(filepath);
-        filepath = Files.createFile(filepath);
-        final BufferedWriter writer = Files.newBufferedWriter(filepath);
+        if (!cmd.hasOption(GENRE_FILE_FLAG)) {
+            return null;
+        }
+        final String inputFileLoc = cmd.getOptionValue(GENRE_FILE_FLAG);
+        System.out.println(String.format("Reading {%s}.", inputFileLoc));
+        final GenreMap genres = GenreMap.read(Paths.get(inputFileLoc));
+        System.out.println(String.format("Indexed %s.", genres));
+        return genres;
+    }
 
-        final double[][] similarityMatrix = new double[maxUserId][maxUserId];
-        final int[] degreeVector = new int[maxUserId];
+    private static void outputSimilarityMatrix(final CommandLine cmd,
+                                               final CollaborativeFilter filter)
+        throws Exception
+    {
+        final int maxUserId = filter.getMaxUserId();
 
         System.out.println(String.format("Starting to calculate similarity matrix."));
 
-        for (int row = 0; row < maxUserId; row++) {
-            int degree = 0;
-            for (int col = 0; col < maxUserId; col++) {
-                if (row <= col) {
-                    similarityMatrix[row][col] =
-                        filter.calculateUserPairWeight(
-                            UserId.valueOf(row),
-                            UserId.valueOf(col));
-                } else {
-                    // if the row is larger than the column, we already calculated
-                    // this pair - just load that values
-                    similarityMatrix[row][col] =
-                            similarityMatrix[col][row];
-                }
+        final Learner<SimilarityMatrix> learner = cmd.hasOption(THREAD_COUNT_FLAG)
+                ? new SimilarityMatrixLearner(filter, maxUserId, Integer.parseInt(cmd.getOptionValue(THREAD_COUNT_FLAG)))
+                : new SimilarityMatrixLearner(filter, maxUserId);
+        (new Thread(new UpdateLearningProgressRunnable(learner))).start();
+        final SimilarityMatrix similarityMatrix = learner.learn();
+        System.out.println(String.format("Calculated similarity matrix successfully."));
 
-                // also calculate degree
-                if (similarityMatrix[row][col] > 0.1) {
-                    degree++;
-                }
-            }
-            degreeVector[row] = degree;
-            System.out.println(String.format("Calculated row %d successfully.", row));
+        final String outputFormat = cmd.getOptionValue(OUTPUT_FORMAT_FLAG, FLOAT32_FORMAT);
+        if (outputFormat.equals(TEXT_FORMAT)) {
+            writeTextMatrix(similarityMatrix.getValues(), filter);
+            return;
         }
 
+        final Path filepath = Paths.get(String.format("netflix_data/similarity-matrix-%d%s.bin", maxUserId, metricSuffix(filter)));
+        SimilarityMatrixFile.writeMatrix(filepath, similarityMatrix, parseValueType(outputFormat));
+        System.out.println(String.format("Wrote output file {%s} successfully.", filepath.getFileName().toString()));
+    }
+
+    private static void outputItemSimilarityMatrix(final CommandLine cmd,
+                                                   final CollaborativeFilter filter)
+        throws Exception
+    {
+        final int movieCount = filter.getRatingStore().getMaxMovieId() + 1;
+
+        System.out.println(String.format("Starting to calculate movie similarity matrix."));
+
+        final Learner<SimilarityMatrix> learner = cmd.hasOption(THREAD_COUNT_FLAG)
+                ? new ItemSimilarityMatrixLearner(filter, movieCount, Integer.parseInt(cmd.getOptionValue(THREAD_COUNT_FLAG)))
+                : new ItemSimilarityMatrixLearner(filter, movieCount);
+        (new Thread(new UpdateLearningProgressRunnable(learner))).start();
+        final SimilarityMatrix similarityMatrix = learner.learn();
+        System.out.println(String.format("Calculated movie similarity matrix successfully."));
+
+        final String outputFormat = cmd.getOptionValue(OUTPUT_FORMAT_FLAG, FLOAT32_FORMAT);
+        final Path filepath = Paths.get(String.format("netflix_data/item-similarity-matrix-%d.bin", movieCount));
+        SimilarityMatrixFile.writeMatrix(filepath, similarityMatrix, parseValueType(outputFormat));
+        System.out.println(String.format("Wrote output file {%s} successfully.", filepath.getFileName().toString()));
+    }
+
+    private static void writeTextMatrix(final double[][] similarityMatrix,
+                                        final CollaborativeFilter filter)
+        throws Exception
+    {
+        final int maxUserId = similarityMatrix.length;
+
+        Path filepath = Paths.get(String.format("netflix_data/similarity-matrix-%d%s.txt", maxUserId, metricSuffix(filter)));
+        Files.deleteIfExists(filepath);
+        filepath = Files.createFile(filepath);
+        final BufferedWriter writer = Files.newBufferedWriter(filepath);
+
         for (int row = 0; row < maxUserId; row++) {
             final StringBuilder builder = new StringBuilder();
             for (int col = 0; col < maxUserId; col++) {
@@ -170,4 +243,96 @@ public class PopulateSimilarityMatrixRunner {
         writer.close();
         System.out.println(String.format("Wrote output file {%s} successfully.", filepath.getFileName().toString()));
     }
+
+    private static void outputNeighbourGraph(final CommandLine cmd,
+                                             final CollaborativeFilter filter)
+        throws Exception
+    {
+        final int maxUserId = filter.getMaxUserId();
+        final int neighbourCount = Integer.parseInt(cmd.getOptionValue(NEIGHBOUR_COUNT_FLAG, "0"));
+        final double minWeight = Double.parseDouble(cmd.getOptionValue(MIN_WEIGHT_FLAG, "0.0"));
+        final int threadCount = Integer.parseInt(
+                cmd.getOptionValue(THREAD_COUNT_FLAG, String.valueOf(Runtime.getRuntime().availableProcessors())));
+
+        System.out.println(String.format("Starting to calculate neighbour graph."));
+
+        final NeighbourGraphLearner learner =
+                new NeighbourGraphLearner(filter, maxUserId, neighbourCount, minWeight, threadCount);
+        if (cmd.hasOption(MIN_HASH_FLAG)) {
+            final int[] banding = parseBanding(cmd.getOptionValue(MIN_HASH_FLAG));
+            learner.withMinHash(banding[0], banding[1]);
+        }
+        (new Thread(new UpdateLearningProgressRunnable(learner))).start();
+        final NeighbourGraph graph = learner.learn();
+        System.out.println(String.format("Calculated neighbour graph with %d edges successfully.", graph.getEdgeCount()));
+
+        // measure what the candidates missed, against an exhaustive search
+        if (cmd.hasOption(RECALL_SAMPLE_FLAG)) {
+            final int sampleSize = Integer.parseInt(cmd.getOptionValue(RECALL_SAMPLE_FLAG));
+            System.out.println(new NeighbourRecallEvaluator(filter, learner.getMinHashIndex()).evaluate(
+                    sampleSize, neighbourCount > 0 ? neighbourCount : DEFAULT_RECALL_NEIGHBOURS, minWeight, System.nanoTime()));
+        }
+
+        final String outputFormat = cmd.getOptionValue(OUTPUT_FORMAT_FLAG, FLOAT32_FORMAT);
+        if (outputFormat.equals(TEXT_FORMAT)) {
+            writeTextGraph(graph, filter);
+            return;
+        }
+
+        final Path filepath = Paths.get(String.format("netflix_data/similarity-graph-%d%s.bin", maxUserId, metricSuffix(filter)));
+        SimilarityMatrixFile.writeGraph(filepath, graph, parseValueType(outputFormat));
+        System.out.println(String.format("Wrote output file {%s} successfully.", filepath.getFileName().toString()));
+    }
+
+    private static void writeTextGraph(final NeighbourGraph graph,
+                                       final CollaborativeFilter filter)
+        throws Exception
+    {
+        Path filepath = Paths.get(String.format("netflix_data/similarity-graph-%d%s.txt", graph.size(), metricSuffix(filter)));
+        Files.deleteIfExists(filepath);
+        filepath = Files.createFile(filepath);
+        final BufferedWriter writer = Files.newBufferedWriter(filepath);
+
+        // output each undirected edge once, along with the self weights
+        for (int row = 0; row < graph.size(); row++) {
+            writer.write(String.format("%d,%d,%.3f\n", row, row, graph.getSelfWeight(row)));
+            for (int position = graph.rowStart(row); position < graph.rowEnd(row); position++) {
+                final int col = graph.neighbourAt(position);
+                if (row < col) {
+                    writer.write(String.format("%d,%d,%.3f\n", row, col, graph.weightAt(position)));
+                }
+            }
+        }
+
+        writer.flush();
+        writer.close();
+        System.out.println(String.format("Wrote output file {%s} successfully.", filepath.getFileName().toString()));
+    }
+
+    // pearson files keep their old names; other metrics are tagged with
+    // theirs, and genre-blended weights with the blend
+    private static String metricSuffix(final CollaborativeFilter filter) {
+        final String metric = filter.getSimilarityMetric();
+        final String suffix = metric.equals(SimilarityMetrics.PEARSON) ? "" : String.format("-%s", metric);
+        return filter.getGenreBlend() > 0.0 ? String.format("%s-genres-%.2f", suffix, filter.getGenreBlend()) : suffix;
+    }
+
+    private static int[] parseBanding(final String banding) {
+        final String[] parts = banding.split(",");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException(String.format("Invalid MinHash banding {%s}, expected bands,rows.", banding));
+        }
+        return new int[] { Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()) };
+    }
+
+    private static byte parseValueType(final String outputFormat) {
+        switch (outputFormat) {
+        case FLOAT32_FORMAT:
+            return SimilarityMatrixFile.FLOAT32;
+        case FLOAT16_FORMAT:
+            return SimilarityMatrixFile.FLOAT16;
+        default:
+            throw new IllegalArgumentException(String.format("Unknown output format {%s}.", outputFormat));
+        }
+    }
 }
@@ -0,0 +1,167 @@
+package project.main;
+
+import java.util.Random;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import project.model.CollaborativeFilter;
+import project.model.identifiers.UserId;
+import project.model.ratings.RatingStore;
+
+// Checks the sorted-merge Pearson kernel against a straightforward Pearson
+// over dense rating rows, on random users with sparse raw ids. Every pair is
+// weighed through both the raw id and the dense index overloads. Some users
+// rate everything the same, or a single movie, so the zero norm cases are
+// covered too. Exits with status 1 on any mismatch.
+public class VerifyPearsonKernelRunner {
+
+    private static final String USER_COUNT_FLAG = "u";
+    private static final String MOVIE_COUNT_FLAG = "m";
+    private static final String SEED_FLAG = "r";
+
+    // the kernel keeps the centred ratings as floats
+    private static final double TOLERANCE = 1e-5;
+
+    // raw user ids are spread out so that they differ from the dense indices
+    private static final int USER_ID_STRIDE = 7;
+
+    public static void main(String[] args) {
+        try {
+            // parse input args
+            final CommandLine cmd = parseArgs(args);
+
+            final int userCount = Integer.parseInt(cmd.getOptionValue(USER_COUNT_FLAG, "300"));
+            final int movieCount = Integer.parseInt(cmd.getOptionValue(MOVIE_COUNT_FLAG, "100"));
+            final Random random = new Random(Long.parseLong(cmd.getOptionValue(SEED_FLAG, "1")));
+
+            // random rows, 0 standing for unrated
+            final double[][] rows = generateRows(userCount, movieCount, random);
+            final CollaborativeFilter filter = new CollaborativeFilter();
+            for (int user = 0; user < userCount; user++) {
+                for (int movie = 0; movie < movieCount; movie++) {
+                    if (rows[user][movie] != 0.0) {
+                        filter.addRating(user * USER_ID_STRIDE, movie, rows[user][movie]);
+                    }
+                }
+            }
+            filter.calculateUserAverages();
+
+            // weigh every pair both ways
+            final RatingStore store = filter.getRatingStore();
+            double maxDifference = 0.0;
+            int mismatches = 0;
+            int positive = 0;
+            for (int active = 0; active < userCount; active++) {
+                for (int other = 0; other < userCount; other++) {
+                    final double expected = referencePearson(rows[active], rows[other]);
+                    final double byId = filter.calculateUserPairWeight(UserId.valueOf(active * USER_ID_STRIDE),
+                                                                       UserId.valueOf(other * USER_ID_STRIDE));
+                    final double byIndex = filter.calculateUserPairWeightByIndex(store.indexOfUser(active * USER_ID_STRIDE),
+                                                                                 store.indexOfUser(other * USER_ID_STRIDE));
+                    final double difference = Math.max(Math.abs(byId - expected), Math.abs(byIndex - expected));
+                    maxDifference = Math.max(maxDifference, difference);
+                    if (difference > TOLERANCE) {
+                        if (mismatches++ < 10) {
+                            System.out.println(String.format("Users %d and %d: expected %.6f, got %.6f by id and %.6f by index.",
+                                                             active, other, expected, byId, byIndex));
+                        }
+                    }
+                    if (expected > 0.0) {
+                        positive++;
+                    }
+                }
+            }
+
+            System.out.println(String.format("Weighed %d pairs, %d of them positive; largest difference %.2e.",
+                                             userCount * userCount, positive, maxDifference));
+            if (mismatches > 0) {
+                System.out.println(String.format("%d pairs differ from the reference.", mismatches));
+                System.exit(1);
+            }
+            System.out.println("Pearson kernel matches the reference.");
+
+        } catch (final Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static CommandLine parseArgs(final String[] args)
+        throws ParseException
+    {
+        final Options options = initOptions();
+        final CommandLineParser cmdParser = initCommandParser();
+        return cmdParser.parse(options, args);
+    }
+
+    private static Options initOptions() {
+        final Options options = new Options();
+        options.addOption(USER_COUNT_FLAG, true, "the number of random users (default 300)");
+        options.addOption(MOVIE_COUNT_FLAG, true, "the number of movies they rate from (default 100)");
+        options.addOption(SEED_FLAG, true, "the random seed");
+        return options;
+    }
+
+    private static CommandLineParser initCommandParser() {
+        return new DefaultParser();
+    }
+
+    // each user rates a random share of the movies; every tenth rates them
+    // all the same, and every fifteenth rates a single movie
+    private static double[][] generateRows(final int userCount,
+                                           final int movieCount,
+                                           final Random random) {
+        final double[][] rows = new double[userCount][movieCount];
+        for (int user = 0; user < userCount; user++) {
+            final double density = 0.05 + 0.6 * random.nextDouble();
+            final double constant = 1 + random.nextInt(5);
+            for (int movie = 0; movie < movieCount; movie++) {
+                if (random.nextDouble() < density) {
+                    rows[user][movie] = user % 10 == 0 ? constant : 1 + random.nextInt(5);
+                }
+            }
+            if (user % 15 == 0) {
+                rows[user] = new double[movieCount];
+                rows[user][random.nextInt(movieCount)] = constant;
+            }
+        }
+        return rows;
+    }
+
+    // Pearson over the movies both users rated, each rating centred on its
+    // user's mean over all of their ratings; negative and undefined weights
+    // are zero
+    private static double referencePearson(final double[] active, final double[] other) {
+        final double activeMean = mean(active);
+        final double otherMean = mean(other);
+        double numerator = 0.0;
+        double activeSquares = 0.0;
+        double otherSquares = 0.0;
+        for (int movie = 0; movie < active.length; movie++) {
+            if (active[movie] != 0.0 && other[movie] != 0.0) {
+                final double activeDiff = active[movie] - activeMean;
+                final double otherDiff = other[movie] - otherMean;
+                numerator += activeDiff * otherDiff;
+                activeSquares += activeDiff * activeDiff;
+                otherSquares += otherDiff * otherDiff;
+            }
+        }
+        final double weight = numerator / Math.sqrt(activeSquares * otherSquares);
+        return Double.isNaN(weight) || weight < 0.0 ? 0.0 : weight;
+    }
+
+    private static double mean(final double[] row) {
+        double sum = 0.0;
+        int count = 0;
+        for (final double rating : row) {
+            if (rating != 0.0) {
+                sum += rating;
+                count++;
+            }
+        }
+        return count == 0 ? 0.0 : sum / count;
+    }
+}
@@ -1,5 +1,6 @@
 package project.model;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -9,75 +10,200 @@ import java.util.Set;
 
 import org.apache.commons.math3.ml.clustering.CentroidCluster;
 
+import project.model.accuracy.ClusterQualityReport;
+import project.model.accuracy.SilhouetteEvaluator;
+import project.model.clustering.ArrayPointSource;
+import project.model.clustering.KMeansResult;
+import project.model.clustering.PointSource;
 import project.model.identifiers.ClusterId;
 import project.model.identifiers.UserId;
+import project.model.similarity.NeighbourGraph;
+import project.model.similarity.SymmetricMatrix;
 
 public class ClusteredFilter extends CollaborativeFilter {
 
+    public static final int NO_CLUSTER = -1;
+
     protected final Map<ClusterId, Set<UserId>> userClusters;
 
+    // the same clustering in primitive form, indexed by user id (the matrix
+    // position) and by cluster index, which is the cluster id minus one
+    protected int[] clusterOfUser = new int[0];
+    protected int[][] clusterMembers = new int[0][];
+    protected double[][] centroids = new double[0][];
+    protected PointSource userPoints = new ArrayPointSource(new double[0], 1);
+
+    protected SymmetricMatrix similarityMatrix = null;
+    protected NeighbourGraph neighbourGraph = null;
+
     public ClusteredFilter() {
         this.userClusters = new HashMap<ClusterId, Set<UserId>>();
     }
 
     public void setCentroids(final List<CentroidCluster<ReducedUserProfile>> userProfiles) {
+        int maxUserId = -1;
+        for (final CentroidCluster<ReducedUserProfile> cluster : userProfiles) {
+            for (final ReducedUserProfile profile : cluster.getPoints()) {
+                maxUserId = Math.max(maxUserId, profile.getUserId().getIntValue());
+            }
+        }
+        this.userClusters.clear();
+        this.clusterOfUser = new int[maxUserId + 1];
+        Arrays.fill(this.clusterOfUser, NO_CLUSTER);
+        this.clusterMembers = new int[userProfiles.size()][];
+        this.centroids = new double[userProfiles.size()][];
+        final int dimension = userProfiles.isEmpty() ? 1 : userProfiles.get(0).getCenter().getPoint().length;
+        final double[] points = new double[(maxUserId + 1) * dimension];
+
         int count = 1;
         for (final CentroidCluster<ReducedUserProfile> cluster : userProfiles) {
             final ClusterId clusterId = ClusterId.valueOf(count);
             final Set<UserId> userIds = new HashSet<UserId>();
+            final int[] members = new int[cluster.getPoints().size()];
+            int member = 0;
             for (final ReducedUserProfile profile : cluster.getPoints()) {
+                final int userId = profile.getUserId().getIntValue();
                 userIds.add(profile.getUserId());
+                members[member++] = userId;
+                this.clusterOfUser[userId] = count - 1;
+                System.arraycopy(profile.getPoint(), 0, points, userId * dimension, dimension);
             }
+            Arrays.sort(members);
             this.userClusters.put(clusterId, userIds);
+            this.clusterMembers[count - 1] = members;
+            this.centroids[count - 1] = cluster.getCenter().getPoint();
             count++;
         }
+        this.userPoints = new ArrayPointSource(points, dimension);
     }
 
-    public void silhouette()
-        throws Exception
-    {
-        for (final Entry<ClusterId, Set<UserId>> entry : this.userClusters.entrySet()) {
-            // for each cluster, calculate two MAE's:
-            // 1) one for each member of the same cluster
-            // 2) one for members of other clusters
-
-            int originalClusterId = entry.getKey().getValue();
-            double runningCountSameCluster = 0.0;
-            double runningCountOtherCluster = 0.0;
-            double runningErrorSameCluster = 0.0;
-            double runningErrorOtherCluster = 0.0;
-
-            for (final UserId originalUserId : entry.getValue()) {
-                for (final Entry<ClusterId, Set<UserId>> clusterEntry : this.userClusters.entrySet()) {
-                    int newClusterId = clusterEntry.getKey().getValue();
-                    if (newClusterId == originalClusterId) {
-                        for (final UserId newUserId : clusterEntry.getValue()) {
-                            runningCountSameCluster += 1.0;
-                            runningErrorSameCluster += (1.0 - this.calculateUserPairWeight(originalUserId, newUserId));
-                        }
-                    } else {
-                        for (final UserId newUserId : clusterEntry.getValue()) {
-                            runningCountOtherCluster += 1.0;
-                            runningErrorOtherCluster += (1.0 - this.calculateUserPairWeight(originalUserId, newUserId));
-                        }
-                    }
-                }
+    // takes a flat k-means clustering as it is, where point i is user id i
+    public void setCentroids(final KMeansResult clustering) {
+        final int userCount = clustering.getPointCount();
+        final int clusterCount = clustering.getClusterCount();
+        final int[] assignments = clustering.getAssignments();
+        final int[] sizes = new int[clusterCount];
+        for (final int cluster : assignments) {
+            sizes[cluster]++;
+        }
+        this.userClusters.clear();
+        this.clusterOfUser = Arrays.copyOf(assignments, userCount);
+        this.clusterMembers = new int[clusterCount][];
+        this.centroids = new double[clusterCount][];
+        this.userPoints = clustering.getPoints();
+        for (int cluster = 0; cluster < clusterCount; cluster++) {
+            this.clusterMembers[cluster] = new int[sizes[cluster]];
+            this.centroids[cluster] = clustering.getCentroid(cluster);
+        }
+
+        // members come out sorted, since users are visited in order
+        final int[] filled = new int[clusterCount];
+        for (int userId = 0; userId < userCount; userId++) {
+            final int cluster = assignments[userId];
+            this.clusterMembers[cluster][filled[cluster]++] = userId;
+        }
+        for (int cluster = 0; cluster < clusterCount; cluster++) {
+            final Set<UserId> userIds = new HashSet<UserId>();
+            for (final int userId : this.clusterMembers[cluster]) {
+                userIds.add(UserId.valueOf(userId));
             }
+            this.userClusters.put(ClusterId.valueOf(cluster + 1), userIds);
+        }
+    }
+
+    //
+    // Deals with primitive access to the clusters
+    //
+
+    public int getClusterCount() {
+        return this.clusterMembers.length;
+    }
+
+    // the cluster index of a user id, or NO_CLUSTER
+    public int getClusterIndex(final int userId) {
+        return userId >= 0 && userId < this.clusterOfUser.length ? this.clusterOfUser[userId] : NO_CLUSTER;
+    }
 
-            System.out.println(String.format("Cluster %d. Same MAE: %.3f, other MAE: %.3f",
-                                             entry.getKey().getValue(),
-                                             runningErrorSameCluster / runningCountSameCluster,
-                                             runningErrorOtherCluster / runningCountOtherCluster));
+    // the sorted user ids of a cluster; shared, not copied
+    public int[] getClusterMembers(final int clusterIndex) {
+        return this.clusterMembers[clusterIndex];
+    }
+
+    public double[] getCentroid(final int clusterIndex) {
+        return this.centroids[clusterIndex];
+    }
+
+    // the user's point in the reduced space, or null if it was not clustered
+    public double[] getUserPoint(final int userId) {
+        if (this.getClusterIndex(userId) == NO_CLUSTER || userId >= this.userPoints.size()) {
+            return null;
         }
+        final double[] point = new double[this.userPoints.dimension()];
+        this.userPoints.read(userId, 1, point);
+        return point;
+    }
+
+    // the cluster indices nearest to the point, closest first
+    public int[] nearestClusters(final double[] point, final int count) {
+        final int clusterCount = this.getClusterCount();
+        final Integer[] order = new Integer[clusterCount];
+        final double[] distances = new double[clusterCount];
+        for (int cluster = 0; cluster < clusterCount; cluster++) {
+            order[cluster] = cluster;
+            for (int i = 0; i < point.length; i++) {
+                final double difference = point[i] - this.centroids[cluster][i];
+                distances[cluster] += difference * difference;
+            }
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(distances[a], distances[b]));
+        final int[] nearest = new int[Math.min(count, clusterCount)];
+        for (int i = 0; i < nearest.length; i++) {
+            nearest[i] = order[i];
+        }
+        return nearest;
+    }
+
+    //
+    // Deals with the quality of the clustering
+    //
+
+    // the pair weights the users were clustered on, if any, which the
+    // silhouette reuses instead of weighing pairs again
+    public void setSimilarityMatrix(final SymmetricMatrix similarityMatrix) {
+        this.similarityMatrix = similarityMatrix;
+    }
+
+    public SymmetricMatrix getSimilarityMatrix() {
+        return this.similarityMatrix;
+    }
+
+    public void setNeighbourGraph(final NeighbourGraph neighbourGraph) {
+        this.neighbourGraph = neighbourGraph;
+    }
+
+    public NeighbourGraph getNeighbourGraph() {
+        return this.neighbourGraph;
+    }
+
+    public ClusterQualityReport silhouette() {
+        return new SilhouetteEvaluator(this).evaluate();
+    }
+
+    // estimates the silhouette from sampleSize users, each weighed against up
+    // to membersPerCluster members of every cluster
+    public ClusterQualityReport silhouette(final int sampleSize,
+                                           final int membersPerCluster,
+                                           final long seed) {
+        return new SilhouetteEvaluator(this).evaluate(sampleSize, membersPerCluster, seed);
     }
 
     public void print()
         throws Exception
     {
         for (final Entry<ClusterId, Set<UserId>> entry : this.userClusters.entrySet()) {
-            System.out.println(String.format("Cluster %d:", entry.getKey().getValue()));
+            System.out.println(String.format("Cluster %d:", entry.getKey().getIntValue()));
             for (final UserId userId : entry.getValue()) {
-                System.out.println(String.format("\t%d", userId.getValue()));
+                System.out.println(String.format("\t%d", userId.getIntValue()));
             }
         }
     }
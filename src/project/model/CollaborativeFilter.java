@@ -1,67 +1,232 @@
 package project.model;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.stream.IntStream;
 
 import project.model.accuracy.AccuracyMeasurement;
-import project.model.identifiers.MovieId;
 import project.model.identifiers.UserId;
 import project.model.netflix.UserRating;
+import project.model.ratings.IdIndex;
+import project.model.ratings.RatingBatch;
+import project.model.ratings.RatingStore;
+import project.model.ratings.UserRatingStatistics;
+import project.model.similarity.GenreBlendedKernel;
+import project.model.similarity.SimilarityMetric;
+import project.model.similarity.SimilarityMetrics;
 
 public class CollaborativeFilter {
 
-    protected final Map<MovieId, Set<UserRating>> ratingsByMovie;
-    protected final Map<UserId, Map<MovieId, UserRating>> ratingsByUser;
-    protected final Map<UserId, Set<MovieId>> moviesByUser;
-    protected final Map<UserId, Double> averageUserVotes;
+    private static final int AVERAGES_CHUNK_SIZE = 1024;
+
+    protected final RatingStore ratings;
+    protected double[] averageUserVotes;
+    protected UserRatingStatistics userStatistics;
+    protected SimilarityMetric similarityKernel;
+    protected String similarityMetric = SimilarityMetrics.PEARSON;
+
+    // blended into the kernel's weights when set, as genre preferences
+    protected GenreMap genres = null;
+    protected double genreBlend = 0.0;
 
     protected int averagesRowCount = 0;
     protected int averagesRowStatus = 0;
     protected boolean completionStatus = false;
     protected int maxUserId = 0;
 
+    // the running totals behind the averages, by dense user index, so that an
+    // update only has to touch the users it rates for; null until averaged
+    protected double[] userRatingSums = null;
+    protected int[] userRatingCounts = null;
+
+    // the user ids whose ratings have changed since the set was last cleared
+    protected final BitSet dirtyUsers = new BitSet();
+
     private AccuracyMeasurement accuracy = new AccuracyMeasurement("default");
 
     public CollaborativeFilter() {
-        this.ratingsByMovie = new HashMap<MovieId, Set<UserRating>>();
-        this.ratingsByUser = new HashMap<UserId, Map<MovieId, UserRating>>();
-        this.moviesByUser = new HashMap<UserId, Set<MovieId>>();
-        this.averageUserVotes = new HashMap<UserId, Double>();
+        this.ratings = new RatingStore();
+        this.averageUserVotes = new double[0];
     }
 
     public void addRating(final UserRating rating) {
-        // deal with adding this to the dataset per-movie
-        if (this.ratingsByMovie.containsKey(rating.getMovieId())) {
-            final Set<UserRating> ratingSet = this.ratingsByMovie.get(rating.getMovieId());
-            ratingSet.add(rating);
-        } else {
-            final Set<UserRating> ratingSet = new HashSet<UserRating>();
-            ratingSet.add(rating);
-            this.ratingsByMovie.put(rating.getMovieId(), ratingSet);
+        this.addRating(rating.getUserId().getIntValue(), rating.getMovieId().getIntValue(), rating.getRating());
+    }
+
+    public void addRating(final int userId, final int movieId, final double rating) {
+        this.ratings.add(userId, movieId, rating);
+        this.userStatistics = null;
+        this.similarityKernel = null;
+        this.userRatingSums = null;
+
+        // add to the max id, if necessary
+        if (userId > this.maxUserId) {
+            this.maxUserId = userId;
         }
+    }
 
-        // deal with adding this to the dataset per-user
-        if (this.ratingsByUser.containsKey(rating.getUserId())) {
-            final Map<MovieId, UserRating> ratingMap = this.ratingsByUser.get(rating.getUserId());
-            ratingMap.put(rating.getMovieId(), rating);
+    public void addRatings(final RatingBatch batch) {
+        this.ratings.addAll(batch);
+        this.userStatistics = null;
+        this.similarityKernel = null;
+        this.userRatingSums = null;
 
-            final Set<MovieId> movieSet = this.moviesByUser.get(rating.getUserId());
-            movieSet.add(rating.getMovieId());
-        } else {
-            final Map<MovieId, UserRating> ratingMap = new HashMap<MovieId, UserRating>();
-            ratingMap.put(rating.getMovieId(), rating);
-            this.ratingsByUser.put(rating.getUserId(), ratingMap);
+        // add to the max id, if necessary
+        final int[] userIds = batch.getUserIds();
+        for (int i = 0; i < batch.size(); i++) {
+            if (userIds[i] > this.maxUserId) {
+                this.maxUserId = userIds[i];
+            }
+        }
+    }
+
+    // replaces the ratings and averages wholesale, e.g. from a snapshot
+    public void restore(final RatingStore store,
+                        final double[] averages,
+                        final int maxUserId) {
+        this.ratings.restore(store);
+        this.averageUserVotes = averages;
+        this.averagesRowCount = averages.length;
+        this.averagesRowStatus = averages.length;
+        this.maxUserId = maxUserId;
+        this.userStatistics = null;
+        this.similarityKernel = null;
+        this.userRatingSums = null;
+    }
+
+    //
+    // Deals with applying new or changed ratings in place
+    //
 
-            final Set<MovieId> movieSet = new HashSet<MovieId>();
-            movieSet.add(rating.getMovieId());
-            this.moviesByUser.put(rating.getUserId(), movieSet);
+    public BitSet applyUpdates(final List<UserRating> updates) {
+        final RatingBatch batch = new RatingBatch(updates.size());
+        for (final UserRating rating : updates) {
+            batch.add(rating.getUserId().getIntValue(),
+                      rating.getMovieId().getIntValue(),
+                      RatingStore.encodeRating(rating.getRating()));
         }
+        return this.applyUpdates(batch);
+    }
 
-        // add to the max id, if necessary
-        if (rating.getUserId().getValue() > this.maxUserId) {
-            this.maxUserId = rating.getUserId().getValue();
+    // folds a batch of new or changed ratings into the store, adjusting the
+    // running totals and averages of only the users it rates for. A user
+    // whose ratings changed is added to the dirty set, since every weight in
+    // their similarity row may have moved; the users changed by this batch
+    // alone are returned. A rating sent again unchanged changes nothing.
+    public synchronized BitSet applyUpdates(final RatingBatch batch) {
+        this.ratings.compact();
+        this.ensureRunningTotals();
+
+        // stage the batch, which maps any new ids; the rows stay as they were
+        // until the next compaction, so they still hold the old ratings
+        this.ratings.addAll(batch);
+        final int userCount = this.ratings.getUserCount();
+        if (userCount > this.userRatingSums.length) {
+            this.userRatingSums = Arrays.copyOf(this.userRatingSums, userCount);
+            this.userRatingCounts = Arrays.copyOf(this.userRatingCounts, userCount);
+        }
+
+        // a movie rated twice in one batch is replaced by the later rating,
+        // which the rows cannot know about yet. The batch is sorted by user
+        // and arrival, then each user's ratings by movie and arrival, so only
+        // the last rating of each movie is weighed against the row
+        final BitSet changedIndices = new BitSet();
+        final BitSet changedUsers = new BitSet();
+        final int[] userIds = batch.getUserIds();
+        final int[] movieIds = batch.getMovieIds();
+        final byte[] encodedRatings = batch.getRatings();
+        final byte[] rowRatings = this.ratings.getRowRatings();
+        final long[] userKeys = new long[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            if (userIds[i] > this.maxUserId) {
+                this.maxUserId = userIds[i];
+            }
+            userKeys[i] = ((long) this.ratings.indexOfUser(userIds[i]) << 32) | i;
+        }
+        Arrays.sort(userKeys);
+
+        final long[] movieKeys = new long[batch.size()];
+        int end = 0;
+        for (int start = 0; start < userKeys.length; start = end) {
+            final int user = (int) (userKeys[start] >>> 32);
+            end = start;
+            while (end < userKeys.length && (int) (userKeys[end] >>> 32) == user) {
+                final int i = (int) userKeys[end];
+                movieKeys[end - start] = ((long) this.ratings.indexOfMovie(movieIds[i]) << 32) | i;
+                end++;
+            }
+            final int length = end - start;
+            Arrays.sort(movieKeys, 0, length);
+
+            for (int j = 0; j < length; j++) {
+                final int movie = (int) (movieKeys[j] >>> 32);
+                if (j + 1 < length && (int) (movieKeys[j + 1] >>> 32) == movie) {
+                    continue;
+                }
+                final int i = (int) movieKeys[j];
+                final int position = this.ratings.positionOf(user, movie);
+                if (position == IdIndex.ABSENT) {
+                    this.userRatingSums[user] += RatingStore.decodeRating(encodedRatings[i]);
+                    this.userRatingCounts[user]++;
+                } else if (rowRatings[position] != encodedRatings[i]) {
+                    this.userRatingSums[user] += RatingStore.decodeRating(encodedRatings[i])
+                                               - RatingStore.decodeRating(rowRatings[position]);
+                } else {
+                    continue;
+                }
+                changedIndices.set(user);
+                changedUsers.set(userIds[i]);
+            }
+        }
+        this.ratings.compact();
+
+        // only the changed users' averages move
+        if (userCount > this.averageUserVotes.length) {
+            this.averageUserVotes = Arrays.copyOf(this.averageUserVotes, userCount);
+        }
+        for (int user = changedIndices.nextSetBit(0); user >= 0; user = changedIndices.nextSetBit(user + 1)) {
+            this.averageUserVotes[user] = this.calculateAverageUserVote(user);
+        }
+        this.averagesRowCount = userCount;
+        this.averagesRowStatus = userCount;
+
+        // statistics already built keep the centred rows of every unchanged user
+        if (this.userStatistics != null) {
+            this.userStatistics = new UserRatingStatistics(this.ratings, this.kernelMeans(),
+                                                           this.userStatistics, changedIndices);
+            this.similarityKernel = this.createKernel(this.userStatistics);
+        }
+        this.dirtyUsers.or(changedUsers);
+        return changedUsers;
+    }
+
+    // the user ids changed by updates since the set was last cleared; once
+    // their similarity rows are recomputed, clear the set
+    public synchronized BitSet getDirtyUsers() {
+        return (BitSet) this.dirtyUsers.clone();
+    }
+
+    public synchronized void clearDirtyUsers() {
+        this.dirtyUsers.clear();
+    }
+
+    // rebuilds the running totals from the rows, e.g. after a restore
+    private void ensureRunningTotals() {
+        if (this.userRatingSums != null) {
+            return;
+        }
+        final int userCount = this.ratings.getUserCount();
+        this.userRatingSums = new double[userCount];
+        this.userRatingCounts = new int[userCount];
+        for (int user = 0; user < userCount; user++) {
+            this.sumUserRatings(user);
+        }
+        if (this.averageUserVotes.length != userCount) {
+            this.averageUserVotes = new double[userCount];
+            for (int user = 0; user < userCount; user++) {
+                this.averageUserVotes[user] = this.calculateAverageUserVote(user);
+            }
         }
     }
 
@@ -69,31 +234,52 @@ public class CollaborativeFilter {
     // Deals with calculating an average rating value for a single user
     //
 
+    // sums each user's ratings in parallel, then builds the statistics the
+    // pair weights are computed from
     public void calculateUserAverages() {
-        this.averagesRowCount = this.ratingsByUser.keySet().size();
-        for (final UserId user : this.ratingsByUser.keySet()) {
-            this.averageUserVotes.put(user, this.calculateAverageUserVote(user));
-            this.averagesRowStatus++;
+        this.ratings.compact();
+        this.averagesRowCount = this.ratings.getUserCount();
+        final double[] averages = new double[this.averagesRowCount];
+        this.userRatingSums = new double[this.averagesRowCount];
+        this.userRatingCounts = new int[this.averagesRowCount];
+        final int chunkCount = (this.averagesRowCount + AVERAGES_CHUNK_SIZE - 1) / AVERAGES_CHUNK_SIZE;
+        IntStream.range(0, chunkCount).parallel().forEach(chunk -> {
+            final int end = Math.min(this.averagesRowCount, (chunk + 1) * AVERAGES_CHUNK_SIZE);
+            for (int user = chunk * AVERAGES_CHUNK_SIZE; user < end; user++) {
+                this.sumUserRatings(user);
+                averages[user] = this.calculateAverageUserVote(user);
+            }
+            synchronized (this) {
+                this.averagesRowStatus += end - chunk * AVERAGES_CHUNK_SIZE;
+            }
+        });
+        this.averageUserVotes = averages;
+        this.userStatistics = new UserRatingStatistics(this.ratings, averages);
+        this.similarityKernel = null;
+    }
+
+    // half-star ratings add up exactly, so the running sums never drift
+    private void sumUserRatings(final int userIndex) {
+        final int start = this.ratings.rowStart(userIndex);
+        final int end = this.ratings.rowEnd(userIndex);
+        double sum = 0.0;
+        for (int i = start; i < end; i++) {
+            sum += this.ratings.ratingAt(i);
         }
+        this.userRatingSums[userIndex] = sum;
+        this.userRatingCounts[userIndex] = end - start;
     }
 
-    private Double calculateAverageUserVote(final UserId userId) {
-        final Map<MovieId, UserRating> ratingSet = this.ratingsByUser.get(userId);
-        if (ratingSet != null) {
-            Double sum = 0.0;
-            int ratingCount = 0;
-            for (final UserRating rating : ratingSet.values()) {
-                sum += rating.getRating();
-                ratingCount++;
-            }
-            return sum / ratingCount;
+    private double calculateAverageUserVote(final int userIndex) {
+        if (this.userRatingCounts[userIndex] > 0) {
+            return this.userRatingSums[userIndex] / this.userRatingCounts[userIndex];
         }
         return 0.0;
     }
 
-    private Double getUserAverage(final UserId userId) {
-        if (this.averageUserVotes.containsKey(userId)) {
-            return this.averageUserVotes.get(userId);
+    private double getUserAverage(final int userIndex) {
+        if (userIndex >= 0 && userIndex < this.averageUserVotes.length) {
+            return this.averageUserVotes[userIndex];
         } else {
             // what to do if the user has no other votes?
             // setting them to true average
@@ -105,42 +291,78 @@ public class CollaborativeFilter {
     // Deal with calculating weights between two user ids
     //
 
+    // by raw user ids, as they appear in the ratings
     public Double calculateUserPairWeight(final UserId activeUser, final UserId otherUser) {
-        // we need to sum up three values: activeDiff * otherDiff, activeDiff ^ 2, otherDiff ^ 2
-        Double sumNumerator = 0.0;
-        Double sumActiveDiffSquared = 0.0;
-        Double sumOtherDiffSquared = 0.0;
+        return this.calculateUserPairWeightByIndex(
+                this.ratings.indexOfUser(activeUser.getIntValue()),
+                this.ratings.indexOfUser(otherUser.getIntValue()));
+    }
 
-        // get both of their averages
-        final Double activeAverage = this.getUserAverage(activeUser);
-        final Double otherAverage = this.getUserAverage(otherUser);
+    // by dense user indices, as the rating store numbers the users
+    public double calculateUserPairWeightByIndex(final int activeIndex, final int otherIndex) {
+        return this.getSimilarityKernel().weight(activeIndex, otherIndex);
+    }
 
-        final Set<MovieId> userRatingIntersection = new HashSet<MovieId>(
-                this.moviesByUser.getOrDefault(activeUser, new HashSet<MovieId>()));
-        userRatingIntersection.retainAll( this.moviesByUser.getOrDefault(otherUser, new HashSet<MovieId>()) );
+    public synchronized SimilarityMetric getSimilarityKernel() {
+        if (this.similarityKernel == null) {
+            this.similarityKernel = this.createKernel(this.getUserStatistics());
+        }
+        return this.similarityKernel;
+    }
 
-        for (final MovieId movieId : userRatingIntersection) {
-            // for every movie the active user rated, if the other user also rated it
-            final UserRating activeRating = this.ratingsByUser.get(activeUser).get(movieId);
-            final UserRating otherRating = this.ratingsByUser.get(otherUser).get(movieId);
+    // one of SimilarityMetrics.NAMES; pearson unless set
+    public synchronized void setSimilarityMetric(final String similarityMetric) {
+        this.similarityMetric = SimilarityMetrics.checkName(similarityMetric);
+        this.similarityKernel = null;
+    }
 
-            // calculate the active users difference from their average
-            final Double activeDiff = activeRating.getRating() - activeAverage;
-            final Double otherDiff = otherRating.getRating() - otherAverage;
+    public String getSimilarityMetric() {
+        return this.similarityMetric;
+    }
 
-            sumNumerator += (activeDiff * otherDiff);
-            sumActiveDiffSquared += (activeDiff * activeDiff);
-            sumOtherDiffSquared += (otherDiff * otherDiff);
+    // blends each weight with the users' genre preferences, blend being the
+    // share of the genre weight; a blend of 0 turns it off
+    public synchronized void setGenreBlend(final GenreMap genres, final double genreBlend) {
+        if (genreBlend < 0.0 || genreBlend > 1.0) {
+            throw new IllegalArgumentException(String.format("Invalid genre blend %.3f, expected 0..1.", genreBlend));
         }
+        this.genres = genreBlend > 0.0 ? genres : null;
+        this.genreBlend = genreBlend;
+        this.similarityKernel = null;
+    }
 
-        final Double weight = sumNumerator / Math.sqrt( sumActiveDiffSquared * sumOtherDiffSquared );
+    public double getGenreBlend() {
+        return this.genres == null ? 0.0 : this.genreBlend;
+    }
 
-        if (weight.isNaN()) {
-            return 0.0; // ignore cases where the user always rates the same
-        } else if (weight < 0.0) {
-            return 0.0;
+    public GenreMap getGenres() {
+        return this.genres;
+    }
+
+    private SimilarityMetric createKernel(final UserRatingStatistics statistics) {
+        final SimilarityMetric kernel = SimilarityMetrics.create(this.similarityMetric, this.ratings, statistics);
+        if (this.genres == null) {
+            return kernel;
         }
-        return weight;
+        return new GenreBlendedKernel(kernel, new UserGenrePreferences(this.ratings, statistics, this.genres), this.genreBlend);
+    }
+
+    // built with the averages; restored or freshly added ratings build them
+    // here on first use instead
+    public synchronized UserRatingStatistics getUserStatistics() {
+        if (this.userStatistics == null) {
+            this.ratings.compact();
+            this.userStatistics = new UserRatingStatistics(this.ratings, this.kernelMeans());
+        }
+        return this.userStatistics;
+    }
+
+    private double[] kernelMeans() {
+        final double[] means = new double[this.ratings.getUserCount()];
+        for (int user = 0; user < means.length; user++) {
+            means[user] = this.getUserAverage(user);
+        }
+        return means;
     }
 
     //
@@ -166,4 +388,12 @@ public class CollaborativeFilter {
     public int getMaxUserId() {
         return this.maxUserId;
     }
+
+    public RatingStore getRatingStore() {
+        return this.ratings;
+    }
+
+    public double[] getUserAverages() {
+        return this.averageUserVotes;
+    }
 }
\ No newline at end of file
@@ -1,20 +1,184 @@
 package project.model;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import project.model.identifiers.Genre;
 import project.model.identifiers.MovieId;
+import project.model.identifiers.MovieName;
 import project.model.movie.Movie;
 
+// An index from movies to their genres and back. Genres are interned to
+// small ints in order of first appearance, so that each movie's genres fit
+// a long bitmask indexed by movie id, and each genre keeps a sorted posting
+// list of its movie ids. Movies the index has never seen have no genres.
 public class GenreMap {
 
-    private final Map<Genre, Set<Movie>> moviesByGenre;
+    public static final int MAX_GENRES = Long.SIZE;
+    public static final int ABSENT = -1;
+
+    // PopulateGenresRunner's marker for a movie omdb had no genres for
+    private static final String NO_GENRE = "N/A";
+
     private final Map<MovieId, Movie> movies;
+    private final Map<String, Integer> genreIndices;
+    private final List<Genre> genres;
+    private final long[] genreMasks;
+    private final int[][] moviesByGenre;
 
-    public GenreMap() {
-        this.moviesByGenre = new HashMap<Genre, Set<Movie>>();
+    public GenreMap(final Iterable<Movie> movies) {
         this.movies = new HashMap<MovieId, Movie>();
+        this.genreIndices = new HashMap<String, Integer>();
+        this.genres = new ArrayList<Genre>();
+
+        // intern the genres and size the masks to the largest movie id
+        int maxMovieId = -1;
+        for (final Movie movie : movies) {
+            this.movies.put(movie.getId(), movie);
+            maxMovieId = Math.max(maxMovieId, movie.getId().getIntValue());
+            for (final Genre genre : movie.getGenres()) {
+                this.intern(genre);
+            }
+        }
+
+        this.genreMasks = new long[maxMovieId + 1];
+        final int[] genreSizes = new int[this.genres.size()];
+        for (final Movie movie : this.movies.values()) {
+            long mask = 0L;
+            for (final Genre genre : movie.getGenres()) {
+                final int index = this.indexOfGenre(genre);
+                if (index != ABSENT) {
+                    mask |= 1L << index;
+                }
+            }
+            this.genreMasks[movie.getId().getIntValue()] = mask;
+            for (long bits = mask; bits != 0L; bits &= bits - 1) {
+                genreSizes[Long.numberOfTrailingZeros(bits)]++;
+            }
+        }
+
+        // walking the masks in id order leaves every posting list sorted
+        this.moviesByGenre = new int[this.genres.size()][];
+        for (int genre = 0; genre < genreSizes.length; genre++) {
+            this.moviesByGenre[genre] = new int[genreSizes[genre]];
+        }
+        final int[] filled = new int[this.genres.size()];
+        for (int movieId = 0; movieId < this.genreMasks.length; movieId++) {
+            for (long bits = this.genreMasks[movieId]; bits != 0L; bits &= bits - 1) {
+                final int genre = Long.numberOfTrailingZeros(bits);
+                this.moviesByGenre[genre][filled[genre]++] = movieId;
+            }
+        }
+    }
+
+    // reads the id,name,genre lines PopulateGenresRunner writes. Names are
+    // written unquoted and may hold commas, so the id is taken up to the
+    // first comma and the genre after the last
+    public static GenreMap read(final Path path)
+        throws IOException
+    {
+        final Map<Integer, Movie> movies = new LinkedHashMap<Integer, Movie>();
+        try (final BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final int first = line.indexOf(',');
+                final int last = line.lastIndexOf(',');
+                if (first < 0 || first == last) {
+                    continue;
+                }
+                final int movieId = Integer.parseInt(line.substring(0, first).trim());
+                Movie movie = movies.get(movieId);
+                if (movie == null) {
+                    movie = new Movie(MovieId.valueOf(movieId), MovieName.valueOf(line.substring(first + 1, last)));
+                    movies.put(movieId, movie);
+                }
+                final String genre = line.substring(last + 1).trim();
+                if (!genre.isEmpty() && !genre.equals(NO_GENRE)) {
+                    movie.withGenre(Genre.valueOf(genre));
+                }
+            }
+        }
+        return new GenreMap(movies.values());
+    }
+
+    private void intern(final Genre genre) {
+        final String name = genre.getValue().trim();
+        if (name.isEmpty() || name.equals(NO_GENRE) || this.genreIndices.containsKey(name)) {
+            return;
+        }
+        if (this.genres.size() == MAX_GENRES) {
+            throw new IllegalArgumentException(String.format(
+                    "Cannot index more than %d genres, found {%s}.", MAX_GENRES, name));
+        }
+        this.genreIndices.put(name, this.genres.size());
+        this.genres.add(Genre.valueOf(name));
+    }
+
+    //
+    // Deals with looking up genres and movies
+    //
+
+    public int getGenreCount() {
+        return this.genres.size();
+    }
+
+    public Genre getGenre(final int genreIndex) {
+        return this.genres.get(genreIndex);
+    }
+
+    public int indexOfGenre(final Genre genre) {
+        final Integer index = this.genreIndices.get(genre.getValue().trim());
+        return index == null ? ABSENT : index;
+    }
+
+    // bit g is set when the movie has genre g
+    public long getGenreMask(final int movieId) {
+        return movieId >= 0 && movieId < this.genreMasks.length ? this.genreMasks[movieId] : 0L;
+    }
+
+    public boolean hasGenre(final int movieId, final int genreIndex) {
+        return (this.getGenreMask(movieId) & (1L << genreIndex)) != 0L;
+    }
+
+    public int getSharedGenreCount(final int movieId, final int otherMovieId) {
+        return Long.bitCount(this.getGenreMask(movieId) & this.getGenreMask(otherMovieId));
+    }
+
+    // the sorted ids of the movies with this genre; shared, not copied, so
+    // callers must not modify it
+    public int[] getMovies(final int genreIndex) {
+        return this.moviesByGenre[genreIndex];
+    }
+
+    public int[] getMovies(final Genre genre) {
+        final int index = this.indexOfGenre(genre);
+        return index == ABSENT ? new int[0] : this.moviesByGenre[index];
+    }
+
+    public Movie getMovie(final MovieId movieId) {
+        return this.movies.get(movieId);
+    }
+
+    public int getMovieCount() {
+        return this.movies.size();
+    }
+
+    @Override
+    public String toString() {
+        final int[] sizes = new int[this.moviesByGenre.length];
+        for (int genre = 0; genre < sizes.length; genre++) {
+            sizes[genre] = this.moviesByGenre[genre].length;
+        }
+        return String.format("%d movies over %d genres %s, sized %s",
+                             this.movies.size(), this.genres.size(), this.genres, Arrays.toString(sizes));
     }
-}
\ No newline at end of file
+}
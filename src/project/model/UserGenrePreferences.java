@@ -0,0 +1,109 @@
+package project.model;
+
+import java.util.stream.IntStream;
+
+import project.model.identifiers.UserId;
+import project.model.ratings.RatingStore;
+import project.model.ratings.UserRatingStatistics;
+
+// Each user's taste for each genre: the mean of their centred ratings over
+// the movies of that genre they rated, shrunk towards zero by PRIOR_COUNT
+// pseudo-ratings, so that a genre rated once or twice says little. A user
+// who rates a genre above their own mean scores it positive.
+//
+// The vectors are built in one parallel pass over the centred rows, a chunk
+// of users at a time, reading each movie's genres from a bitmask.
+public class UserGenrePreferences {
+
+    private static final int CHUNK_SIZE = 1024;
+    private static final double PRIOR_COUNT = 2.0;
+
+    private final RatingStore ratings;
+    private final int genreCount;
+    private final float[] preferences;
+    private final double[] norms;
+
+    public UserGenrePreferences(final RatingStore ratings,
+                                final UserRatingStatistics statistics,
+                                final GenreMap genres) {
+        this.ratings = ratings;
+        this.genreCount = genres.getGenreCount();
+        final int userCount = statistics.getUserCount();
+        this.preferences = new float[userCount * this.genreCount];
+        this.norms = new double[userCount];
+
+        // the genre mask of each dense movie index
+        final long[] movieMasks = new long[ratings.getMovieCount()];
+        for (int movie = 0; movie < movieMasks.length; movie++) {
+            movieMasks[movie] = genres.getGenreMask(ratings.movieIdAt(movie));
+        }
+
+        final int[] rowOffsets = statistics.getRowOffsets();
+        final int[] rowMovies = statistics.getRowMovies();
+        final float[] centred = statistics.getCentredRatings();
+        IntStream.range(0, (userCount + CHUNK_SIZE - 1) / CHUNK_SIZE).parallel().forEach(chunk -> {
+            final double[] sums = new double[this.genreCount];
+            final int[] counts = new int[this.genreCount];
+            final int end = Math.min(userCount, (chunk + 1) * CHUNK_SIZE);
+            for (int user = chunk * CHUNK_SIZE; user < end; user++) {
+                for (int i = rowOffsets[user]; i < rowOffsets[user + 1]; i++) {
+                    for (long bits = movieMasks[rowMovies[i]]; bits != 0L; bits &= bits - 1) {
+                        final int genre = Long.numberOfTrailingZeros(bits);
+                        sums[genre] += centred[i];
+                        counts[genre]++;
+                    }
+                }
+
+                double sumSquared = 0.0;
+                for (int genre = 0; genre < this.genreCount; genre++) {
+                    final double preference = sums[genre] / (counts[genre] + PRIOR_COUNT);
+                    this.preferences[user * this.genreCount + genre] = (float) preference;
+                    sumSquared += preference * preference;
+                    sums[genre] = 0.0;
+                    counts[genre] = 0;
+                }
+                this.norms[user] = Math.sqrt(sumSquared);
+            }
+        });
+    }
+
+    public int getUserCount() {
+        return this.norms.length;
+    }
+
+    public int getGenreCount() {
+        return this.genreCount;
+    }
+
+    public double getPreference(final int userIndex, final int genreIndex) {
+        return this.preferences[userIndex * this.genreCount + genreIndex];
+    }
+
+    public double[] getVector(final int userIndex) {
+        final double[] vector = new double[this.genreCount];
+        for (int genre = 0; genre < this.genreCount; genre++) {
+            vector[genre] = this.preferences[userIndex * this.genreCount + genre];
+        }
+        return vector;
+    }
+
+    // the user's preferences as a point to cluster on, alone or appended to
+    // their spectral coordinates
+    public ReducedUserProfile toProfile(final int userIndex) {
+        return new ReducedUserProfile(UserId.valueOf(this.ratings.userIdAt(userIndex)), this.getVector(userIndex));
+    }
+
+    // the cosine of two users' preference vectors, 0 if either is all zero
+    public double weight(final int activeIndex, final int otherIndex) {
+        if (this.norms[activeIndex] == 0.0 || this.norms[otherIndex] == 0.0) {
+            return 0.0;
+        }
+        final int activeStart = activeIndex * this.genreCount;
+        final int otherStart = otherIndex * this.genreCount;
+        double dot = 0.0;
+        for (int genre = 0; genre < this.genreCount; genre++) {
+            dot += this.preferences[activeStart + genre] * this.preferences[otherStart + genre];
+        }
+        return dot / (this.norms[activeIndex] * this.norms[otherIndex]);
+    }
+}
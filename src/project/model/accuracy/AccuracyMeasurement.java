@@ -1,46 +1,98 @@
 package project.model.accuracy;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
 
+// Accumulates prediction errors as running sums rather than keeping them, so
+// memory stays constant however many ratings are scored. The totals are
+// striped adders, which many threads can add to without contending on a
+// lock; MAE and RMSE can be read at any time while errors are still coming
+// in.
+//
+// An optional per-user breakdown keeps the same sums for each dense user
+// index. Different users rarely collide, so those are plain atomic arrays,
+// with the doubles held as their long bits.
 public class AccuracyMeasurement {
 
-    private final List<Double> rawErrors;
+    public static final int NO_BREAKDOWN = 0;
+
     private final String measurementName;
 
+    private final DoubleAdder absErrorSum = new DoubleAdder();
+    private final DoubleAdder squaredErrorSum = new DoubleAdder();
+    private final LongAdder sampleCount = new LongAdder();
+
+    private final AtomicIntegerArray userSampleCounts;
+    private final AtomicLongArray userAbsErrorSums;
+    private final AtomicLongArray userSquaredErrorSums;
+
     private Double meanAbsoluteError;
     private Double meanSquaredError;
     private boolean accuracyCalculated = false;
 
     public AccuracyMeasurement(final String measurementName) {
-        this.rawErrors = new ArrayList<Double>();
+        this(measurementName, NO_BREAKDOWN);
+    }
+
+    public AccuracyMeasurement(final String measurementName,
+                               final int userCount) {
+        if (userCount < 0) {
+            throw new IllegalArgumentException(String.format("Invalid user count %d.", userCount));
+        }
         this.measurementName = measurementName;
+        this.userSampleCounts = new AtomicIntegerArray(userCount);
+        this.userAbsErrorSums = new AtomicLongArray(userCount);
+        this.userSquaredErrorSums = new AtomicLongArray(userCount);
     }
 
     public String getName() {
         return this.measurementName;
     }
 
-    public synchronized void addRawError(final Double error) {
-        this.rawErrors.add(error);
+    public void addRawError(final Double error) {
+        this.addError(error);
     }
 
-    public void calculateAccuracy() {
-        int totalMeasurementCount = 0;
-        Double absErrorSum = 0.0;
-        Double squaredErrorSum = 0.0;
-        for (final Double error : this.rawErrors) {
-            absErrorSum += Math.abs( error );
-            squaredErrorSum += Math.pow( error, 2.0 );
-            totalMeasurementCount++;
+    public void addError(final double error) {
+        this.absErrorSum.add(Math.abs(error));
+        this.squaredErrorSum.add(error * error);
+        this.sampleCount.increment();
+    }
+
+    // adds the error to the user's breakdown, when kept, but not to the
+    // totals, which the caller adds with addError or addErrors
+    public void addUserError(final int userIndex, final double error) {
+        if (userIndex >= 0 && userIndex < this.userSampleCounts.length()) {
+            this.userSampleCounts.incrementAndGet(userIndex);
+            addDouble(this.userAbsErrorSums, userIndex, Math.abs(error));
+            addDouble(this.userSquaredErrorSums, userIndex, error * error);
         }
-        this.meanAbsoluteError = (1.0 / totalMeasurementCount) * absErrorSum;
-        this.meanSquaredError = Math.sqrt( squaredErrorSum / totalMeasurementCount );
+    }
+
+    // adds a block of errors summed by the caller, e.g. per worker thread
+    public void addErrors(final double absErrorSum,
+                          final double squaredErrorSum,
+                          final long sampleCount) {
+        this.absErrorSum.add(absErrorSum);
+        this.squaredErrorSum.add(squaredErrorSum);
+        this.sampleCount.add(sampleCount);
+    }
+
+    // fixes the accuracy at the errors added so far
+    public void calculateAccuracy() {
+        this.meanAbsoluteError = this.getRunningMeanAbsoluteError();
+        this.meanSquaredError = this.getRunningRootMeanSquaredError();
         this.accuracyCalculated = true;
     }
 
     public int getSampleCount() {
-        return this.rawErrors.size();
+        return (int) Math.min(Integer.MAX_VALUE, this.sampleCount.sum());
+    }
+
+    public long getLongSampleCount() {
+        return this.sampleCount.sum();
     }
 
     public Double getMeanAbsoluteError() {
@@ -58,4 +110,53 @@ public class AccuracyMeasurement {
             throw new IllegalArgumentException("Error not yet calculated.");
         }
     }
-}
\ No newline at end of file
+
+    //
+    // Deals with reading the accuracy while errors are still being added
+    //
+
+    public double getRunningMeanAbsoluteError() {
+        final long count = this.sampleCount.sum();
+        return count == 0 ? Double.NaN : this.absErrorSum.sum() / count;
+    }
+
+    public double getRunningRootMeanSquaredError() {
+        final long count = this.sampleCount.sum();
+        return count == 0 ? Double.NaN : Math.sqrt(this.squaredErrorSum.sum() / count);
+    }
+
+    //
+    // Deals with the per-user breakdown
+    //
+
+    public boolean hasUserBreakdown() {
+        return this.userSampleCounts.length() > 0;
+    }
+
+    public int getUserCount() {
+        return this.userSampleCounts.length();
+    }
+
+    public int getUserSampleCount(final int userIndex) {
+        return this.userSampleCounts.get(userIndex);
+    }
+
+    public double getUserMeanAbsoluteError(final int userIndex) {
+        final int count = this.userSampleCounts.get(userIndex);
+        return count == 0 ? Double.NaN : Double.longBitsToDouble(this.userAbsErrorSums.get(userIndex)) / count;
+    }
+
+    public double getUserRootMeanSquaredError(final int userIndex) {
+        final int count = this.userSampleCounts.get(userIndex);
+        return count == 0 ? Double.NaN : Math.sqrt(Double.longBitsToDouble(this.userSquaredErrorSums.get(userIndex)) / count);
+    }
+
+    private static void addDouble(final AtomicLongArray sums,
+                                  final int index,
+                                  final double value) {
+        long current;
+        do {
+            current = sums.get(index);
+        } while (!sums.compareAndSet(index, current, Double.doubleToRawLongBits(Double.longBitsToDouble(current) + value)));
+    }
+}
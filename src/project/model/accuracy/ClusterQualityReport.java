@@ -0,0 +1,159 @@
+package project.model.accuracy;
+
+import java.util.Collections;
+import java.util.List;
+
+// The silhouette of a clustering, overall and per cluster. Distances are one
+// minus the pair weight. For each user, a is the mean distance to the other
+// members of their cluster and b the mean distance to the members of the
+// nearest other cluster; the user's silhouette is (b - a) / max(a, b), from
+// -1 for a user in the wrong cluster to 1 for a well separated one.
+//
+// A sampled report estimates the means from a sample of users, with the half
+// width of a 95% confidence interval; an exact report has a half width of 0.
+public class ClusterQualityReport {
+
+    private final boolean exact;
+    private final int userCount;
+    private final int sampledUserCount;
+    private final double meanSilhouette;
+    private final double confidenceHalfWidth;
+    private final List<ClusterQuality> clusters;
+
+    public ClusterQualityReport(final boolean exact,
+                                final int userCount,
+                                final int sampledUserCount,
+                                final double meanSilhouette,
+                                final double confidenceHalfWidth,
+                                final List<ClusterQuality> clusters) {
+        this.exact = exact;
+        this.userCount = userCount;
+        this.sampledUserCount = sampledUserCount;
+        this.meanSilhouette = meanSilhouette;
+        this.confidenceHalfWidth = confidenceHalfWidth;
+        this.clusters = Collections.unmodifiableList(clusters);
+    }
+
+    public boolean isExact() {
+        return this.exact;
+    }
+
+    public int getUserCount() {
+        return this.userCount;
+    }
+
+    public int getSampledUserCount() {
+        return this.sampledUserCount;
+    }
+
+    public double getMeanSilhouette() {
+        return this.meanSilhouette;
+    }
+
+    public double getConfidenceHalfWidth() {
+        return this.confidenceHalfWidth;
+    }
+
+    public List<ClusterQuality> getClusters() {
+        return this.clusters;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+        builder.append(String.format("Silhouette %.4f +/- %.4f over %d of %d users (%s).",
+                                     this.meanSilhouette,
+                                     this.confidenceHalfWidth,
+                                     this.sampledUserCount,
+                                     this.userCount,
+                                     this.exact ? "exact" : "sampled"));
+        for (final ClusterQuality cluster : this.clusters) {
+            builder.append(String.format("\n%s", cluster));
+        }
+        return builder.toString();
+    }
+
+    //
+    // Deals with the quality of a single cluster
+    //
+
+    public static class ClusterQuality {
+
+        private final int clusterIndex;
+        private final int size;
+        private final int sampledUserCount;
+        private final double meanSilhouette;
+        private final double confidenceHalfWidth;
+        private final double meanSameDistance;
+        private final double meanNearestDistance;
+        private final double meanOtherDistance;
+
+        public ClusterQuality(final int clusterIndex,
+                              final int size,
+                              final int sampledUserCount,
+                              final double meanSilhouette,
+                              final double confidenceHalfWidth,
+                              final double meanSameDistance,
+                              final double meanNearestDistance,
+                              final double meanOtherDistance) {
+            this.clusterIndex = clusterIndex;
+            this.size = size;
+            this.sampledUserCount = sampledUserCount;
+            this.meanSilhouette = meanSilhouette;
+            this.confidenceHalfWidth = confidenceHalfWidth;
+            this.meanSameDistance = meanSameDistance;
+            this.meanNearestDistance = meanNearestDistance;
+            this.meanOtherDistance = meanOtherDistance;
+        }
+
+        // the cluster id minus one
+        public int getClusterIndex() {
+            return this.clusterIndex;
+        }
+
+        public int getSize() {
+            return this.size;
+        }
+
+        public int getSampledUserCount() {
+            return this.sampledUserCount;
+        }
+
+        public double getMeanSilhouette() {
+            return this.meanSilhouette;
+        }
+
+        public double getConfidenceHalfWidth() {
+            return this.confidenceHalfWidth;
+        }
+
+        // the mean of a, the distance to the user's own cluster
+        public double getMeanSameDistance() {
+            return this.meanSameDistance;
+        }
+
+        // the mean of b, the distance to the nearest other cluster
+        public double getMeanNearestDistance() {
+            return this.meanNearestDistance;
+        }
+
+        // the mean distance to the members of all other clusters
+        public double getMeanOtherDistance() {
+            return this.meanOtherDistance;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Cluster %d (%d users, %d scored). Silhouette %.4f +/- %.4f, "
+                                 + "same distance %.3f, nearest distance %.3f, other distance %.3f",
+                                 this.clusterIndex + 1,
+                                 this.size,
+                                 this.sampledUserCount,
+                                 this.meanSilhouette,
+                                 this.confidenceHalfWidth,
+                                 this.meanSameDistance,
+                                 this.meanNearestDistance,
+                                 this.meanOtherDistance);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package project.model.accuracy;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import project.model.CollaborativeFilter;
+import project.model.similarity.MinHashIndex;
+import project.model.similarity.SimilarityMetric;
+import project.model.similarity.TopKHeap;
+
+// Measures the recall of a MinHash candidate search against the exhaustive
+// search it replaces. A sample of users is searched twice with the filter's
+// own kernel, once against every user and once against the user's MinHash
+// candidates only, each as one parallel pass so that the two can be timed
+// against each other.
+public class NeighbourRecallEvaluator {
+
+    private static final double CONFIDENCE_Z = 1.96;
+
+    private final CollaborativeFilter filter;
+    private final MinHashIndex index;
+
+    public NeighbourRecallEvaluator(final CollaborativeFilter filter,
+                                    final MinHashIndex index) {
+        this.filter = filter;
+        this.index = index;
+    }
+
+    public NeighbourRecallReport evaluate(final int sampleSize,
+                                          final int neighbourCount,
+                                          final double minWeight,
+                                          final long seed) {
+        if (sampleSize <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid sample size %d.", sampleSize));
+        }
+        if (neighbourCount <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid neighbour count %d.", neighbourCount));
+        }
+        final SimilarityMetric kernel = this.filter.getSimilarityKernel();
+        final int userCount = this.index.getUserCount();
+        final int[] sampled = sampleUsers(userCount, sampleSize, new Random(seed));
+
+        // the true neighbours, weighing every user; only their count and the
+        // lowest weight among them are kept, as ties at that weight are
+        // broken by visiting order and either side of a tie is as good
+        final int[] exactCounts = new int[sampled.length];
+        final double[] exactFloors = new double[sampled.length];
+        final long exhaustiveStart = System.nanoTime();
+        IntStream.range(0, sampled.length).parallel().forEach(sample -> {
+            final int user = sampled[sample];
+            final TopKHeap heap = new TopKHeap(neighbourCount);
+            for (int other = 0; other < userCount; other++) {
+                if (other != user) {
+                    offer(heap, other, kernel.weight(user, other), minWeight);
+                }
+            }
+            exactCounts[sample] = heap.size();
+            exactFloors[sample] = heap.size() == 0 ? Double.NaN : heap.getMinScore();
+        });
+        final long exhaustiveNanos = System.nanoTime() - exhaustiveStart;
+
+        // the neighbours found among the candidates
+        final double[][] found = new double[sampled.length][];
+        final int[] candidateCounts = new int[sampled.length];
+        final ThreadLocal<int[]> localScratch = ThreadLocal.withInitial(this.index::newScratch);
+        final long candidateStart = System.nanoTime();
+        IntStream.range(0, sampled.length).parallel().forEach(sample -> {
+            final int user = sampled[sample];
+            final int[] candidates = this.index.candidates(user, localScratch.get());
+            final TopKHeap heap = new TopKHeap(neighbourCount);
+            for (final int other : candidates) {
+                offer(heap, other, kernel.weight(user, other), minWeight);
+            }
+            found[sample] = scores(heap);
+            candidateCounts[sample] = candidates.length;
+        });
+        final long candidateNanos = System.nanoTime() - candidateStart;
+
+        // recall over the users with any true neighbour
+        double recallSum = 0.0;
+        double recallSquares = 0.0;
+        long candidateSum = 0L;
+        int counted = 0;
+        for (int sample = 0; sample < sampled.length; sample++) {
+            candidateSum += candidateCounts[sample];
+            if (exactCounts[sample] == 0) {
+                continue;
+            }
+            int hits = 0;
+            for (final double weight : found[sample]) {
+                if (weight >= exactFloors[sample]) {
+                    hits++;
+                }
+            }
+            final double recall = (double) hits / exactCounts[sample];
+            recallSum += recall;
+            recallSquares += recall * recall;
+            counted++;
+        }
+
+        return new NeighbourRecallReport(this.index.toString(),
+                                         userCount,
+                                         sampled.length,
+                                         neighbourCount,
+                                         counted == 0 ? Double.NaN : recallSum / counted,
+                                         sampled.length == userCount ? 0.0 : halfWidth(recallSum, recallSquares, counted, userCount),
+                                         sampled.length == 0 ? Double.NaN : (double) candidateSum / sampled.length,
+                                         exhaustiveNanos,
+                                         candidateNanos);
+    }
+
+    private static void offer(final TopKHeap heap,
+                              final int other,
+                              final double weight,
+                              final double minWeight) {
+        if (weight > minWeight) {
+            heap.offer(other, weight);
+        }
+    }
+
+    private static double[] scores(final TopKHeap heap) {
+        final double[] scores = new double[heap.size()];
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = heap.getScore(i);
+        }
+        return scores;
+    }
+
+    // a sorted sample of up to count user indices, without repeats
+    private static int[] sampleUsers(final int userCount,
+                                     final int count,
+                                     final Random random) {
+        final int[] users = new int[userCount];
+        for (int i = 0; i < userCount; i++) {
+            users[i] = i;
+        }
+        final int sampled = Math.min(count, userCount);
+        for (int i = 0; i < sampled; i++) {
+            final int other = i + random.nextInt(userCount - i);
+            final int swap = users[i];
+            users[i] = users[other];
+            users[other] = swap;
+        }
+        final int[] sample = Arrays.copyOf(users, sampled);
+        Arrays.sort(sample);
+        return sample;
+    }
+
+    // the normal interval of a sample mean, corrected for sampling a finite
+    // population without replacement
+    private static double halfWidth(final double sum,
+                                    final double squares,
+                                    final int count,
+                                    final int population) {
+        if (count < 2) {
+            return Double.NaN;
+        }
+        final double mean = sum / count;
+        final double variance = Math.max(0.0, (squares - count * mean * mean) / (count - 1));
+        final double correction = population > 1 ? Math.sqrt((double) (population - count) / (population - 1)) : 0.0;
+        return CONFIDENCE_Z * Math.sqrt(variance / count) * correction;
+    }
+}
@@ -0,0 +1,96 @@
+package project.model.accuracy;
+
+// How many of each user's true top k neighbours a MinHash candidate search
+// finds, against the exhaustive search over every user, on a sample of
+// users. Recall is taken per user over the neighbours the exhaustive search
+// keeps, counting a neighbour found when it weighs at least as much as the
+// true kth; users without any neighbour above the weight floor are left out
+// of it. The times are the wall clock of each search over the whole sample.
+public class NeighbourRecallReport {
+
+    private final String index;
+    private final int userCount;
+    private final int sampledUserCount;
+    private final int neighbourCount;
+    private final double meanRecall;
+    private final double confidenceHalfWidth;
+    private final double meanCandidateCount;
+    private final long exhaustiveNanos;
+    private final long candidateNanos;
+
+    public NeighbourRecallReport(final String index,
+                                 final int userCount,
+                                 final int sampledUserCount,
+                                 final int neighbourCount,
+                                 final double meanRecall,
+                                 final double confidenceHalfWidth,
+                                 final double meanCandidateCount,
+                                 final long exhaustiveNanos,
+                                 final long candidateNanos) {
+        this.index = index;
+        this.userCount = userCount;
+        this.sampledUserCount = sampledUserCount;
+        this.neighbourCount = neighbourCount;
+        this.meanRecall = meanRecall;
+        this.confidenceHalfWidth = confidenceHalfWidth;
+        this.meanCandidateCount = meanCandidateCount;
+        this.exhaustiveNanos = exhaustiveNanos;
+        this.candidateNanos = candidateNanos;
+    }
+
+    public int getUserCount() {
+        return this.userCount;
+    }
+
+    public int getSampledUserCount() {
+        return this.sampledUserCount;
+    }
+
+    public int getNeighbourCount() {
+        return this.neighbourCount;
+    }
+
+    public double getMeanRecall() {
+        return this.meanRecall;
+    }
+
+    public double getConfidenceHalfWidth() {
+        return this.confidenceHalfWidth;
+    }
+
+    // the mean number of users each sampled user was weighed against
+    public double getMeanCandidateCount() {
+        return this.meanCandidateCount;
+    }
+
+    public long getExhaustiveNanos() {
+        return this.exhaustiveNanos;
+    }
+
+    public long getCandidateNanos() {
+        return this.candidateNanos;
+    }
+
+    public double getSpeedup() {
+        return this.candidateNanos == 0L ? Double.NaN : (double) this.exhaustiveNanos / this.candidateNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s\n"
+                             + "Recall@%d %.4f +/- %.4f over %d of %d users.\n"
+                             + "Weighed %.1f candidates per user (%.2f%% of users).\n"
+                             + "Exhaustive %.1f ms, candidates %.1f ms, %.1fx faster.",
+                             this.index,
+                             this.neighbourCount,
+                             this.meanRecall,
+                             this.confidenceHalfWidth,
+                             this.sampledUserCount,
+                             this.userCount,
+                             this.meanCandidateCount,
+                             100.0 * this.meanCandidateCount / Math.max(1, this.userCount - 1),
+                             this.exhaustiveNanos / 1e6,
+                             this.candidateNanos / 1e6,
+                             this.getSpeedup());
+    }
+}
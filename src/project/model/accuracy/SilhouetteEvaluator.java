@@ -0,0 +1,401 @@
+package project.model.accuracy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import project.model.ClusteredFilter;
+import project.model.ratings.IdIndex;
+import project.model.ratings.RatingStore;
+import project.model.similarity.NeighbourGraph;
+import project.model.similarity.SimilarityMetric;
+import project.model.similarity.SymmetricMatrix;
+
+// Computes the silhouette of a ClusteredFilter in parallel, from the cheapest
+// pair weights available:
+//
+//   - the neighbour graph the users were clustered on, where pairs without an
+//     edge have weight 0; each user only visits their own edges
+//   - the similarity matrix the users were clustered on, read in full
+//   - otherwise the similarity kernel, where every unordered pair is weighed
+//     once and added to both users' sums
+//
+// For large clusterings a sampled mode scores a random sample of users
+// against a random sample of each cluster's members, and reports 95%
+// confidence intervals over the users sampled. The member sampling adds a
+// little variance on top that the intervals do not cover.
+public class SilhouetteEvaluator {
+
+    private static final double CONFIDENCE_Z = 1.96;
+
+    // the kernel ranges per worker, so that uneven pair costs balance out
+    private static final int RANGES_PER_WORKER = 4;
+
+    private final ClusteredFilter filter;
+    private final SymmetricMatrix matrix;
+    private final NeighbourGraph graph;
+    private final RatingStore ratings;
+    private final int clusterCount;
+
+    // every clustered user id, cluster by cluster, with the cluster index and
+    // the rating store index of each
+    private final int[] users;
+    private final int[] userClusters;
+    private final int[] userIndices;
+    private final int[] clusterSizes;
+    private final int[] clusterStarts;
+
+    private SimilarityMetric kernel;
+
+    public SilhouetteEvaluator(final ClusteredFilter filter) {
+        this.filter = filter;
+        this.graph = filter.getNeighbourGraph();
+        this.matrix = this.graph == null ? filter.getSimilarityMatrix() : null;
+        this.ratings = filter.getRatingStore();
+        this.clusterCount = filter.getClusterCount();
+
+        this.clusterSizes = new int[this.clusterCount];
+        this.clusterStarts = new int[this.clusterCount + 1];
+        for (int cluster = 0; cluster < this.clusterCount; cluster++) {
+            this.clusterSizes[cluster] = filter.getClusterMembers(cluster).length;
+            this.clusterStarts[cluster + 1] = this.clusterStarts[cluster] + this.clusterSizes[cluster];
+        }
+        this.users = new int[this.clusterStarts[this.clusterCount]];
+        this.userClusters = new int[this.users.length];
+        this.userIndices = new int[this.users.length];
+        for (int cluster = 0; cluster < this.clusterCount; cluster++) {
+            final int[] members = filter.getClusterMembers(cluster);
+            System.arraycopy(members, 0, this.users, this.clusterStarts[cluster], members.length);
+            Arrays.fill(this.userClusters, this.clusterStarts[cluster], this.clusterStarts[cluster + 1], cluster);
+        }
+        for (int position = 0; position < this.users.length; position++) {
+            this.userIndices[position] = this.ratings.indexOfUser(this.users[position]);
+        }
+    }
+
+    //
+    // Deals with the exact silhouette
+    //
+
+    public ClusterQualityReport evaluate() {
+        final int userCount = this.users.length;
+        final Scores scores = new Scores(userCount, this.clusterCount);
+        if (this.graph != null) {
+            this.evaluateGraph(scores);
+        } else if (this.matrix != null) {
+            this.evaluateMatrix(scores);
+        } else {
+            this.evaluateKernel(scores);
+        }
+        final int[] positions = new int[userCount];
+        for (int position = 0; position < userCount; position++) {
+            positions[position] = position;
+        }
+        return this.report(true, positions, scores);
+    }
+
+    // every pair starts at distance 1, and each edge takes its weight off
+    private void evaluateGraph(final Scores scores) {
+        final ThreadLocal<double[]> localSums = ThreadLocal.withInitial(() -> new double[this.clusterCount]);
+        IntStream.range(0, this.users.length).parallel().forEach(position -> {
+            final double[] sums = localSums.get();
+            final int user = this.users[position];
+            for (int cluster = 0; cluster < this.clusterCount; cluster++) {
+                sums[cluster] = this.otherMemberCount(position, cluster);
+            }
+            if (user < this.graph.size()) {
+                for (int edge = this.graph.rowStart(user); edge < this.graph.rowEnd(user); edge++) {
+                    final int neighbour = this.graph.neighbourAt(edge);
+                    final int cluster = this.filter.getClusterIndex(neighbour);
+                    if (neighbour != user && cluster != ClusteredFilter.NO_CLUSTER) {
+                        sums[cluster] -= this.graph.weightAt(edge);
+                    }
+                }
+            }
+            scores.score(position, this.userClusters[position], sums, this.otherMemberCounts(position));
+        });
+    }
+
+    private void evaluateMatrix(final Scores scores) {
+        final ThreadLocal<double[]> localSums = ThreadLocal.withInitial(() -> new double[this.clusterCount]);
+        IntStream.range(0, this.users.length).parallel().forEach(position -> {
+            final double[] sums = localSums.get();
+            Arrays.fill(sums, 0.0);
+            for (int other = 0; other < this.users.length; other++) {
+                if (other != position) {
+                    sums[this.userClusters[other]] += 1.0 - this.weight(position, other);
+                }
+            }
+            scores.score(position, this.userClusters[position], sums, this.otherMemberCounts(position));
+        });
+    }
+
+    // weighs each unordered pair once, adding its distance to both users'
+    // sums in one shared n x k array. The users are split into an even number
+    // of ranges, and the pairs of ranges are scheduled round robin: within a
+    // round no two pairs share a range, so they add into disjoint rows of the
+    // sums without locking
+    private void evaluateKernel(final Scores scores) {
+        final int userCount = this.users.length;
+        final int k = this.clusterCount;
+        final int rangeCount = 2 * RANGES_PER_WORKER * Runtime.getRuntime().availableProcessors();
+        final double[] sums = new double[userCount * k];
+
+        // each range against itself, then every other pair of ranges by the
+        // circle method: the last range stays put while the others rotate
+        IntStream.range(0, rangeCount).parallel().forEach(range -> this.accumulateRanges(range, range, rangeCount, sums));
+        for (int round = 0; round < rangeCount - 1; round++) {
+            final int fixed = round;
+            IntStream.range(0, rangeCount / 2).parallel().forEach(slot -> {
+                final int first = slot == 0 ? fixed : (fixed + slot) % (rangeCount - 1);
+                final int second = slot == 0 ? rangeCount - 1 : (fixed - slot + rangeCount - 1) % (rangeCount - 1);
+                this.accumulateRanges(Math.min(first, second), Math.max(first, second), rangeCount, sums);
+            });
+        }
+
+        IntStream.range(0, userCount).parallel().forEach(position -> {
+            scores.score(position,
+                         this.userClusters[position],
+                         Arrays.copyOfRange(sums, position * k, (position + 1) * k),
+                         this.otherMemberCounts(position));
+        });
+    }
+
+    // the pairs between two ranges, first <= second; within one range, each
+    // pair of its users once
+    private void accumulateRanges(final int first,
+                                  final int second,
+                                  final int rangeCount,
+                                  final double[] sums) {
+        final int k = this.clusterCount;
+        final int end = this.rangeStart(first + 1, rangeCount);
+        final int otherStart = this.rangeStart(second, rangeCount);
+        final int otherEnd = this.rangeStart(second + 1, rangeCount);
+        for (int position = this.rangeStart(first, rangeCount); position < end; position++) {
+            final int cluster = this.userClusters[position];
+            for (int other = Math.max(otherStart, position + 1); other < otherEnd; other++) {
+                final double distance = 1.0 - this.weight(position, other);
+                sums[position * k + this.userClusters[other]] += distance;
+                sums[other * k + cluster] += distance;
+            }
+        }
+    }
+
+    private int rangeStart(final int range, final int rangeCount) {
+        return (int) ((long) this.users.length * range / rangeCount);
+    }
+
+    //
+    // Deals with the sampled silhouette
+    //
+
+    public ClusterQualityReport evaluate(final int sampleSize,
+                                         final int membersPerCluster,
+                                         final long seed) {
+        if (sampleSize <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid sample size %d.", sampleSize));
+        }
+        if (membersPerCluster <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid members per cluster %d.", membersPerCluster));
+        }
+        final Random random = new Random(seed);
+        final int[] sampled = samplePositions(0, this.users.length, sampleSize, random);
+        final int[][] references = new int[this.clusterCount][];
+        for (int cluster = 0; cluster < this.clusterCount; cluster++) {
+            references[cluster] = samplePositions(this.clusterStarts[cluster],
+                                                  this.clusterStarts[cluster + 1],
+                                                  membersPerCluster,
+                                                  random);
+        }
+
+        final Scores scores = new Scores(sampled.length, this.clusterCount);
+        IntStream.range(0, sampled.length).parallel().forEach(sample -> {
+            final int position = sampled[sample];
+            final double[] sums = new double[this.clusterCount];
+            final int[] counts = new int[this.clusterCount];
+            for (int cluster = 0; cluster < this.clusterCount; cluster++) {
+                for (final int other : references[cluster]) {
+                    if (other != position) {
+                        sums[cluster] += 1.0 - this.weight(position, other);
+                        counts[cluster]++;
+                    }
+                }
+            }
+            scores.score(sample, this.userClusters[position], sums, counts);
+        });
+        return this.report(sampled.length == this.users.length, sampled, scores);
+    }
+
+    // a sorted sample of up to count positions in [start, end), without repeats
+    private static int[] samplePositions(final int start,
+                                         final int end,
+                                         final int count,
+                                         final Random random) {
+        final int[] positions = new int[end - start];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = start + i;
+        }
+        final int sampled = Math.min(count, positions.length);
+        for (int i = 0; i < sampled; i++) {
+            final int other = i + random.nextInt(positions.length - i);
+            final int swap = positions[i];
+            positions[i] = positions[other];
+            positions[other] = swap;
+        }
+        final int[] sample = Arrays.copyOf(positions, sampled);
+        Arrays.sort(sample);
+        return sample;
+    }
+
+    //
+    // Deals with pair weights and member counts
+    //
+
+    private double weight(final int position, final int other) {
+        final int user = this.users[position];
+        final int otherUser = this.users[other];
+        if (this.graph != null) {
+            return this.graph.weight(user, otherUser);
+        }
+        if (this.matrix != null) {
+            return user < this.matrix.size() && otherUser < this.matrix.size() ? this.matrix.get(user, otherUser) : 0.0;
+        }
+        final int index = this.userIndices[position];
+        final int otherIndex = this.userIndices[other];
+        if (index == IdIndex.ABSENT || otherIndex == IdIndex.ABSENT) {
+            return 0.0;
+        }
+        return this.getKernel().weight(index, otherIndex);
+    }
+
+    private synchronized SimilarityMetric getKernel() {
+        if (this.kernel == null) {
+            this.kernel = this.filter.getSimilarityKernel();
+        }
+        return this.kernel;
+    }
+
+    private int otherMemberCount(final int position, final int cluster) {
+        return this.clusterSizes[cluster] - (this.userClusters[position] == cluster ? 1 : 0);
+    }
+
+    private int[] otherMemberCounts(final int position) {
+        final int[] counts = Arrays.copyOf(this.clusterSizes, this.clusterCount);
+        counts[this.userClusters[position]]--;
+        return counts;
+    }
+
+    //
+    // Deals with summarising the scores into a report
+    //
+
+    private ClusterQualityReport report(final boolean exact,
+                                        final int[] positions,
+                                        final Scores scores) {
+        final int k = this.clusterCount;
+        final double[] silhouetteSums = new double[k];
+        final double[] silhouetteSquares = new double[k];
+        final double[] sameSums = new double[k];
+        final double[] nearestSums = new double[k];
+        final double[] otherSums = new double[k];
+        final int[] counts = new int[k];
+        double totalSum = 0.0;
+        double totalSquares = 0.0;
+        for (int i = 0; i < positions.length; i++) {
+            final int cluster = this.userClusters[positions[i]];
+            final double silhouette = scores.silhouettes[i];
+            silhouetteSums[cluster] += silhouette;
+            silhouetteSquares[cluster] += silhouette * silhouette;
+            sameSums[cluster] += scores.sameDistances[i];
+            nearestSums[cluster] += scores.nearestDistances[i];
+            otherSums[cluster] += scores.otherDistances[i];
+            counts[cluster]++;
+            totalSum += silhouette;
+            totalSquares += silhouette * silhouette;
+        }
+
+        final List<ClusterQualityReport.ClusterQuality> clusters = new ArrayList<ClusterQualityReport.ClusterQuality>();
+        for (int cluster = 0; cluster < k; cluster++) {
+            final int count = counts[cluster];
+            clusters.add(new ClusterQualityReport.ClusterQuality(
+                    cluster,
+                    this.clusterSizes[cluster],
+                    count,
+                    count == 0 ? Double.NaN : silhouetteSums[cluster] / count,
+                    exact ? 0.0 : halfWidth(silhouetteSums[cluster], silhouetteSquares[cluster], count, this.clusterSizes[cluster]),
+                    count == 0 ? Double.NaN : sameSums[cluster] / count,
+                    count == 0 ? Double.NaN : nearestSums[cluster] / count,
+                    count == 0 ? Double.NaN : otherSums[cluster] / count));
+        }
+        return new ClusterQualityReport(exact,
+                                        this.users.length,
+                                        positions.length,
+                                        positions.length == 0 ? Double.NaN : totalSum / positions.length,
+                                        exact ? 0.0 : halfWidth(totalSum, totalSquares, positions.length, this.users.length),
+                                        clusters);
+    }
+
+    // the normal interval of a sample mean, corrected for sampling a finite
+    // population without replacement
+    private static double halfWidth(final double sum,
+                                    final double squares,
+                                    final int count,
+                                    final int population) {
+        if (count < 2) {
+            return Double.NaN;
+        }
+        final double mean = sum / count;
+        final double variance = Math.max(0.0, (squares - count * mean * mean) / (count - 1));
+        final double correction = population > 1 ? Math.sqrt((double) (population - count) / (population - 1)) : 0.0;
+        return CONFIDENCE_Z * Math.sqrt(variance / count) * correction;
+    }
+
+    //
+    // Deals with the per-user silhouettes
+    //
+
+    private static class Scores {
+
+        private final int clusterCount;
+        private final double[] silhouettes;
+        private final double[] sameDistances;
+        private final double[] nearestDistances;
+        private final double[] otherDistances;
+
+        Scores(final int userCount, final int clusterCount) {
+            this.clusterCount = clusterCount;
+            this.silhouettes = new double[userCount];
+            this.sameDistances = new double[userCount];
+            this.nearestDistances = new double[userCount];
+            this.otherDistances = new double[userCount];
+        }
+
+        // a user alone in their cluster, or in the only cluster, scores 0
+        void score(final int i,
+                   final int ownCluster,
+                   final double[] sums,
+                   final int[] counts) {
+            final double same = counts[ownCluster] > 0 ? sums[ownCluster] / counts[ownCluster] : 0.0;
+            double nearest = Double.POSITIVE_INFINITY;
+            double otherSum = 0.0;
+            long otherCount = 0;
+            for (int cluster = 0; cluster < this.clusterCount; cluster++) {
+                if (cluster == ownCluster || counts[cluster] == 0) {
+                    continue;
+                }
+                nearest = Math.min(nearest, sums[cluster] / counts[cluster]);
+                otherSum += sums[cluster];
+                otherCount += counts[cluster];
+            }
+            final double scale = Math.max(same, nearest);
+            this.silhouettes[i] = counts[ownCluster] == 0 || otherCount == 0 || scale <= 0.0
+                    ? 0.0
+                    : (nearest - same) / scale;
+            this.sameDistances[i] = same;
+            this.nearestDistances[i] = otherCount == 0 ? Double.NaN : nearest;
+            this.otherDistances[i] = otherCount == 0 ? Double.NaN : otherSum / otherCount;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package project.model.clustering;
+
+// Points held in one flat row-major array on the heap.
+public class ArrayPointSource implements PointSource {
+
+    private final double[] points;
+    private final int dimension;
+
+    public ArrayPointSource(final double[] points,
+                            final int dimension) {
+        if (dimension <= 0 || points.length % dimension != 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Cannot split %d values into points of dimension %d.", points.length, dimension));
+        }
+        this.points = points;
+        this.dimension = dimension;
+    }
+
+    @Override
+    public int size() {
+        return this.points.length / this.dimension;
+    }
+
+    @Override
+    public int dimension() {
+        return this.dimension;
+    }
+
+    @Override
+    public void read(final int start, final int count, final double[] into) {
+        System.arraycopy(this.points, start * this.dimension, into, 0, count * this.dimension);
+    }
+
+    // the raw array is shared, not copied; callers must not modify it
+    public double[] getPoints() {
+        return this.points;
+    }
+}
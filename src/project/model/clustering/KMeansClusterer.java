@@ -0,0 +1,353 @@
+package project.model.clustering;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+// Lloyd's k-means over points held in one flat row-major array, with
+// Hamerly's bounds to skip most distance computations:
+//
+//   - each point keeps an upper bound on the distance to its own centroid
+//     and a lower bound on the distance to every other centroid
+//   - when the upper bound is below both the lower bound and half the
+//     distance from its centroid to the nearest other centroid, the point
+//     cannot change cluster and is not looked at any further
+//   - after the centroids move, the bounds are loosened by how far they moved
+//     rather than recomputed
+//
+// Seeding is k-means++, with the distances to the chosen centres kept per
+// point and updated in parallel as each centre is added. Assignment and the
+// centroid sums run in parallel over fixed chunks of points, summed in chunk
+// order, so a given seed always gives the same clustering. Iteration stops as
+// soon as no point changes cluster.
+//
+// A cluster left empty keeps its previous centroid.
+public class KMeansClusterer {
+
+    private static final int CHUNK_SIZE = 4096;
+
+    private final int clusterCount;
+    private final int maxIterations;
+    private final long seed;
+
+    public KMeansClusterer(final int clusterCount,
+                           final int maxIterations,
+                           final long seed) {
+        if (clusterCount <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid cluster count %d.", clusterCount));
+        }
+        if (maxIterations <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid iteration limit %d.", maxIterations));
+        }
+        this.clusterCount = clusterCount;
+        this.maxIterations = maxIterations;
+        this.seed = seed;
+    }
+
+    // full-batch k-means needs every point on the heap, so other sources are
+    // read in whole
+    public KMeansResult cluster(final PointSource points) {
+        if (points instanceof ArrayPointSource) {
+            return this.cluster(((ArrayPointSource) points).getPoints(), points.dimension());
+        }
+        final double[] values = new double[points.size() * points.dimension()];
+        points.read(0, points.size(), values);
+        return this.cluster(values, points.dimension());
+    }
+
+    public KMeansResult cluster(final double[] points,
+                                final int dimension) {
+        if (dimension <= 0 || points.length % dimension != 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Cannot split %d values into points of dimension %d.", points.length, dimension));
+        }
+        final int n = points.length / dimension;
+        if (n < this.clusterCount) {
+            throw new IllegalArgumentException(String.format(
+                    "Cannot form %d clusters from %d points.", this.clusterCount, n));
+        }
+        final State state = new State(points, n, dimension, this.clusterCount);
+        this.seedCentroids(state);
+
+        // the first pass assigns every point by a full scan
+        state.assignAll();
+        int iterations = 1;
+        boolean converged = false;
+        while (iterations < this.maxIterations) {
+            state.moveCentroids();
+            iterations++;
+            if (state.assign() == 0) {
+                converged = true;
+                break;
+            }
+        }
+        // the centroids follow the final assignment
+        if (!converged) {
+            state.moveCentroids();
+        }
+        return new KMeansResult(this.clusterCount,
+                                dimension,
+                                new ArrayPointSource(points, dimension),
+                                state.assignments,
+                                state.centroids,
+                                iterations,
+                                converged,
+                                state.cost());
+    }
+
+    //
+    // Deals with k-means++ seeding
+    //
+
+    // each centre is drawn with probability proportional to the squared
+    // distance of a point to its nearest centre so far
+    private void seedCentroids(final State state) {
+        final Random random = new Random(this.seed);
+        final int n = state.n;
+        final int d = state.dimension;
+        final double[] nearest = new double[n];
+        Arrays.fill(nearest, Double.POSITIVE_INFINITY);
+        final int chunkCount = (n + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        final double[] chunkSums = new double[chunkCount];
+
+        int chosen = random.nextInt(n);
+        for (int cluster = 0; cluster < this.clusterCount; cluster++) {
+            System.arraycopy(state.points, chosen * d, state.centroids, cluster * d, d);
+            if (cluster == this.clusterCount - 1) {
+                break;
+            }
+
+            final int centre = cluster;
+            IntStream.range(0, chunkCount).parallel().forEach(chunk -> {
+                final int end = Math.min(n, (chunk + 1) * CHUNK_SIZE);
+                double sum = 0.0;
+                for (int point = chunk * CHUNK_SIZE; point < end; point++) {
+                    nearest[point] = Math.min(nearest[point], state.squaredDistance(point, centre));
+                    sum += nearest[point];
+                }
+                chunkSums[chunk] = sum;
+            });
+
+            double total = 0.0;
+            for (final double sum : chunkSums) {
+                total += sum;
+            }
+            if (total <= 0.0) {
+                // every point sits on a centre already; take any other point
+                chosen = random.nextInt(n);
+                continue;
+            }
+            double target = random.nextDouble() * total;
+            int chunk = 0;
+            while (chunk < chunkCount - 1 && target >= chunkSums[chunk]) {
+                target -= chunkSums[chunk];
+                chunk++;
+            }
+            final int end = Math.min(n, (chunk + 1) * CHUNK_SIZE);
+            chosen = end - 1;
+            for (int point = chunk * CHUNK_SIZE; point < end; point++) {
+                target -= nearest[point];
+                if (target < 0.0 && nearest[point] > 0.0) {
+                    chosen = point;
+                    break;
+                }
+            }
+        }
+    }
+
+    //
+    // Deals with the points, centroids and bounds of one run
+    //
+
+    private static class State {
+
+        private final double[] points;
+        private final int n;
+        private final int dimension;
+        private final int clusterCount;
+        private final int chunkCount;
+
+        private final double[] centroids;
+        private final int[] assignments;
+        private final double[] upper;
+        private final double[] lower;
+
+        // half the distance from each centroid to its nearest other centroid
+        private final double[] separation;
+        private final double[] movement;
+
+        State(final double[] points,
+              final int n,
+              final int dimension,
+              final int clusterCount) {
+            this.points = points;
+            this.n = n;
+            this.dimension = dimension;
+            this.clusterCount = clusterCount;
+            this.chunkCount = (n + CHUNK_SIZE - 1) / CHUNK_SIZE;
+            this.centroids = new double[clusterCount * dimension];
+            this.assignments = new int[n];
+            this.upper = new double[n];
+            this.lower = new double[n];
+            this.separation = new double[clusterCount];
+            this.movement = new double[clusterCount];
+        }
+
+        void assignAll() {
+            IntStream.range(0, this.n).parallel().forEach(this::scan);
+        }
+
+        // reassigns the points whose bounds allow a change, and returns how
+        // many changed cluster
+        int assign() {
+            this.updateSeparation();
+            return IntStream.range(0, this.chunkCount).parallel().map(chunk -> {
+                final int end = Math.min(this.n, (chunk + 1) * CHUNK_SIZE);
+                int changed = 0;
+                for (int point = chunk * CHUNK_SIZE; point < end; point++) {
+                    final int cluster = this.assignments[point];
+                    final double bound = Math.max(this.separation[cluster], this.lower[point]);
+                    if (this.upper[point] <= bound) {
+                        continue;
+                    }
+                    // tighten the upper bound before paying for a full scan
+                    this.upper[point] = Math.sqrt(this.squaredDistance(point, cluster));
+                    if (this.upper[point] <= bound) {
+                        continue;
+                    }
+                    this.scan(point);
+                    if (this.assignments[point] != cluster) {
+                        changed++;
+                    }
+                }
+                return changed;
+            }).sum();
+        }
+
+        // assigns the point to its nearest centroid, and resets its bounds
+        private void scan(final int point) {
+            int best = 0;
+            double bestDistance = Double.POSITIVE_INFINITY;
+            double secondDistance = Double.POSITIVE_INFINITY;
+            for (int cluster = 0; cluster < this.clusterCount; cluster++) {
+                final double distance = this.squaredDistance(point, cluster);
+                if (distance < bestDistance) {
+                    secondDistance = bestDistance;
+                    bestDistance = distance;
+                    best = cluster;
+                } else if (distance < secondDistance) {
+                    secondDistance = distance;
+                }
+            }
+            this.assignments[point] = best;
+            this.upper[point] = Math.sqrt(bestDistance);
+            this.lower[point] = Math.sqrt(secondDistance);
+        }
+
+        private void updateSeparation() {
+            Arrays.fill(this.separation, Double.POSITIVE_INFINITY);
+            for (int a = 0; a < this.clusterCount; a++) {
+                for (int b = a + 1; b < this.clusterCount; b++) {
+                    double sum = 0.0;
+                    for (int i = 0; i < this.dimension; i++) {
+                        final double difference = this.centroids[a * this.dimension + i] - this.centroids[b * this.dimension + i];
+                        sum += difference * difference;
+                    }
+                    final double half = Math.sqrt(sum) / 2.0;
+                    this.separation[a] = Math.min(this.separation[a], half);
+                    this.separation[b] = Math.min(this.separation[b], half);
+                }
+            }
+        }
+
+        // moves every centroid to the mean of its points, then loosens the
+        // bounds by the distances moved
+        void moveCentroids() {
+            final int d = this.dimension;
+            final int k = this.clusterCount;
+            final double[][] chunkSums = new double[this.chunkCount][];
+            final int[][] chunkCounts = new int[this.chunkCount][];
+            IntStream.range(0, this.chunkCount).parallel().forEach(chunk -> {
+                final double[] sums = new double[k * d];
+                final int[] counts = new int[k];
+                final int end = Math.min(this.n, (chunk + 1) * CHUNK_SIZE);
+                for (int point = chunk * CHUNK_SIZE; point < end; point++) {
+                    final int cluster = this.assignments[point];
+                    counts[cluster]++;
+                    for (int i = 0; i < d; i++) {
+                        sums[cluster * d + i] += this.points[point * d + i];
+                    }
+                }
+                chunkSums[chunk] = sums;
+                chunkCounts[chunk] = counts;
+            });
+
+            final double[] sums = new double[k * d];
+            final int[] counts = new int[k];
+            for (int chunk = 0; chunk < this.chunkCount; chunk++) {
+                for (int i = 0; i < k * d; i++) {
+                    sums[i] += chunkSums[chunk][i];
+                }
+                for (int cluster = 0; cluster < k; cluster++) {
+                    counts[cluster] += chunkCounts[chunk][cluster];
+                }
+            }
+
+            int farthest = 0;
+            for (int cluster = 0; cluster < k; cluster++) {
+                double moved = 0.0;
+                if (counts[cluster] > 0) {
+                    for (int i = 0; i < d; i++) {
+                        final double centre = sums[cluster * d + i] / counts[cluster];
+                        final double difference = centre - this.centroids[cluster * d + i];
+                        moved += difference * difference;
+                        this.centroids[cluster * d + i] = centre;
+                    }
+                }
+                this.movement[cluster] = Math.sqrt(moved);
+                if (this.movement[cluster] > this.movement[farthest]) {
+                    farthest = cluster;
+                }
+            }
+
+            // a point's lower bound covers every centroid but its own, so it
+            // only needs the largest movement among those
+            final double maxMovement = this.movement[farthest];
+            double secondMovement = 0.0;
+            for (int cluster = 0; cluster < k; cluster++) {
+                if (cluster != farthest) {
+                    secondMovement = Math.max(secondMovement, this.movement[cluster]);
+                }
+            }
+            final int farthestCluster = farthest;
+            final double otherMovement = secondMovement;
+            IntStream.range(0, this.n).parallel().forEach(point -> {
+                final int cluster = this.assignments[point];
+                this.upper[point] += this.movement[cluster];
+                this.lower[point] -= cluster == farthestCluster ? otherMovement : maxMovement;
+            });
+        }
+
+        double squaredDistance(final int point, final int cluster) {
+            final int pointStart = point * this.dimension;
+            final int centreStart = cluster * this.dimension;
+            double sum = 0.0;
+            for (int i = 0; i < this.dimension; i++) {
+                final double difference = this.points[pointStart + i] - this.centroids[centreStart + i];
+                sum += difference * difference;
+            }
+            return sum;
+        }
+
+        double cost() {
+            return IntStream.range(0, this.chunkCount).parallel().mapToDouble(chunk -> {
+                final int end = Math.min(this.n, (chunk + 1) * CHUNK_SIZE);
+                double sum = 0.0;
+                for (int point = chunk * CHUNK_SIZE; point < end; point++) {
+                    sum += this.squaredDistance(point, this.assignments[point]);
+                }
+                return sum;
+            }).sum();
+        }
+    }
+}
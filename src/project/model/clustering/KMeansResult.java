@@ -0,0 +1,90 @@
+package project.model.clustering;
+
+// The outcome of a k-means run over n points of a given dimension: the
+// cluster index of every point, and the centroids in one row-major array of
+// clusterCount x dimension values. The points themselves are kept as their
+// source, row i being the point of user id i.
+public class KMeansResult {
+
+    private final int clusterCount;
+    private final int dimension;
+    private final PointSource points;
+    private final int[] assignments;
+    private final double[] centroids;
+    private final int iterations;
+    private final boolean converged;
+    private final double cost;
+
+    public KMeansResult(final int clusterCount,
+                        final int dimension,
+                        final PointSource points,
+                        final int[] assignments,
+                        final double[] centroids,
+                        final int iterations,
+                        final boolean converged,
+                        final double cost) {
+        this.clusterCount = clusterCount;
+        this.dimension = dimension;
+        this.points = points;
+        this.assignments = assignments;
+        this.centroids = centroids;
+        this.iterations = iterations;
+        this.converged = converged;
+        this.cost = cost;
+    }
+
+    public int getClusterCount() {
+        return this.clusterCount;
+    }
+
+    public int getDimension() {
+        return this.dimension;
+    }
+
+    public int getPointCount() {
+        return this.assignments.length;
+    }
+
+    public PointSource getPoints() {
+        return this.points;
+    }
+
+    // the raw arrays are shared, not copied; callers must not modify them
+    public int[] getAssignments() {
+        return this.assignments;
+    }
+
+    public double[] getCentroids() {
+        return this.centroids;
+    }
+
+    public int getAssignment(final int point) {
+        return this.assignments[point];
+    }
+
+    public double[] getPoint(final int point) {
+        final double[] copy = new double[this.dimension];
+        this.points.read(point, 1, copy);
+        return copy;
+    }
+
+    public double[] getCentroid(final int cluster) {
+        final double[] copy = new double[this.dimension];
+        System.arraycopy(this.centroids, cluster * this.dimension, copy, 0, this.dimension);
+        return copy;
+    }
+
+    public int getIterations() {
+        return this.iterations;
+    }
+
+    // false when the iteration limit was reached before the assignments settled
+    public boolean isConverged() {
+        return this.converged;
+    }
+
+    // the sum of squared distances from each point to its centroid
+    public double getCost() {
+        return this.cost;
+    }
+}
@@ -0,0 +1,67 @@
+package project.model.clustering;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+
+// Read-only view of a point file, mapped straight from disk. The file is
+// mapped in chunks of whole rows since a single mapping is limited to 2GB.
+public class MappedPointSource implements PointSource {
+
+    private static final long CHUNK_BYTES = 1L << 28;
+
+    private final int size;
+    private final int dimension;
+    private final int rowsPerChunk;
+    private final DoubleBuffer[] chunks;
+
+    MappedPointSource(final FileChannel channel,
+                      final long dataOffset,
+                      final int size,
+                      final int dimension)
+        throws IOException
+    {
+        this.size = size;
+        this.dimension = dimension;
+        this.rowsPerChunk = (int) Math.max(1, CHUNK_BYTES / (8L * dimension));
+        final int chunkCount = (size + this.rowsPerChunk - 1) / this.rowsPerChunk;
+        this.chunks = new DoubleBuffer[chunkCount];
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            final long firstRow = (long) chunk * this.rowsPerChunk;
+            final long chunkRows = Math.min(this.rowsPerChunk, size - firstRow);
+            this.chunks[chunk] = channel.map(FileChannel.MapMode.READ_ONLY,
+                                             dataOffset + firstRow * dimension * 8,
+                                             chunkRows * dimension * 8)
+                                        .order(ByteOrder.LITTLE_ENDIAN)
+                                        .asDoubleBuffer();
+        }
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public int dimension() {
+        return this.dimension;
+    }
+
+    // reads through duplicates, so any number of threads can read at once
+    @Override
+    public void read(final int start, final int count, final double[] into) {
+        int row = start;
+        int written = 0;
+        while (row < start + count) {
+            final int chunk = row / this.rowsPerChunk;
+            final int chunkRow = row - chunk * this.rowsPerChunk;
+            final int rows = Math.min(start + count - row, this.rowsPerChunk - chunkRow);
+            final DoubleBuffer view = this.chunks[chunk].duplicate();
+            view.position(chunkRow * this.dimension);
+            view.get(into, written, rows * this.dimension);
+            row += rows;
+            written += rows * this.dimension;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package project.model.clustering;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+// Mini-batch k-means (Sculley, 2010) for point sources too large to scan on
+// every iteration. Each iteration reads a random batch of rows, assigns them
+// to their nearest centroid in parallel, and pulls each centroid towards its
+// batch points with a step of one over the number of points it has seen so
+// far, so the centroids settle as they accumulate points.
+//
+// The centroids are seeded by full k-means on a first batch, after which
+// every iteration draws a fresh batch. Iteration stops once the centroids
+// move less than a small fraction of the batch's spread, or after
+// maxIterations batches. Labels are then assigned in one parallel pass that
+// reads the source a chunk of rows at a time.
+//
+// Apart from the n labels, memory is bounded by the batch and the chunks.
+public class MiniBatchKMeansClusterer {
+
+    private static final int CHUNK_SIZE = 4096;
+    private static final int SEED_ITERATIONS = 20;
+    private static final double TOLERANCE = 1.0e-4;
+
+    private final int clusterCount;
+    private final int batchSize;
+    private final int maxIterations;
+    private final long seed;
+
+    public MiniBatchKMeansClusterer(final int clusterCount,
+                                    final int batchSize,
+                                    final int maxIterations,
+                                    final long seed) {
+        if (clusterCount <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid cluster count %d.", clusterCount));
+        }
+        if (batchSize < clusterCount) {
+            throw new IllegalArgumentException(String.format(
+                    "A batch of %d points cannot seed %d clusters.", batchSize, clusterCount));
+        }
+        if (maxIterations <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid iteration limit %d.", maxIterations));
+        }
+        this.clusterCount = clusterCount;
+        this.batchSize = batchSize;
+        this.maxIterations = maxIterations;
+        this.seed = seed;
+    }
+
+    public KMeansResult cluster(final PointSource points) {
+        final int n = points.size();
+        final int d = points.dimension();
+        final int k = this.clusterCount;
+        if (n < k) {
+            throw new IllegalArgumentException(String.format("Cannot form %d clusters from %d points.", k, n));
+        }
+        final Random random = new Random(this.seed);
+        final int batchRows = Math.min(this.batchSize, n);
+        final double[] batch = new double[batchRows * d];
+        final int[] batchAssignments = new int[batchRows];
+        final double[] batchDistances = new double[batchRows];
+
+        // seed from a full k-means over the first batch
+        readBatch(points, random, batch);
+        final double[] centroids = new KMeansClusterer(k, SEED_ITERATIONS, this.seed)
+                .cluster(Arrays.copyOf(batch, batch.length), d)
+                .getCentroids()
+                .clone();
+
+        final long[] counts = new long[k];
+        final double[] previous = new double[k * d];
+        int iterations = 0;
+        boolean converged = false;
+        while (iterations < this.maxIterations) {
+            readBatch(points, random, batch);
+            iterations++;
+            IntStream.range(0, batchRows).parallel().forEach(row -> {
+                batchAssignments[row] = nearest(batch, row, centroids, k, d, batchDistances);
+            });
+
+            // per-point gradient steps, in batch order
+            System.arraycopy(centroids, 0, previous, 0, centroids.length);
+            double spread = 0.0;
+            for (int row = 0; row < batchRows; row++) {
+                final int cluster = batchAssignments[row];
+                counts[cluster]++;
+                final double step = 1.0 / counts[cluster];
+                for (int i = 0; i < d; i++) {
+                    centroids[cluster * d + i] += step * (batch[row * d + i] - centroids[cluster * d + i]);
+                }
+                spread += batchDistances[row];
+            }
+
+            double movement = 0.0;
+            for (int i = 0; i < centroids.length; i++) {
+                movement += (centroids[i] - previous[i]) * (centroids[i] - previous[i]);
+            }
+            if (movement / k <= TOLERANCE * spread / batchRows) {
+                converged = true;
+                break;
+            }
+        }
+
+        // label every point in one pass over the source
+        final int[] assignments = new int[n];
+        final int chunkCount = (n + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        final double cost = IntStream.range(0, chunkCount).parallel().mapToDouble(chunk -> {
+            final int start = chunk * CHUNK_SIZE;
+            final int count = Math.min(CHUNK_SIZE, n - start);
+            final double[] rows = new double[count * d];
+            final double[] distances = new double[count];
+            points.read(start, count, rows);
+            double sum = 0.0;
+            for (int row = 0; row < count; row++) {
+                assignments[start + row] = nearest(rows, row, centroids, k, d, distances);
+                sum += distances[row];
+            }
+            return sum;
+        }).sum();
+
+        return new KMeansResult(k, d, points, assignments, centroids, iterations, converged, cost);
+    }
+
+    // fills the batch with uniformly drawn rows, with replacement
+    private static void readBatch(final PointSource points,
+                                  final Random random,
+                                  final double[] batch) {
+        final int d = points.dimension();
+        final double[] row = new double[d];
+        for (int start = 0; start < batch.length; start += d) {
+            points.read(random.nextInt(points.size()), 1, row);
+            System.arraycopy(row, 0, batch, start, d);
+        }
+    }
+
+    // the nearest centroid to a row, with the squared distance to it
+    private static int nearest(final double[] rows,
+                               final int row,
+                               final double[] centroids,
+                               final int k,
+                               final int d,
+                               final double[] distances) {
+        int best = 0;
+        double bestDistance = Double.POSITIVE_INFINITY;
+        for (int cluster = 0; cluster < k; cluster++) {
+            double sum = 0.0;
+            for (int i = 0; i < d; i++) {
+                final double difference = rows[row * d + i] - centroids[cluster * d + i];
+                sum += difference * difference;
+            }
+            if (sum < bestDistance) {
+                bestDistance = sum;
+                best = cluster;
+            }
+        }
+        distances[row] = bestDistance;
+        return best;
+    }
+}
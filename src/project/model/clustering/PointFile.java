@@ -0,0 +1,143 @@
+package project.model.clustering;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Binary on-disk format for reduced user vectors, so they can be clustered
+// from a mapping instead of the heap. The file starts with a fixed 32 byte
+// little-endian header:
+//
+//   0  int   magic ("MPPT")
+//   4  int   format version
+//   8  int   point count n
+//  12  int   dimension d
+//  16  long  size of the file the points were computed from, or 0
+//  24  long  modification time of that file in ms, or 0
+//
+// followed by the n x d float64 values, row after row. The source stamp lets
+// a cached embedding be told apart from one of an older matrix.
+public class PointFile {
+
+    public static final int MAGIC = 0x5450504D;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 32;
+
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+    public static boolean isPointFile(final Path path)
+        throws IOException
+    {
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                return false;
+            }
+            final ByteBuffer buffer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(buffer, 0);
+            return buffer.getInt(0) == MAGIC;
+        }
+    }
+
+    // whether the points were computed from the source as it is now
+    public static boolean isComputedFrom(final Path path,
+                                         final Path source)
+        throws IOException
+    {
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) {
+                    return false;
+                }
+            }
+            final long sourceSize = header.getLong(16);
+            final long sourceModified = header.getLong(24);
+            return (sourceSize != 0L || sourceModified != 0L)
+                    && sourceSize == Files.size(source)
+                    && sourceModified == Files.getLastModifiedTime(source).toMillis();
+        }
+    }
+
+    public static void write(final Path path,
+                             final PointSource points)
+        throws IOException
+    {
+        write(path, points, null);
+    }
+
+    // writes the points stamped with the file they were computed from, if any
+    public static void write(final Path path,
+                             final PointSource points,
+                             final Path source)
+        throws IOException
+    {
+        final int n = points.size();
+        final int d = points.dimension();
+        try (final FileChannel channel = FileChannel.open(path,
+                                                          StandardOpenOption.CREATE,
+                                                          StandardOpenOption.TRUNCATE_EXISTING,
+                                                          StandardOpenOption.WRITE)) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(0, MAGIC);
+            header.putInt(4, VERSION);
+            header.putInt(8, n);
+            header.putInt(12, d);
+            if (source != null) {
+                header.putLong(16, Files.size(source));
+                header.putLong(24, Files.getLastModifiedTime(source).toMillis());
+            }
+            writeFully(channel, header);
+
+            // copy a block of rows at a time through one buffer
+            final int rowsPerBlock = Math.max(1, WRITE_BUFFER_SIZE / (8 * d));
+            final double[] rows = new double[rowsPerBlock * d];
+            final ByteBuffer buffer = ByteBuffer.allocate(rowsPerBlock * d * 8).order(ByteOrder.LITTLE_ENDIAN);
+            for (int start = 0; start < n; start += rowsPerBlock) {
+                final int count = Math.min(rowsPerBlock, n - start);
+                points.read(start, count, rows);
+                buffer.clear();
+                buffer.asDoubleBuffer().put(rows, 0, count * d);
+                buffer.limit(count * d * 8);
+                writeFully(channel, buffer);
+            }
+        }
+    }
+
+    public static MappedPointSource open(final Path path)
+        throws IOException
+    {
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) {
+                    throw new IOException("Point file is truncated.");
+                }
+            }
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException(String.format("File {%s} is not a point file.", path));
+            }
+            if (header.getInt(4) != VERSION) {
+                throw new IOException(String.format("Unsupported point file version %d.", header.getInt(4)));
+            }
+            final int n = header.getInt(8);
+            final int d = header.getInt(12);
+            if (channel.size() != HEADER_SIZE + 8L * n * d) {
+                throw new IOException(String.format("File {%s} has an inconsistent size.", path));
+            }
+            // the mapping stays valid after the channel is closed
+            return new MappedPointSource(channel, HEADER_SIZE, n, d);
+        }
+    }
+
+    private static void writeFully(final FileChannel channel, final ByteBuffer buffer)
+        throws IOException
+    {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
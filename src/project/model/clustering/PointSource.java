@@ -0,0 +1,15 @@
+package project.model.clustering;
+
+// Rows of reduced user vectors, all of one dimension, read a block at a time
+// so callers never need every row in memory at once. Row i is the point of
+// user id i.
+public interface PointSource {
+
+    public int size();
+
+    public int dimension();
+
+    // copies rows [start, start + count) into the first count x dimension
+    // values of into, row after row
+    public void read(int start, int count, double[] into);
+}
@@ -0,0 +1,45 @@
+package project.model.clustering;
+
+// The first dimension coordinates of every point of another source, e.g. the
+// leading eigenvectors of a wider spectral embedding. Rows are read from the
+// source a block at a time and packed down to the narrower width.
+public class TruncatedPointSource implements PointSource {
+
+    private static final int ROWS_PER_READ = 1024;
+
+    private final PointSource source;
+    private final int dimension;
+
+    public TruncatedPointSource(final PointSource source,
+                                final int dimension) {
+        if (dimension <= 0 || dimension > source.dimension()) {
+            throw new IllegalArgumentException(String.format(
+                    "Cannot truncate points of dimension %d to %d.", source.dimension(), dimension));
+        }
+        this.source = source;
+        this.dimension = dimension;
+    }
+
+    @Override
+    public int size() {
+        return this.source.size();
+    }
+
+    @Override
+    public int dimension() {
+        return this.dimension;
+    }
+
+    @Override
+    public void read(final int start, final int count, final double[] into) {
+        final int sourceDimension = this.source.dimension();
+        final double[] rows = new double[Math.min(count, ROWS_PER_READ) * sourceDimension];
+        for (int first = 0; first < count; first += ROWS_PER_READ) {
+            final int rowCount = Math.min(ROWS_PER_READ, count - first);
+            this.source.read(start + first, rowCount, rows);
+            for (int row = 0; row < rowCount; row++) {
+                System.arraycopy(rows, row * sourceDimension, into, (first + row) * this.dimension, this.dimension);
+            }
+        }
+    }
+}
@@ -1,12 +1,15 @@
 package project.model.identifiers;
 
-public class ClusterId extends Identifier<Integer> {
+public class ClusterId extends IntIdentifier {
 
-    public ClusterId(final Integer value) {
+    // covers cluster numbers
+    private static final IdentifierCache<ClusterId> CACHE = new IdentifierCache<ClusterId>(1 << 10, ClusterId::new);
+
+    public ClusterId(final int value) {
         super(value);
     }
 
-    public static ClusterId valueOf(final Integer value) {
-        return new ClusterId(value);
+    public static ClusterId valueOf(final int value) {
+        return CACHE.get(value);
     }
 }
\ No newline at end of file
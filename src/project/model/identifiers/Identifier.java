@@ -1,7 +1,6 @@
 package project.model.identifiers;
 
-import org.apache.commons.lang3.builder.EqualsBuilder;
-import org.apache.commons.lang3.builder.HashCodeBuilder;
+import java.util.Objects;
 
 public abstract class Identifier<T> {
 
@@ -22,9 +21,7 @@ public abstract class Identifier<T> {
 
     @Override
     public int hashCode() {
-        return new HashCodeBuilder()
-                .append(this.value)
-                .build();
+        return Objects.hashCode(this.value);
     }
 
     @Override
@@ -34,9 +31,7 @@ public abstract class Identifier<T> {
         if (other == this)
             return true;
 
-        final Identifier rhs = (Identifier) other;
-        return new EqualsBuilder()
-                        .append(this.value, rhs.getValue())
-                        .isEquals();
+        final Identifier<?> rhs = (Identifier<?>) other;
+        return Objects.equals(this.value, rhs.getValue());
     }
 }
\ No newline at end of file
@@ -0,0 +1,31 @@
+package project.model.identifiers;
+
+import java.util.function.IntFunction;
+
+// Flyweight cache of the identifiers for a dense range of values 0..size-1,
+// created on first use. Identifiers are immutable with final fields, so an
+// instance may safely be created twice by racing threads; either copy is
+// equal to the other. Values outside the range are allocated as before.
+final class IdentifierCache<T extends IntIdentifier> {
+
+    private final Object[] instances;
+    private final IntFunction<T> factory;
+
+    IdentifierCache(final int size, final IntFunction<T> factory) {
+        this.instances = new Object[size];
+        this.factory = factory;
+    }
+
+    @SuppressWarnings("unchecked")
+    T get(final int value) {
+        if (value < 0 || value >= this.instances.length) {
+            return this.factory.apply(value);
+        }
+        Object instance = this.instances[value];
+        if (instance == null) {
+            instance = this.factory.apply(value);
+            this.instances[value] = instance;
+        }
+        return (T) instance;
+    }
+}
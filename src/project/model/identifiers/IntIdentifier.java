@@ -0,0 +1,31 @@
+package project.model.identifiers;
+
+// Identifier over a primitive int. The int is kept alongside the boxed value
+// so hashing, equality and callers that only need the number never unbox.
+public abstract class IntIdentifier extends Identifier<Integer> {
+
+    protected final int intValue;
+
+    public IntIdentifier(final int value) {
+        super(value);
+        this.intValue = value;
+    }
+
+    public int getIntValue() {
+        return this.intValue;
+    }
+
+    @Override
+    public int hashCode() {
+        return this.intValue;
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        if (other == this)
+            return true;
+        if (other instanceof IntIdentifier)
+            return this.intValue == ((IntIdentifier) other).intValue;
+        return super.equals(other);
+    }
+}
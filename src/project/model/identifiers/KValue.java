@@ -1,8 +1,8 @@
 package project.model.identifiers;
 
-public class KValue extends Identifier<Integer> {
+public class KValue extends IntIdentifier {
 
-    public KValue(final Integer value) {
+    public KValue(final int value) {
         super(value);
     }
 
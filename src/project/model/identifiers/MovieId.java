@@ -1,12 +1,15 @@
 package project.model.identifiers;
 
-public class MovieId extends Identifier<Integer> {
+public class MovieId extends IntIdentifier {
 
-    public MovieId(final Integer value) {
+    // covers every netflix movie id (1..17770)
+    private static final IdentifierCache<MovieId> CACHE = new IdentifierCache<MovieId>(1 << 15, MovieId::new);
+
+    public MovieId(final int value) {
         super(value);
     }
 
-    public static MovieId valueOf(final Integer value) {
-        return new MovieId(value);
+    public static MovieId valueOf(final int value) {
+        return CACHE.get(value);
     }
 }
\ No newline at end of file
@@ -1,12 +1,16 @@
 package project.model.identifiers;
 
-public class UserId extends Identifier<Integer> {
+public class UserId extends IntIdentifier {
 
-    public UserId(final Integer value) {
+    // covers dense user indices, which is what the truncated runs and the
+    // similarity matrix rows use
+    private static final IdentifierCache<UserId> CACHE = new IdentifierCache<UserId>(1 << 16, UserId::new);
+
+    public UserId(final int value) {
         super(value);
     }
 
-    public static UserId valueOf(final Integer value) {
-        return new UserId(value);
+    public static UserId valueOf(final int value) {
+        return CACHE.get(value);
     }
 }
\ No newline at end of file
@@ -0,0 +1,29 @@
+package project.model.linear;
+
+import java.util.stream.IntStream;
+
+public class DenseMatrixOperator implements LinearOperator {
+
+    private final double[][] matrix;
+
+    public DenseMatrixOperator(final double[][] matrix) {
+        this.matrix = matrix;
+    }
+
+    @Override
+    public int size() {
+        return this.matrix.length;
+    }
+
+    @Override
+    public void multiply(final double[] x, final double[] y) {
+        IntStream.range(0, this.matrix.length).parallel().forEach(row -> {
+            final double[] values = this.matrix[row];
+            double sum = 0.0;
+            for (int col = 0; col < values.length; col++) {
+                sum += values[col] * x[col];
+            }
+            y[row] = sum;
+        });
+    }
+}
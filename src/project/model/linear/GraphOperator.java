@@ -0,0 +1,34 @@
+package project.model.linear;
+
+import java.util.stream.IntStream;
+
+import project.model.similarity.NeighbourGraph;
+
+public class GraphOperator implements LinearOperator {
+
+    private final NeighbourGraph graph;
+
+    public GraphOperator(final NeighbourGraph graph) {
+        this.graph = graph;
+    }
+
+    @Override
+    public int size() {
+        return this.graph.size();
+    }
+
+    @Override
+    public void multiply(final double[] x, final double[] y) {
+        final int[] offsets = this.graph.getOffsets();
+        final int[] neighbours = this.graph.getNeighbours();
+        final float[] weights = this.graph.getWeights();
+        final double[] selfWeights = this.graph.getSelfWeights();
+        IntStream.range(0, this.graph.size()).parallel().forEach(row -> {
+            double sum = selfWeights[row] * x[row];
+            for (int position = offsets[row]; position < offsets[row + 1]; position++) {
+                sum += weights[position] * x[neighbours[position]];
+            }
+            y[row] = sum;
+        });
+    }
+}
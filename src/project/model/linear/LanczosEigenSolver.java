@@ -0,0 +1,240 @@
+package project.model.linear;
+
+import java.util.Random;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.EigenDecomposition;
+
+// Thick-restart Lanczos solver for the eigenpairs of a symmetric operator
+// with the largest eigenvalues. Only the operator's matrix-vector product is
+// used, and only subspaceSize vectors of length n are ever held.
+//
+// The Krylov basis is kept fully orthogonal (two passes of Gram-Schmidt), so
+// the projected matrix H = V^T A V is read directly off the
+// orthogonalization coefficients. Once the basis is full, H is decomposed,
+// the best Ritz vectors are kept as the start of the next basis, and the
+// expansion continues from the last residual direction.
+public class LanczosEigenSolver {
+
+    private static final long SEED = 0x5EEDL;
+
+    private final int eigenCount;
+    private final int subspaceSize;
+    private final double tolerance;
+    private final int maxRestarts;
+
+    private int restartCount = 0;
+    private int multiplyCount = 0;
+
+    public LanczosEigenSolver(final int eigenCount) {
+        this(eigenCount, Math.max(2 * eigenCount + 1, eigenCount + 20), 1.0e-6, 500);
+    }
+
+    public LanczosEigenSolver(final int eigenCount,
+                              final int subspaceSize,
+                              final double tolerance,
+                              final int maxRestarts) {
+        if (eigenCount <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid eigenvector count %d.", eigenCount));
+        }
+        if (subspaceSize <= eigenCount) {
+            throw new IllegalArgumentException(String.format(
+                    "Subspace size %d must be larger than the eigenvector count %d.", subspaceSize, eigenCount));
+        }
+        this.eigenCount = eigenCount;
+        this.subspaceSize = subspaceSize;
+        this.tolerance = tolerance;
+        this.maxRestarts = maxRestarts;
+    }
+
+    public PartialEigenDecomposition solve(final LinearOperator operator) {
+        final int n = operator.size();
+        final int k = Math.min(this.eigenCount, n);
+        final int m = Math.min(this.subspaceSize, n);
+        this.restartCount = 0;
+        this.multiplyCount = 0;
+
+        final double[][] basis = new double[m + 1][];
+        final double[][] projected = new double[m][m];
+        final Random random = new Random(SEED);
+
+        basis[0] = this.randomVector(n, random);
+        orthonormalize(basis[0], basis, 0);
+
+        // number of leading basis vectors that are kept Ritz vectors
+        int kept = 0;
+        int filled = 1;
+        while (true) {
+            // expand the basis up to m vectors
+            double residualNorm = 0.0;
+            for (int j = filled - 1; j < m; j++) {
+                final double[] w = new double[n];
+                operator.multiply(basis[j], w);
+                this.multiplyCount++;
+
+                // the coefficients against kept Ritz vectors and against the
+                // new directions together form column j of H
+                for (int i = 0; i < m; i++) {
+                    projected[i][j] = 0.0;
+                }
+                for (int pass = 0; pass < 2; pass++) {
+                    for (int i = 0; i <= j; i++) {
+                        final double coefficient = dot(basis[i], w);
+                        axpy(-coefficient, basis[i], w);
+                        projected[i][j] += coefficient;
+                    }
+                }
+                residualNorm = norm(w);
+
+                if (j + 1 < m || m < n) {
+                    if (residualNorm <= 1.0e-12 * Math.max(1.0, Math.abs(projected[j][j]))) {
+                        // the basis spans an invariant subspace, continue from a
+                        // fresh direction orthogonal to everything so far
+                        residualNorm = 0.0;
+                        final double[] fresh = this.randomVector(n, random);
+                        orthonormalize(fresh, basis, j + 1);
+                        basis[j + 1] = fresh;
+                    } else {
+                        scale(1.0 / residualNorm, w);
+                        basis[j + 1] = w;
+                    }
+                }
+            }
+
+            // mirror the upper triangle, which holds the measured coefficients
+            for (int i = 0; i < m; i++) {
+                for (int j = i + 1; j < m; j++) {
+                    projected[j][i] = projected[i][j];
+                }
+            }
+
+            // rayleigh-ritz on the small projected problem
+            final EigenDecomposition decomposition =
+                    new EigenDecomposition(new Array2DRowRealMatrix(projected, false));
+            final double[] ritzValues = decomposition.getRealEigenvalues();
+            final double[][] ritzCoordinates = new double[m][];
+            for (int i = 0; i < m; i++) {
+                ritzCoordinates[i] = decomposition.getEigenvector(i).toArray();
+            }
+
+            // the residual of Ritz pair i is |beta_m * s_{m,i}|
+            boolean converged = true;
+            for (int i = 0; i < k; i++) {
+                final double residual = Math.abs(residualNorm * ritzCoordinates[i][m - 1]);
+                if (residual > this.tolerance * Math.max(1.0, Math.abs(ritzValues[i]))) {
+                    converged = false;
+                    break;
+                }
+            }
+            if (converged || m == n || this.restartCount >= this.maxRestarts) {
+                if (!converged && m < n) {
+                    System.out.println(String.format(
+                            "Lanczos stopped after %d restarts without converging.", this.restartCount));
+                }
+                return new PartialEigenDecomposition(
+                        copyPrefix(ritzValues, k),
+                        this.ritzVectors(basis, ritzCoordinates, k, m, n));
+            }
+
+            // thick restart: keep the leading Ritz vectors plus the residual
+            // direction, and rebuild H for the kept part
+            kept = Math.min(m - 1, Math.max(k, (m + k) / 2));
+            final double[][] ritzVectors = this.ritzVectors(basis, ritzCoordinates, kept, m, n);
+            final double[] residualVector = basis[m];
+            for (int i = 0; i <= m; i++) {
+                basis[i] = null;
+            }
+            for (int i = 0; i < kept; i++) {
+                basis[i] = ritzVectors[i];
+            }
+            basis[kept] = residualVector;
+            for (int i = 0; i < m; i++) {
+                for (int j = 0; j < m; j++) {
+                    projected[i][j] = 0.0;
+                }
+            }
+            for (int i = 0; i < kept; i++) {
+                projected[i][i] = ritzValues[i];
+            }
+
+            // the coupling between the Ritz vectors and the residual direction
+            // is measured afresh when column kept is expanded
+            filled = kept + 1;
+            this.restartCount++;
+        }
+    }
+
+    public int getRestartCount() {
+        return this.restartCount;
+    }
+
+    public int getMultiplyCount() {
+        return this.multiplyCount;
+    }
+
+    //
+    // Deals with vector helpers
+    //
+
+    private double[][] ritzVectors(final double[][] basis,
+                                   final double[][] ritzCoordinates,
+                                   final int count,
+                                   final int m,
+                                   final int n) {
+        final double[][] vectors = new double[count][n];
+        for (int i = 0; i < count; i++) {
+            for (int j = 0; j < m; j++) {
+                axpy(ritzCoordinates[i][j], basis[j], vectors[i]);
+            }
+            scale(1.0 / norm(vectors[i]), vectors[i]);
+        }
+        return vectors;
+    }
+
+    private double[] randomVector(final int n, final Random random) {
+        final double[] vector = new double[n];
+        for (int i = 0; i < n; i++) {
+            vector[i] = random.nextDouble() - 0.5;
+        }
+        return vector;
+    }
+
+    private static void orthonormalize(final double[] vector, final double[][] basis, final int count) {
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < count; i++) {
+                axpy(-dot(basis[i], vector), basis[i], vector);
+            }
+        }
+        scale(1.0 / norm(vector), vector);
+    }
+
+    private static double[] copyPrefix(final double[] values, final int count) {
+        final double[] prefix = new double[count];
+        System.arraycopy(values, 0, prefix, 0, count);
+        return prefix;
+    }
+
+    static double dot(final double[] x, final double[] y) {
+        double sum = 0.0;
+        for (int i = 0; i < x.length; i++) {
+            sum += x[i] * y[i];
+        }
+        return sum;
+    }
+
+    static double norm(final double[] x) {
+        return Math.sqrt(dot(x, x));
+    }
+
+    static void axpy(final double alpha, final double[] x, final double[] y) {
+        for (int i = 0; i < x.length; i++) {
+            y[i] += alpha * x[i];
+        }
+    }
+
+    static void scale(final double alpha, final double[] x) {
+        for (int i = 0; i < x.length; i++) {
+            x[i] *= alpha;
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package project.model.linear;
+
+// A symmetric n x n matrix that is only reachable through matrix-vector
+// products, so solvers can run over dense, sparse or mapped storage alike.
+public interface LinearOperator {
+
+    public int size();
+
+    // writes A * x into y; x and y are never the same array
+    public void multiply(double[] x, double[] y);
+}
@@ -0,0 +1,123 @@
+package project.model.linear;
+
+import java.util.stream.IntStream;
+
+import project.model.similarity.SimilarityMatrix;
+import project.model.similarity.SymmetricMatrix;
+
+// L = D^-1/2 A D^-1/2 applied on the fly from the adjacency matrix and the
+// diagonal D^-1/2, so that L is never laid out beside A. A product scales x
+// by D^-1/2 once, runs the rows of A against it in parallel blocks, and
+// scales each result by its row's D^-1/2. Heap matrices are read a row
+// array at a time; mapped ones through get.
+//
+// Callers that no longer need A can instead scale it into L in place with
+// scaleInPlace, and multiply with a DenseMatrixOperator over its values.
+public class NormalizedAdjacencyOperator implements LinearOperator {
+
+    private static final int ROWS_PER_BLOCK = 64;
+
+    private final SymmetricMatrix adjacencyMatrix;
+    private final double[][] values;
+    private final double[] diagonalMatrix;
+
+    public NormalizedAdjacencyOperator(final SymmetricMatrix adjacencyMatrix,
+                                       final double[] diagonalMatrix) {
+        if (diagonalMatrix.length != adjacencyMatrix.size()) {
+            throw new IllegalArgumentException(String.format(
+                    "A diagonal of %d cannot scale a matrix of size %d.", diagonalMatrix.length, adjacencyMatrix.size()));
+        }
+        this.adjacencyMatrix = adjacencyMatrix;
+        this.values = adjacencyMatrix instanceof SimilarityMatrix ? ((SimilarityMatrix) adjacencyMatrix).getValues() : null;
+        this.diagonalMatrix = diagonalMatrix;
+    }
+
+    @Override
+    public int size() {
+        return this.diagonalMatrix.length;
+    }
+
+    @Override
+    public void multiply(final double[] x, final double[] y) {
+        final int n = this.diagonalMatrix.length;
+        final double[] scaled = new double[n];
+        for (int i = 0; i < n; i++) {
+            scaled[i] = this.diagonalMatrix[i] * x[i];
+        }
+        IntStream.range(0, blockCount(n)).parallel().forEach(block -> {
+            final int end = Math.min(n, (block + 1) * ROWS_PER_BLOCK);
+            for (int row = block * ROWS_PER_BLOCK; row < end; row++) {
+                double sum = 0.0;
+                if (this.values != null) {
+                    final double[] rowValues = this.values[row];
+                    for (int col = 0; col < n; col++) {
+                        sum += rowValues[col] * scaled[col];
+                    }
+                } else {
+                    for (int col = 0; col < n; col++) {
+                        sum += this.adjacencyMatrix.get(row, col) * scaled[col];
+                    }
+                }
+                y[row] = this.diagonalMatrix[row] * sum;
+            }
+        });
+    }
+
+    //
+    // Deals with the diagonal and in-place scaling
+    //
+
+    // D^-1/2 from the full row sums of the adjacency matrix, in parallel
+    // blocks of rows. A row summing to zero is an isolated point, and is
+    // left unscaled at zero rather than divided by zero
+    public static double[] inverseSquareRootDegrees(final SymmetricMatrix adjacencyMatrix) {
+        final int n = adjacencyMatrix.size();
+        final double[][] values = adjacencyMatrix instanceof SimilarityMatrix
+                ? ((SimilarityMatrix) adjacencyMatrix).getValues()
+                : null;
+        final double[] degrees = new double[n];
+        IntStream.range(0, blockCount(n)).parallel().forEach(block -> {
+            final int end = Math.min(n, (block + 1) * ROWS_PER_BLOCK);
+            for (int row = block * ROWS_PER_BLOCK; row < end; row++) {
+                double sum = 0.0;
+                if (values != null) {
+                    for (final double value : values[row]) {
+                        sum += value;
+                    }
+                } else {
+                    for (int col = 0; col < n; col++) {
+                        sum += adjacencyMatrix.get(row, col);
+                    }
+                }
+                degrees[row] = sum;
+            }
+        });
+        return inverseSquareRoots(degrees);
+    }
+
+    public static double[] inverseSquareRoots(final double[] degrees) {
+        final double[] diagonalMatrix = new double[degrees.length];
+        for (int i = 0; i < degrees.length; i++) {
+            diagonalMatrix[i] = degrees[i] > 0.0 ? 1.0 / Math.sqrt(degrees[i]) : 0.0;
+        }
+        return diagonalMatrix;
+    }
+
+    // overwrites A with D^-1/2 A D^-1/2 and returns its values; A is lost
+    public static double[][] scaleInPlace(final SimilarityMatrix adjacencyMatrix,
+                                          final double[] diagonalMatrix) {
+        final double[][] values = adjacencyMatrix.getValues();
+        IntStream.range(0, values.length).parallel().forEach(row -> {
+            final double[] rowValues = values[row];
+            final double rowScale = diagonalMatrix[row];
+            for (int col = 0; col < rowValues.length; col++) {
+                rowValues[col] *= rowScale * diagonalMatrix[col];
+            }
+        });
+        return values;
+    }
+
+    private static int blockCount(final int n) {
+        return (n + ROWS_PER_BLOCK - 1) / ROWS_PER_BLOCK;
+    }
+}
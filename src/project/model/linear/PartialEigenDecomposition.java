@@ -0,0 +1,30 @@
+package project.model.linear;
+
+// The leading eigenpairs of a symmetric operator, largest eigenvalue first.
+public class PartialEigenDecomposition {
+
+    private final double[] eigenvalues;
+    private final double[][] eigenvectors;
+
+    public PartialEigenDecomposition(final double[] eigenvalues,
+                                     final double[][] eigenvectors) {
+        this.eigenvalues = eigenvalues;
+        this.eigenvectors = eigenvectors;
+    }
+
+    public int getEigenCount() {
+        return this.eigenvalues.length;
+    }
+
+    public double getEigenvalue(final int index) {
+        return this.eigenvalues[index];
+    }
+
+    public double[] getEigenvector(final int index) {
+        return this.eigenvectors[index];
+    }
+
+    public double[] getEigenvalues() {
+        return this.eigenvalues;
+    }
+}
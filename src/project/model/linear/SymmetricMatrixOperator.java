@@ -0,0 +1,33 @@
+package project.model.linear;
+
+import java.util.stream.IntStream;
+
+import project.model.similarity.SymmetricMatrix;
+
+// Multiplies through the generic cell accessor, so it also runs straight off
+// a memory-mapped matrix.
+public class SymmetricMatrixOperator implements LinearOperator {
+
+    private final SymmetricMatrix matrix;
+
+    public SymmetricMatrixOperator(final SymmetricMatrix matrix) {
+        this.matrix = matrix;
+    }
+
+    @Override
+    public int size() {
+        return this.matrix.size();
+    }
+
+    @Override
+    public void multiply(final double[] x, final double[] y) {
+        final int n = this.matrix.size();
+        IntStream.range(0, n).parallel().forEach(row -> {
+            double sum = 0.0;
+            for (int col = 0; col < n; col++) {
+                sum += this.matrix.get(row, col) * x[col];
+            }
+            y[row] = sum;
+        });
+    }
+}
@@ -0,0 +1,310 @@
+package project.model.netflix;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import project.model.CollaborativeFilter;
+import project.model.ratings.IdIndex;
+import project.model.ratings.RatingBatch;
+import project.model.ratings.RatingBatchConsumer;
+import project.model.ratings.RatingSource;
+import project.model.ratings.RatingStore;
+
+// Reads the netflix training file (movie id, user id, rating per line) by
+// splitting it into byte ranges that are memory-mapped and parsed in
+// parallel, straight from the bytes and without creating Strings. Parsed
+// ranges are handed to the consumer in file order, so user truncation keeps
+// the first userLimit distinct users of the file, renumbered 0, 1, 2, ...
+// in order of first appearance; a limit of ALL_USERS renumbers every user
+// the same way. A held-out file can be read with the user mapping of an
+// earlier load, so its users line up with the training users, and a delta
+// can extend that mapping with the new users it brings.
+public class NetflixRatingsReader implements RatingSource {
+
+    public static final int NO_USER_LIMIT = -1;
+    public static final int ALL_USERS = Integer.MAX_VALUE;
+
+    private static final long RANGE_SIZE = 16L << 20;
+    private static final int BYTES_PER_LINE_ESTIMATE = 12;
+    private static final int BOUNDARY_SCAN_SIZE = 4096;
+
+    private final Path path;
+    private final int userLimit;
+    private final int threadCount;
+
+    private IdIndex userMapping = null;
+    private boolean fixedUserMapping = false;
+    private boolean extendedUserMapping = false;
+
+    private volatile long ratingsLoaded = 0;
+    private volatile long bytesLoaded = 0;
+    private volatile long totalBytes = 0;
+
+    public NetflixRatingsReader(final Path path,
+                                final int userLimit) {
+        this(path, userLimit, Runtime.getRuntime().availableProcessors());
+    }
+
+    public NetflixRatingsReader(final Path path,
+                                final int userLimit,
+                                final int threadCount) {
+        this.path = path;
+        this.userLimit = userLimit;
+        this.threadCount = threadCount;
+    }
+
+    // translates users through the mapping of an earlier load, e.g. of the
+    // training file, instead of renumbering them; users it does not hold are
+    // dropped
+    public NetflixRatingsReader withUserMapping(final IdIndex userMapping) {
+        this.userMapping = userMapping;
+        this.fixedUserMapping = true;
+        return this;
+    }
+
+    // continues the mapping of an earlier load, e.g. of a snapshot: the users
+    // it holds keep their ids, and new users are added to it after them, up
+    // to the user limit
+    public NetflixRatingsReader extendingUserMapping(final IdIndex userMapping) {
+        this.userMapping = userMapping;
+        this.extendedUserMapping = true;
+        return this;
+    }
+
+    // the raw user ids of the file by truncated id, once loaded with a user
+    // limit; null when the ids were kept as they are
+    public IdIndex getUserMapping() {
+        return this.userMapping;
+    }
+
+    @Override
+    public void load(final RatingBatchConsumer consumer)
+        throws IOException
+    {
+        try (final FileChannel channel = FileChannel.open(this.path, StandardOpenOption.READ)) {
+            this.totalBytes = channel.size();
+            final long[] boundaries = findRangeBoundaries(channel);
+            final boolean truncating = this.userLimit != NO_USER_LIMIT || this.fixedUserMapping || this.extendedUserMapping;
+            final IdIndex truncation = this.fixedUserMapping || this.extendedUserMapping ? this.userMapping : new IdIndex();
+            this.userMapping = truncating ? truncation : null;
+
+            // keep a bounded number of ranges in flight and consume them in order
+            final ExecutorService executor = Executors.newFixedThreadPool(this.threadCount);
+            try {
+                final Deque<Future<RatingBatch>> inFlight = new ArrayDeque<Future<RatingBatch>>();
+                int nextRange = 0;
+                for (int range = 0; range < boundaries.length - 1; range++) {
+                    while (nextRange < boundaries.length - 1 && inFlight.size() < 2 * this.threadCount) {
+                        final long start = boundaries[nextRange];
+                        final long end = boundaries[nextRange + 1];
+                        inFlight.add(executor.submit(() -> parseRange(channel, start, end)));
+                        nextRange++;
+                    }
+
+                    final RatingBatch batch = inFlight.poll().get();
+                    if (truncating) {
+                        this.truncateUsers(batch, truncation);
+                    }
+                    consumer.accept(batch);
+                    this.ratingsLoaded += batch.size();
+                    this.bytesLoaded = boundaries[range + 1];
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while reading ratings.", e);
+            } catch (final ExecutionException e) {
+                if (e.getCause() instanceof UncheckedIOException) {
+                    throw ((UncheckedIOException) e.getCause()).getCause();
+                }
+                throw new IOException(String.format("Failed to read {%s}.", this.path), e.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    @Override
+    public boolean restore(final CollaborativeFilter filter) {
+        return false;
+    }
+
+    @Override
+    public long getRatingsLoaded() {
+        return this.ratingsLoaded;
+    }
+
+    @Override
+    public double getProgress() {
+        return this.totalBytes == 0 ? 0.0 : (double) this.bytesLoaded / this.totalBytes;
+    }
+
+    //
+    // Deals with splitting the file on line boundaries
+    //
+
+    private static long[] findRangeBoundaries(final FileChannel channel)
+        throws IOException
+    {
+        final long size = channel.size();
+        final List<Long> boundaries = new ArrayList<Long>();
+        boundaries.add(0L);
+        final ByteBuffer scan = ByteBuffer.allocate(BOUNDARY_SCAN_SIZE);
+        long nominal = RANGE_SIZE;
+        while (nominal < size) {
+            // move the boundary to just past the next newline
+            long boundary = size;
+            long position = nominal;
+            while (position < size && boundary == size) {
+                scan.clear();
+                final int read = channel.read(scan, position);
+                if (read <= 0) {
+                    break;
+                }
+                for (int i = 0; i < read; i++) {
+                    if (scan.get(i) == '\n') {
+                        boundary = position + i + 1;
+                        break;
+                    }
+                }
+                position += read;
+            }
+            if (boundary >= size) {
+                break;
+            }
+            boundaries.add(boundary);
+            nominal = boundary + RANGE_SIZE;
+        }
+        boundaries.add(size);
+
+        final long[] result = new long[boundaries.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = boundaries.get(i);
+        }
+        return result;
+    }
+
+    //
+    // Deals with parsing a range of whole lines
+    //
+
+    private static RatingBatch parseRange(final FileChannel channel,
+                                          final long start,
+                                          final long end) {
+        final int length = (int) (end - start);
+        final MappedByteBuffer buffer;
+        try {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        final RatingBatch batch = new RatingBatch(length / BYTES_PER_LINE_ESTIMATE + 16);
+        int position = 0;
+        while (position < length) {
+            // skip blank lines and carriage returns
+            byte next = buffer.get(position);
+            if (next == '\n' || next == '\r') {
+                position++;
+                continue;
+            }
+
+            int movieId = 0;
+            while (position < length && (next = buffer.get(position)) >= '0' && next <= '9') {
+                movieId = movieId * 10 + (next - '0');
+                position++;
+            }
+            position = expect(buffer, position, length, start);
+
+            int userId = 0;
+            while (position < length && (next = buffer.get(position)) >= '0' && next <= '9') {
+                userId = userId * 10 + (next - '0');
+                position++;
+            }
+            position = expect(buffer, position, length, start);
+
+            // ratings are whole or half stars, e.g. "3", "3.0" or "3.5"
+            int halfStars = 0;
+            while (position < length && (next = buffer.get(position)) >= '0' && next <= '9') {
+                halfStars = halfStars * 10 + (next - '0');
+                position++;
+            }
+            halfStars *= 2;
+            if (position < length && buffer.get(position) == '.') {
+                position++;
+                int fraction = 0;
+                int digits = 0;
+                while (position < length && (next = buffer.get(position)) >= '0' && next <= '9') {
+                    if (digits < 9) {
+                        fraction = fraction * 10 + (next - '0');
+                        digits++;
+                    }
+                    position++;
+                }
+                final double value = halfStars / 2 + fraction / Math.pow(10, digits);
+                halfStars = RatingStore.encodeRating(value);
+            }
+            if (halfStars > Byte.MAX_VALUE) {
+                throw new IllegalArgumentException(String.format("Rating out of range at byte %d.", start + position));
+            }
+            if (batch.isFull()) {
+                batch.ensureCapacity(batch.size() + (batch.size() >> 1));
+            }
+            batch.add(userId, movieId, (byte) halfStars);
+
+            // ignore any further fields on the line
+            while (position < length && buffer.get(position) != '\n') {
+                position++;
+            }
+            position++;
+        }
+        return batch;
+    }
+
+    private static int expect(final MappedByteBuffer buffer,
+                              final int position,
+                              final int length,
+                              final long start) {
+        if (position >= length || buffer.get(position) != ',') {
+            throw new IllegalArgumentException(String.format("Malformed rating line at byte %d.", start + position));
+        }
+        return position + 1;
+    }
+
+    //
+    // Deals with user truncation
+    //
+
+    private void truncateUsers(final RatingBatch batch, final IdIndex truncation) {
+        final int[] userIds = batch.getUserIds();
+        final int[] movieIds = batch.getMovieIds();
+        final byte[] ratings = batch.getRatings();
+        int kept = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            int truncatedId = truncation.indexOf(userIds[i]);
+            if (truncatedId == IdIndex.ABSENT) {
+                if (this.fixedUserMapping || (this.userLimit != NO_USER_LIMIT && truncation.size() >= this.userLimit)) {
+                    continue;
+                }
+                truncatedId = truncation.getOrAdd(userIds[i]);
+            }
+            userIds[kept] = truncatedId;
+            movieIds[kept] = movieIds[i];
+            ratings[kept] = ratings[i];
+            kept++;
+        }
+        batch.truncate(kept);
+    }
+}
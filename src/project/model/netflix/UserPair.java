@@ -1,8 +1,5 @@
 package project.model.netflix;
 
-import org.apache.commons.lang3.builder.EqualsBuilder;
-import org.apache.commons.lang3.builder.HashCodeBuilder;
-
 import project.model.identifiers.UserId;
 
 public class UserPair {
@@ -26,24 +23,19 @@ public class UserPair {
 
     @Override
     public int hashCode() {
-        return new HashCodeBuilder()
-                .append(this.activeUser)
-                .append(this.otherUser)
-                .build();
+        return 31 * this.activeUser.hashCode() + this.otherUser.hashCode();
     }
 
     @Override
     public boolean equals(final Object other) {
-        if (!(other instanceof UserRating))
+        if (!(other instanceof UserPair))
             return false;
         if (other == this)
             return true;
 
         final UserPair rhs = (UserPair) other;
-        return new EqualsBuilder()
-                        .append(this.activeUser, rhs.getActiveUserId())
-                        .append(this.otherUser, rhs.getOtherUserId())
-                        .isEquals();
+        return this.activeUser.equals(rhs.getActiveUserId())
+            && this.otherUser.equals(rhs.getOtherUserId());
     }
 
     @Override
@@ -1,8 +1,5 @@
 package project.model.netflix;
 
-import org.apache.commons.lang3.builder.EqualsBuilder;
-import org.apache.commons.lang3.builder.HashCodeBuilder;
-
 import project.model.identifiers.MovieId;
 import project.model.identifiers.UserId;
 
@@ -34,10 +31,7 @@ public class UserRating {
 
     @Override
     public int hashCode() {
-        return new HashCodeBuilder()
-                .append(this.userId)
-                .append(this.movieId)
-                .build();
+        return 31 * this.userId.hashCode() + this.movieId.hashCode();
     }
 
     @Override
@@ -48,10 +42,8 @@ public class UserRating {
             return true;
 
         final UserRating rhs = (UserRating) other;
-        return new EqualsBuilder()
-                        .append(this.userId, rhs.getUserId())
-                        .append(this.movieId, rhs.getMovieId())
-                        .isEquals();
+        return this.userId.equals(rhs.getUserId())
+            && this.movieId.equals(rhs.getMovieId());
     }
 
     @Override
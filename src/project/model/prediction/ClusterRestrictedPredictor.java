@@ -0,0 +1,151 @@
+package project.model.prediction;
+
+import java.util.stream.IntStream;
+
+import project.model.ClusteredFilter;
+import project.model.ratings.IdIndex;
+import project.model.ratings.RatingStore;
+import project.model.similarity.NeighbourGraph;
+import project.model.similarity.SimilarityMetric;
+import project.model.similarity.TopKHeap;
+
+// User-kNN prediction where each user's neighbours are only searched for
+// among the members of their own cluster, or of the few clusters whose
+// centroids are nearest to the user's reduced point. With k clusters this
+// weighs about n/k candidates per user instead of n.
+//
+// When none of the neighbours rated a movie, the prediction falls back on a
+// per-cluster, per-movie table of the members' mean centred rating, which is
+// a constant time lookup; only users outside any cluster fall back on their
+// own mean.
+public class ClusterRestrictedPredictor extends UserNeighbourhoodPredictor {
+
+    private static final int DEFAULT_MIN_SUPPORT = 2;
+    private static final double DEFAULT_SHRINKAGE = 1.0;
+
+    private final ClusteredFilter filter;
+
+    // the mean centred rating of each movie within each cluster, indexed by
+    // cluster index and dense movie index
+    private final float[][] clusterMovieDeviations;
+
+    public ClusterRestrictedPredictor(final ClusteredFilter filter,
+                                      final int neighbourCount,
+                                      final int clusterNeighbourhood) {
+        this(filter, neighbourCount, clusterNeighbourhood, DEFAULT_MIN_SUPPORT, DEFAULT_SHRINKAGE);
+    }
+
+    public ClusterRestrictedPredictor(final ClusteredFilter filter,
+                                      final int neighbourCount,
+                                      final int clusterNeighbourhood,
+                                      final int minSupport,
+                                      final double shrinkage) {
+        super(filter, restrictedNeighbours(filter, neighbourCount, clusterNeighbourhood), minSupport, shrinkage);
+        this.filter = filter;
+        this.clusterMovieDeviations = this.buildClusterMovieDeviations();
+    }
+
+    @Override
+    protected double fallback(final int user, final int movie) {
+        final int cluster = this.filter.getClusterIndex(this.ratings.userIdAt(user));
+        if (cluster == ClusteredFilter.NO_CLUSTER) {
+            return this.means[user];
+        }
+        return this.means[user] + this.clusterMovieDeviations[cluster][movie];
+    }
+
+    public double getClusterMovieDeviation(final int clusterIndex, final int movieId) {
+        final int movie = this.ratings.indexOfMovie(movieId);
+        return movie == IdIndex.ABSENT ? 0.0 : this.clusterMovieDeviations[clusterIndex][movie];
+    }
+
+    //
+    // Deals with searching neighbours within the nearest clusters
+    //
+
+    private static NeighbourGraph restrictedNeighbours(final ClusteredFilter filter,
+                                                       final int neighbourCount,
+                                                       final int clusterNeighbourhood) {
+        if (neighbourCount <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid neighbour count %d.", neighbourCount));
+        }
+        if (clusterNeighbourhood <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid cluster neighbourhood %d.", clusterNeighbourhood));
+        }
+        final SimilarityMetric kernel = filter.getSimilarityKernel();
+        final RatingStore ratings = filter.getRatingStore();
+
+        int size = 0;
+        for (int cluster = 0; cluster < filter.getClusterCount(); cluster++) {
+            final int[] members = filter.getClusterMembers(cluster);
+            if (members.length > 0) {
+                size = Math.max(size, members[members.length - 1] + 1);
+            }
+        }
+
+        final int[][] rowNeighbours = new int[size][];
+        final float[][] rowWeights = new float[size][];
+        final ThreadLocal<TopKHeap> localHeaps = ThreadLocal.withInitial(() -> new TopKHeap(neighbourCount));
+        IntStream.range(0, size).parallel().forEach(row -> {
+            final TopKHeap heap = localHeaps.get();
+            heap.clear();
+            final double[] point = filter.getUserPoint(row);
+            final int activeIndex = ratings.indexOfUser(row);
+            if (point != null && activeIndex != IdIndex.ABSENT) {
+                for (final int cluster : filter.nearestClusters(point, clusterNeighbourhood)) {
+                    for (final int member : filter.getClusterMembers(cluster)) {
+                        if (member == row) {
+                            continue;
+                        }
+                        final double weight = kernel.weight(activeIndex, ratings.indexOfUser(member));
+                        if (weight > 0.0) {
+                            heap.offer(member, weight);
+                        }
+                    }
+                }
+            }
+            rowNeighbours[row] = new int[heap.size()];
+            rowWeights[row] = new float[heap.size()];
+            for (int i = 0; i < heap.size(); i++) {
+                rowNeighbours[row][i] = heap.getId(i);
+                rowWeights[row][i] = (float) heap.getScore(i);
+            }
+        });
+        return NeighbourGraph.symmetrize(rowNeighbours, rowWeights, new double[size]);
+    }
+
+    //
+    // Deals with the per-cluster movie fallback table
+    //
+
+    private float[][] buildClusterMovieDeviations() {
+        final int movieCount = this.ratings.getMovieCount();
+        final int[] rowOffsets = this.ratings.getRowOffsets();
+        final int[] rowMovies = this.ratings.getRowMovies();
+        final byte[] rowRatings = this.ratings.getRowRatings();
+
+        final float[][] deviations = new float[this.filter.getClusterCount()][];
+        IntStream.range(0, deviations.length).parallel().forEach(cluster -> {
+            final double[] sums = new double[movieCount];
+            final int[] counts = new int[movieCount];
+            for (final int member : this.filter.getClusterMembers(cluster)) {
+                final int user = this.ratings.indexOfUser(member);
+                if (user == IdIndex.ABSENT) {
+                    continue;
+                }
+                for (int position = rowOffsets[user]; position < rowOffsets[user + 1]; position++) {
+                    sums[rowMovies[position]] += RatingStore.decodeRating(rowRatings[position]) - this.means[user];
+                    counts[rowMovies[position]]++;
+                }
+            }
+            final float[] clusterDeviations = new float[movieCount];
+            for (int movie = 0; movie < movieCount; movie++) {
+                if (counts[movie] > 0) {
+                    clusterDeviations[movie] = (float) (sums[movie] / (counts[movie] + this.shrinkage));
+                }
+            }
+            deviations[cluster] = clusterDeviations;
+        });
+        return deviations;
+    }
+}
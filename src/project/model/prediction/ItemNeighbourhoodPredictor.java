@@ -0,0 +1,179 @@
+package project.model.prediction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import project.model.CollaborativeFilter;
+import project.model.identifiers.MovieId;
+import project.model.identifiers.UserId;
+import project.model.netflix.UserRating;
+import project.model.ratings.IdIndex;
+import project.model.ratings.RatingStore;
+import project.model.similarity.SymmetricMatrix;
+import project.model.similarity.TopKHeap;
+
+// Item-based k nearest neighbour prediction over a precomputed movie-movie
+// similarity matrix, whose positions are movie ids. A prediction for user u
+// and movie m looks only at the movies u rated: the k most similar to m
+// form its neighbourhood, and u's own ratings of them are averaged around
+// u's mean:
+//
+//   p(u, m) = mean(u) + sum_j w(m, j) (r(u, j) - mean(u)) / (sum_j w(m, j) + s)
+//
+// The shrinkage s plays the same part as in the UserNeighbourhoodPredictor.
+public class ItemNeighbourhoodPredictor implements RatingPredictor {
+
+    private static final double DEFAULT_SHRINKAGE = 1.0;
+
+    private final RatingStore ratings;
+    private final double[] means;
+    private final double globalMean;
+    private final SymmetricMatrix similarities;
+    private final int neighbourCount;
+    private final double shrinkage;
+
+    // the matrix position of each dense movie index, or ABSENT
+    private final int[] positions;
+
+    private final ThreadLocal<TopKHeap> heaps;
+
+    public ItemNeighbourhoodPredictor(final CollaborativeFilter filter,
+                                      final SymmetricMatrix similarities,
+                                      final int neighbourCount) {
+        this(filter, similarities, neighbourCount, DEFAULT_SHRINKAGE);
+    }
+
+    public ItemNeighbourhoodPredictor(final CollaborativeFilter filter,
+                                      final SymmetricMatrix similarities,
+                                      final int neighbourCount,
+                                      final double shrinkage) {
+        if (neighbourCount <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid neighbour count %d.", neighbourCount));
+        }
+        if (shrinkage < 0.0) {
+            throw new IllegalArgumentException(String.format("Invalid shrinkage %.3f.", shrinkage));
+        }
+        this.ratings = filter.getRatingStore();
+        this.ratings.compact();
+        this.means = filter.getUserAverages();
+        if (this.means.length != this.ratings.getUserCount()) {
+            throw new IllegalArgumentException("User averages must be calculated before predicting.");
+        }
+        this.globalMean = UserNeighbourhoodPredictor.globalMean(this.ratings);
+        this.similarities = similarities;
+        this.neighbourCount = neighbourCount;
+        this.shrinkage = shrinkage;
+
+        final int movieCount = this.ratings.getMovieCount();
+        this.positions = new int[movieCount];
+        for (int movie = 0; movie < movieCount; movie++) {
+            final int movieId = this.ratings.movieIdAt(movie);
+            this.positions[movie] = movieId >= 0 && movieId < similarities.size() ? movieId : IdIndex.ABSENT;
+        }
+        this.heaps = ThreadLocal.withInitial(() -> new TopKHeap(neighbourCount));
+    }
+
+    //
+    // Deals with predicting single ratings
+    //
+
+    @Override
+    public double predict(final int userId, final int movieId) {
+        final int user = this.ratings.indexOfUser(userId);
+        if (user == IdIndex.ABSENT) {
+            return UserNeighbourhoodPredictor.clamp(this.globalMean);
+        }
+        final int movie = this.ratings.indexOfMovie(movieId);
+        if (movie == IdIndex.ABSENT || this.positions[movie] == IdIndex.ABSENT) {
+            return UserNeighbourhoodPredictor.clamp(this.means[user]);
+        }
+        return UserNeighbourhoodPredictor.clamp(this.predictIndex(user, movie, this.heaps.get()));
+    }
+
+    @Override
+    public double[] predict(final int[] userIds, final int[] movieIds) {
+        if (userIds.length != movieIds.length) {
+            throw new IllegalArgumentException("Every user id needs a movie id.");
+        }
+        final double[] predictions = new double[userIds.length];
+        IntStream.range(0, userIds.length).parallel().forEach(i -> {
+            predictions[i] = this.predict(userIds[i], movieIds[i]);
+        });
+        return predictions;
+    }
+
+    // the unclamped prediction for dense user and movie indices, where the
+    // movie has a position in the matrix
+    private double predictIndex(final int user, final int movie, final TopKHeap heap) {
+        final int row = this.positions[movie];
+        final int start = this.ratings.rowStart(user);
+        final int end = this.ratings.rowEnd(user);
+
+        // the k rated movies most similar to this one, by their row position
+        heap.clear();
+        for (int position = start; position < end; position++) {
+            final int col = this.positions[this.ratings.movieAt(position)];
+            if (col != IdIndex.ABSENT && col != row) {
+                final double weight = this.similarities.get(row, col);
+                if (weight > 0.0) {
+                    heap.offer(position, weight);
+                }
+            }
+        }
+
+        final double mean = this.means[user];
+        double sum = 0.0;
+        double norm = 0.0;
+        for (int i = 0; i < heap.size(); i++) {
+            final double weight = heap.getScore(i);
+            sum += weight * (this.ratings.ratingAt(heap.getId(i)) - mean);
+            norm += weight;
+        }
+        return mean + sum / (norm + this.shrinkage);
+    }
+
+    //
+    // Deals with top-n recommendations
+    //
+
+    // predicts every movie in the matrix the user has not rated; each
+    // prediction is a pass over the user's own row, so this suits the few
+    // thousand movies of the netflix set, not a catalogue of millions
+    @Override
+    public List<UserRating> recommend(final int userId, final int count) {
+        final List<UserRating> recommendations = new ArrayList<UserRating>();
+        final int user = this.ratings.indexOfUser(userId);
+        if (user == IdIndex.ABSENT || count <= 0) {
+            return recommendations;
+        }
+
+        final boolean[] rated = new boolean[this.positions.length];
+        for (int position = this.ratings.rowStart(user); position < this.ratings.rowEnd(user); position++) {
+            rated[this.ratings.movieAt(position)] = true;
+        }
+        final TopKHeap neighbours = this.heaps.get();
+        final TopKHeap best = new TopKHeap(count);
+        for (int movie = 0; movie < this.positions.length; movie++) {
+            if (!rated[movie] && this.positions[movie] != IdIndex.ABSENT) {
+                best.offer(movie, this.predictIndex(user, movie, neighbours));
+            }
+        }
+        best.sortDescending();
+        final UserId activeUser = UserId.valueOf(userId);
+        for (int i = 0; i < best.size(); i++) {
+            recommendations.add(new UserRating(activeUser,
+                                               MovieId.valueOf(this.ratings.movieIdAt(best.getId(i))),
+                                               UserNeighbourhoodPredictor.clamp(best.getScore(i))));
+        }
+        return recommendations;
+    }
+
+    public int getNeighbourCount() {
+        return this.neighbourCount;
+    }
+
+    public double getGlobalMean() {
+        return this.globalMean;
+    }
+}
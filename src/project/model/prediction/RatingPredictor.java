@@ -0,0 +1,18 @@
+package project.model.prediction;
+
+import java.util.List;
+
+import project.model.netflix.UserRating;
+
+// Predicts ratings from raw netflix user and movie ids.
+public interface RatingPredictor {
+
+    public double predict(int userId, int movieId);
+
+    // predictions for many (user, movie) pairs, in query order
+    public double[] predict(int[] userIds, int[] movieIds);
+
+    // the count movies the user has not rated with the highest predictions,
+    // best first
+    public List<UserRating> recommend(int userId, int count);
+}
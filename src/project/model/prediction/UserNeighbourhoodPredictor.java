@@ -0,0 +1,305 @@
+package project.model.prediction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import project.model.CollaborativeFilter;
+import project.model.identifiers.MovieId;
+import project.model.identifiers.UserId;
+import project.model.netflix.UserRating;
+import project.model.ratings.IdIndex;
+import project.model.ratings.RatingStore;
+import project.model.similarity.NeighbourGraph;
+import project.model.similarity.TopKHeap;
+
+// User-based k nearest neighbour prediction over a precomputed neighbour
+// graph. A prediction for user u and movie m is u's mean rating plus the
+// weighted mean of how far each neighbour's rating of m sits from that
+// neighbour's own mean:
+//
+//   p(u, m) = mean(u) + sum_v w(u, v) (r(v, m) - mean(v)) / (sum_v w(u, v) + s)
+//
+// The shrinkage s pulls predictions that rest on little neighbour weight back
+// towards the user's mean, which matters for movies only one or two
+// neighbours have rated.
+//
+// The graph rows are user ids, as built by the NeighbourGraphLearner, and are
+// translated once into dense rating store indices so no weight is computed
+// at prediction time.
+public class UserNeighbourhoodPredictor implements RatingPredictor {
+
+    public static final double MIN_RATING = 1.0;
+    public static final double MAX_RATING = 5.0;
+
+    // recommendations need this many neighbours to have rated a movie, so a
+    // single enthusiastic neighbour cannot push an obscure movie to the top
+    private static final int DEFAULT_MIN_SUPPORT = 2;
+    private static final double DEFAULT_SHRINKAGE = 1.0;
+
+    protected final RatingStore ratings;
+    protected final double[] means;
+    private final double globalMean;
+    private final int minSupport;
+    protected final double shrinkage;
+
+    // neighbour lists indexed by dense user index
+    private final int[] neighbourOffsets;
+    private final int[] neighbourIndices;
+    private final float[] neighbourWeights;
+
+    private final ThreadLocal<Scratch> scratch;
+
+    public UserNeighbourhoodPredictor(final CollaborativeFilter filter,
+                                      final NeighbourGraph graph) {
+        this(filter, graph, DEFAULT_MIN_SUPPORT, DEFAULT_SHRINKAGE);
+    }
+
+    public UserNeighbourhoodPredictor(final CollaborativeFilter filter,
+                                      final NeighbourGraph graph,
+                                      final int minSupport,
+                                      final double shrinkage) {
+        if (minSupport <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid minimum support %d.", minSupport));
+        }
+        if (shrinkage < 0.0) {
+            throw new IllegalArgumentException(String.format("Invalid shrinkage %.3f.", shrinkage));
+        }
+        this.ratings = filter.getRatingStore();
+        this.ratings.compact();
+        this.means = filter.getUserAverages();
+        if (this.means.length != this.ratings.getUserCount()) {
+            throw new IllegalArgumentException("User averages must be calculated before predicting.");
+        }
+        this.globalMean = globalMean(this.ratings);
+        this.minSupport = minSupport;
+        this.shrinkage = shrinkage;
+
+        // re-key the graph rows and neighbours from user ids to dense indices
+        final int userCount = this.ratings.getUserCount();
+        this.neighbourOffsets = new int[userCount + 1];
+        for (int user = 0; user < userCount; user++) {
+            final int row = this.ratings.userIdAt(user);
+            this.neighbourOffsets[user + 1] = row < graph.size() ? graph.rowEnd(row) - graph.rowStart(row) : 0;
+        }
+        for (int user = 0; user < userCount; user++) {
+            this.neighbourOffsets[user + 1] += this.neighbourOffsets[user];
+        }
+        int[] indices = new int[this.neighbourOffsets[userCount]];
+        float[] weights = new float[indices.length];
+        int written = 0;
+        for (int user = 0; user < userCount; user++) {
+            final int row = this.ratings.userIdAt(user);
+            this.neighbourOffsets[user] = written;
+            if (row >= graph.size()) {
+                continue;
+            }
+            for (int position = graph.rowStart(row); position < graph.rowEnd(row); position++) {
+                final int neighbour = this.ratings.indexOfUser(graph.neighbourAt(position));
+                if (neighbour != IdIndex.ABSENT && graph.weightAt(position) > 0.0f) {
+                    indices[written] = neighbour;
+                    weights[written] = (float) graph.weightAt(position);
+                    written++;
+                }
+            }
+        }
+        this.neighbourOffsets[userCount] = written;
+        this.neighbourIndices = written == indices.length ? indices : Arrays.copyOf(indices, written);
+        this.neighbourWeights = written == weights.length ? weights : Arrays.copyOf(weights, written);
+
+        final int movieCount = this.ratings.getMovieCount();
+        this.scratch = ThreadLocal.withInitial(() -> new Scratch(movieCount));
+    }
+
+    //
+    // Deals with predicting single ratings
+    //
+
+    @Override
+    public double predict(final int userId, final int movieId) {
+        final int user = this.ratings.indexOfUser(userId);
+        if (user == IdIndex.ABSENT) {
+            return clamp(this.globalMean);
+        }
+        final int movie = this.ratings.indexOfMovie(movieId);
+        return clamp(movie == IdIndex.ABSENT ? this.means[user] : this.predictIndex(user, movie));
+    }
+
+    @Override
+    public double[] predict(final int[] userIds, final int[] movieIds) {
+        if (userIds.length != movieIds.length) {
+            throw new IllegalArgumentException("Every user id needs a movie id.");
+        }
+        final double[] predictions = new double[userIds.length];
+        IntStream.range(0, userIds.length).parallel().forEach(i -> {
+            predictions[i] = this.predict(userIds[i], movieIds[i]);
+        });
+        return predictions;
+    }
+
+    // the unclamped prediction for dense user and movie indices
+    public double predictIndex(final int user, final int movie) {
+        final int[] rowOffsets = this.ratings.getRowOffsets();
+        final int[] rowMovies = this.ratings.getRowMovies();
+        final byte[] rowRatings = this.ratings.getRowRatings();
+
+        double sum = 0.0;
+        double norm = 0.0;
+        for (int position = this.neighbourOffsets[user]; position < this.neighbourOffsets[user + 1]; position++) {
+            final int neighbour = this.neighbourIndices[position];
+            final int rated = Arrays.binarySearch(rowMovies, rowOffsets[neighbour], rowOffsets[neighbour + 1], movie);
+            if (rated >= 0) {
+                final double weight = this.neighbourWeights[position];
+                sum += weight * (RatingStore.decodeRating(rowRatings[rated]) - this.means[neighbour]);
+                norm += weight;
+            }
+        }
+        return norm > 0.0 ? this.means[user] + sum / (norm + this.shrinkage) : this.fallback(user, movie);
+    }
+
+    // the prediction when none of the user's neighbours rated the movie
+    protected double fallback(final int user, final int movie) {
+        return this.means[user];
+    }
+
+    //
+    // Deals with top-n recommendations
+    //
+
+    @Override
+    public List<UserRating> recommend(final int userId, final int count) {
+        final List<UserRating> recommendations = new ArrayList<UserRating>();
+        final int user = this.ratings.indexOfUser(userId);
+        if (user == IdIndex.ABSENT || count <= 0) {
+            return recommendations;
+        }
+
+        final Scratch scratch = this.scratch.get();
+        scratch.begin(count);
+        final int[] rowOffsets = this.ratings.getRowOffsets();
+        final int[] rowMovies = this.ratings.getRowMovies();
+        final byte[] rowRatings = this.ratings.getRowRatings();
+
+        // the user's own movies can never be recommended
+        for (int position = rowOffsets[user]; position < rowOffsets[user + 1]; position++) {
+            scratch.exclude(rowMovies[position]);
+        }
+
+        // accumulate every neighbour's centred ratings per movie
+        for (int edge = this.neighbourOffsets[user]; edge < this.neighbourOffsets[user + 1]; edge++) {
+            final int neighbour = this.neighbourIndices[edge];
+            final double weight = this.neighbourWeights[edge];
+            final double mean = this.means[neighbour];
+            for (int position = rowOffsets[neighbour]; position < rowOffsets[neighbour + 1]; position++) {
+                scratch.add(rowMovies[position], weight, weight * (RatingStore.decodeRating(rowRatings[position]) - mean));
+            }
+        }
+
+        // rank on the unclamped prediction, so movies above the top of the
+        // scale still order among themselves
+        final TopKHeap heap = scratch.heap;
+        for (int i = 0; i < scratch.touchedCount; i++) {
+            final int movie = scratch.touched[i];
+            if (scratch.support[movie] >= this.minSupport) {
+                heap.offer(movie, this.means[user] + scratch.sums[movie] / (scratch.norms[movie] + this.shrinkage));
+            }
+        }
+        heap.sortDescending();
+        final UserId activeUser = UserId.valueOf(userId);
+        for (int i = 0; i < heap.size(); i++) {
+            recommendations.add(new UserRating(activeUser,
+                                               MovieId.valueOf(this.ratings.movieIdAt(heap.getId(i))),
+                                               clamp(heap.getScore(i))));
+        }
+        return recommendations;
+    }
+
+    public int getNeighbourCount(final int userId) {
+        final int user = this.ratings.indexOfUser(userId);
+        return user == IdIndex.ABSENT ? 0 : this.neighbourOffsets[user + 1] - this.neighbourOffsets[user];
+    }
+
+    public double getGlobalMean() {
+        return this.globalMean;
+    }
+
+    public static double clamp(final double rating) {
+        return Math.max(MIN_RATING, Math.min(MAX_RATING, rating));
+    }
+
+    static double globalMean(final RatingStore ratings) {
+        final byte[] rowRatings = ratings.getRowRatings();
+        if (rowRatings.length == 0) {
+            return 3.0;
+        }
+        // summed in half-star units
+        long sum = 0;
+        for (final byte rating : rowRatings) {
+            sum += rating;
+        }
+        return sum / (2.0 * rowRatings.length);
+    }
+
+    //
+    // Deals with the per-thread accumulators for recommendations
+    //
+
+    private static class Scratch {
+
+        private static final int EXCLUDED = Integer.MIN_VALUE / 2;
+
+        private final double[] sums;
+        private final double[] norms;
+        private final int[] support;
+        private final int[] stamps;
+        private final int[] touched;
+        private int touchedCount = 0;
+        private int stamp = 0;
+        private TopKHeap heap;
+
+        Scratch(final int movieCount) {
+            this.sums = new double[movieCount];
+            this.norms = new double[movieCount];
+            this.support = new int[movieCount];
+            this.stamps = new int[movieCount];
+            this.touched = new int[movieCount];
+        }
+
+        // stamps make the per-movie slots look empty without clearing them
+        void begin(final int count) {
+            this.stamp++;
+            if (this.stamp == 0) {
+                Arrays.fill(this.stamps, -1);
+                this.stamp = 1;
+            }
+            this.touchedCount = 0;
+            if (this.heap == null || this.heap.getCapacity() != count) {
+                this.heap = new TopKHeap(count);
+            }
+            this.heap.clear();
+        }
+
+        void exclude(final int movie) {
+            this.touch(movie);
+            this.support[movie] = EXCLUDED;
+        }
+
+        void add(final int movie, final double weight, final double centred) {
+            this.touch(movie);
+            this.sums[movie] += centred;
+            this.norms[movie] += weight;
+            this.support[movie]++;
+        }
+
+        private void touch(final int movie) {
+            if (this.stamps[movie] != this.stamp) {
+                this.stamps[movie] = this.stamp;
+                this.sums[movie] = 0.0;
+                this.norms[movie] = 0.0;
+                this.support[movie] = 0;
+                this.touched[this.touchedCount++] = movie;
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package project.model.ratings;
+
+import java.util.Arrays;
+
+// maps sparse, non-negative ids (netflix user or movie ids) onto dense
+// indices 0..size-1, in order of first appearance
+public class IdIndex {
+
+    public static final int ABSENT = -1;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private int[] indexById;
+    private int[] idByIndex;
+    private int size = 0;
+
+    public IdIndex() {
+        this.indexById = new int[INITIAL_CAPACITY];
+        Arrays.fill(this.indexById, ABSENT);
+        this.idByIndex = new int[INITIAL_CAPACITY];
+    }
+
+    public static IdIndex fromIds(final int[] ids) {
+        final IdIndex index = new IdIndex();
+        for (final int id : ids) {
+            if (index.getOrAdd(id) != index.size() - 1) {
+                throw new IllegalArgumentException(String.format("Duplicate id %d.", id));
+            }
+        }
+        return index;
+    }
+
+    // a copy of the ids in index order
+    public int[] getIds() {
+        return Arrays.copyOf(this.idByIndex, this.size);
+    }
+
+    public int indexOf(final int id) {
+        if (id < 0 || id >= this.indexById.length) {
+            return ABSENT;
+        }
+        return this.indexById[id];
+    }
+
+    public int getOrAdd(final int id) {
+        if (id < 0) {
+            throw new IllegalArgumentException(String.format("Invalid id %d, ids must be non-negative.", id));
+        }
+
+        // grow the lookup table to cover this id
+        if (id >= this.indexById.length) {
+            final int oldLength = this.indexById.length;
+            this.indexById = Arrays.copyOf(this.indexById, Math.max(id + 1, oldLength + (oldLength >> 1)));
+            Arrays.fill(this.indexById, oldLength, this.indexById.length, ABSENT);
+        }
+
+        int index = this.indexById[id];
+        if (index == ABSENT) {
+            if (this.size == this.idByIndex.length) {
+                this.idByIndex = Arrays.copyOf(this.idByIndex, this.size + (this.size >> 1));
+            }
+            index = this.size++;
+            this.indexById[id] = index;
+            this.idByIndex[index] = id;
+        }
+        return index;
+    }
+
+    public int idAt(final int index) {
+        if (index < 0 || index >= this.size) {
+            throw new IndexOutOfBoundsException(String.format("No id at index %d (size %d).", index, this.size));
+        }
+        return this.idByIndex[index];
+    }
+
+    public int size() {
+        return this.size;
+    }
+}
@@ -0,0 +1,52 @@
+package project.model.ratings;
+
+import java.util.List;
+
+import project.model.CollaborativeFilter;
+import project.model.netflix.UserRating;
+
+public class ListRatingSource implements RatingSource {
+
+    private static final int BATCH_SIZE = 1 << 16;
+
+    private final List<UserRating> records;
+    private volatile long ratingsLoaded = 0;
+
+    public ListRatingSource(final List<UserRating> records) {
+        this.records = records;
+    }
+
+    @Override
+    public void load(final RatingBatchConsumer consumer) {
+        final RatingBatch batch = new RatingBatch(BATCH_SIZE);
+        for (final UserRating record : this.records) {
+            batch.add(record.getUserId().getIntValue(),
+                      record.getMovieId().getIntValue(),
+                      RatingStore.encodeRating(record.getRating()));
+            if (batch.isFull()) {
+                consumer.accept(batch);
+                this.ratingsLoaded += batch.size();
+                batch.clear();
+            }
+        }
+        if (batch.size() > 0) {
+            consumer.accept(batch);
+            this.ratingsLoaded += batch.size();
+        }
+    }
+
+    @Override
+    public boolean restore(final CollaborativeFilter filter) {
+        return false;
+    }
+
+    @Override
+    public long getRatingsLoaded() {
+        return this.ratingsLoaded;
+    }
+
+    @Override
+    public double getProgress() {
+        return this.records.isEmpty() ? 1.0 : (double) this.ratingsLoaded / this.records.size();
+    }
+}
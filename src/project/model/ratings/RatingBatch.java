@@ -0,0 +1,63 @@
+package project.model.ratings;
+
+import java.util.Arrays;
+
+// A block of ratings in primitive form, as handed from a rating source to a
+// filter. Ratings are already in the store's byte encoding.
+public class RatingBatch {
+
+    private int[] userIds;
+    private int[] movieIds;
+    private byte[] ratings;
+    private int size = 0;
+
+    public RatingBatch(final int capacity) {
+        this.userIds = new int[capacity];
+        this.movieIds = new int[capacity];
+        this.ratings = new byte[capacity];
+    }
+
+    public boolean isFull() {
+        return this.size == this.userIds.length;
+    }
+
+    public void ensureCapacity(final int capacity) {
+        if (capacity > this.userIds.length) {
+            this.userIds = Arrays.copyOf(this.userIds, capacity);
+            this.movieIds = Arrays.copyOf(this.movieIds, capacity);
+            this.ratings = Arrays.copyOf(this.ratings, capacity);
+        }
+    }
+
+    public void add(final int userId, final int movieId, final byte rating) {
+        this.userIds[this.size] = userId;
+        this.movieIds[this.size] = movieId;
+        this.ratings[this.size] = rating;
+        this.size++;
+    }
+
+    public void clear() {
+        this.size = 0;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    // keeps only the first size entries, after they have been rewritten in place
+    public void truncate(final int size) {
+        this.size = size;
+    }
+
+    public int[] getUserIds() {
+        return this.userIds;
+    }
+
+    public int[] getMovieIds() {
+        return this.movieIds;
+    }
+
+    public byte[] getRatings() {
+        return this.ratings;
+    }
+}
@@ -0,0 +1,6 @@
+package project.model.ratings;
+
+public interface RatingBatchConsumer {
+
+    public void accept(RatingBatch batch);
+}
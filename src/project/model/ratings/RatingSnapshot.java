@@ -0,0 +1,347 @@
+package project.model.ratings;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import project.model.CollaborativeFilter;
+
+// Binary snapshot of a compacted rating store and its user averages, so that
+// repeated runs skip parsing the training file, compacting the rows and
+// averaging them. Every file starts with a fixed 32 byte little-endian header:
+//
+//   0  int   magic ("MPRS")
+//   4  int   format version
+//   8  int   user count u
+//  12  int   movie count m
+//  16  long  rating count r
+//  24  int   largest user id
+//  28  int   raw user id count t
+//
+// followed by double averages[u], int userIds[u], int movieIds[m],
+// int rawUserIds[t], int rowOffsets[u+1], int rowMovies[r] and
+// byte rowRatings[r]. Rows hold dense movie indices in sorted order and
+// ratings in half-star units, exactly as the RatingStore keeps them, so
+// opening a snapshot is a straight copy out of the mapped file.
+//
+// User ids are always the truncated ids 0..t-1 the reader numbers users with
+// in order of first appearance, never raw netflix ids, so that they can be
+// used as matrix positions; rawUserIds maps them back. A user limit on
+// restore keeps the users below it, as the reader would have.
+public class RatingSnapshot implements RatingSource {
+
+    public static final int MAGIC = 0x5352504D;
+    public static final int VERSION = 2;
+    public static final int HEADER_SIZE = 32;
+
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+    private static final int BATCH_SIZE = 1 << 16;
+
+    private final Path path;
+    private int userLimit = Integer.MAX_VALUE;
+    private IdIndex userMapping = null;
+
+    private volatile long ratingsLoaded = 0;
+    private volatile long ratingCount = 0;
+
+    public RatingSnapshot(final Path path) {
+        this.path = path;
+    }
+
+    // keeps only the users with ids below userLimit, i.e. the first
+    // userLimit users of the file the snapshot was read from
+    public RatingSnapshot withUserLimit(final int userLimit) {
+        if (userLimit <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid user limit %d.", userLimit));
+        }
+        this.userLimit = userLimit;
+        return this;
+    }
+
+    // the raw user ids by user id, once restored
+    public IdIndex getUserMapping() {
+        return this.userMapping;
+    }
+
+    //
+    // Deals with reading the snapshot
+    //
+
+    public static boolean isSnapshot(final Path path)
+        throws IOException
+    {
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                return false;
+            }
+            final ByteBuffer buffer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(buffer, 0);
+            return buffer.getInt(0) == MAGIC;
+        }
+    }
+
+    @Override
+    public boolean restore(final CollaborativeFilter filter)
+        throws IOException
+    {
+        try (final FileChannel channel = FileChannel.open(this.path, StandardOpenOption.READ)) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) {
+                    throw new IOException("Rating snapshot is truncated.");
+                }
+            }
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException(String.format("File {%s} is not a rating snapshot.", this.path));
+            }
+            if (header.getInt(4) != VERSION) {
+                throw new IOException(String.format(
+                        "Unsupported rating snapshot version %d, rewrite it with CreateRatingSnapshotRunner.", header.getInt(4)));
+            }
+            final int userCount = header.getInt(8);
+            final int movieCount = header.getInt(12);
+            final long count = header.getLong(16);
+            final int maxUserId = header.getInt(24);
+            final int rawUserIdCount = header.getInt(28);
+            if (userCount < 0 || movieCount < 0 || count < 0 || count > Integer.MAX_VALUE
+                    || rawUserIdCount < 0 || (userCount > 0 && maxUserId >= rawUserIdCount)) {
+                throw new IOException(String.format("File {%s} has an invalid header.", this.path));
+            }
+            final int ratingCount = (int) count;
+            this.ratingCount = ratingCount;
+
+            final long averagesOffset = HEADER_SIZE;
+            final long userIdsOffset = averagesOffset + 8L * userCount;
+            final long movieIdsOffset = userIdsOffset + 4L * userCount;
+            final long rawUserIdsOffset = movieIdsOffset + 4L * movieCount;
+            final long offsetsOffset = rawUserIdsOffset + 4L * rawUserIdCount;
+            final long moviesOffset = offsetsOffset + 4L * (userCount + 1);
+            final long ratingsOffset = moviesOffset + 4L * ratingCount;
+            if (channel.size() != ratingsOffset + ratingCount) {
+                throw new IOException(String.format("File {%s} has an inconsistent size.", this.path));
+            }
+
+            final double[] averages = new double[userCount];
+            map(channel, averagesOffset, 8L * userCount).asDoubleBuffer().get(averages);
+            final int[] userIds = new int[userCount];
+            map(channel, userIdsOffset, 4L * userCount).asIntBuffer().get(userIds);
+            final int[] movieIds = new int[movieCount];
+            map(channel, movieIdsOffset, 4L * movieCount).asIntBuffer().get(movieIds);
+            final int[] rawUserIds = new int[rawUserIdCount];
+            map(channel, rawUserIdsOffset, 4L * rawUserIdCount).asIntBuffer().get(rawUserIds);
+            final int[] rowOffsets = new int[userCount + 1];
+            map(channel, offsetsOffset, 4L * (userCount + 1)).asIntBuffer().get(rowOffsets);
+            final int[] rowMovies = new int[ratingCount];
+            map(channel, moviesOffset, 4L * ratingCount).asIntBuffer().get(rowMovies);
+            final byte[] rowRatings = new byte[ratingCount];
+            map(channel, ratingsOffset, ratingCount).get(rowRatings);
+
+            if (rowOffsets[0] != 0 || rowOffsets[userCount] != ratingCount) {
+                throw new IOException(String.format("File {%s} has inconsistent rating rows.", this.path));
+            }
+            this.userMapping = IdIndex.fromIds(Arrays.copyOf(rawUserIds, Math.min(rawUserIdCount, this.userLimit)));
+            if (maxUserId < this.userLimit) {
+                final RatingStore store = new RatingStore(IdIndex.fromIds(userIds),
+                                                          IdIndex.fromIds(movieIds),
+                                                          rowOffsets,
+                                                          rowMovies,
+                                                          rowRatings);
+                filter.restore(store, averages, maxUserId);
+            } else {
+                this.restoreLimited(filter, averages, userIds, movieIds, rowOffsets, rowMovies, rowRatings);
+            }
+            this.ratingsLoaded = this.ratingCount;
+        }
+        return true;
+    }
+
+    // drops the rows of the users at or above the limit; movies keep their
+    // indices, even those only the dropped users rated
+    private void restoreLimited(final CollaborativeFilter filter,
+                                final double[] averages,
+                                final int[] userIds,
+                                final int[] movieIds,
+                                final int[] rowOffsets,
+                                final int[] rowMovies,
+                                final byte[] rowRatings) {
+        int keptUsers = 0;
+        int keptRatings = 0;
+        for (int user = 0; user < userIds.length; user++) {
+            if (userIds[user] < this.userLimit) {
+                keptUsers++;
+                keptRatings += rowOffsets[user + 1] - rowOffsets[user];
+            }
+        }
+
+        final double[] keptAverages = new double[keptUsers];
+        final int[] keptUserIds = new int[keptUsers];
+        final int[] keptOffsets = new int[keptUsers + 1];
+        final int[] keptMovies = new int[keptRatings];
+        final byte[] keptRatingValues = new byte[keptRatings];
+        int maxUserId = 0;
+        int kept = 0;
+        for (int user = 0; user < userIds.length; user++) {
+            if (userIds[user] >= this.userLimit) {
+                continue;
+            }
+            final int length = rowOffsets[user + 1] - rowOffsets[user];
+            System.arraycopy(rowMovies, rowOffsets[user], keptMovies, keptOffsets[kept], length);
+            System.arraycopy(rowRatings, rowOffsets[user], keptRatingValues, keptOffsets[kept], length);
+            keptAverages[kept] = averages[user];
+            keptUserIds[kept] = userIds[user];
+            keptOffsets[kept + 1] = keptOffsets[kept] + length;
+            maxUserId = Math.max(maxUserId, userIds[user]);
+            kept++;
+        }
+
+        final RatingStore store = new RatingStore(IdIndex.fromIds(keptUserIds),
+                                                  IdIndex.fromIds(movieIds),
+                                                  keptOffsets,
+                                                  keptMovies,
+                                                  keptRatingValues);
+        filter.restore(store, keptAverages, maxUserId);
+        this.ratingCount = keptRatings;
+    }
+
+    // streams the snapshot as batches of raw ids, for consumers that need
+    // the ratings rather than a restored filter
+    @Override
+    public void load(final RatingBatchConsumer consumer)
+        throws IOException
+    {
+        final CollaborativeFilter filter = new CollaborativeFilter();
+        this.restore(filter);
+        this.ratingsLoaded = 0;
+
+        final RatingStore store = filter.getRatingStore();
+        final RatingBatch batch = new RatingBatch(BATCH_SIZE);
+        for (int user = 0; user < store.getUserCount(); user++) {
+            final int userId = store.userIdAt(user);
+            for (int position = store.rowStart(user); position < store.rowEnd(user); position++) {
+                batch.add(userId, store.movieIdAt(store.movieAt(position)), store.getRowRatings()[position]);
+                if (batch.isFull()) {
+                    consumer.accept(batch);
+                    this.ratingsLoaded += batch.size();
+                    batch.clear();
+                }
+            }
+        }
+        if (batch.size() > 0) {
+            consumer.accept(batch);
+            this.ratingsLoaded += batch.size();
+        }
+    }
+
+    @Override
+    public long getRatingsLoaded() {
+        return this.ratingsLoaded;
+    }
+
+    @Override
+    public double getProgress() {
+        return this.ratingCount == 0 ? 0.0 : (double) this.ratingsLoaded / this.ratingCount;
+    }
+
+    private static MappedByteBuffer map(final FileChannel channel,
+                                        final long offset,
+                                        final long length)
+        throws IOException
+    {
+        final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    //
+    // Deals with writing the snapshot
+    //
+
+    // userMapping holds the raw user id of every user id of the filter, by
+    // user id, as the reader's getUserMapping does after a truncated load
+    public static void write(final Path path,
+                             final CollaborativeFilter filter,
+                             final IdIndex userMapping)
+        throws IOException
+    {
+        final RatingStore store = filter.getRatingStore();
+        store.compact();
+        final double[] averages = filter.getUserAverages();
+        final int userCount = store.getUserCount();
+        if (averages == null || averages.length != userCount) {
+            throw new IllegalArgumentException("User averages must be calculated before writing a snapshot.");
+        }
+        if (userMapping == null || (userCount > 0 && filter.getMaxUserId() >= userMapping.size())) {
+            throw new IllegalArgumentException(
+                    "Snapshots hold truncated user ids, so every user needs a raw id in the user mapping.");
+        }
+
+        try (final FileChannel channel = FileChannel.open(path,
+                                                          StandardOpenOption.CREATE,
+                                                          StandardOpenOption.TRUNCATE_EXISTING,
+                                                          StandardOpenOption.WRITE)) {
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putInt(userCount);
+            buffer.putInt(store.getMovieCount());
+            buffer.putLong(store.size());
+            buffer.putInt(filter.getMaxUserId());
+            buffer.putInt(userMapping.size());
+
+            for (final double average : averages) {
+                ensureRemaining(channel, buffer, 8);
+                buffer.putDouble(average);
+            }
+            for (final int userId : store.getUserIndex().getIds()) {
+                ensureRemaining(channel, buffer, 4);
+                buffer.putInt(userId);
+            }
+            for (final int movieId : store.getMovieIndex().getIds()) {
+                ensureRemaining(channel, buffer, 4);
+                buffer.putInt(movieId);
+            }
+            for (final int rawUserId : userMapping.getIds()) {
+                ensureRemaining(channel, buffer, 4);
+                buffer.putInt(rawUserId);
+            }
+            for (final int offset : store.getRowOffsets()) {
+                ensureRemaining(channel, buffer, 4);
+                buffer.putInt(offset);
+            }
+            for (final int movie : store.getRowMovies()) {
+                ensureRemaining(channel, buffer, 4);
+                buffer.putInt(movie);
+            }
+            for (final byte rating : store.getRowRatings()) {
+                ensureRemaining(channel, buffer, 1);
+                buffer.put(rating);
+            }
+            flush(channel, buffer);
+        }
+    }
+
+    private static void ensureRemaining(final FileChannel channel,
+                                        final ByteBuffer buffer,
+                                        final int bytes)
+        throws IOException
+    {
+        if (buffer.remaining() < bytes) {
+            flush(channel, buffer);
+        }
+    }
+
+    private static void flush(final FileChannel channel, final ByteBuffer buffer)
+        throws IOException
+    {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
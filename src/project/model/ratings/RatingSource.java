@@ -0,0 +1,22 @@
+package project.model.ratings;
+
+import java.io.IOException;
+
+import project.model.CollaborativeFilter;
+
+// Streams ratings into a consumer in batches. A batch is only valid for the
+// duration of the call and may be reused afterwards.
+public interface RatingSource {
+
+    public void load(RatingBatchConsumer consumer) throws IOException;
+
+    // installs the ratings and user averages into the filter directly, when
+    // the source already holds them in compacted form; returns false when the
+    // ratings have to be streamed through load() instead
+    public boolean restore(CollaborativeFilter filter) throws IOException;
+
+    public long getRatingsLoaded();
+
+    // fraction of the source consumed so far, between 0 and 1
+    public double getProgress();
+}
@@ -0,0 +1,387 @@
+package project.model.ratings;
+
+import java.util.Arrays;
+
+// Compressed sparse row store for the rating matrix. Users and movies are
+// mapped onto dense indices, each user row holds its movie indices in sorted
+// order, and ratings are kept as bytes in half-star units. Ratings are staged
+// by add() and folded into the rows by compact(); a compressed sparse column
+// transpose for per-movie access is only built when it is first asked for.
+public class RatingStore {
+
+    private static final int INITIAL_PENDING_CAPACITY = 1024;
+    private static final int MAX_ROW_LENGTH = 1 << 24;
+    private static final double RATING_SCALE = 2.0;
+
+    private IdIndex users;
+    private IdIndex movies;
+
+    // ratings added since the last compaction
+    private int[] pendingUsers;
+    private int[] pendingMovies;
+    private byte[] pendingRatings;
+    private int pendingCount = 0;
+
+    // compressed sparse rows, indexed by dense user index
+    private int[] rowOffsets;
+    private int[] rowMovies;
+    private byte[] rowRatings;
+
+    // compressed sparse columns, indexed by dense movie index
+    private volatile int[] columnOffsets;
+    private int[] columnUsers;
+    private byte[] columnRatings;
+
+    public RatingStore() {
+        this.users = new IdIndex();
+        this.movies = new IdIndex();
+        this.pendingUsers = new int[INITIAL_PENDING_CAPACITY];
+        this.pendingMovies = new int[INITIAL_PENDING_CAPACITY];
+        this.pendingRatings = new byte[INITIAL_PENDING_CAPACITY];
+        this.rowOffsets = new int[1];
+        this.rowMovies = new int[0];
+        this.rowRatings = new byte[0];
+    }
+
+    // builds a compacted store straight from its row arrays; the rows must
+    // already be sorted by movie index without duplicates
+    public RatingStore(final IdIndex users,
+                       final IdIndex movies,
+                       final int[] rowOffsets,
+                       final int[] rowMovies,
+                       final byte[] rowRatings) {
+        this();
+        if (rowOffsets.length != users.size() + 1 || rowMovies.length != rowRatings.length) {
+            throw new IllegalArgumentException("Rating rows do not match the user index.");
+        }
+        this.users = users;
+        this.movies = movies;
+        this.rowOffsets = rowOffsets;
+        this.rowMovies = rowMovies;
+        this.rowRatings = rowRatings;
+    }
+
+    //
+    // Deals with adding ratings to the store
+    //
+
+    public synchronized void add(final int userId, final int movieId, final double rating) {
+        final byte encodedRating = encodeRating(rating);
+        this.ensurePendingCapacity(this.pendingCount + 1);
+        this.pendingUsers[this.pendingCount] = this.users.getOrAdd(userId);
+        this.pendingMovies[this.pendingCount] = this.movies.getOrAdd(movieId);
+        this.pendingRatings[this.pendingCount] = encodedRating;
+        this.pendingCount++;
+    }
+
+    public synchronized void addAll(final RatingBatch batch) {
+        final int[] userIds = batch.getUserIds();
+        final int[] movieIds = batch.getMovieIds();
+        final byte[] ratings = batch.getRatings();
+        this.ensurePendingCapacity(this.pendingCount + batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            this.pendingUsers[this.pendingCount] = this.users.getOrAdd(userIds[i]);
+            this.pendingMovies[this.pendingCount] = this.movies.getOrAdd(movieIds[i]);
+            this.pendingRatings[this.pendingCount] = ratings[i];
+            this.pendingCount++;
+        }
+    }
+
+    private void ensurePendingCapacity(final int capacity) {
+        if (capacity > this.pendingUsers.length) {
+            final int newCapacity = Math.max(capacity, this.pendingUsers.length + (this.pendingUsers.length >> 1));
+            this.pendingUsers = Arrays.copyOf(this.pendingUsers, newCapacity);
+            this.pendingMovies = Arrays.copyOf(this.pendingMovies, newCapacity);
+            this.pendingRatings = Arrays.copyOf(this.pendingRatings, newCapacity);
+        }
+    }
+
+    public synchronized void restore(final RatingStore other) {
+        other.compact();
+        this.users = other.users;
+        this.movies = other.movies;
+        this.pendingCount = 0;
+        this.rowOffsets = other.rowOffsets;
+        this.rowMovies = other.rowMovies;
+        this.rowRatings = other.rowRatings;
+        this.columnOffsets = null;
+        this.columnUsers = null;
+        this.columnRatings = null;
+    }
+
+    public boolean isCompacted() {
+        return this.pendingCount == 0;
+    }
+
+    public synchronized void compact() {
+        if (this.pendingCount == 0) {
+            return;
+        }
+
+        final int userCount = this.users.size();
+        final int oldUserCount = this.rowOffsets.length - 1;
+
+        // count the entries each row will hold before de-duplication
+        final int[] offsets = new int[userCount + 1];
+        for (int user = 0; user < oldUserCount; user++) {
+            offsets[user + 1] = this.rowOffsets[user + 1] - this.rowOffsets[user];
+        }
+        final boolean[] touched = new boolean[userCount];
+        for (int i = 0; i < this.pendingCount; i++) {
+            offsets[this.pendingUsers[i] + 1]++;
+            touched[this.pendingUsers[i]] = true;
+        }
+        int maxRowLength = 0;
+        for (int user = 0; user < userCount; user++) {
+            if (touched[user]) {
+                maxRowLength = Math.max(maxRowLength, offsets[user + 1]);
+            }
+            offsets[user + 1] += offsets[user];
+        }
+
+        // scatter the existing rows followed by the pending ratings, so that a
+        // pending rating always comes after the one it replaces
+        final int total = offsets[userCount];
+        final int[] movieColumn = new int[total];
+        final byte[] ratingColumn = new byte[total];
+        final int[] cursor = Arrays.copyOf(offsets, userCount);
+        for (int user = 0; user < oldUserCount; user++) {
+            final int length = this.rowOffsets[user + 1] - this.rowOffsets[user];
+            System.arraycopy(this.rowMovies, this.rowOffsets[user], movieColumn, cursor[user], length);
+            System.arraycopy(this.rowRatings, this.rowOffsets[user], ratingColumn, cursor[user], length);
+            cursor[user] += length;
+        }
+        for (int i = 0; i < this.pendingCount; i++) {
+            final int position = cursor[this.pendingUsers[i]]++;
+            movieColumn[position] = this.pendingMovies[i];
+            ratingColumn[position] = this.pendingRatings[i];
+        }
+
+        // sort each row by movie, keeping only the latest rating for a movie;
+        // the sort key packs movie, arrival order and rating so the row can be
+        // rewritten in place. Rows without pending ratings are sorted already
+        // and only move down, so a small delta costs little more than a copy
+        if (maxRowLength > MAX_ROW_LENGTH) {
+            throw new IllegalStateException(String.format("User row of %d ratings is too long to sort.", maxRowLength));
+        }
+        final long[] sortKeys = new long[maxRowLength];
+        int written = 0;
+        for (int user = 0; user < userCount; user++) {
+            final int start = offsets[user];
+            final int length = offsets[user + 1] - start;
+            offsets[user] = written;
+            if (!touched[user]) {
+                System.arraycopy(movieColumn, start, movieColumn, written, length);
+                System.arraycopy(ratingColumn, start, ratingColumn, written, length);
+                written += length;
+                continue;
+            }
+            for (int i = 0; i < length; i++) {
+                sortKeys[i] = ((long) movieColumn[start + i] << 32)
+                            | ((long) i << 8)
+                            | (ratingColumn[start + i] & 0xFF);
+            }
+            Arrays.sort(sortKeys, 0, length);
+            for (int i = 0; i < length; i++) {
+                final int movie = (int) (sortKeys[i] >>> 32);
+                if (i + 1 < length && (int) (sortKeys[i + 1] >>> 32) == movie) {
+                    continue;
+                }
+                movieColumn[written] = movie;
+                ratingColumn[written] = (byte) sortKeys[i];
+                written++;
+            }
+        }
+        offsets[userCount] = written;
+
+        this.rowOffsets = offsets;
+        this.rowMovies = written == total ? movieColumn : Arrays.copyOf(movieColumn, written);
+        this.rowRatings = written == total ? ratingColumn : Arrays.copyOf(ratingColumn, written);
+
+        // release the staging space and invalidate the transpose
+        this.pendingCount = 0;
+        this.pendingUsers = new int[INITIAL_PENDING_CAPACITY];
+        this.pendingMovies = new int[INITIAL_PENDING_CAPACITY];
+        this.pendingRatings = new byte[INITIAL_PENDING_CAPACITY];
+        this.columnOffsets = null;
+        this.columnUsers = null;
+        this.columnRatings = null;
+    }
+
+    //
+    // Deals with per-user (row) access
+    //
+
+    public int getUserCount() {
+        return this.users.size();
+    }
+
+    public int size() {
+        return this.rowMovies.length;
+    }
+
+    public int indexOfUser(final int userId) {
+        return this.users.indexOf(userId);
+    }
+
+    public int userIdAt(final int userIndex) {
+        return this.users.idAt(userIndex);
+    }
+
+    public int rowStart(final int userIndex) {
+        return userIndex < this.rowOffsets.length - 1 ? this.rowOffsets[userIndex] : 0;
+    }
+
+    public int rowEnd(final int userIndex) {
+        return userIndex < this.rowOffsets.length - 1 ? this.rowOffsets[userIndex + 1] : 0;
+    }
+
+    // the position of the user's rating of the movie in the compacted rows,
+    // or IdIndex.ABSENT; ratings still pending are not seen
+    public int positionOf(final int userIndex, final int movieIndex) {
+        if (userIndex < 0 || movieIndex < 0) {
+            return IdIndex.ABSENT;
+        }
+        final int position = Arrays.binarySearch(this.rowMovies, this.rowStart(userIndex), this.rowEnd(userIndex), movieIndex);
+        return position >= 0 ? position : IdIndex.ABSENT;
+    }
+
+    public int movieAt(final int position) {
+        return this.rowMovies[position];
+    }
+
+    public double ratingAt(final int position) {
+        return decodeRating(this.rowRatings[position]);
+    }
+
+    // the raw arrays are shared, not copied; callers must not modify them
+    public int[] getRowOffsets() {
+        return this.rowOffsets;
+    }
+
+    public int[] getRowMovies() {
+        return this.rowMovies;
+    }
+
+    public byte[] getRowRatings() {
+        return this.rowRatings;
+    }
+
+    //
+    // Deals with per-movie (column) access
+    //
+
+    public int getMovieCount() {
+        return this.movies.size();
+    }
+
+    public int indexOfMovie(final int movieId) {
+        return this.movies.indexOf(movieId);
+    }
+
+    public int movieIdAt(final int movieIndex) {
+        return this.movies.idAt(movieIndex);
+    }
+
+    // the largest movie id, or -1 when there are no movies
+    public int getMaxMovieId() {
+        int maxMovieId = -1;
+        for (int movie = 0; movie < this.movies.size(); movie++) {
+            maxMovieId = Math.max(maxMovieId, this.movies.idAt(movie));
+        }
+        return maxMovieId;
+    }
+
+    public IdIndex getUserIndex() {
+        return this.users;
+    }
+
+    public IdIndex getMovieIndex() {
+        return this.movies;
+    }
+
+    public synchronized void buildColumns() {
+        if (this.columnOffsets != null) {
+            return;
+        }
+        this.compact();
+
+        final int movieCount = this.movies.size();
+        final int userCount = this.rowOffsets.length - 1;
+        final int[] offsets = new int[movieCount + 1];
+        for (int i = 0; i < this.rowMovies.length; i++) {
+            offsets[this.rowMovies[i] + 1]++;
+        }
+        for (int movie = 0; movie < movieCount; movie++) {
+            offsets[movie + 1] += offsets[movie];
+        }
+
+        // walking the rows in user order leaves every column sorted by user
+        final int[] userColumn = new int[this.rowMovies.length];
+        final byte[] ratingColumn = new byte[this.rowMovies.length];
+        final int[] cursor = Arrays.copyOf(offsets, movieCount);
+        for (int user = 0; user < userCount; user++) {
+            for (int i = this.rowOffsets[user]; i < this.rowOffsets[user + 1]; i++) {
+                final int position = cursor[this.rowMovies[i]]++;
+                userColumn[position] = user;
+                ratingColumn[position] = this.rowRatings[i];
+            }
+        }
+
+        this.columnUsers = userColumn;
+        this.columnRatings = ratingColumn;
+        this.columnOffsets = offsets;
+    }
+
+    public int columnStart(final int movieIndex) {
+        return this.getColumnOffsets()[movieIndex];
+    }
+
+    public int columnEnd(final int movieIndex) {
+        return this.getColumnOffsets()[movieIndex + 1];
+    }
+
+    public int userAt(final int position) {
+        return this.columnUsers[position];
+    }
+
+    public double columnRatingAt(final int position) {
+        return decodeRating(this.columnRatings[position]);
+    }
+
+    public int[] getColumnOffsets() {
+        int[] offsets = this.columnOffsets;
+        if (offsets == null) {
+            this.buildColumns();
+            offsets = this.columnOffsets;
+        }
+        return offsets;
+    }
+
+    public int[] getColumnUsers() {
+        this.getColumnOffsets();
+        return this.columnUsers;
+    }
+
+    public byte[] getColumnRatings() {
+        this.getColumnOffsets();
+        return this.columnRatings;
+    }
+
+    //
+    // Deals with the byte rating encoding
+    //
+
+    public static byte encodeRating(final double rating) {
+        final double scaled = rating * RATING_SCALE;
+        if (scaled < 0.0 || scaled > Byte.MAX_VALUE || scaled != Math.rint(scaled)) {
+            throw new IllegalArgumentException(
+                    String.format("Rating %.3f cannot be stored, ratings must be half-stars in [0, 63.5].", rating));
+        }
+        return (byte) scaled;
+    }
+
+    public static double decodeRating(final byte encodedRating) {
+        return encodedRating / RATING_SCALE;
+    }
+}
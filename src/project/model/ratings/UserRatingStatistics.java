@@ -0,0 +1,110 @@
+package project.model.ratings;
+
+import java.util.BitSet;
+import java.util.stream.IntStream;
+
+// Per-user statistics of a compacted rating store that never change until
+// the ratings do: each user's mean, rating count and the L2 norm of their
+// centred row, plus every rating already centred on its user's mean, held
+// as floats in the same positions as the store's rows. Pair weights read
+// the centred ratings straight out of the array instead of decoding and
+// centring each shared rating again on every call.
+//
+// Users are processed in parallel, a chunk of rows at a time.
+public class UserRatingStatistics {
+
+    private static final int CHUNK_SIZE = 1024;
+
+    private final int[] rowOffsets;
+    private final int[] rowMovies;
+    private final double[] means;
+    private final double[] norms;
+    private final float[] centredRatings;
+
+    public UserRatingStatistics(final RatingStore ratings,
+                                final double[] means) {
+        this(ratings, means, null, null);
+    }
+
+    // rebuilds the statistics after an update to the store, copying the
+    // centred rows and norms of the users outside changedUsers (dense
+    // indices), whose rows and means are as they were
+    public UserRatingStatistics(final RatingStore ratings,
+                                final double[] means,
+                                final UserRatingStatistics previous,
+                                final BitSet changedUsers) {
+        ratings.compact();
+        this.rowOffsets = ratings.getRowOffsets();
+        this.rowMovies = ratings.getRowMovies();
+        this.means = means;
+        final int userCount = this.rowOffsets.length - 1;
+        if (means.length < userCount) {
+            throw new IllegalArgumentException(String.format(
+                    "%d means cannot cover %d users.", means.length, userCount));
+        }
+        this.norms = new double[userCount];
+        this.centredRatings = new float[this.rowMovies.length];
+
+        final byte[] rowRatings = ratings.getRowRatings();
+        IntStream.range(0, (userCount + CHUNK_SIZE - 1) / CHUNK_SIZE).parallel().forEach(chunk -> {
+            final int end = Math.min(userCount, (chunk + 1) * CHUNK_SIZE);
+            for (int user = chunk * CHUNK_SIZE; user < end; user++) {
+                final int start = this.rowOffsets[user];
+                final int length = this.rowOffsets[user + 1] - start;
+                if (previous != null && user < previous.norms.length && !changedUsers.get(user)) {
+                    System.arraycopy(previous.centredRatings, previous.rowOffsets[user],
+                                     this.centredRatings, start, length);
+                    this.norms[user] = previous.norms[user];
+                    continue;
+                }
+
+                // a zero norm means every centred rating is zero, so the user
+                // cannot correlate with anyone
+                double sumSquared = 0.0;
+                for (int i = start; i < start + length; i++) {
+                    final double diff = RatingStore.decodeRating(rowRatings[i]) - means[user];
+                    this.centredRatings[i] = (float) diff;
+                    sumSquared += diff * diff;
+                }
+                this.norms[user] = Math.sqrt(sumSquared);
+            }
+        });
+    }
+
+    public int getUserCount() {
+        return this.norms.length;
+    }
+
+    public double getMean(final int userIndex) {
+        return this.means[userIndex];
+    }
+
+    public double getNorm(final int userIndex) {
+        return this.norms[userIndex];
+    }
+
+    public int getRatingCount(final int userIndex) {
+        return this.rowOffsets[userIndex + 1] - this.rowOffsets[userIndex];
+    }
+
+    // the raw arrays are shared, not copied; callers must not modify them
+    public int[] getRowOffsets() {
+        return this.rowOffsets;
+    }
+
+    public int[] getRowMovies() {
+        return this.rowMovies;
+    }
+
+    public double[] getMeans() {
+        return this.means;
+    }
+
+    public double[] getNorms() {
+        return this.norms;
+    }
+
+    public float[] getCentredRatings() {
+        return this.centredRatings;
+    }
+}
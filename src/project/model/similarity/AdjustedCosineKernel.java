@@ -0,0 +1,91 @@
+package project.model.similarity;
+
+import project.model.ratings.RatingStore;
+import project.model.ratings.UserRatingStatistics;
+
+// Cosine over the movies two users share, each rating centred on the movie's
+// mean rather than the user's (Sarwar et al.'s adjusted cosine, turned
+// around for users), so agreeing that a movie is better or worse than most
+// people think counts, while agreeing with the crowd does not. Negative
+// weights are clamped to 0, as for Pearson.
+//
+// The movie means cover the whole store, so after an incremental update the
+// weights of users outside the dirty set can drift slightly until the
+// matrix is rebuilt.
+public class AdjustedCosineKernel implements SimilarityMetric {
+
+    private final int[] rowOffsets;
+    private final int[] rowMovies;
+    private final float[] centredRatings;
+    private final int userCount;
+
+    public AdjustedCosineKernel(final RatingStore ratings,
+                                final UserRatingStatistics statistics) {
+        this.rowOffsets = statistics.getRowOffsets();
+        this.rowMovies = statistics.getRowMovies();
+        this.userCount = this.rowOffsets.length - 1;
+        final byte[] rowRatings = ratings.getRowRatings();
+        if (rowRatings.length != this.rowMovies.length) {
+            throw new IllegalArgumentException("The statistics do not match the rating rows.");
+        }
+
+        final int movieCount = ratings.getMovieCount();
+        final double[] movieSums = new double[movieCount];
+        final int[] movieCounts = new int[movieCount];
+        for (int i = 0; i < this.rowMovies.length; i++) {
+            movieSums[this.rowMovies[i]] += RatingStore.decodeRating(rowRatings[i]);
+            movieCounts[this.rowMovies[i]]++;
+        }
+        this.centredRatings = new float[this.rowMovies.length];
+        for (int i = 0; i < this.rowMovies.length; i++) {
+            final int movie = this.rowMovies[i];
+            this.centredRatings[i] = (float) (RatingStore.decodeRating(rowRatings[i]) - movieSums[movie] / movieCounts[movie]);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return SimilarityMetrics.ADJUSTED_COSINE;
+    }
+
+    @Override
+    public int getUserCount() {
+        return this.userCount;
+    }
+
+    @Override
+    public double weight(final int activeIndex, final int otherIndex) {
+        if (activeIndex < 0 || otherIndex < 0
+                || activeIndex >= this.userCount || otherIndex >= this.userCount) {
+            return 0.0;
+        }
+
+        int activePosition = this.rowOffsets[activeIndex];
+        int otherPosition = this.rowOffsets[otherIndex];
+        final int activeEnd = this.rowOffsets[activeIndex + 1];
+        final int otherEnd = this.rowOffsets[otherIndex + 1];
+        double sumNumerator = 0.0;
+        double sumActiveSquared = 0.0;
+        double sumOtherSquared = 0.0;
+        while (activePosition < activeEnd && otherPosition < otherEnd) {
+            final int activeMovie = this.rowMovies[activePosition];
+            final int otherMovie = this.rowMovies[otherPosition];
+
+            // branch-free steps, as in PearsonKernel
+            final double match = activeMovie == otherMovie ? 1.0 : 0.0;
+            final double activeDiff = match * this.centredRatings[activePosition];
+            final double otherDiff = match * this.centredRatings[otherPosition];
+            sumNumerator += activeDiff * otherDiff;
+            sumActiveSquared += activeDiff * activeDiff;
+            sumOtherSquared += otherDiff * otherDiff;
+            activePosition += activeMovie <= otherMovie ? 1 : 0;
+            otherPosition += otherMovie <= activeMovie ? 1 : 0;
+        }
+
+        final double weight = sumNumerator / Math.sqrt(sumActiveSquared * sumOtherSquared);
+        if (Double.isNaN(weight) || weight < 0.0) {
+            return 0.0;
+        }
+        return weight;
+    }
+}
@@ -0,0 +1,74 @@
+package project.model.similarity;
+
+import project.model.ratings.RatingStore;
+import project.model.ratings.UserRatingStatistics;
+
+// Cosine of the angle between two users' raw rating vectors, unrated movies
+// counting as zero (Breese et al.'s vector similarity). The ratings are
+// summed as their half-star bytes, which scale both sides alike, so the
+// whole merge is integer arithmetic.
+public class CosineKernel implements SimilarityMetric {
+
+    private final int[] rowOffsets;
+    private final int[] rowMovies;
+    private final byte[] rowRatings;
+    private final double[] norms;
+
+    public CosineKernel(final RatingStore ratings,
+                        final UserRatingStatistics statistics) {
+        this.rowOffsets = statistics.getRowOffsets();
+        this.rowMovies = statistics.getRowMovies();
+        this.rowRatings = ratings.getRowRatings();
+        if (this.rowRatings.length != this.rowMovies.length) {
+            throw new IllegalArgumentException("The statistics do not match the rating rows.");
+        }
+
+        final int userCount = this.rowOffsets.length - 1;
+        this.norms = new double[userCount];
+        for (int user = 0; user < userCount; user++) {
+            long sumSquared = 0;
+            for (int i = this.rowOffsets[user]; i < this.rowOffsets[user + 1]; i++) {
+                sumSquared += this.rowRatings[i] * this.rowRatings[i];
+            }
+            this.norms[user] = Math.sqrt(sumSquared);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return SimilarityMetrics.COSINE;
+    }
+
+    @Override
+    public int getUserCount() {
+        return this.norms.length;
+    }
+
+    @Override
+    public double weight(final int activeIndex, final int otherIndex) {
+        if (activeIndex < 0 || otherIndex < 0
+                || activeIndex >= this.norms.length || otherIndex >= this.norms.length) {
+            return 0.0;
+        }
+        if (this.norms[activeIndex] == 0.0 || this.norms[otherIndex] == 0.0) {
+            return 0.0;
+        }
+
+        int activePosition = this.rowOffsets[activeIndex];
+        int otherPosition = this.rowOffsets[otherIndex];
+        final int activeEnd = this.rowOffsets[activeIndex + 1];
+        final int otherEnd = this.rowOffsets[otherIndex + 1];
+        long dot = 0;
+        while (activePosition < activeEnd && otherPosition < otherEnd) {
+            final int activeMovie = this.rowMovies[activePosition];
+            final int otherMovie = this.rowMovies[otherPosition];
+
+            // branch-free steps, as in PearsonKernel
+            final int match = activeMovie == otherMovie ? 1 : 0;
+            dot += match * this.rowRatings[activePosition] * this.rowRatings[otherPosition];
+            activePosition += activeMovie <= otherMovie ? 1 : 0;
+            otherPosition += otherMovie <= activeMovie ? 1 : 0;
+        }
+        return dot / (this.norms[activeIndex] * this.norms[otherIndex]);
+    }
+}
@@ -0,0 +1,63 @@
+package project.model.similarity;
+
+import project.model.UserGenrePreferences;
+
+// Blends another metric's weight with the agreement of two users' genre
+// preferences, so that users with few movies in common but the same taste
+// in genres still count as similar:
+//
+//   w(u, v) = (1 - blend) w_base(u, v) + blend max(0, cos(g(u), g(v)))
+//
+// Negative genre agreement is cut at zero, and the float preferences'
+// rounding at one, keeping weights in [0, 1].
+public class GenreBlendedKernel implements SimilarityMetric {
+
+    private final SimilarityMetric baseKernel;
+    private final UserGenrePreferences preferences;
+    private final double blend;
+
+    public GenreBlendedKernel(final SimilarityMetric baseKernel,
+                              final UserGenrePreferences preferences,
+                              final double blend) {
+        if (blend < 0.0 || blend > 1.0) {
+            throw new IllegalArgumentException(String.format("Invalid genre blend %.3f, expected 0..1.", blend));
+        }
+        if (preferences.getUserCount() != baseKernel.getUserCount()) {
+            throw new IllegalArgumentException(String.format(
+                    "Genre preferences for %d users cannot blend with a kernel over %d.",
+                    preferences.getUserCount(), baseKernel.getUserCount()));
+        }
+        this.baseKernel = baseKernel;
+        this.preferences = preferences;
+        this.blend = blend;
+    }
+
+    // the base metric's name, so that files are named as before
+    @Override
+    public String getName() {
+        return this.baseKernel.getName();
+    }
+
+    @Override
+    public int getUserCount() {
+        return this.baseKernel.getUserCount();
+    }
+
+    @Override
+    public double weight(final int activeIndex, final int otherIndex) {
+        if (activeIndex < 0 || otherIndex < 0
+                || activeIndex >= this.getUserCount() || otherIndex >= this.getUserCount()) {
+            return 0.0;
+        }
+        final double genreWeight = Math.max(0.0, Math.min(1.0, this.preferences.weight(activeIndex, otherIndex)));
+        return (1.0 - this.blend) * this.baseKernel.weight(activeIndex, otherIndex) + this.blend * genreWeight;
+    }
+
+    public SimilarityMetric getBaseKernel() {
+        return this.baseKernel;
+    }
+
+    public double getBlend() {
+        return this.blend;
+    }
+}
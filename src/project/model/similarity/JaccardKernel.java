@@ -0,0 +1,55 @@
+package project.model.similarity;
+
+import project.model.ratings.UserRatingStatistics;
+
+// The share of the movies either user rated that both rated, ignoring the
+// ratings themselves; the merge only reads the sorted movie indices.
+public class JaccardKernel implements SimilarityMetric {
+
+    private final int[] rowOffsets;
+    private final int[] rowMovies;
+    private final int userCount;
+
+    public JaccardKernel(final UserRatingStatistics statistics) {
+        this.rowOffsets = statistics.getRowOffsets();
+        this.rowMovies = statistics.getRowMovies();
+        this.userCount = this.rowOffsets.length - 1;
+    }
+
+    @Override
+    public String getName() {
+        return SimilarityMetrics.JACCARD;
+    }
+
+    @Override
+    public int getUserCount() {
+        return this.userCount;
+    }
+
+    @Override
+    public double weight(final int activeIndex, final int otherIndex) {
+        if (activeIndex < 0 || otherIndex < 0
+                || activeIndex >= this.userCount || otherIndex >= this.userCount) {
+            return 0.0;
+        }
+
+        int activePosition = this.rowOffsets[activeIndex];
+        int otherPosition = this.rowOffsets[otherIndex];
+        final int activeEnd = this.rowOffsets[activeIndex + 1];
+        final int otherEnd = this.rowOffsets[otherIndex + 1];
+        final int union = (activeEnd - activePosition) + (otherEnd - otherPosition);
+        if (union == 0) {
+            return 0.0;
+        }
+        int shared = 0;
+        while (activePosition < activeEnd && otherPosition < otherEnd) {
+            final int activeMovie = this.rowMovies[activePosition];
+            final int otherMovie = this.rowMovies[otherPosition];
+            // branch-free steps, as in PearsonKernel
+            shared += activeMovie == otherMovie ? 1 : 0;
+            activePosition += activeMovie <= otherMovie ? 1 : 0;
+            otherPosition += otherMovie <= activeMovie ? 1 : 0;
+        }
+        return (double) shared / (union - shared);
+    }
+}
@@ -0,0 +1,63 @@
+package project.model.similarity;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Read-only view of a packed upper triangle similarity matrix file, mapped
+// straight from disk so none of the values are copied onto the heap. The file
+// is mapped in chunks since a single mapping is limited to 2GB.
+public class MappedSimilarityMatrix implements SymmetricMatrix {
+
+    private static final int CHUNK_SHIFT = 28;
+    private static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+
+    private final int size;
+    private final byte valueType;
+    private final MappedByteBuffer[] chunks;
+
+    MappedSimilarityMatrix(final FileChannel channel,
+                           final long dataOffset,
+                           final int size,
+                           final byte valueType)
+        throws IOException
+    {
+        this.size = size;
+        this.valueType = valueType;
+
+        final int valueSize = SimilarityMatrixFile.valueSize(valueType);
+        final long valueCount = (long) size * (size + 1) / 2;
+        final int chunkCount = (int) ((valueCount + CHUNK_MASK) >>> CHUNK_SHIFT);
+        this.chunks = new MappedByteBuffer[chunkCount];
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            final long firstValue = (long) chunk << CHUNK_SHIFT;
+            final long chunkValues = Math.min(CHUNK_MASK + 1, valueCount - firstValue);
+            this.chunks[chunk] = channel.map(FileChannel.MapMode.READ_ONLY,
+                                             dataOffset + firstValue * valueSize,
+                                             chunkValues * valueSize);
+            this.chunks[chunk].order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public double get(final int row, final int col) {
+        final long index = row <= col ? packedIndex(row, col, this.size) : packedIndex(col, row, this.size);
+        final MappedByteBuffer chunk = this.chunks[(int) (index >>> CHUNK_SHIFT)];
+        final int position = (int) (index & CHUNK_MASK);
+        if (this.valueType == SimilarityMatrixFile.FLOAT32) {
+            return chunk.getFloat(position << 2);
+        }
+        return SimilarityMatrixFile.halfToFloat(chunk.getShort(position << 1));
+    }
+
+    // position of (row, col), row <= col, within the packed upper triangle
+    static long packedIndex(final int row, final int col, final int size) {
+        return (long) row * size - ((long) row * (row - 1) >> 1) + (col - row);
+    }
+}
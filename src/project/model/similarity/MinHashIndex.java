@@ -0,0 +1,216 @@
+package project.model.similarity;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import project.model.ratings.RatingStore;
+
+// Banded MinHash over each user's set of rated movies, for finding the users
+// worth weighing exactly without weighing every pair. Each user gets
+// bandCount * rowsPerBand min-hashes; two users land in the same bucket of a
+// band when all of its rowsPerBand hashes agree, which happens with
+// probability J^rowsPerBand for a Jaccard overlap of J. Users sharing a
+// bucket in any band are candidates, so more bands raise recall and cost,
+// and more rows per band make each band stricter.
+//
+// Users who rated nothing are never bucketed, and buckets larger than
+// MAX_BUCKET_SIZE are skipped: they come from users with one or two popular
+// movies, and would bring back the all-pairs cost they are meant to avoid.
+public class MinHashIndex {
+
+    public static final int NO_BUCKET = -1;
+    public static final int MAX_BUCKET_SIZE = 4096;
+
+    private static final int CHUNK_SIZE = 1024;
+    private static final long SEED = 0x5DEECE66DL;
+
+    private final int userCount;
+    private final int bandCount;
+    private final int rowsPerBand;
+
+    // per band, the bucket of each user, and the members of each bucket in
+    // compressed sparse row form
+    private final int[][] userBuckets;
+    private final int[][] bucketOffsets;
+    private final int[][] bucketMembers;
+
+    public MinHashIndex(final RatingStore ratings,
+                        final int bandCount,
+                        final int rowsPerBand) {
+        if (bandCount <= 0 || rowsPerBand <= 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid banding of %d bands of %d rows.", bandCount, rowsPerBand));
+        }
+        this.userCount = ratings.getUserCount();
+        this.bandCount = bandCount;
+        this.rowsPerBand = rowsPerBand;
+        this.userBuckets = new int[bandCount][];
+        this.bucketOffsets = new int[bandCount][];
+        this.bucketMembers = new int[bandCount][];
+
+        final int[] signatures = this.sign(ratings);
+        IntStream.range(0, bandCount).parallel().forEach(band -> this.bucket(ratings, signatures, band));
+    }
+
+    //
+    // Deals with the signatures
+    //
+
+    // the hashes of each movie are drawn up front, movie by movie, so that a
+    // user's signature is a running minimum over contiguous slices
+    private int[] sign(final RatingStore ratings) {
+        final int hashCount = this.bandCount * this.rowsPerBand;
+        final int movieCount = ratings.getMovieCount();
+        final long[] multipliers = new long[hashCount];
+        final long[] offsets = new long[hashCount];
+        final Random random = new Random(SEED);
+        for (int hash = 0; hash < hashCount; hash++) {
+            multipliers[hash] = random.nextLong() | 1L;
+            offsets[hash] = random.nextLong();
+        }
+        final int[] movieHashes = new int[movieCount * hashCount];
+        IntStream.range(0, movieCount).parallel().forEach(movie -> {
+            for (int hash = 0; hash < hashCount; hash++) {
+                movieHashes[movie * hashCount + hash] = (int) (mix(movie * multipliers[hash] + offsets[hash]) >>> 32);
+            }
+        });
+
+        final int[] rowOffsets = ratings.getRowOffsets();
+        final int[] rowMovies = ratings.getRowMovies();
+        final int[] signatures = new int[this.userCount * hashCount];
+        Arrays.fill(signatures, Integer.MAX_VALUE);
+        IntStream.range(0, (this.userCount + CHUNK_SIZE - 1) / CHUNK_SIZE).parallel().forEach(chunk -> {
+            final int end = Math.min(this.userCount, (chunk + 1) * CHUNK_SIZE);
+            for (int user = chunk * CHUNK_SIZE; user < end; user++) {
+                final int start = user * hashCount;
+                for (int i = rowOffsets[user]; i < rowOffsets[user + 1]; i++) {
+                    final int movieStart = rowMovies[i] * hashCount;
+                    for (int hash = 0; hash < hashCount; hash++) {
+                        signatures[start + hash] = Math.min(signatures[start + hash], movieHashes[movieStart + hash]);
+                    }
+                }
+            }
+        });
+        return signatures;
+    }
+
+    //
+    // Deals with the buckets
+    //
+
+    // sorts the users of a band by the hash of their band rows, packed above
+    // the user index, so that each run of equal hashes is a bucket
+    private void bucket(final RatingStore ratings,
+                        final int[] signatures,
+                        final int band) {
+        final int hashCount = this.bandCount * this.rowsPerBand;
+        final long[] keys = new long[this.userCount];
+        int keyCount = 0;
+        for (int user = 0; user < this.userCount; user++) {
+            if (ratings.rowStart(user) == ratings.rowEnd(user)) {
+                continue;
+            }
+            long key = band;
+            final int start = user * hashCount + band * this.rowsPerBand;
+            for (int row = 0; row < this.rowsPerBand; row++) {
+                key = key * 0x9E3779B97F4A7C15L + signatures[start + row];
+            }
+            keys[keyCount++] = (mix(key) & 0xFFFFFFFF00000000L) | user;
+        }
+        Arrays.sort(keys, 0, keyCount);
+
+        final int[] userBucket = new int[this.userCount];
+        Arrays.fill(userBucket, NO_BUCKET);
+        final int[] offsets = new int[keyCount + 1];
+        final int[] members = new int[keyCount];
+        int bucketCount = 0;
+        for (int i = 0; i < keyCount; i++) {
+            final int user = (int) keys[i];
+            if (i == 0 || (keys[i] >>> 32) != (keys[i - 1] >>> 32)) {
+                offsets[bucketCount++] = i;
+            }
+            userBucket[user] = bucketCount - 1;
+            members[i] = user;
+        }
+        offsets[bucketCount] = keyCount;
+
+        this.userBuckets[band] = userBucket;
+        this.bucketOffsets[band] = Arrays.copyOf(offsets, bucketCount + 1);
+        this.bucketMembers[band] = members;
+    }
+
+    // the users sharing a bucket with the user in any band, excluding the
+    // user. lastSeen is scratch space from newScratch, owned by the calling
+    // thread and reused from one user to the next
+    public int[] candidates(final int userIndex, final int[] lastSeen) {
+        if (userIndex < 0) {
+            return new int[0];
+        }
+        int count = 0;
+        int[] candidates = new int[16];
+        lastSeen[userIndex] = userIndex;
+        for (int band = 0; band < this.bandCount; band++) {
+            final int bucket = this.userBuckets[band][userIndex];
+            if (bucket == NO_BUCKET) {
+                continue;
+            }
+            final int start = this.bucketOffsets[band][bucket];
+            final int end = this.bucketOffsets[band][bucket + 1];
+            if (end - start > MAX_BUCKET_SIZE) {
+                continue;
+            }
+            for (int i = start; i < end; i++) {
+                final int other = this.bucketMembers[band][i];
+                if (lastSeen[other] == userIndex) {
+                    continue;
+                }
+                lastSeen[other] = userIndex;
+                if (count == candidates.length) {
+                    candidates = Arrays.copyOf(candidates, 2 * count);
+                }
+                candidates[count++] = other;
+            }
+        }
+        return Arrays.copyOf(candidates, count);
+    }
+
+    public int[] newScratch() {
+        final int[] lastSeen = new int[this.userCount];
+        Arrays.fill(lastSeen, NO_BUCKET);
+        return lastSeen;
+    }
+
+    public int getUserCount() {
+        return this.userCount;
+    }
+
+    public int getBandCount() {
+        return this.bandCount;
+    }
+
+    public int getRowsPerBand() {
+        return this.rowsPerBand;
+    }
+
+    // the Jaccard overlap at which a pair becomes a candidate half the time
+    public double getThreshold() {
+        return Math.pow(1.0 / this.bandCount, 1.0 / this.rowsPerBand);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MinHash over %d users, %d bands of %d rows (threshold %.2f)",
+                             this.userCount, this.bandCount, this.rowsPerBand, this.getThreshold());
+    }
+
+    // the murmur3 64 bit finalizer
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value >>> 33;
+        value *= 0xC4CEB9FE1A85EC53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
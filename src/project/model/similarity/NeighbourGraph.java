@@ -0,0 +1,166 @@
+package project.model.similarity;
+
+import java.util.Arrays;
+
+// Symmetric sparse similarity graph in compressed sparse row form. Each row
+// holds a user's neighbours sorted by index, along with their weights; the
+// weight of each user with themselves is kept apart from the edges.
+public class NeighbourGraph {
+
+    private final int[] offsets;
+    private final int[] neighbours;
+    private final float[] weights;
+    private final double[] selfWeights;
+
+    public NeighbourGraph(final int[] offsets,
+                          final int[] neighbours,
+                          final float[] weights,
+                          final double[] selfWeights) {
+        this.offsets = offsets;
+        this.neighbours = neighbours;
+        this.weights = weights;
+        this.selfWeights = selfWeights;
+    }
+
+    // builds the symmetric graph from each row's selected neighbours; an edge
+    // picked by either end is kept in both rows
+    public static NeighbourGraph symmetrize(final int[][] rowNeighbours,
+                                            final float[][] rowWeights,
+                                            final double[] selfWeights) {
+        int edgeCount = 0;
+        for (final int[] neighbours : rowNeighbours) {
+            edgeCount += neighbours.length;
+        }
+        final int[] edgeRows = new int[edgeCount];
+        final int[] edgeCols = new int[edgeCount];
+        final float[] edgeWeights = new float[edgeCount];
+        int edge = 0;
+        for (int row = 0; row < rowNeighbours.length; row++) {
+            for (int i = 0; i < rowNeighbours[row].length; i++) {
+                edgeRows[edge] = row;
+                edgeCols[edge] = rowNeighbours[row][i];
+                edgeWeights[edge] = rowWeights[row][i];
+                edge++;
+            }
+        }
+        return fromEdges(rowNeighbours.length, edgeRows, edgeCols, edgeWeights, edgeCount, selfWeights);
+    }
+
+    // builds the symmetric graph from a list of undirected edges; an edge may
+    // be listed from either end, or from both
+    public static NeighbourGraph fromEdges(final int size,
+                                           final int[] edgeRows,
+                                           final int[] edgeCols,
+                                           final float[] edgeWeights,
+                                           final int edgeCount,
+                                           final double[] selfWeights) {
+        final int[] counts = new int[size + 1];
+        for (int edge = 0; edge < edgeCount; edge++) {
+            counts[edgeRows[edge] + 1]++;
+            counts[edgeCols[edge] + 1]++;
+        }
+        int maxRowLength = 0;
+        for (int row = 0; row < size; row++) {
+            maxRowLength = Math.max(maxRowLength, counts[row + 1]);
+            counts[row + 1] += counts[row];
+        }
+
+        // scatter every edge into both of its rows
+        final int total = counts[size];
+        final int[] neighbourColumn = new int[total];
+        final float[] weightColumn = new float[total];
+        final int[] cursor = Arrays.copyOf(counts, size);
+        for (int edge = 0; edge < edgeCount; edge++) {
+            final int row = edgeRows[edge];
+            final int col = edgeCols[edge];
+            neighbourColumn[cursor[row]] = col;
+            weightColumn[cursor[row]++] = edgeWeights[edge];
+            neighbourColumn[cursor[col]] = row;
+            weightColumn[cursor[col]++] = edgeWeights[edge];
+        }
+
+        // sort each row by neighbour and drop the duplicates of mutual edges
+        final long[] sortKeys = new long[maxRowLength];
+        final int[] offsets = new int[size + 1];
+        int written = 0;
+        for (int row = 0; row < size; row++) {
+            final int start = counts[row];
+            final int length = counts[row + 1] - start;
+            offsets[row] = written;
+            for (int i = 0; i < length; i++) {
+                sortKeys[i] = ((long) neighbourColumn[start + i] << 32)
+                            | (Float.floatToRawIntBits(weightColumn[start + i]) & 0xFFFFFFFFL);
+            }
+            Arrays.sort(sortKeys, 0, length);
+            for (int i = 0; i < length; i++) {
+                final int neighbour = (int) (sortKeys[i] >>> 32);
+                if (i + 1 < length && (int) (sortKeys[i + 1] >>> 32) == neighbour) {
+                    continue;
+                }
+                neighbourColumn[written] = neighbour;
+                weightColumn[written] = Float.intBitsToFloat((int) sortKeys[i]);
+                written++;
+            }
+        }
+        offsets[size] = written;
+
+        return new NeighbourGraph(offsets,
+                                  Arrays.copyOf(neighbourColumn, written),
+                                  Arrays.copyOf(weightColumn, written),
+                                  selfWeights);
+    }
+
+    public int size() {
+        return this.offsets.length - 1;
+    }
+
+    public int getEdgeCount() {
+        return this.neighbours.length;
+    }
+
+    public int rowStart(final int row) {
+        return this.offsets[row];
+    }
+
+    public int rowEnd(final int row) {
+        return this.offsets[row + 1];
+    }
+
+    public int neighbourAt(final int position) {
+        return this.neighbours[position];
+    }
+
+    public double weightAt(final int position) {
+        return this.weights[position];
+    }
+
+    // the weight of the edge between two users, or 0 when there is none
+    public double weight(final int row, final int col) {
+        if (row >= this.size()) {
+            return 0.0;
+        }
+        final int position = Arrays.binarySearch(this.neighbours, this.offsets[row], this.offsets[row + 1], col);
+        return position >= 0 ? this.weights[position] : 0.0;
+    }
+
+    public double getSelfWeight(final int row) {
+        return this.selfWeights[row];
+    }
+
+    // the raw arrays are shared, not copied; callers must not modify them
+    public int[] getOffsets() {
+        return this.offsets;
+    }
+
+    public int[] getNeighbours() {
+        return this.neighbours;
+    }
+
+    public float[] getWeights() {
+        return this.weights;
+    }
+
+    public double[] getSelfWeights() {
+        return this.selfWeights;
+    }
+}
@@ -0,0 +1,102 @@
+package project.model.similarity;
+
+import project.model.ratings.RatingStore;
+import project.model.ratings.UserRatingStatistics;
+
+// Pearson correlation between two users over the movies they both rated,
+// computed by merging their sorted rating rows. The kernel reads the
+// ratings already centred on each user's mean out of the user statistics,
+// so a call never allocates or decodes a rating.
+public class PearsonKernel implements SimilarityMetric {
+
+    private final UserRatingStatistics statistics;
+    private final int[] rowOffsets;
+    private final int[] rowMovies;
+    private final float[] centredRatings;
+    private final double[] norms;
+
+    public PearsonKernel(final RatingStore ratings,
+                         final double[] means) {
+        this(new UserRatingStatistics(ratings, means));
+    }
+
+    public PearsonKernel(final UserRatingStatistics statistics) {
+        this.statistics = statistics;
+        this.rowOffsets = statistics.getRowOffsets();
+        this.rowMovies = statistics.getRowMovies();
+        this.centredRatings = statistics.getCentredRatings();
+        this.norms = statistics.getNorms();
+    }
+
+    @Override
+    public String getName() {
+        return SimilarityMetrics.PEARSON;
+    }
+
+    @Override
+    public double weight(final int activeIndex, final int otherIndex) {
+        if (activeIndex < 0 || otherIndex < 0
+                || activeIndex >= this.norms.length || otherIndex >= this.norms.length) {
+            return 0.0; // no shared movies
+        }
+        if (this.norms[activeIndex] == 0.0 || this.norms[otherIndex] == 0.0) {
+            return 0.0; // ignore cases where the user always rates the same
+        }
+
+        int activePosition = this.rowOffsets[activeIndex];
+        int otherPosition = this.rowOffsets[otherIndex];
+        final int activeEnd = this.rowOffsets[activeIndex + 1];
+        final int otherEnd = this.rowOffsets[otherIndex + 1];
+        if (this.rowMovies[activeEnd - 1] < this.rowMovies[otherPosition]
+                || this.rowMovies[otherEnd - 1] < this.rowMovies[activePosition]) {
+            return 0.0; // the rated movie ranges do not overlap
+        }
+
+        // we need to sum up three values: activeDiff * otherDiff, activeDiff ^ 2, otherDiff ^ 2
+        double sumNumerator = 0.0;
+        double sumActiveDiffSquared = 0.0;
+        double sumOtherDiffSquared = 0.0;
+        while (activePosition < activeEnd && otherPosition < otherEnd) {
+            final int activeMovie = this.rowMovies[activePosition];
+            final int otherMovie = this.rowMovies[otherPosition];
+
+            // branch-free steps, since whether the rows match is a coin toss
+            // the predictor cannot learn: a mismatch contributes zeros, and
+            // whichever side is behind (or both) moves on
+            final double match = activeMovie == otherMovie ? 1.0 : 0.0;
+            final double activeDiff = match * this.centredRatings[activePosition];
+            final double otherDiff = match * this.centredRatings[otherPosition];
+            sumNumerator += (activeDiff * otherDiff);
+            sumActiveDiffSquared += (activeDiff * activeDiff);
+            sumOtherDiffSquared += (otherDiff * otherDiff);
+            activePosition += activeMovie <= otherMovie ? 1 : 0;
+            otherPosition += otherMovie <= activeMovie ? 1 : 0;
+        }
+
+        final double weight = sumNumerator / Math.sqrt( sumActiveDiffSquared * sumOtherDiffSquared );
+
+        if (Double.isNaN(weight)) {
+            return 0.0; // ignore cases where the user always rates the same
+        } else if (weight < 0.0) {
+            return 0.0;
+        }
+        return weight;
+    }
+
+    @Override
+    public int getUserCount() {
+        return this.norms.length;
+    }
+
+    public double getMean(final int userIndex) {
+        return this.statistics.getMean(userIndex);
+    }
+
+    public double getNorm(final int userIndex) {
+        return this.norms[userIndex];
+    }
+
+    public UserRatingStatistics getStatistics() {
+        return this.statistics;
+    }
+}
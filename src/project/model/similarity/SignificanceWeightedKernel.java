@@ -0,0 +1,81 @@
+package project.model.similarity;
+
+import project.model.ratings.UserRatingStatistics;
+
+// Pearson correlation scaled down for pairs with few movies in common
+// (Herlocker et al.): a pair sharing n movies keeps min(n, threshold) /
+// threshold of its correlation, so a perfect match over two movies no
+// longer outranks a strong one over hundreds.
+public class SignificanceWeightedKernel implements SimilarityMetric {
+
+    public static final int DEFAULT_THRESHOLD = 50;
+
+    private final int[] rowOffsets;
+    private final int[] rowMovies;
+    private final float[] centredRatings;
+    private final double[] norms;
+    private final int threshold;
+
+    public SignificanceWeightedKernel(final UserRatingStatistics statistics,
+                                      final int threshold) {
+        if (threshold <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid significance threshold %d.", threshold));
+        }
+        this.rowOffsets = statistics.getRowOffsets();
+        this.rowMovies = statistics.getRowMovies();
+        this.centredRatings = statistics.getCentredRatings();
+        this.norms = statistics.getNorms();
+        this.threshold = threshold;
+    }
+
+    @Override
+    public String getName() {
+        return SimilarityMetrics.SIGNIFICANCE_WEIGHTED;
+    }
+
+    @Override
+    public int getUserCount() {
+        return this.norms.length;
+    }
+
+    @Override
+    public double weight(final int activeIndex, final int otherIndex) {
+        if (activeIndex < 0 || otherIndex < 0
+                || activeIndex >= this.norms.length || otherIndex >= this.norms.length) {
+            return 0.0;
+        }
+        if (this.norms[activeIndex] == 0.0 || this.norms[otherIndex] == 0.0) {
+            return 0.0;
+        }
+
+        int activePosition = this.rowOffsets[activeIndex];
+        int otherPosition = this.rowOffsets[otherIndex];
+        final int activeEnd = this.rowOffsets[activeIndex + 1];
+        final int otherEnd = this.rowOffsets[otherIndex + 1];
+        double sumNumerator = 0.0;
+        double sumActiveDiffSquared = 0.0;
+        double sumOtherDiffSquared = 0.0;
+        int shared = 0;
+        while (activePosition < activeEnd && otherPosition < otherEnd) {
+            final int activeMovie = this.rowMovies[activePosition];
+            final int otherMovie = this.rowMovies[otherPosition];
+
+            // branch-free steps, as in PearsonKernel
+            final int match = activeMovie == otherMovie ? 1 : 0;
+            final double activeDiff = match * this.centredRatings[activePosition];
+            final double otherDiff = match * this.centredRatings[otherPosition];
+            sumNumerator += activeDiff * otherDiff;
+            sumActiveDiffSquared += activeDiff * activeDiff;
+            sumOtherDiffSquared += otherDiff * otherDiff;
+            shared += match;
+            activePosition += activeMovie <= otherMovie ? 1 : 0;
+            otherPosition += otherMovie <= activeMovie ? 1 : 0;
+        }
+
+        final double weight = sumNumerator / Math.sqrt(sumActiveDiffSquared * sumOtherDiffSquared);
+        if (Double.isNaN(weight) || weight < 0.0) {
+            return 0.0;
+        }
+        return weight * Math.min(shared, this.threshold) / this.threshold;
+    }
+}
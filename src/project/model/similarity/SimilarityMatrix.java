@@ -0,0 +1,49 @@
+package project.model.similarity;
+
+public class SimilarityMatrix implements SymmetricMatrix {
+
+    public static final double DEGREE_THRESHOLD = 0.1;
+
+    private final double[][] values;
+    private final int[] degrees;
+
+    public SimilarityMatrix(final double[][] values,
+                            final int[] degrees) {
+        this.values = values;
+        this.degrees = degrees;
+    }
+
+    public SimilarityMatrix(final double[][] values) {
+        this(values, countDegrees(values));
+    }
+
+    private static int[] countDegrees(final double[][] values) {
+        final int[] degrees = new int[values.length];
+        for (int row = 0; row < values.length; row++) {
+            for (int col = 0; col < values[row].length; col++) {
+                if (values[row][col] > DEGREE_THRESHOLD) {
+                    degrees[row]++;
+                }
+            }
+        }
+        return degrees;
+    }
+
+    @Override
+    public int size() {
+        return this.values.length;
+    }
+
+    @Override
+    public double get(final int row, final int col) {
+        return this.values[row][col];
+    }
+
+    public double[][] getValues() {
+        return this.values;
+    }
+
+    public int[] getDegrees() {
+        return this.degrees;
+    }
+}
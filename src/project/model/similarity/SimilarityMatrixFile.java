@@ -0,0 +1,376 @@
+package project.model.similarity;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Binary on-disk format for similarity matrices and neighbour graphs. Every
+// file starts with a fixed 32 byte little-endian header:
+//
+//   0  int   magic ("MPSM")
+//   4  int   format version
+//   8  byte  value type (float32 or float16)
+//   9  byte  layout (packed upper triangle or sparse rows)
+//  10  byte  symmetric flag
+//  12  int   dimension n
+//  16  long  stored value count
+//
+// A packed upper triangle then holds the n(n+1)/2 values of the rows of the
+// upper triangle, diagonal included, one after another. A sparse file holds
+// int offsets[n+1], int neighbours[count], values[count] and n self weights.
+public class SimilarityMatrixFile {
+
+    public static final int MAGIC = 0x4D53504D;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 32;
+
+    public static final byte FLOAT32 = 1;
+    public static final byte FLOAT16 = 2;
+
+    public static final byte PACKED_UPPER = 1;
+    public static final byte SPARSE_ROWS = 2;
+
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+    private final byte valueType;
+    private final byte layout;
+    private final boolean symmetric;
+    private final int dimension;
+    private final long valueCount;
+
+    private SimilarityMatrixFile(final byte valueType,
+                                 final byte layout,
+                                 final boolean symmetric,
+                                 final int dimension,
+                                 final long valueCount) {
+        this.valueType = valueType;
+        this.layout = layout;
+        this.symmetric = symmetric;
+        this.dimension = dimension;
+        this.valueCount = valueCount;
+    }
+
+    public byte getValueType() {
+        return this.valueType;
+    }
+
+    public byte getLayout() {
+        return this.layout;
+    }
+
+    public boolean isSymmetric() {
+        return this.symmetric;
+    }
+
+    public int getDimension() {
+        return this.dimension;
+    }
+
+    public long getValueCount() {
+        return this.valueCount;
+    }
+
+    public static int valueSize(final byte valueType) {
+        switch (valueType) {
+        case FLOAT32:
+            return 4;
+        case FLOAT16:
+            return 2;
+        default:
+            throw new IllegalArgumentException(String.format("Unknown value type %d.", valueType));
+        }
+    }
+
+    //
+    // Deals with reading the header
+    //
+
+    public static boolean isBinary(final Path path)
+        throws IOException
+    {
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                return false;
+            }
+            final ByteBuffer buffer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(buffer, 0);
+            return buffer.getInt(0) == MAGIC;
+        }
+    }
+
+    public static SimilarityMatrixFile readHeader(final FileChannel channel)
+        throws IOException
+    {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                throw new IOException("Similarity matrix file is truncated.");
+            }
+        }
+        if (header.getInt(0) != MAGIC) {
+            throw new IOException("Not a similarity matrix file.");
+        }
+        if (header.getInt(4) != VERSION) {
+            throw new IOException(String.format("Unsupported similarity matrix file version %d.", header.getInt(4)));
+        }
+        final SimilarityMatrixFile file = new SimilarityMatrixFile(header.get(8),
+                                                                   header.get(9),
+                                                                   header.get(10) != 0,
+                                                                   header.getInt(12),
+                                                                   header.getLong(16));
+        valueSize(file.getValueType());
+        return file;
+    }
+
+    private static void writeHeader(final FileChannel channel,
+                                    final byte valueType,
+                                    final byte layout,
+                                    final int dimension,
+                                    final long valueCount)
+        throws IOException
+    {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(0, MAGIC);
+        header.putInt(4, VERSION);
+        header.put(8, valueType);
+        header.put(9, layout);
+        header.put(10, (byte) 1);
+        header.putInt(12, dimension);
+        header.putLong(16, valueCount);
+        writeFully(channel, header);
+    }
+
+    //
+    // Deals with the packed upper triangle layout
+    //
+
+    public static void writeMatrix(final Path path,
+                                   final SymmetricMatrix matrix,
+                                   final byte valueType)
+        throws IOException
+    {
+        final int n = matrix.size();
+        final long valueCount = (long) n * (n + 1) / 2;
+        try (final FileChannel channel = FileChannel.open(path,
+                                                          StandardOpenOption.CREATE,
+                                                          StandardOpenOption.TRUNCATE_EXISTING,
+                                                          StandardOpenOption.WRITE)) {
+            writeHeader(channel, valueType, PACKED_UPPER, n, valueCount);
+            final ValueWriter writer = new ValueWriter(channel, valueType);
+            for (int row = 0; row < n; row++) {
+                for (int col = row; col < n; col++) {
+                    writer.write(matrix.get(row, col));
+                }
+            }
+            writer.flush();
+        }
+    }
+
+    public static MappedSimilarityMatrix openMatrix(final Path path)
+        throws IOException
+    {
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final SimilarityMatrixFile file = readHeader(channel);
+            if (file.getLayout() != PACKED_UPPER) {
+                throw new IOException(String.format("File {%s} does not hold a packed matrix.", path));
+            }
+            final int n = file.getDimension();
+            if (file.getValueCount() != (long) n * (n + 1) / 2) {
+                throw new IOException(String.format("File {%s} has an inconsistent value count.", path));
+            }
+            // the mapping stays valid after the channel is closed
+            return new MappedSimilarityMatrix(channel, HEADER_SIZE, n, file.getValueType());
+        }
+    }
+
+    //
+    // Deals with the sparse row layout
+    //
+
+    public static void writeGraph(final Path path,
+                                  final NeighbourGraph graph,
+                                  final byte valueType)
+        throws IOException
+    {
+        final int n = graph.size();
+        try (final FileChannel channel = FileChannel.open(path,
+                                                          StandardOpenOption.CREATE,
+                                                          StandardOpenOption.TRUNCATE_EXISTING,
+                                                          StandardOpenOption.WRITE)) {
+            writeHeader(channel, valueType, SPARSE_ROWS, n, graph.getEdgeCount());
+            final ValueWriter writer = new ValueWriter(channel, FLOAT32);
+            for (final int offset : graph.getOffsets()) {
+                writer.writeInt(offset);
+            }
+            for (final int neighbour : graph.getNeighbours()) {
+                writer.writeInt(neighbour);
+            }
+            writer.flush();
+
+            final ValueWriter valueWriter = new ValueWriter(channel, valueType);
+            for (final float weight : graph.getWeights()) {
+                valueWriter.write(weight);
+            }
+            for (final double selfWeight : graph.getSelfWeights()) {
+                valueWriter.write(selfWeight);
+            }
+            valueWriter.flush();
+        }
+    }
+
+    public static NeighbourGraph readGraph(final Path path)
+        throws IOException
+    {
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final SimilarityMatrixFile file = readHeader(channel);
+            if (file.getLayout() != SPARSE_ROWS) {
+                throw new IOException(String.format("File {%s} does not hold a sparse graph.", path));
+            }
+            final int n = file.getDimension();
+            final int edgeCount = (int) file.getValueCount();
+            final int valueSize = valueSize(file.getValueType());
+            final long indexBytes = 4L * (n + 1 + edgeCount);
+            final long valueBytes = (long) valueSize * (edgeCount + n);
+
+            final MappedByteBuffer indexBuffer =
+                    channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, indexBytes);
+            indexBuffer.order(ByteOrder.LITTLE_ENDIAN);
+            final int[] offsets = new int[n + 1];
+            final int[] neighbours = new int[edgeCount];
+            indexBuffer.asIntBuffer().get(offsets).get(neighbours);
+
+            final MappedByteBuffer valueBuffer =
+                    channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + indexBytes, valueBytes);
+            valueBuffer.order(ByteOrder.LITTLE_ENDIAN);
+            final float[] weights = new float[edgeCount];
+            final double[] selfWeights = new double[n];
+            if (file.getValueType() == FLOAT32) {
+                valueBuffer.asFloatBuffer().get(weights);
+                for (int i = 0; i < n; i++) {
+                    selfWeights[i] = valueBuffer.getFloat(4 * (edgeCount + i));
+                }
+            } else {
+                for (int i = 0; i < edgeCount; i++) {
+                    weights[i] = halfToFloat(valueBuffer.getShort(2 * i));
+                }
+                for (int i = 0; i < n; i++) {
+                    selfWeights[i] = halfToFloat(valueBuffer.getShort(2 * (edgeCount + i)));
+                }
+            }
+            return new NeighbourGraph(offsets, neighbours, weights, selfWeights);
+        }
+    }
+
+    //
+    // Deals with buffered little-endian writes through the channel
+    //
+
+    private static class ValueWriter {
+
+        private final FileChannel channel;
+        private final byte valueType;
+        private final ByteBuffer buffer;
+
+        ValueWriter(final FileChannel channel, final byte valueType) {
+            this.channel = channel;
+            this.valueType = valueType;
+            this.buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        void write(final double value)
+            throws IOException
+        {
+            if (this.buffer.remaining() < 4) {
+                this.flush();
+            }
+            if (this.valueType == FLOAT32) {
+                this.buffer.putFloat((float) value);
+            } else {
+                this.buffer.putShort(floatToHalf((float) value));
+            }
+        }
+
+        void writeInt(final int value)
+            throws IOException
+        {
+            if (this.buffer.remaining() < 4) {
+                this.flush();
+            }
+            this.buffer.putInt(value);
+        }
+
+        void flush()
+            throws IOException
+        {
+            this.buffer.flip();
+            writeFully(this.channel, this.buffer);
+            this.buffer.clear();
+        }
+    }
+
+    private static void writeFully(final FileChannel channel, final ByteBuffer buffer)
+        throws IOException
+    {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    //
+    // Deals with IEEE 754 half precision values
+    //
+
+    static short floatToHalf(final float value) {
+        final int bits = Float.floatToIntBits(value);
+        final int sign = (bits >>> 16) & 0x8000;
+        final int magnitude = bits & 0x7FFFFFFF;
+
+        if (magnitude >= 0x7F800000) {
+            // infinity or nan
+            return (short) (sign | 0x7C00 | (magnitude > 0x7F800000 ? 0x200 : 0));
+        }
+        if (magnitude >= 0x477FF000) {
+            // too large, round up to infinity
+            return (short) (sign | 0x7C00);
+        }
+        if (magnitude >= 0x38800000) {
+            // normal, rounded to nearest even
+            final int rounded = magnitude + 0xFFF + ((magnitude >>> 13) & 1);
+            return (short) (sign | ((rounded - 0x38000000) >>> 13));
+        }
+        if (magnitude < 0x33000000) {
+            // too small, flush to zero
+            return (short) sign;
+        }
+
+        // subnormal
+        final int exponent = magnitude >>> 23;
+        final int mantissa = (magnitude & 0x7FFFFF) | 0x800000;
+        final int shift = 126 - exponent;
+        final int half = mantissa >>> shift;
+        final int remainder = mantissa & ((1 << shift) - 1);
+        final int halfway = 1 << (shift - 1);
+        final int rounded = (remainder > halfway || (remainder == halfway && (half & 1) != 0)) ? half + 1 : half;
+        return (short) (sign | rounded);
+    }
+
+    static float halfToFloat(final short half) {
+        final int bits = half & 0xFFFF;
+        final int sign = (bits & 0x8000) << 16;
+        final int exponent = (bits >>> 10) & 0x1F;
+        final int mantissa = bits & 0x3FF;
+
+        if (exponent == 0) {
+            final float value = mantissa * 5.9604645E-8f;
+            return sign == 0 ? value : -value;
+        }
+        if (exponent == 0x1F) {
+            return Float.intBitsToFloat(sign | 0x7F800000 | (mantissa << 13));
+        }
+        return Float.intBitsToFloat(sign | ((exponent + 112) << 23) | (mantissa << 13));
+    }
+}
@@ -0,0 +1,15 @@
+package project.model.similarity;
+
+// A weight between two users by dense user index, read from their primitive
+// rating rows. Weights lie in [0, 1], 0 meaning no usable similarity, so
+// every metric can feed the similarity matrix, the neighbour graph and the
+// spectral clustering alike. Implementations must be safe to call from many
+// threads at once, and should not allocate per call.
+public interface SimilarityMetric {
+
+    public String getName();
+
+    public int getUserCount();
+
+    public double weight(int activeIndex, int otherIndex);
+}
@@ -0,0 +1,50 @@
+package project.model.similarity;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import project.model.ratings.RatingStore;
+import project.model.ratings.UserRatingStatistics;
+
+// The built-in similarity metrics, by the names the runners take.
+public class SimilarityMetrics {
+
+    public static final String PEARSON = "pearson";
+    public static final String SIGNIFICANCE_WEIGHTED = "significance-weighted";
+    public static final String COSINE = "cosine";
+    public static final String ADJUSTED_COSINE = "adjusted-cosine";
+    public static final String JACCARD = "jaccard";
+
+    public static final List<String> NAMES = Collections.unmodifiableList(
+            Arrays.asList(PEARSON, SIGNIFICANCE_WEIGHTED, COSINE, ADJUSTED_COSINE, JACCARD));
+
+    private SimilarityMetrics() {
+    }
+
+    public static String checkName(final String name) {
+        if (!NAMES.contains(name)) {
+            throw new IllegalArgumentException(String.format(
+                    "Unknown similarity metric {%s}, expected one of %s.", name, NAMES));
+        }
+        return name;
+    }
+
+    // the statistics must have been built from the store as it is now
+    public static SimilarityMetric create(final String name,
+                                          final RatingStore ratings,
+                                          final UserRatingStatistics statistics) {
+        switch (checkName(name)) {
+        case SIGNIFICANCE_WEIGHTED:
+            return new SignificanceWeightedKernel(statistics, SignificanceWeightedKernel.DEFAULT_THRESHOLD);
+        case COSINE:
+            return new CosineKernel(ratings, statistics);
+        case ADJUSTED_COSINE:
+            return new AdjustedCosineKernel(ratings, statistics);
+        case JACCARD:
+            return new JaccardKernel(statistics);
+        default:
+            return new PearsonKernel(statistics);
+        }
+    }
+}
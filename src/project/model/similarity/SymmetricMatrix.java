@@ -0,0 +1,8 @@
+package project.model.similarity;
+
+public interface SymmetricMatrix {
+
+    public int size();
+
+    public double get(int row, int col);
+}
@@ -0,0 +1,102 @@
+package project.model.similarity;
+
+// Bounded min-heap of (id, score) pairs that keeps the k highest scores seen.
+// Backed by primitive arrays so it can be reused across rows without
+// allocating.
+public class TopKHeap {
+
+    private final int capacity;
+    private final int[] ids;
+    private final double[] scores;
+    private int size = 0;
+
+    public TopKHeap(final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid heap capacity %d.", capacity));
+        }
+        this.capacity = capacity;
+        this.ids = new int[capacity];
+        this.scores = new double[capacity];
+    }
+
+    public void clear() {
+        this.size = 0;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    public boolean offer(final int id, final double score) {
+        if (this.size < this.capacity) {
+            // sift the new entry up from the bottom
+            int child = this.size++;
+            while (child > 0) {
+                final int parent = (child - 1) >>> 1;
+                if (this.scores[parent] <= score) {
+                    break;
+                }
+                this.ids[child] = this.ids[parent];
+                this.scores[child] = this.scores[parent];
+                child = parent;
+            }
+            this.ids[child] = id;
+            this.scores[child] = score;
+            return true;
+        }
+        if (score <= this.scores[0]) {
+            return false;
+        }
+        this.siftDown(0, id, score, this.size);
+        return true;
+    }
+
+    // the lowest score kept so far; anything at or below it would be rejected
+    public double getMinScore() {
+        return this.scores[0];
+    }
+
+    // sorts the heap contents in place, highest score first; the heap must be
+    // cleared before offering to it again
+    public void sortDescending() {
+        for (int end = this.size - 1; end > 0; end--) {
+            final int id = this.ids[end];
+            final double score = this.scores[end];
+            this.ids[end] = this.ids[0];
+            this.scores[end] = this.scores[0];
+            this.siftDown(0, id, score, end);
+        }
+    }
+
+    public int getId(final int position) {
+        return this.ids[position];
+    }
+
+    public double getScore(final int position) {
+        return this.scores[position];
+    }
+
+    private void siftDown(int parent, final int id, final double score, final int end) {
+        while (true) {
+            int child = 2 * parent + 1;
+            if (child >= end) {
+                break;
+            }
+            if (child + 1 < end && this.scores[child + 1] < this.scores[child]) {
+                child++;
+            }
+            if (score <= this.scores[child]) {
+                break;
+            }
+            this.ids[parent] = this.ids[child];
+            this.scores[parent] = this.scores[child];
+            parent = child;
+        }
+        this.ids[parent] = id;
+        this.scores[parent] = score;
+    }
+}